@@ -0,0 +1,82 @@
+package org.yeastrc.proxl.xml.kojak_tpp.benchmarks;
+
+import org.yeastrc.proxl.xml.kojak_tpp.reader.KojakConfReader;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPAnalysis;
+import org.yeastrc.proxl.xml.kojak_tpp.synthetic.SyntheticDataset;
+import org.yeastrc.proxl.xml.kojak_tpp.synthetic.SyntheticDatasetGenerator;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.PepXMLUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * A synthetic Kojak/TPP data set written to a temporary directory for the benchmarks, see SyntheticDatasetGenerator.
+ * The same seed always produces the same files.
+ *
+ * @author mriffle
+ *
+ */
+public class BenchmarkData {
+
+	/**
+	 * Write a synthetic data set to a new temporary directory
+	 *
+	 * @param psmCount The number of PSMs in the pepXML file
+	 * @param proteinCount The number of proteins in the FASTA file
+	 * @param seed The seed for the random number generator
+	 * @return
+	 * @throws Exception
+	 */
+	public static BenchmarkData create( int psmCount, int proteinCount, long seed ) throws Exception {
+
+		SyntheticDatasetGenerator generator = new SyntheticDatasetGenerator();
+		generator.setPsmCount( psmCount );
+		generator.setProteinCount( proteinCount );
+		generator.setSeed( seed );
+
+		BenchmarkData data = new BenchmarkData();
+		data.directory = Files.createTempDirectory( "kojak-tpp-benchmark" ).toFile();
+		data.dataset = generator.generate( data.directory, "synthetic" );
+
+		return data;
+	}
+
+	/**
+	 * Load the analysis for the pepXML file, set up the same way as the converter does
+	 *
+	 * @param threadCount
+	 * @return
+	 * @throws Exception
+	 */
+	public TPPAnalysis loadAnalysis( int threadCount ) throws Exception {
+
+		File confFile = this.dataset.getKojakConfFile();
+
+		TPPAnalysis analysis = TPPAnalysis.loadAnalysis( this.dataset.getPepXMLFile().getAbsolutePath() );
+		analysis.setKojakConfReader( KojakConfReader.getInstance( Collections.singletonList( confFile ) ) );
+		analysis.setDecoyIdentifiers( new ArrayList<>( analysis.getKojakConfReader().getDecoyPrefixes() ) );
+		analysis.setFastaFile( this.dataset.getFastaFile() );
+		analysis.setKojakConfFilePaths( Collections.singletonList( confFile ) );
+		analysis.setThreadCount( threadCount );
+		analysis.setHasIProphetData( PepXMLUtils.getHasIProphetData( analysis.getAnalysis() ) );
+
+		return analysis;
+	}
+
+	/**
+	 * Remove the files written for this data set
+	 */
+	public void delete() {
+		this.dataset.delete();
+		this.directory.delete();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private File directory;
+	private SyntheticDataset dataset;
+}
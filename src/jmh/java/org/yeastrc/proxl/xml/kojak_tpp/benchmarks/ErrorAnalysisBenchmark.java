@@ -0,0 +1,74 @@
+package org.yeastrc.proxl.xml.kojak_tpp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPReportedPeptide;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPErrorAnalysis;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPErrorAnalyzer;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPResultsParser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark building the FDR lookup from the PSM probabilities, and looking up the FDR for every PSM
+ *
+ * @author mriffle
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ErrorAnalysisBenchmark {
+
+	@Param( { "10000" } )
+	public int psmCount;
+
+	@Param( { "2000" } )
+	public int proteinCount;
+
+	private Map<TPPReportedPeptide, Collection<TPPResult>> results;
+	private TPPErrorAnalysis errorAnalysis;
+	private List<BigDecimal> scores;
+
+	@Setup( Level.Trial )
+	public void setUp() throws Exception {
+
+		BenchmarkData data = BenchmarkData.create( psmCount, proteinCount, 1 );
+
+		try {
+			this.results = TPPResultsParser.getInstance().getResultsFromAnalysis( data.loadAnalysis( 1 ) );
+		} finally {
+			data.delete();
+		}
+
+		this.errorAnalysis = TPPErrorAnalyzer.performPeptideProphetAnalysis( this.results, TPPErrorAnalyzer.Type.PEPTIDEPROPHET );
+
+		this.scores = new ArrayList<>();
+		for( Collection<TPPResult> psms : this.results.values() ) {
+			for( TPPResult psm : psms ) {
+				this.scores.add( psm.getPeptideProphetScore() );
+			}
+		}
+	}
+
+	@Benchmark
+	public TPPErrorAnalysis performPeptideProphetAnalysis() {
+		return TPPErrorAnalyzer.performPeptideProphetAnalysis( this.results, TPPErrorAnalyzer.Type.PEPTIDEPROPHET );
+	}
+
+	@Benchmark
+	public void getError( Blackhole blackhole ) throws Exception {
+		for( BigDecimal score : this.scores ) {
+			blackhole.consume( this.errorAnalysis.getError( score ) );
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package org.yeastrc.proxl.xml.kojak_tpp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yeastrc.proxl.xml.kojak_tpp.builder.MatchedProteinsBuilder;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPReportedPeptide;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPAnalysis;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPResultsParser;
+import org.yeastrc.proxl_import.api.xml_dto.MatchedProteins;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark finding the FASTA proteins matched by the reported peptides, as done when writing the
+ * matched proteins section of the ProXL XML
+ *
+ * @author mriffle
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ProteinMatchingBenchmark {
+
+	@Param( { "10000" } )
+	public int psmCount;
+
+	@Param( { "2000" } )
+	public int proteinCount;
+
+	@Param( { "1", "4" } )
+	public int threadCount;
+
+	private BenchmarkData data;
+	private TPPAnalysis analysis;
+	private Collection<String> peptides;
+
+	@Setup( Level.Trial )
+	public void setUp() throws Exception {
+
+		this.data = BenchmarkData.create( psmCount, proteinCount, 1 );
+		this.analysis = this.data.loadAnalysis( threadCount );
+
+		this.peptides = new HashSet<>();
+		for( TPPReportedPeptide reportedPeptide : TPPResultsParser.getInstance().getResultsFromAnalysis( this.analysis ).keySet() ) {
+			this.peptides.add( reportedPeptide.getPeptide1().getSequence() );
+			if( reportedPeptide.getPeptide2() != null )
+				this.peptides.add( reportedPeptide.getPeptide2().getSequence() );
+		}
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() {
+		this.data.delete();
+	}
+
+	@Benchmark
+	public MatchedProteins getMatchedProteins() throws Exception {
+		return MatchedProteinsBuilder.getInstance().getMatchedProteins(
+				this.analysis.getFastaFile(),
+				this.peptides,
+				this.analysis.getDecoyIdentifiers(),
+				this.analysis.getKojakConfReader().getFilter15N(),
+				threadCount
+		);
+	}
+}
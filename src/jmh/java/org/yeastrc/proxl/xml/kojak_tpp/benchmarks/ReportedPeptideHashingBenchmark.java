@@ -0,0 +1,101 @@
+package org.yeastrc.proxl.xml.kojak_tpp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPPeptide;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPReportedPeptide;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPResultsParser;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark grouping PSMs by reported peptide in a HashMap, as the results parser does. New reported peptide
+ * objects are built for every PSM in each invocation, so the cost of computing hash codes and testing equality
+ * is included, not just the cost of reading cached values.
+ *
+ * @author mriffle
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ReportedPeptideHashingBenchmark {
+
+	@Param( { "10000" } )
+	public int psmCount;
+
+	@Param( { "2000" } )
+	public int proteinCount;
+
+	private List<TPPReportedPeptide> psmReportedPeptides;
+
+	@Setup( Level.Trial )
+	public void setUp() throws Exception {
+
+		BenchmarkData data = BenchmarkData.create( psmCount, proteinCount, 1 );
+		Map<TPPReportedPeptide, Collection<TPPResult>> results;
+
+		try {
+			results = TPPResultsParser.getInstance().getResultsFromAnalysis( data.loadAnalysis( 1 ) );
+		} finally {
+			data.delete();
+		}
+
+		// one reported peptide per PSM, in a stable order
+		this.psmReportedPeptides = new ArrayList<>();
+		for( Map.Entry<TPPReportedPeptide, Collection<TPPResult>> entry : results.entrySet() ) {
+			for( int i = 0; i < entry.getValue().size(); i++ ) {
+				this.psmReportedPeptides.add( entry.getKey() );
+			}
+		}
+		Collections.shuffle( this.psmReportedPeptides, new Random( 1 ) );
+	}
+
+	@Benchmark
+	public Map<TPPReportedPeptide, Collection<Integer>> groupByReportedPeptide() {
+
+		Map<TPPReportedPeptide, Collection<Integer>> groups = new HashMap<>();
+
+		for( int i = 0; i < this.psmReportedPeptides.size(); i++ ) {
+
+			TPPReportedPeptide reportedPeptide = copyReportedPeptide( this.psmReportedPeptides.get( i ) );
+
+			if( !groups.containsKey( reportedPeptide ) )
+				groups.put( reportedPeptide, new ArrayList<>() );
+
+			groups.get( reportedPeptide ).add( i );
+		}
+
+		return groups;
+	}
+
+	private static TPPReportedPeptide copyReportedPeptide( TPPReportedPeptide reportedPeptide ) {
+
+		TPPReportedPeptide copy = new TPPReportedPeptide();
+		copy.setType( reportedPeptide.getType() );
+		copy.setPeptide1( copyPeptide( reportedPeptide.getPeptide1() ) );
+		copy.setPeptide2( copyPeptide( reportedPeptide.getPeptide2() ) );
+		copy.setPosition1( reportedPeptide.getPosition1() );
+		copy.setPosition2( reportedPeptide.getPosition2() );
+
+		return copy;
+	}
+
+	private static TPPPeptide copyPeptide( TPPPeptide peptide ) {
+
+		if( peptide == null )
+			return null;
+
+		TPPPeptide copy = new TPPPeptide();
+		copy.setSequence( peptide.getSequence() );
+		copy.setModifications( peptide.getModifications() );
+		copy.setIsotopeLabel( peptide.getIsotopeLabel() );
+		copy.setTargetProteinIds( peptide.getTargetProteinIds() );
+
+		return copy;
+	}
+}
@@ -0,0 +1,51 @@
+package org.yeastrc.proxl.xml.kojak_tpp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPReportedPeptide;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPAnalysis;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPResultsParser;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark reading the PSMs out of a synthetic pepXML file with TPPResultsParser
+ *
+ * @author mriffle
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ResultsParserBenchmark {
+
+	@Param( { "10000" } )
+	public int psmCount;
+
+	@Param( { "2000" } )
+	public int proteinCount;
+
+	private BenchmarkData data;
+	private TPPAnalysis analysis;
+
+	@Setup( Level.Trial )
+	public void setUp() throws Exception {
+		this.data = BenchmarkData.create( psmCount, proteinCount, 1 );
+		this.analysis = this.data.loadAnalysis( 1 );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() {
+		this.data.delete();
+	}
+
+	@Benchmark
+	public Map<TPPReportedPeptide, Collection<TPPResult>> getResultsFromAnalysis() throws Exception {
+		return TPPResultsParser.getInstance().getResultsFromAnalysis( this.analysis );
+	}
+}
@@ -0,0 +1,67 @@
+package org.yeastrc.proxl.xml.kojak_tpp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.yeastrc.proxl.xml.kojak_tpp.builder.XMLBuilder;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPReportedPeptide;
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPAnalysis;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPErrorAnalysis;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPErrorAnalyzer;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPResultsParser;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark building and writing the ProXL XML file for already parsed and analyzed results
+ *
+ * @author mriffle
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class XMLBuilderBenchmark {
+
+	@Param( { "10000" } )
+	public int psmCount;
+
+	@Param( { "2000" } )
+	public int proteinCount;
+
+	private BenchmarkData data;
+	private TPPAnalysis analysis;
+	private Map<TPPReportedPeptide, Collection<TPPResult>> results;
+	private TPPErrorAnalysis pProphetErrorAnalysis;
+	private TPPErrorAnalysis iProphetErrorAnalysis;
+	private File outfile;
+
+	@Setup( Level.Trial )
+	public void setUp() throws Exception {
+
+		this.data = BenchmarkData.create( psmCount, proteinCount, 1 );
+		this.analysis = this.data.loadAnalysis( 1 );
+		this.results = TPPResultsParser.getInstance().getResultsFromAnalysis( this.analysis );
+
+		this.pProphetErrorAnalysis = TPPErrorAnalyzer.performPeptideProphetAnalysis( this.results, TPPErrorAnalyzer.Type.PEPTIDEPROPHET );
+		this.iProphetErrorAnalysis = TPPErrorAnalyzer.performPeptideProphetAnalysis( this.results, TPPErrorAnalyzer.Type.INTERPROPHET );
+
+		this.outfile = new File( this.data.getDirectory(), "synthetic.proxl.xml" );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() {
+		this.outfile.delete();
+		this.data.delete();
+	}
+
+	@Benchmark
+	public void buildAndSaveXML() throws Exception {
+		new XMLBuilder().buildAndSaveXML( this.analysis, this.results, this.pProphetErrorAnalysis, this.iProphetErrorAnalysis, this.outfile );
+	}
+}
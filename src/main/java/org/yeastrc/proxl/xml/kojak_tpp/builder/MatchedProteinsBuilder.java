@@ -4,6 +4,10 @@ import org.yeastrc.proteomics.fasta.FASTAEntry;
 import org.yeastrc.proteomics.fasta.FASTAFileParser;
 import org.yeastrc.proteomics.fasta.FASTAFileParserFactory;
 import org.yeastrc.proteomics.fasta.FASTAHeader;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.FastaIndex;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.AhoCorasickMatcher;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.CompressionUtils;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.OrderedChunkExecutor;
 import org.yeastrc.proxl_import.api.xml_dto.MatchedProteins;
 import org.yeastrc.proxl_import.api.xml_dto.Protein;
 import org.yeastrc.proxl_import.api.xml_dto.ProteinAnnotation;
@@ -11,9 +15,12 @@ import org.yeastrc.proxl_import.api.xml_dto.ProxlInput;
 
 import java.io.File;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -29,6 +36,13 @@ import java.util.Map;
 public class MatchedProteinsBuilder {
 
 	public static MatchedProteinsBuilder getInstance() { return new MatchedProteinsBuilder(); }
+
+	/**
+	 * The number of FASTA entries matched at a time by a worker thread when matching in parallel
+	 */
+	private static final int FASTA_CHUNK_SIZE = 500;
+
+	private int fastaEntryCount = 0;
 	
 	/**
 	 * Add all target proteins from the FASTA file that contain any of the peptides found in the experiment
@@ -36,9 +50,82 @@ public class MatchedProteinsBuilder {
 	 * 
 	 * @param limelightInputRoot
 	 * @param fastaFile
+	 * @param threadCount The number of threads to use to scan the FASTA file
 	 * @throws Exception
 	 */
-	public void buildMatchedProteins(ProxlInput limelightInputRoot, File fastaFile, Collection<String> reportedPeptides, Collection<String> decoyPrefixes, String isotopeLabel ) throws Exception {
+	public void buildMatchedProteins(ProxlInput limelightInputRoot, File fastaFile, Collection<String> reportedPeptides, Collection<String> decoyPrefixes, String isotopeLabel, int threadCount ) throws Exception {
+		
+		limelightInputRoot.setMatchedProteins( getMatchedProteins( fastaFile, reportedPeptides, decoyPrefixes, isotopeLabel, threadCount ) );
+		
+	}
+	
+	/**
+	 * Get the matched proteins section of the limelight xml document, containing all target proteins from the
+	 * FASTA file that contain any of the peptides found in the experiment.
+	 * 
+	 * @param fastaFile
+	 * @param reportedPeptides
+	 * @param decoyPrefixes
+	 * @param isotopeLabel
+	 * @param threadCount The number of threads to use to scan the FASTA file
+	 * @return
+	 * @throws Exception
+	 */
+	public MatchedProteins getMatchedProteins(File fastaFile, Collection<String> reportedPeptides, Collection<String> decoyPrefixes, String isotopeLabel, int threadCount ) throws Exception {
+		
+		return getMatchedProteins( fastaFile, null, null, reportedPeptides, decoyPrefixes, isotopeLabel, threadCount );
+	}
+	
+	/**
+	 * Get the matched proteins section of the limelight xml document, containing all target proteins from the
+	 * FASTA index that contain any of the peptides found in the experiment. The result is identical to using
+	 * the FASTA file the index was built from.
+	 * 
+	 * @param fastaIndex
+	 * @param reportedPeptides
+	 * @param decoyPrefixes
+	 * @param isotopeLabel
+	 * @param threadCount The number of threads to use to scan the FASTA index
+	 * @return
+	 * @throws Exception
+	 */
+	public MatchedProteins getMatchedProteins(FastaIndex fastaIndex, Collection<String> reportedPeptides, Collection<String> decoyPrefixes, String isotopeLabel, int threadCount ) throws Exception {
+		
+		return getMatchedProteins( null, fastaIndex, null, reportedPeptides, decoyPrefixes, isotopeLabel, threadCount );
+	}
+	
+	/**
+	 * Get the matched proteins section of the limelight xml document, containing all target proteins from the
+	 * supplied FASTA entries that contain any of the peptides found in the experiment. The result is identical
+	 * to using the whole FASTA file, as long as the entries include every entry of the FASTA file that
+	 * contains any of the peptides.
+	 * 
+	 * @param fastaEntries The FASTA entries, in the order they are in the FASTA file
+	 * @param reportedPeptides
+	 * @param decoyPrefixes
+	 * @param isotopeLabel
+	 * @return
+	 * @throws Exception
+	 */
+	public MatchedProteins getMatchedProteins(List<FASTAEntry> fastaEntries, Collection<String> reportedPeptides, Collection<String> decoyPrefixes, String isotopeLabel ) throws Exception {
+		
+		return getMatchedProteins( null, null, fastaEntries, reportedPeptides, decoyPrefixes, isotopeLabel, 1 );
+	}
+	
+	/**
+	 * Get the matched proteins section from the FASTA file, the FASTA index or a list of FASTA entries
+	 * 
+	 * @param fastaFile
+	 * @param fastaIndex If not null, used instead of fastaFile
+	 * @param fastaEntries If not null, used instead of fastaFile
+	 * @param reportedPeptides
+	 * @param decoyPrefixes
+	 * @param isotopeLabel
+	 * @param threadCount
+	 * @return
+	 * @throws Exception
+	 */
+	private MatchedProteins getMatchedProteins(File fastaFile, FastaIndex fastaIndex, List<FASTAEntry> fastaEntries, Collection<String> reportedPeptides, Collection<String> decoyPrefixes, String isotopeLabel, int threadCount ) throws Exception {
 		
 		System.err.print( " Matching peptides to proteins..." );
 
@@ -46,14 +133,23 @@ public class MatchedProteinsBuilder {
 		Collection<PeptideObject> nakedPeptideObjects = getNakedPeptideObjectsForReportedPeptides( reportedPeptides );
 		
 		// find the proteins matched by any of these peptides
-		Map<String, Collection<FastaProteinAnnotation>> proteins = getProteins( nakedPeptideObjects, fastaFile, decoyPrefixes );
+		Map<String, Collection<FastaProteinAnnotation>> proteins = getProteins( nakedPeptideObjects, fastaFile, fastaIndex, fastaEntries, decoyPrefixes, threadCount );
 		
-		// create the XML and add to root element
-		buildAndAddMatchedProteinsToXML( limelightInputRoot, proteins, isotopeLabel );
+		// create the XML
+		return buildMatchedProteinsXML( proteins, isotopeLabel );
 		
 	}
 	
 	
+	/**
+	 * Get the number of FASTA entries tested by the last call to getMatchedProteins()
+	 * 
+	 * @return
+	 */
+	public int getFastaEntryCount() {
+		return this.fastaEntryCount;
+	}
+	
 	private Collection<PeptideObject> getNakedPeptideObjectsForReportedPeptides(Collection< String > percolatorPeptides ) {
 		
 		Collection<PeptideObject> nakedPeptideObjects = new HashSet<>();
@@ -79,16 +175,15 @@ public class MatchedProteinsBuilder {
 	
 	
 	/**
-	 * Do the work of building the matched peptides element and adding to limelight xml root
+	 * Do the work of building the matched peptides element
 	 * 
-	 * @param limelightInputRoot
 	 * @param proteins
+	 * @return
 	 * @throws Exception
 	 */
-	private void buildAndAddMatchedProteinsToXML( ProxlInput limelightInputRoot, Map<String, Collection<FastaProteinAnnotation>> proteins, String isotopeLabel ) throws Exception {
+	private MatchedProteins buildMatchedProteinsXML( Map<String, Collection<FastaProteinAnnotation>> proteins, String isotopeLabel ) throws Exception {
 		
 		MatchedProteins xmlMatchedProteins = new MatchedProteins();
-		limelightInputRoot.setMatchedProteins( xmlMatchedProteins );
 		
 		for( String sequence : proteins.keySet() ) {
 			
@@ -156,6 +251,8 @@ public class MatchedProteinsBuilder {
 			}
 
 		}
+		
+		return xmlMatchedProteins;
 	}
 
 
@@ -165,79 +262,71 @@ public class MatchedProteinsBuilder {
 	 *
 	 * @param nakedPeptideObjects
 	 * @param fastaFile
+	 * @param fastaIndex If not null, the sequences and headers are read from this instead of fastaFile
+	 * @param fastaEntries If not null, these entries are matched instead of the entries in fastaFile
 	 * @param decoyPrefixes
+	 * @param threadCount
 	 * @return
 	 * @throws Exception
 	 */
-	private Map<String, Collection<FastaProteinAnnotation>> getProteins( Collection<PeptideObject> nakedPeptideObjects, File fastaFile, Collection<String> decoyPrefixes ) throws Exception {
+	private Map<String, Collection<FastaProteinAnnotation>> getProteins( Collection<PeptideObject> nakedPeptideObjects, File fastaFile, FastaIndex fastaIndex, List<FASTAEntry> fastaEntries, Collection<String> decoyPrefixes, int threadCount ) throws Exception {
 		
 		Map<String, Collection<FastaProteinAnnotation>> proteinAnnotations = new HashMap<>();
 
-		try ( FASTAFileParser parser = FASTAFileParserFactory.getInstance().getFASTAFileParser( fastaFile ) ) {
+		// build a single automaton of all distinct leucine->isoleucine normalized peptide sequences, so that
+		// each FASTA sequence is searched for all peptides in one pass
+		Map<String, Integer> searchSequenceIndices = new HashMap<>();
+		List<String> searchSequences = new ArrayList<>();
+
+		for( PeptideObject nakedPeptideObject : nakedPeptideObjects ) {
+			nakedPeptideObject.setSearchSequence( nakedPeptideObject.getPeptideSequence().replace( 'L', 'I' ) );
+
+			if( !searchSequenceIndices.containsKey( nakedPeptideObject.getSearchSequence() ) ) {
+				searchSequenceIndices.put( nakedPeptideObject.getSearchSequence(), searchSequences.size() );
+				searchSequences.add( nakedPeptideObject.getSearchSequence() );
+			}
+		}
+
+		AhoCorasickMatcher peptideMatcher = new AhoCorasickMatcher( searchSequences );
+		boolean[] foundSearchSequences = new boolean[ searchSequences.size() ];
+
+		try ( FASTAFileParser parser = ( fastaIndex != null || fastaEntries != null ) ? null : FASTAFileParserFactory.getInstance().getFASTAFileParser( CompressionUtils.getUncompressedFile( fastaFile ) ) ) {
 			
-			int count = 0;
 			System.err.print( "\n" );
 
-			for (FASTAEntry entry = parser.getNextEntry(); entry != null; entry = parser.getNextEntry() ) {
-
-				count++;
-				boolean foundPeptideForFASTAEntry = false;
+			if( fastaIndex != null ) {
+				matchIndexedFastaEntries( fastaIndex, peptideMatcher, decoyPrefixes, proteinAnnotations, foundSearchSequences, threadCount );
+			} else if( fastaEntries != null ) {
 				
-				// skip this if it's a decoy
-				if( fastaEntryIsDecoy( entry, decoyPrefixes ) ) {
-
-					continue;
+				for( FASTAEntry entry : fastaEntries ) {
+					matchFastaEntry( entry, peptideMatcher, decoyPrefixes, proteinAnnotations, foundSearchSequences );
 				}
 				
-				// use this sequence to determine if it contains a peptide sequence
-				String fastaSequence = entry.getSequence().replaceAll( "L", "I" );
+				System.err.print( "\tTested " + fastaEntries.size() + " FASTA entries...\r" );
 				
-				System.err.print( "\tTested " + count + " FASTA entries...\r" );
+				this.fastaEntryCount = fastaEntries.size();
 				
-				for( PeptideObject nakedPeptideObject : nakedPeptideObjects ) {
-					
-					// optimization: if we already know we're including this protein and
-					// we have already mapped this peptide to any protein, we can skip
-					// this peptide...
-					if( foundPeptideForFASTAEntry && nakedPeptideObject.foundMatchingProtein ) {
-						continue;
-					}
-					
-					if( nakedPeptideObject.getSearchSequence() == null ) {
-						nakedPeptideObject.setSearchSequence( nakedPeptideObject.getPeptideSequence().replaceAll( "L", "I" ) );
-					}
-					
-					String peptideSearchSequence = nakedPeptideObject.getSearchSequence();
+			} else if( threadCount > 1 ) {
+				matchFastaEntriesInParallel( parser, peptideMatcher, decoyPrefixes, proteinAnnotations, foundSearchSequences, threadCount );
+			} else {
+				
+				int count = 0;
+				
+				for (FASTAEntry entry = parser.getNextEntry(); entry != null; entry = parser.getNextEntry() ) {
+	
+					count++;
+					System.err.print( "\tTested " + count + " FASTA entries...\r" );
 					
+					matchFastaEntry( entry, peptideMatcher, decoyPrefixes, proteinAnnotations, foundSearchSequences );
 					
-					if( fastaSequence.contains( peptideSearchSequence ) ) {
-						
-						// this protein has a matching peptide
-						
-						if( !foundPeptideForFASTAEntry ) {
-							for( FASTAHeader header : entry.getHeaders() ) {
-								
-								if( !proteinAnnotations.containsKey( entry.getSequence() ) )
-									proteinAnnotations.put( entry.getSequence(), new HashSet<>() );
-								
-								FastaProteinAnnotation anno = new FastaProteinAnnotation();
-								anno.setName( header.getName() );
-								anno.setDescription( header.getDescription() );
-			            		
-								proteinAnnotations.get( entry.getSequence() ).add( anno );
-	
-							}//end iterating over fasta headers
-							
-							foundPeptideForFASTAEntry = true;
-						}
-						
-						nakedPeptideObject.setFoundMatchingProtein( true );
-						
-					} // end if statement for protein containing peptide
-
-				} // end iterating over peptide sequences
+				}// end iterating over fasta entries
 				
-			}// end iterating over fasta entries
+				this.fastaEntryCount = count;
+			}
+			
+			for( PeptideObject nakedPeptideObject : nakedPeptideObjects ) {
+				nakedPeptideObject.setFoundMatchingProtein( foundSearchSequences[ searchSequenceIndices.get( nakedPeptideObject.getSearchSequence() ) ] );
+			}
 			
 			if( nakedPeptideObjectsContainsUnmatchedPeptides( nakedPeptideObjects ) ) {
 				System.err.println( "\nError: Not all peptides in the results could be matched to a protein in the FASTA file." );
@@ -257,25 +346,282 @@ public class MatchedProteinsBuilder {
 		return proteinAnnotations;
 	}
 
-	private boolean fastaEntryIsDecoy(FASTAEntry fastaEntry, Collection<String> decoyPrefixes ) {
-		
-		if( decoyPrefixes == null ) {
-			return false;
+	/**
+	 * Read the FASTA file in chunks of entries and match each chunk against the peptides on a pool of
+	 * worker threads. Each chunk collects its matches into its own map and found array, which are merged
+	 * into proteinAnnotations and foundSearchSequences in the order the chunks were read. The result is
+	 * identical to matching every entry serially.
+	 *
+	 * @param parser
+	 * @param peptideMatcher
+	 * @param decoyPrefixes
+	 * @param proteinAnnotations
+	 * @param foundSearchSequences
+	 * @param threadCount
+	 * @throws Exception
+	 */
+	private void matchFastaEntriesInParallel( FASTAFileParser parser,
+											  AhoCorasickMatcher peptideMatcher,
+											  Collection<String> decoyPrefixes,
+											  Map<String, Collection<FastaProteinAnnotation>> proteinAnnotations,
+											  boolean[] foundSearchSequences,
+											  int threadCount ) throws Exception {
+
+		int count = 0;
+
+		try ( OrderedChunkExecutor<FASTAEntry, FastaChunkResult> chunkExecutor = new OrderedChunkExecutor<>( threadCount, FASTA_CHUNK_SIZE,
+				chunk -> matchFastaChunk( chunk, peptideMatcher, decoyPrefixes ),
+				chunkResult -> mergeFastaChunkResult( chunkResult, proteinAnnotations, foundSearchSequences ) ) ) {
+
+			for (FASTAEntry entry = parser.getNextEntry(); entry != null; entry = parser.getNextEntry() ) {
+
+				count++;
+				chunkExecutor.add( entry );
+
+				if( count % FASTA_CHUNK_SIZE == 0 )
+					System.err.print( "\tTested " + count + " FASTA entries...\r" );
+			}
+
+			if( count % FASTA_CHUNK_SIZE != 0 )
+				System.err.print( "\tTested " + count + " FASTA entries...\r" );
+
+			chunkExecutor.finish();
 		}
 
-		for( FASTAHeader header : fastaEntry.getHeaders() ) {
-			String fastaHeaderName = header.getName();
+		this.fastaEntryCount = count;
+	}
+
+	/**
+	 * Match every entry in the FASTA index against the peptides. If more than one thread is used, consecutive
+	 * ranges of entries are matched on a pool of worker threads and merged in order, as in
+	 * matchFastaEntriesInParallel().
+	 *
+	 * @param fastaIndex
+	 * @param peptideMatcher
+	 * @param decoyPrefixes
+	 * @param proteinAnnotations
+	 * @param foundSearchSequences
+	 * @param threadCount
+	 * @throws Exception
+	 */
+	private void matchIndexedFastaEntries( FastaIndex fastaIndex,
+										   AhoCorasickMatcher peptideMatcher,
+										   Collection<String> decoyPrefixes,
+										   Map<String, Collection<FastaProteinAnnotation>> proteinAnnotations,
+										   boolean[] foundSearchSequences,
+										   int threadCount ) throws Exception {
+
+		int entryCount = fastaIndex.getEntryCount();
 
-			boolean startsWithADecoyPrefix = false;
+		if( threadCount < 2 ) {
 
-			for( String decoyPrefix : decoyPrefixes ) {
-				if (fastaHeaderName.startsWith(decoyPrefix)) {
-					startsWithADecoyPrefix = true;
-					break;
+			for( int entry = 0; entry < entryCount; entry++ ) {
+
+				if( entry % FASTA_CHUNK_SIZE == 0 )
+					System.err.print( "\tTested " + entry + " FASTA entries...\r" );
+
+				matchIndexedFastaEntry( fastaIndex, entry, peptideMatcher, decoyPrefixes, proteinAnnotations, foundSearchSequences );
+			}
+
+		} else {
+
+			try ( OrderedChunkExecutor<Integer, FastaChunkResult> chunkExecutor = new OrderedChunkExecutor<>( threadCount, FASTA_CHUNK_SIZE,
+					chunk -> matchIndexedFastaChunk( fastaIndex, chunk, peptideMatcher, decoyPrefixes ),
+					chunkResult -> mergeFastaChunkResult( chunkResult, proteinAnnotations, foundSearchSequences ) ) ) {
+
+				for( int entry = 0; entry < entryCount; entry++ ) {
+
+					if( entry % FASTA_CHUNK_SIZE == 0 )
+						System.err.print( "\tTested " + entry + " FASTA entries...\r" );
+
+					chunkExecutor.add( entry );
 				}
+
+				chunkExecutor.finish();
+			}
+		}
+
+		System.err.print( "\tTested " + entryCount + " FASTA entries...\r" );
+
+		this.fastaEntryCount = entryCount;
+	}
+
+	/**
+	 * Match a chunk of FASTA entries against the peptides, collecting the matches into a result of their own
+	 *
+	 * @param chunk
+	 * @param peptideMatcher
+	 * @param decoyPrefixes
+	 * @return
+	 */
+	private FastaChunkResult matchFastaChunk( List<FASTAEntry> chunk, AhoCorasickMatcher peptideMatcher, Collection<String> decoyPrefixes ) {
+
+		FastaChunkResult chunkResult = new FastaChunkResult();
+		chunkResult.proteinAnnotations = new LinkedHashMap<>();
+		chunkResult.foundSearchSequences = new boolean[ peptideMatcher.getPatternCount() ];
+
+		for( FASTAEntry entry : chunk ) {
+			matchFastaEntry( entry, peptideMatcher, decoyPrefixes, chunkResult.proteinAnnotations, chunkResult.foundSearchSequences );
+		}
+
+		return chunkResult;
+	}
+
+	/**
+	 * Match a chunk of the entries in the FASTA index against the peptides, collecting the matches into a result of
+	 * their own
+	 *
+	 * @param fastaIndex
+	 * @param chunk The numbers of the entries in the index
+	 * @param peptideMatcher
+	 * @param decoyPrefixes
+	 * @return
+	 * @throws Exception
+	 */
+	private FastaChunkResult matchIndexedFastaChunk( FastaIndex fastaIndex, List<Integer> chunk, AhoCorasickMatcher peptideMatcher, Collection<String> decoyPrefixes ) throws Exception {
+
+		FastaChunkResult chunkResult = new FastaChunkResult();
+		chunkResult.proteinAnnotations = new LinkedHashMap<>();
+		chunkResult.foundSearchSequences = new boolean[ peptideMatcher.getPatternCount() ];
+
+		for( int entry : chunk ) {
+			matchIndexedFastaEntry( fastaIndex, entry, peptideMatcher, decoyPrefixes, chunkResult.proteinAnnotations, chunkResult.foundSearchSequences );
+		}
+
+		return chunkResult;
+	}
+
+	/**
+	 * Merge the matches found in a single chunk of FASTA entries into the overall results
+	 *
+	 * @param chunkResult
+	 * @param proteinAnnotations
+	 * @param foundSearchSequences
+	 */
+	private void mergeFastaChunkResult( FastaChunkResult chunkResult, Map<String, Collection<FastaProteinAnnotation>> proteinAnnotations, boolean[] foundSearchSequences ) {
+
+		for( Map.Entry<String, Collection<FastaProteinAnnotation>> chunkEntry : chunkResult.proteinAnnotations.entrySet() ) {
+
+			if( !proteinAnnotations.containsKey( chunkEntry.getKey() ) )
+				proteinAnnotations.put( chunkEntry.getKey(), new HashSet<>() );
+
+			proteinAnnotations.get( chunkEntry.getKey() ).addAll( chunkEntry.getValue() );
+		}
+
+		for( int i = 0; i < foundSearchSequences.length; i++ ) {
+			if( chunkResult.foundSearchSequences[ i ] )
+				foundSearchSequences[ i ] = true;
+		}
+	}
+
+	/**
+	 * Test whether the given FASTA entry contains any of the peptides. If so, add its headers to proteinAnnotations.
+	 * Decoy entries are skipped.
+	 *
+	 * @param entry
+	 * @param peptideMatcher
+	 * @param decoyPrefixes
+	 * @param proteinAnnotations
+	 * @param foundSearchSequences
+	 */
+	private void matchFastaEntry( FASTAEntry entry,
+								  AhoCorasickMatcher peptideMatcher,
+								  Collection<String> decoyPrefixes,
+								  Map<String, Collection<FastaProteinAnnotation>> proteinAnnotations,
+								  boolean[] foundSearchSequences ) {
+
+		// skip this if it's a decoy
+		if( fastaEntryIsDecoy( entry, decoyPrefixes ) ) {
+			return;
+		}
+
+		// use this sequence to determine if it contains a peptide sequence
+		String fastaSequence = entry.getSequence().replace( 'L', 'I' );
+
+		if( peptideMatcher.findPatterns( fastaSequence, foundSearchSequences ) ) {
+
+			// this protein has a matching peptide
+			for( FASTAHeader header : entry.getHeaders() ) {
+
+				if( !proteinAnnotations.containsKey( entry.getSequence() ) )
+					proteinAnnotations.put( entry.getSequence(), new HashSet<>() );
+
+				FastaProteinAnnotation anno = new FastaProteinAnnotation();
+				anno.setName( header.getName() );
+				anno.setDescription( header.getDescription() );
+
+				proteinAnnotations.get( entry.getSequence() ).add( anno );
+
+			}//end iterating over fasta headers
+
+		} // end if statement for protein containing peptide
+	}
+
+	/**
+	 * Test whether the given entry of the FASTA index contains any of the peptides. If so, add its headers to
+	 * proteinAnnotations. Decoy entries are skipped. This is matchFastaEntry() for an indexed FASTA entry.
+	 *
+	 * @param fastaIndex
+	 * @param entry
+	 * @param peptideMatcher
+	 * @param decoyPrefixes
+	 * @param proteinAnnotations
+	 * @param foundSearchSequences
+	 */
+	private void matchIndexedFastaEntry( FastaIndex fastaIndex,
+										 int entry,
+										 AhoCorasickMatcher peptideMatcher,
+										 Collection<String> decoyPrefixes,
+										 Map<String, Collection<FastaProteinAnnotation>> proteinAnnotations,
+										 boolean[] foundSearchSequences ) {
+
+		int firstHeader = fastaIndex.getFirstHeader( entry );
+		int endHeader = fastaIndex.getEndHeader( entry );
+
+		// skip this if it's a decoy
+		if( decoyPrefixes != null ) {
+
+			boolean isDecoy = true;
+
+			for( int header = firstHeader; header < endHeader && isDecoy; header++ ) {
+				isDecoy = headerNameIsDecoy( fastaIndex.getHeaderName( header ), decoyPrefixes );
+			}
+
+			if( isDecoy ) {
+				return;
 			}
+		}
+
+		// the indexed sequence has already had its leucines replaced with isoleucines
+		if( fastaIndex.findPatternsInNormalizedSequence( entry, peptideMatcher, foundSearchSequences ) ) {
+
+			String sequence = fastaIndex.getSequence( entry );
+
+			// this protein has a matching peptide
+			for( int header = firstHeader; header < endHeader; header++ ) {
+
+				if( !proteinAnnotations.containsKey( sequence ) )
+					proteinAnnotations.put( sequence, new HashSet<>() );
+
+				FastaProteinAnnotation anno = new FastaProteinAnnotation();
+				anno.setName( fastaIndex.getHeaderName( header ) );
+				anno.setDescription( fastaIndex.getHeaderDescription( header ) );
 
-			if( !startsWithADecoyPrefix ) {
+				proteinAnnotations.get( sequence ).add( anno );
+
+			}//end iterating over fasta headers
+
+		} // end if statement for protein containing peptide
+	}
+
+	private boolean fastaEntryIsDecoy(FASTAEntry fastaEntry, Collection<String> decoyPrefixes ) {
+		
+		if( decoyPrefixes == null ) {
+			return false;
+		}
+
+		for( FASTAHeader header : fastaEntry.getHeaders() ) {
+			if( !headerNameIsDecoy( header.getName(), decoyPrefixes ) ) {
 				return false;
 			}
 		}
@@ -283,6 +629,17 @@ public class MatchedProteinsBuilder {
 		return true;
 	}
 	
+	private boolean headerNameIsDecoy( String fastaHeaderName, Collection<String> decoyPrefixes ) {
+		
+		for( String decoyPrefix : decoyPrefixes ) {
+			if (fastaHeaderName.startsWith(decoyPrefix)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
 	private boolean nakedPeptideObjectsContainsUnmatchedPeptides( Collection<PeptideObject> nakedPeptideObjects ) {
 		
 		for( PeptideObject nakedPeptideObject : nakedPeptideObjects ) {
@@ -383,6 +740,17 @@ public class MatchedProteinsBuilder {
 	}
 	
 	
+	/**
+	 * The matches found in a single chunk of FASTA entries
+	 */
+	private class FastaChunkResult {
+		
+		private Map<String, Collection<FastaProteinAnnotation>> proteinAnnotations;
+		private boolean[] foundSearchSequences;
+		
+	}
+	
+	
 	/**
 	 * An annotation for a protein in a Fasta file
 	 * 
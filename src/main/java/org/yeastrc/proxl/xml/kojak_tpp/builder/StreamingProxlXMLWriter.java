@@ -0,0 +1,364 @@
+package org.yeastrc.proxl.xml.kojak_tpp.builder;
+
+import org.yeastrc.proxl.xml.kojak_tpp.utils.JAXBContextHolder;
+import org.yeastrc.proxl_import.api.xml_dto.MatchedProteins;
+import org.yeastrc.proxl_import.api.xml_dto.Protein;
+import org.yeastrc.proxl_import.api.xml_dto.ProxlInput;
+import org.yeastrc.proxl_import.api.xml_dto.ReportedPeptide;
+import org.yeastrc.proxl_import.api.xml_dto.ReportedPeptides;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes a ProXL XML file without holding the whole document in memory. The header sections of the
+ * ProxlInput (search program info, linkers, static mods, decoy labels and configuration files) are
+ * marshalled as usual, but the contents of the reported_peptides and matched_proteins elements are
+ * supplied by callbacks that write each reported peptide or protein to disk as a fragment as soon as
+ * it is built.
+ *
+ * The resulting document has the same elements in the same order as marshalling the fully-populated
+ * ProxlInput would produce.
+ *
+ * @author mriffle
+ *
+ */
+public class StreamingProxlXMLWriter {
+
+	private static final String ELEMENT_REPORTED_PEPTIDES = "reported_peptides";
+	private static final String ELEMENT_REPORTED_PEPTIDE = "reported_peptide";
+	private static final String ELEMENT_MATCHED_PROTEINS = "matched_proteins";
+	private static final String ELEMENT_PROTEIN = "protein";
+
+	/**
+	 * Writes the children of a section of the document
+	 */
+	public interface SectionWriter {
+		void writeSection( StreamingProxlXMLWriter writer ) throws Exception;
+	}
+
+	/**
+	 * Write the ProXL XML file. The reported peptides and matched proteins present in proxlInputRoot
+	 * are ignored, the contents of those sections are written by the supplied section writers instead.
+	 * The reported peptides section is always written before the matched proteins section.
+	 *
+	 * @param outfile
+	 * @param proxlInputRoot
+	 * @param reportedPeptidesWriter Calls writeReportedPeptide() for each reported peptide
+	 * @param matchedProteinsWriter Calls writeProtein() for each matched protein
+	 * @throws Exception
+	 */
+	public void writeXML( File outfile, ProxlInput proxlInputRoot, SectionWriter reportedPeptidesWriter, SectionWriter matchedProteinsWriter ) throws Exception {
+
+		try ( OutputStream os = new BufferedOutputStream( new FileOutputStream( outfile ) ) ) {
+			writeXML( os, proxlInputRoot, reportedPeptidesWriter, matchedProteinsWriter );
+		}
+	}
+
+	/**
+	 * Write the ProXL XML to the given stream, see writeXML( File, ... )
+	 *
+	 * @param os
+	 * @param proxlInputRoot
+	 * @param reportedPeptidesWriter
+	 * @param matchedProteinsWriter
+	 * @throws Exception
+	 */
+	public void writeXML( OutputStream os, ProxlInput proxlInputRoot, SectionWriter reportedPeptidesWriter, SectionWriter matchedProteinsWriter ) throws Exception {
+
+		// the fragment types are included in the context, they are not written as part of the root object
+		JAXBContext jaxbContext = JAXBContextHolder.getInstance().getProxlXMLContext();
+
+		// the sections are written as empty elements, and are filled in by the callbacks when they are closed
+		proxlInputRoot.setReportedPeptides( new ReportedPeptides() );
+		proxlInputRoot.setMatchedProteins( new MatchedProteins() );
+
+		XMLStreamWriter xmlWriter = XMLOutputFactory.newInstance().createXMLStreamWriter( os, "UTF-8" );
+
+		this.fragmentMarshaller = jaxbContext.createMarshaller();
+		this.fragmentMarshaller.setProperty( Marshaller.JAXB_FRAGMENT, true );
+		this.xmlWriter = xmlWriter;
+
+		Marshaller rootMarshaller = jaxbContext.createMarshaller();
+		rootMarshaller.setProperty( Marshaller.JAXB_FRAGMENT, true );
+
+		xmlWriter.writeStartDocument( "UTF-8", "1.0" );
+		rootMarshaller.marshal( proxlInputRoot, new SectionCallbackXMLStreamWriter( xmlWriter, reportedPeptidesWriter, matchedProteinsWriter ) );
+		xmlWriter.writeEndDocument();
+
+		xmlWriter.flush();
+		xmlWriter.close();
+
+		this.xmlWriter = null;
+		this.fragmentMarshaller = null;
+	}
+
+	/**
+	 * Write a single reported peptide into the reported_peptides section. May only be called from
+	 * the reported peptides section writer.
+	 *
+	 * @param reportedPeptide
+	 * @throws Exception
+	 */
+	public void writeReportedPeptide( ReportedPeptide reportedPeptide ) throws Exception {
+		writeFragment( ELEMENT_REPORTED_PEPTIDE, ReportedPeptide.class, reportedPeptide );
+	}
+
+	/**
+	 * Write a single protein into the matched_proteins section. May only be called from the
+	 * matched proteins section writer.
+	 *
+	 * @param protein
+	 * @throws Exception
+	 */
+	public void writeProtein( Protein protein ) throws Exception {
+		writeFragment( ELEMENT_PROTEIN, Protein.class, protein );
+	}
+
+	/**
+	 * Marshal the given object as a child of the currently open section
+	 *
+	 * @param elementName
+	 * @param type
+	 * @param value
+	 * @throws Exception
+	 */
+	private <T> void writeFragment( String elementName, Class<T> type, T value ) throws Exception {
+
+		if( this.sectionNamespaceURI == null )
+			throw new IllegalStateException( "Can only write " + elementName + " elements from within a section writer." );
+
+		JAXBElement<T> element = new JAXBElement<>( new QName( this.sectionNamespaceURI, elementName ), type, value );
+		this.fragmentMarshaller.marshal( element, this.xmlWriter );
+	}
+
+
+	private XMLStreamWriter xmlWriter;
+	private Marshaller fragmentMarshaller;
+	private String sectionNamespaceURI;
+
+
+	/**
+	 * Passes all calls through to the real XMLStreamWriter, but when the reported_peptides or matched_proteins
+	 * elements are closed, first runs the corresponding section writer to write their children.
+	 */
+	private class SectionCallbackXMLStreamWriter implements XMLStreamWriter {
+
+		SectionCallbackXMLStreamWriter( XMLStreamWriter delegate, SectionWriter reportedPeptidesWriter, SectionWriter matchedProteinsWriter ) {
+			this.delegate = delegate;
+			this.reportedPeptidesWriter = reportedPeptidesWriter;
+			this.matchedProteinsWriter = matchedProteinsWriter;
+		}
+
+		private void startElement( String localName, String namespaceURI ) {
+			this.openElements.push( new QName( namespaceURI == null ? "" : namespaceURI, localName ) );
+		}
+
+		@Override
+		public void writeEndElement() throws XMLStreamException {
+
+			QName element = this.openElements.pop();
+			SectionWriter sectionWriter = null;
+
+			if( element.getLocalPart().equals( ELEMENT_REPORTED_PEPTIDES ) ) {
+				sectionWriter = this.reportedPeptidesWriter;
+			} else if( element.getLocalPart().equals( ELEMENT_MATCHED_PROTEINS ) ) {
+				sectionWriter = this.matchedProteinsWriter;
+			}
+
+			if( sectionWriter != null ) {
+
+				sectionNamespaceURI = element.getNamespaceURI();
+
+				try {
+					sectionWriter.writeSection( StreamingProxlXMLWriter.this );
+				} catch( XMLStreamException e ) {
+					throw e;
+				} catch( Exception e ) {
+					throw new XMLStreamException( "Error writing " + element.getLocalPart() + " section: " + e.getMessage(), e );
+				} finally {
+					sectionNamespaceURI = null;
+				}
+			}
+
+			this.delegate.writeEndElement();
+		}
+
+		@Override
+		public void writeStartElement( String localName ) throws XMLStreamException {
+			startElement( localName, this.delegate.getNamespaceContext().getNamespaceURI( "" ) );
+			this.delegate.writeStartElement( localName );
+		}
+
+		@Override
+		public void writeStartElement( String namespaceURI, String localName ) throws XMLStreamException {
+			startElement( localName, namespaceURI );
+			this.delegate.writeStartElement( namespaceURI, localName );
+		}
+
+		@Override
+		public void writeStartElement( String prefix, String localName, String namespaceURI ) throws XMLStreamException {
+			startElement( localName, namespaceURI );
+			this.delegate.writeStartElement( prefix, localName, namespaceURI );
+		}
+
+		@Override
+		public void writeEmptyElement( String namespaceURI, String localName ) throws XMLStreamException {
+			this.delegate.writeEmptyElement( namespaceURI, localName );
+		}
+
+		@Override
+		public void writeEmptyElement( String prefix, String localName, String namespaceURI ) throws XMLStreamException {
+			this.delegate.writeEmptyElement( prefix, localName, namespaceURI );
+		}
+
+		@Override
+		public void writeEmptyElement( String localName ) throws XMLStreamException {
+			this.delegate.writeEmptyElement( localName );
+		}
+
+		@Override
+		public void writeEndDocument() throws XMLStreamException {
+			this.delegate.writeEndDocument();
+		}
+
+		@Override
+		public void close() throws XMLStreamException {
+			this.delegate.close();
+		}
+
+		@Override
+		public void flush() throws XMLStreamException {
+			this.delegate.flush();
+		}
+
+		@Override
+		public void writeAttribute( String localName, String value ) throws XMLStreamException {
+			this.delegate.writeAttribute( localName, value );
+		}
+
+		@Override
+		public void writeAttribute( String prefix, String namespaceURI, String localName, String value ) throws XMLStreamException {
+			this.delegate.writeAttribute( prefix, namespaceURI, localName, value );
+		}
+
+		@Override
+		public void writeAttribute( String namespaceURI, String localName, String value ) throws XMLStreamException {
+			this.delegate.writeAttribute( namespaceURI, localName, value );
+		}
+
+		@Override
+		public void writeNamespace( String prefix, String namespaceURI ) throws XMLStreamException {
+			this.delegate.writeNamespace( prefix, namespaceURI );
+		}
+
+		@Override
+		public void writeDefaultNamespace( String namespaceURI ) throws XMLStreamException {
+			this.delegate.writeDefaultNamespace( namespaceURI );
+		}
+
+		@Override
+		public void writeComment( String data ) throws XMLStreamException {
+			this.delegate.writeComment( data );
+		}
+
+		@Override
+		public void writeProcessingInstruction( String target ) throws XMLStreamException {
+			this.delegate.writeProcessingInstruction( target );
+		}
+
+		@Override
+		public void writeProcessingInstruction( String target, String data ) throws XMLStreamException {
+			this.delegate.writeProcessingInstruction( target, data );
+		}
+
+		@Override
+		public void writeCData( String data ) throws XMLStreamException {
+			this.delegate.writeCData( data );
+		}
+
+		@Override
+		public void writeDTD( String dtd ) throws XMLStreamException {
+			this.delegate.writeDTD( dtd );
+		}
+
+		@Override
+		public void writeEntityRef( String name ) throws XMLStreamException {
+			this.delegate.writeEntityRef( name );
+		}
+
+		@Override
+		public void writeStartDocument() throws XMLStreamException {
+			this.delegate.writeStartDocument();
+		}
+
+		@Override
+		public void writeStartDocument( String version ) throws XMLStreamException {
+			this.delegate.writeStartDocument( version );
+		}
+
+		@Override
+		public void writeStartDocument( String encoding, String version ) throws XMLStreamException {
+			this.delegate.writeStartDocument( encoding, version );
+		}
+
+		@Override
+		public void writeCharacters( String text ) throws XMLStreamException {
+			this.delegate.writeCharacters( text );
+		}
+
+		@Override
+		public void writeCharacters( char[] text, int start, int len ) throws XMLStreamException {
+			this.delegate.writeCharacters( text, start, len );
+		}
+
+		@Override
+		public String getPrefix( String uri ) throws XMLStreamException {
+			return this.delegate.getPrefix( uri );
+		}
+
+		@Override
+		public void setPrefix( String prefix, String uri ) throws XMLStreamException {
+			this.delegate.setPrefix( prefix, uri );
+		}
+
+		@Override
+		public void setDefaultNamespace( String uri ) throws XMLStreamException {
+			this.delegate.setDefaultNamespace( uri );
+		}
+
+		@Override
+		public void setNamespaceContext( NamespaceContext context ) throws XMLStreamException {
+			this.delegate.setNamespaceContext( context );
+		}
+
+		@Override
+		public NamespaceContext getNamespaceContext() {
+			return this.delegate.getNamespaceContext();
+		}
+
+		@Override
+		public Object getProperty( String name ) throws IllegalArgumentException {
+			return this.delegate.getProperty( name );
+		}
+
+
+		private final XMLStreamWriter delegate;
+		private final SectionWriter reportedPeptidesWriter;
+		private final SectionWriter matchedProteinsWriter;
+		private final Deque<QName> openElements = new ArrayDeque<>();
+	}
+
+}
@@ -8,13 +8,16 @@ import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
 import org.yeastrc.proxl.xml.kojak_tpp.objects.KojakConfCrosslinker;
 import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPAnalysis;
 import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPErrorAnalysis;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.CompressionUtils;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ConversionMetrics;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.FutureUtils;
 import org.yeastrc.proxl.xml.kojak_tpp.utils.ModUtils;
 import org.yeastrc.proxl.xml.kojak_tpp.utils.PepXMLUtils;
 import org.yeastrc.proxl_import.api.xml_dto.*;
 import org.yeastrc.proxl_import.api.xml_dto.SearchProgram.PsmAnnotationTypes;
-import org.yeastrc.proxl_import.create_import_file_from_java_objects.main.CreateImportFileFromJavaObjectsMain;
 
 import java.io.File;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.file.FileSystems;
@@ -22,6 +25,8 @@ import java.nio.file.Files;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 /**
  * Take the populated pLink objects, convert to XML and write the XML file
@@ -32,6 +37,11 @@ import java.util.Map;
  */
 public class XMLBuilder {
 
+	/**
+	 * Prepended to the name of the output file to get the name of the temporary file the XML is written to
+	 */
+	private static final String TEMP_FILE_PREFIX = ".part.";
+
 	/**
 	 * Build and save the XML document based on the analysis results.
 	 *
@@ -49,9 +59,43 @@ public class XMLBuilder {
 								 TPPErrorAnalysis iProphetErrorAnalysis,
 			                     File outfile
 			                    ) throws Exception {
-
 		
-		File fastaFile = analysis.getFastaFile();
+		buildAndSaveXML(
+				analysis,
+				CompletableFuture.completedFuture( resultsByReportedPeptide ),
+				CompletableFuture.completedFuture( pProphetErrorAnalysis ),
+				CompletableFuture.completedFuture( iProphetErrorAnalysis ),
+				CompletableFuture.completedFuture( matchProteins( analysis, resultsByReportedPeptide ) ),
+				outfile
+		);
+	}
+	
+	/**
+	 * Build and save the XML document, as each part of it becomes available. Writing waits for the results first,
+	 * as the Kojak version in the header is taken from the run summaries of the analysis, which are only available
+	 * once the pepXML file has been parsed (see TPPAnalysis.getRunSummaries()). The header sections are then
+	 * written, and writing waits for the error analyses before writing the reported peptides, and for the matched
+	 * proteins before writing those, so this may be called on its own thread while the results are still being
+	 * parsed or the error analyses and matched proteins are still being built.
+	 *
+	 * @param analysis
+	 * @param resultsByReportedPeptide
+	 * @param pProphetErrorAnalysis
+	 * @param iProphetErrorAnalysis Its value may be null if there is no iProphet data
+	 * @param matchedProteins The matched proteins for the results, see matchProteins()
+	 * @param outfile Only created once the XML has been completely written
+	 * @throws Exception
+	 */
+	public void buildAndSaveXML(
+								 TPPAnalysis analysis,
+								 Future<Map<TPPReportedPeptide, Collection<TPPResult>>> resultsByReportedPeptide,
+								 Future<TPPErrorAnalysis> pProphetErrorAnalysis,
+								 Future<TPPErrorAnalysis> iProphetErrorAnalysis,
+								 Future<MatchedProteins> matchedProteins,
+			                     File outfile
+			                    ) throws Exception {
+
+		Map<TPPReportedPeptide, Collection<TPPResult>> results = FutureUtils.getValue( resultsByReportedPeptide );
 		
 		// root node of the XML
 		ProxlInput proxlInputRoot = new ProxlInput();
@@ -125,7 +169,7 @@ public class XMLBuilder {
 
 			searchProgram.setName(TPPConstants.SEARCH_PROGRAM_NAME_KOJAK);
 			searchProgram.setDisplayName(TPPConstants.SEARCH_PROGRAM_NAME_KOJAK);
-			searchProgram.setVersion(PepXMLUtils.getKojakVersionFromXML(analysis.getAnalysis()));
+			searchProgram.setVersion(PepXMLUtils.getKojakVersionFromXML(analysis));
 
 			{
 				PsmAnnotationTypes psmAnnotationTypes = new PsmAnnotationTypes();
@@ -296,26 +340,117 @@ public class XMLBuilder {
 			}
 		}
 		
+		// add in the config file(s)
+		ConfigurationFiles xmlConfigurationFiles = new ConfigurationFiles();
+		proxlInputRoot.setConfigurationFiles( xmlConfigurationFiles );
+		
+		for( File kojakConfFile : analysis.getKojakConfFiles() ) {
+			ConfigurationFile xmlConfigurationFile = new ConfigurationFile();
+			xmlConfigurationFiles.getConfigurationFile().add( xmlConfigurationFile );
+			
+			xmlConfigurationFile.setSearchProgram( TPPConstants.SEARCH_PROGRAM_NAME_KOJAK );
+			xmlConfigurationFile.setFileName( kojakConfFile.getName() );
+			xmlConfigurationFile.setFileContent( Files.readAllBytes( FileSystems.getDefault().getPath( kojakConfFile.getAbsolutePath() ) ) );
+		}
+		
 		//
 		// Define the peptide and PSM data
 		//
-		ReportedPeptides reportedPeptides = new ReportedPeptides();
-		proxlInputRoot.setReportedPeptides( reportedPeptides );
 		
-
+		// the xml file is written to a temporary file next to it, which is only moved to the xml file once it is
+		// complete, so that a failed conversion does not leave a truncated xml file behind
+		File tempOutfile = new File( outfile.getAbsoluteFile().getParentFile(), TEMP_FILE_PREFIX + outfile.getName() );
+		boolean saved = false;
+		
+		try {
+			
+			//make the xml file, writing the reported peptides and then the matched proteins as they are built
+			// (gzip compressed if the file name ends in .gz)
+			try ( OutputStream os = CompressionUtils.getOutputStream( tempOutfile, analysis.getThreadCount() ) ) {
+				new StreamingProxlXMLWriter().writeXML(
+						os,
+						proxlInputRoot,
+						writer -> writeReportedPeptides( writer, analysis, results, FutureUtils.getValue( pProphetErrorAnalysis ), FutureUtils.getValue( iProphetErrorAnalysis ) ),
+						writer -> writeMatchedProteins( writer, FutureUtils.getValue( matchedProteins ) )
+				);
+			}
+			
+			// fails if the xml file exists (e.g. another conversion wrote it in the meantime), rather than replacing it.
+			// ATOMIC_MOVE is not used, as it may replace an existing file. Moving within the directory is a rename.
+			Files.move( tempOutfile.toPath(), outfile.toPath() );
+			
+			saved = true;
+			
+		} finally {
+			
+			if( !saved )
+				tempOutfile.delete();
+		}
+		
+	}
+	
+	/**
+	 * Find the matched proteins section of the XML document: the target proteins in the FASTA file that
+	 * contain any of the peptides of the results
+	 * 
+	 * @param analysis
+	 * @param resultsByReportedPeptide
+	 * @return
+	 * @throws Exception
+	 */
+	public MatchedProteins matchProteins( TPPAnalysis analysis, Map<TPPReportedPeptide, Collection<TPPResult>> resultsByReportedPeptide ) throws Exception {
+		
+		ConversionMetrics.Stage stage = analysis.getMetrics().startStage( "match proteins" );
 		
 		// create a unique set of peptides found, to ensure each one is found in at least 
 		// one of the reported proteins
 		Collection<String> peptides = new HashSet<>();
 		
-		// iterate over each distinct reported peptide
 		for( TPPReportedPeptide rp : resultsByReportedPeptide.keySet() ) {
-			
 			peptides.add( rp.getPeptide1().getSequence() );
 			if( rp.getPeptide2() != null ) peptides.add( rp.getPeptide2().getSequence() );
+		}
+		
+		MatchedProteinsBuilder matchedProteinsBuilder = MatchedProteinsBuilder.getInstance();
+		MatchedProteins xmlMatchedProteins = analysis.getFastaService().getMatchedProteins(
+				matchedProteinsBuilder,
+				peptides,
+				analysis.getDecoyIdentifiers(),
+				analysis.getKojakConfReader().getFilter15N(),
+				analysis.getThreadCount()
+		);
+		
+		analysis.getMetrics().endStage( stage );
+		stage.setCount( "peptides", peptides.size() )
+				.setCount( "fasta entries", matchedProteinsBuilder.getFastaEntryCount() )
+				.setCount( "proteins matched", xmlMatchedProteins.getProtein().size() );
+		
+		return xmlMatchedProteins;
+	}
+	
+	/**
+	 * Build the ReportedPeptide element for each reported peptide (with all of its PSMs) and write it
+	 * out.
+	 * 
+	 * @param writer
+	 * @param analysis
+	 * @param resultsByReportedPeptide
+	 * @param pProphetErrorAnalysis
+	 * @param iProphetErrorAnalysis
+	 * @throws Exception
+	 */
+	private void writeReportedPeptides(
+										StreamingProxlXMLWriter writer,
+										TPPAnalysis analysis,
+										Map<TPPReportedPeptide, Collection<TPPResult>> resultsByReportedPeptide,
+										TPPErrorAnalysis pProphetErrorAnalysis,
+										TPPErrorAnalysis iProphetErrorAnalysis
+									  ) throws Exception {
+		
+		// iterate over each distinct reported peptide
+		for( TPPReportedPeptide rp : resultsByReportedPeptide.keySet() ) {
 			
 			ReportedPeptide xmlReportedPeptide = new ReportedPeptide();
-			reportedPeptides.getReportedPeptide().add( xmlReportedPeptide );
 			
 			xmlReportedPeptide.setReportedPeptideString( rp.toString() );
 			
@@ -448,7 +583,7 @@ public class XMLBuilder {
 				
 				xmlPsm.setScanNumber( new BigInteger( String.valueOf( result.getScanNumber() ) ) );
 				xmlPsm.setPrecursorCharge( new BigInteger( String.valueOf( result.getCharge() ) ) );
-				xmlPsm.setScanFileName( result.getScanFile() );
+				xmlPsm.setScanFileName( analysis.getSymbolTable().getSymbol( result.getScanFileId() ) );
 				
 				if( rp.getType() == TPPConstants.LINK_TYPE_CROSSLINK || rp.getType() == TPPConstants.LINK_TYPE_LOOPLINK )
 					xmlPsm.setLinkerMass( result.getLinkerMass() );
@@ -542,36 +677,25 @@ public class XMLBuilder {
 				
 			}//end iterating over all PSMs for a reported peptide
 			
+			// write this reported peptide to disk, it is no longer needed after this
+			writer.writeReportedPeptide( xmlReportedPeptide );
 			
 		}// end iterating over distinct reported peptides
-
-
-
-		// add in the matched proteins section
-		MatchedProteinsBuilder.getInstance().buildMatchedProteins(
-				proxlInputRoot,
-				fastaFile,
-				peptides,
-				analysis.getDecoyIdentifiers(),
-				analysis.getKojakConfReader().getFilter15N()
-		);
-
-		// add in the config file(s)
-		ConfigurationFiles xmlConfigurationFiles = new ConfigurationFiles();
-		proxlInputRoot.setConfigurationFiles( xmlConfigurationFiles );
+	}
+	
+	/**
+	 * Write out the matched proteins
+	 * 
+	 * @param writer
+	 * @param xmlMatchedProteins
+	 * @throws Exception
+	 */
+	private void writeMatchedProteins( StreamingProxlXMLWriter writer, MatchedProteins xmlMatchedProteins ) throws Exception {
 		
-		for( File kojakConfFile : analysis.getKojakConfFiles() ) {
-			ConfigurationFile xmlConfigurationFile = new ConfigurationFile();
-			xmlConfigurationFiles.getConfigurationFile().add( xmlConfigurationFile );
-			
-			xmlConfigurationFile.setSearchProgram( TPPConstants.SEARCH_PROGRAM_NAME_KOJAK );
-			xmlConfigurationFile.setFileName( kojakConfFile.getName() );
-			xmlConfigurationFile.setFileContent( Files.readAllBytes( FileSystems.getDefault().getPath( kojakConfFile.getAbsolutePath() ) ) );
+		for( Protein xmlProtein : xmlMatchedProteins.getProtein() ) {
+			writer.writeProtein( xmlProtein );
 		}
 		
-		//make the xml file
-		CreateImportFileFromJavaObjectsMain.getInstance().createImportFileFromJavaObjectsMain(outfile, proxlInputRoot);
-		
 	}
 	
 }
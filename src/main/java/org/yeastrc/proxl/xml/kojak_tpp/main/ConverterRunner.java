@@ -1,91 +1,341 @@
 package org.yeastrc.proxl.xml.kojak_tpp.main;
 
 import org.yeastrc.proxl.xml.kojak_tpp.builder.XMLBuilder;
+import org.yeastrc.proxl.xml.kojak_tpp.constants.ConverterConstants;
 import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPReportedPeptide;
 import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
 import org.yeastrc.proxl.xml.kojak_tpp.reader.*;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ConversionMetrics;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.FutureUtils;
 import org.yeastrc.proxl.xml.kojak_tpp.utils.PepXMLUtils;
+import org.yeastrc.proxl_import.api.xml_dto.MatchedProteins;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ConverterRunner {
 
+	/**
+	 * Appended to the output file path to get the path of the file the conversion metrics are written to
+	 */
+	public static final String METRICS_FILE_SUFFIX = ".metrics.json";
+
+	/**
+	 * The most stages of the conversion that run at the same time: writing the XML, the two FDR analyses and
+	 * protein matching
+	 */
+	private static final int PIPELINE_STAGE_COUNT = 4;
+
+	/**
+	 * Convert the pepXML file to a ProXL XML file. The wall time, CPU time, allocated bytes, peak heap and
+	 * item counts of each stage of the conversion are written as JSON to the output file path followed
+	 * by METRICS_FILE_SUFFIX.
+	 *
+	 * @param pepXMLFilePath
+	 * @param outFilePath
+	 * @param fastaFilePath
+	 * @param kojakConfFiles
+	 * @param decoyIdentifiers
+	 * @param threadCount
+	 * @param resultsCacheDirectory The directory in which to cache the parsed pepXML results, null to not cache them
+	 * @param fastaIndexDirectory The directory in which to keep an index of the FASTA file, null to read the FASTA file instead
+	 * @throws Exception
+	 */
 	public void runConversion( String pepXMLFilePath,
             String outFilePath,
             String fastaFilePath,
             File[] kojakConfFiles,
-            String[] decoyIdentifiers
+            String[] decoyIdentifiers,
+            int threadCount,
+            File resultsCacheDirectory,
+            File fastaIndexDirectory
            ) throws Exception {
 		
-		///////// Set up config parameters ////////////////////
+		ConversionMetrics metrics = new ConversionMetrics();
+		metrics.setProperty( "program", ConverterConstants.CONVERSION_PROGRAM_NAME );
+		metrics.setProperty( "version", ConverterConstants.CONVERSION_PROGRAM_VERSION );
+		metrics.setProperty( "pepXMLFile", pepXMLFilePath );
+		metrics.setProperty( "pepXMLFileBytes", new File( pepXMLFilePath ).length() );
+		metrics.setProperty( "fastaFile", fastaFilePath );
+		metrics.setProperty( "fastaFileBytes", new File( fastaFilePath ).length() );
+		metrics.setProperty( "outFile", outFilePath );
+		metrics.setProperty( "threads", threadCount );
+		metrics.setProperty( "availableProcessors", Runtime.getRuntime().availableProcessors() );
+		metrics.setProperty( "maxHeapBytes", Runtime.getRuntime().maxMemory() );
+		
+		// stages left open by a failure would otherwise leave the metrics listening for garbage collections
+		try {
+			
+			ConversionMetrics.Stage conversionStage = metrics.startStage( "conversion" );
+		
+			///////// Set up config parameters ////////////////////
 		
-		System.err.print( "Loading configuration..." );
+			System.err.print( "Loading configuration..." );
 		
-		TPPAnalysis analysis = TPPAnalysis.loadAnalysis( pepXMLFilePath );
-		analysis.setKojakConfReader( KojakConfReader.getInstance( kojakConfFiles[0].getAbsolutePath() ) );
+			ConversionMetrics.Stage stage = metrics.startStage( "load configuration" );
+		
+			TPPAnalysis analysis = TPPAnalysis.loadAnalysis( pepXMLFilePath );
+			analysis.setMetrics( metrics );
+			analysis.setKojakConfReader( KojakConfReader.getInstance( Arrays.asList( kojakConfFiles ) ) );
+		
+			// read the conf files now, so any problem with them is reported before the conversion starts
+			analysis.getKojakConfReader().getLinker();
 
-		if(decoyIdentifiers == null) {
-			analysis.setDecoyIdentifiers(new ArrayList<>());
-			String confDecoyPrefix = analysis.getKojakConfReader().getDecoyPrefix();
-			if(confDecoyPrefix != null) {
-				analysis.getDecoyIdentifiers().add(confDecoyPrefix);
+			if(decoyIdentifiers == null) {
+				analysis.setDecoyIdentifiers(new ArrayList<>( analysis.getKojakConfReader().getDecoyPrefixes() ));
+			} else {
+				analysis.setDecoyIdentifiers(Arrays.asList(decoyIdentifiers));
 			}
-		} else {
-			analysis.setDecoyIdentifiers(Arrays.asList(decoyIdentifiers));
-		}
 
-		analysis.setFastaFile( new File( fastaFilePath ) );
-		analysis.setKojakConfFilePaths( Arrays.asList(kojakConfFiles) );
+			analysis.setFastaFile( new File( fastaFilePath ) );
+			analysis.setKojakConfFilePaths( Arrays.asList(kojakConfFiles) );
+			analysis.setThreadCount( threadCount );
+			analysis.setResultsCacheDirectory( resultsCacheDirectory );
+
+			metrics.endStage( stage );
+		
+			System.err.println( "Done." );
+
 
-		System.err.println( "Done." );
+			///////// Load (or build) the FASTA index ////////////////////
+			FastaIndex fastaIndex = null;
+		
+			if( fastaIndexDirectory != null ) {
+			
+				System.err.print( "Loading FASTA index..." );
+				stage = metrics.startStage( "load FASTA index" );
+			
+				try {
+					fastaIndex = FastaIndex.getInstance( new File( fastaFilePath ), fastaIndexDirectory );
+					stage.setCount( "fasta entries", fastaIndex.getEntryCount() );
+					System.err.println( "Done." );
+				} catch( Exception e ) {
+					System.err.println( "\nWARNING: Could not use FASTA index, reading the FASTA file instead: " + e.getMessage() );
+				}
+			
+				metrics.endStage( stage );
+			}
+		
+			// all FASTA lookups go through this, so the FASTA file is read at most once
+			analysis.setFastaService( new FastaService( new File( fastaFilePath ), fastaIndex ) );
 
 
-		///////// Determine if Data contain iProphet Results ////////////////////
-		System.err.print( "Detecting iProphet results... " );
-		analysis.setHasIProphetData(PepXMLUtils.getHasIProphetData(analysis.getAnalysis()));
-		if(analysis.getHasIProphetData())
-			System.err.println( "iProphet Data Detected." );
-		else
-			System.err.println( "No iProphet Data Detected." );
+			///////// Determine if Data contain iProphet Results ////////////////////
+			System.err.print( "Detecting iProphet results... " );
+			stage = metrics.startStage( "detect iProphet results" );
+			analysis.setHasIProphetData(PepXMLUtils.getHasIProphetData(analysis.getAnalysis()));
+			metrics.endStage( stage );
+			if(analysis.getHasIProphetData())
+				System.err.println( "iProphet Data Detected." );
+			else
+				System.err.println( "No iProphet Data Detected." );
 		
-		/////////////// Read in the data ////////////////////
+			/////////////// Convert the data ////////////////////
 		
-		System.err.print( "Reading data in from pep XML..." );
+			// the conversion is pipelined: the XML is written on its own thread, starting with the header sections once
+			// the results are parsed (the header needs the run summaries). The FDR analyses and protein matching then
+			// run concurrently and each is handed to the writer as soon as it is done.
+			CompletableFuture<Map<TPPReportedPeptide, Collection<TPPResult>>> resultsFuture = new CompletableFuture<>();
+			CompletableFuture<TPPErrorAnalysis> iProphetFuture = new CompletableFuture<>();
+			CompletableFuture<TPPErrorAnalysis> pProphetFuture = new CompletableFuture<>();
+			CompletableFuture<MatchedProteins> matchedProteinsFuture = new CompletableFuture<>();
 		
-		// parse the data from the pepXML into a java data structure suitable for writing as ProXL XML
-		Map<TPPReportedPeptide, Collection<TPPResult>> resultsByReportedPeptide =
-				TPPResultsParser.getInstance().getResultsFromAnalysis( analysis );
+			XMLBuilder builder = new XMLBuilder();
 		
-		System.err.println( "Done." );
-
+			// with one thread, everything is run in turn on this thread, and the XML is written last
+			ExecutorService executor = threadCount > 1 ? Executors.newFixedThreadPool( PIPELINE_STAGE_COUNT, r -> {
+				Thread thread = new Thread( r, "conversion stage" );
+				thread.setDaemon( true );
+				return thread;
+			} ) : null;
+		
+			Future<ConversionMetrics.Stage> writer = null;
 		
+			try {
+			
+				if( executor != null )
+					writer = executor.submit( () -> writeXML( builder, analysis, resultsFuture, pProphetFuture, iProphetFuture, matchedProteinsFuture, outFilePath ) );
+			
+				/////////////// Read in the data ////////////////////
+			
+				System.err.print( "Reading data in from pep XML..." );
+			
+				stage = metrics.startStage( "parse pepXML" );
+			
+				// parse the data from the pepXML into a java data structure suitable for writing as ProXL XML, counting
+				// the probabilities of the PSMs for the FDR analyses as they are found
+				TPPErrorAccumulator errorAccumulator = new TPPErrorAccumulator();
+				Map<TPPReportedPeptide, Collection<TPPResult>> resultsByReportedPeptide =
+						TPPResultsParser.getInstance().getResultsFromAnalysis( analysis, errorAccumulator );
+			
+				metrics.endStage( stage );
+			
+				long psmCount = 0;
+				for( Collection<TPPResult> psms : resultsByReportedPeptide.values() ) {
+					psmCount += psms.size();
+				}
+			
+				stage.setCount( "psms", psmCount ).setCount( "reported peptides", resultsByReportedPeptide.size() );
+			
+				System.err.println( "Done." );
+			
+				resultsFuture.complete( resultsByReportedPeptide );
+			
+			
+				/////////////////// Perform FDR analysis and match proteins ////////////////////////
+			
+				final long finalPsmCount = psmCount;
+			
+				System.err.println( "Performing FDR analysis and matching proteins..." );
+			
+				Future<?> iProphetTask = runStage( executor, iProphetFuture, () -> {
+				
+					if( !analysis.getHasIProphetData() )
+						return null;
+				
+					ConversionMetrics.Stage fdrStage = metrics.startStage( "iProphet FDR analysis" );
+					TPPErrorAnalysis errorAnalysis = errorAccumulator.getErrorAnalysis( TPPErrorAnalyzer.Type.INTERPROPHET );
+					metrics.endStage( fdrStage );
+					fdrStage.setCount( "psms", finalPsmCount );
+					System.err.println( "\tFDR analysis of InterProphet data...Done." );
+				
+					return errorAnalysis;
+				} );
+			
+				Future<?> pProphetTask = runStage( executor, pProphetFuture, () -> {
+				
+					ConversionMetrics.Stage fdrStage = metrics.startStage( "PeptideProphet FDR analysis" );
+					TPPErrorAnalysis errorAnalysis = errorAccumulator.getErrorAnalysis( TPPErrorAnalyzer.Type.PEPTIDEPROPHET );
+					metrics.endStage( fdrStage );
+					fdrStage.setCount( "psms", finalPsmCount );
+					System.err.println( "\tFDR analysis of PeptideProphet data...Done." );
+				
+					return errorAnalysis;
+				} );
+			
+				Future<?> matchProteinsTask = runStage( executor, matchedProteinsFuture, () -> {
+				
+					MatchedProteins matchedProteins = builder.matchProteins( analysis, resultsByReportedPeptide );
+					System.err.println( "\tMatching proteins...Done." );
+				
+					return matchedProteins;
+				} );
+			
+				FutureUtils.getValue( iProphetTask );
+				FutureUtils.getValue( pProphetTask );
+				FutureUtils.getValue( matchProteinsTask );
+			
+				/////////////////////// Write out XML //////////////////////
+			
+				System.err.print( "Writing out XML" );
+			
+				ConversionMetrics.Stage writeStage = executor != null ?
+						FutureUtils.getValue( writer ) :
+						writeXML( builder, analysis, resultsFuture, pProphetFuture, iProphetFuture, matchedProteinsFuture, outFilePath );
+			
+				writeStage.setCount( "psms", psmCount ).setCount( "reported peptides", resultsByReportedPeptide.size() );
+			
+				System.err.println( "Done." );
+			
+			} catch( Exception e ) {
+			
+				// stop the writer waiting on anything that will not be done, and wait for it to delete its unfinished file
+				resultsFuture.completeExceptionally( e );
+				iProphetFuture.completeExceptionally( e );
+				pProphetFuture.completeExceptionally( e );
+				matchedProteinsFuture.completeExceptionally( e );
+			
+				if( writer != null ) {
+					try { writer.get(); } catch( Exception writerException ) { }
+				}
+			
+				throw e;
+			
+			} finally {
+			
+				if( executor != null )
+					executor.shutdown();
+			}
+		
+			metrics.endStage( conversionStage );
+		
+			/////////////////////// Write out metrics //////////////////////
+		
+			File metricsFile = new File( outFilePath + METRICS_FILE_SUFFIX );
+			metrics.writeJSON( metricsFile );
 		
-		/////////////////// Perform FDR analysis ////////////////////////
+			System.err.println( "Wrote conversion metrics to: " + metricsFile.getAbsolutePath() );
 
-		TPPErrorAnalysis iProphetErrorAnalysis = null;
-		if(analysis.getHasIProphetData()) {
-			System.err.print("Performing FDR analysis of InterProphet data...");
-			iProphetErrorAnalysis = TPPErrorAnalyzer.performPeptideProphetAnalysis(resultsByReportedPeptide, TPPErrorAnalyzer.Type.INTERPROPHET);
-			System.err.println("Done.");
+		} finally {
+			metrics.close();
 		}
-
-		System.err.print("Performing FDR analysis of PeptideProphet data...");
-		TPPErrorAnalysis pProphetErrorAnalysis = TPPErrorAnalyzer.performPeptideProphetAnalysis(resultsByReportedPeptide, TPPErrorAnalyzer.Type.PEPTIDEPROPHET);
-		System.err.println("Done.");
 		
-		/////////////////////// Write out XML //////////////////////
+	}
+	
+	/**
+	 * Write out the ProXL XML, as the futures are completed
+	 * 
+	 * @param builder
+	 * @param analysis
+	 * @param resultsFuture
+	 * @param pProphetFuture
+	 * @param iProphetFuture
+	 * @param matchedProteinsFuture
+	 * @param outFilePath
+	 * @return The metrics stage of the writing
+	 * @throws Exception
+	 */
+	private ConversionMetrics.Stage writeXML( XMLBuilder builder,
+			TPPAnalysis analysis,
+			Future<Map<TPPReportedPeptide, Collection<TPPResult>>> resultsFuture,
+			Future<TPPErrorAnalysis> pProphetFuture,
+			Future<TPPErrorAnalysis> iProphetFuture,
+			Future<MatchedProteins> matchedProteinsFuture,
+			String outFilePath
+			) throws Exception {
 		
-		System.err.print( "Writing out XML" );
-
-		XMLBuilder builder = new XMLBuilder();
-		builder.buildAndSaveXML(analysis, resultsByReportedPeptide, pProphetErrorAnalysis, iProphetErrorAnalysis, new File( outFilePath ) );
+		ConversionMetrics.Stage stage = analysis.getMetrics().startStage( "write ProXL XML" );
 		
-		System.err.println( "Done." );
+		builder.buildAndSaveXML( analysis, resultsFuture, pProphetFuture, iProphetFuture, matchedProteinsFuture, new File( outFilePath ) );
+		
+		analysis.getMetrics().endStage( stage );
+		
+		return stage;
+	}
+	
+	/**
+	 * Run a stage of the conversion on the executor (or on this thread, if the executor is null), completing the
+	 * future with its result or exception
+	 * 
+	 * @param executor May be null
+	 * @param future
+	 * @param task
+	 * @return future
+	 */
+	private <T> Future<T> runStage( ExecutorService executor, CompletableFuture<T> future, Callable<T> task ) {
+		
+		Runnable runnable = () -> {
+			try {
+				future.complete( task.call() );
+			} catch( Throwable t ) {
+				future.completeExceptionally( t );
+			}
+		};
+		
+		if( executor == null )
+			runnable.run();
+		else
+			executor.submit( runnable );
 		
+		return future;
 	}
 	
 	
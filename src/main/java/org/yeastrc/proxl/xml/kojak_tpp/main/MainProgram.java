@@ -6,7 +6,13 @@ import picocli.CommandLine;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Run the program.
@@ -26,41 +32,85 @@ import java.io.InputStreamReader;
 )
 public class MainProgram implements Runnable {
 
-	@CommandLine.Option(names = { "-x", "--pepxml" }, required = true, description = "The full path to the pepXML file.")
+	@CommandLine.Option(names = { "-x", "--pepxml" }, required = false, description = "The full path to the pepXML file. May be gzip or bzip2 compressed. Required unless -b is used.")
 	private File pepXMLFile;
 
 	@CommandLine.Option(names = { "-k", "--kojak-conf" }, required = true, description = "The full path to a Kojak configuration (params) file. Use multiple times to specify multiple files.")
 	private File[] kojakConfFiles;
 
-	@CommandLine.Option(names = { "-f", "--fasta-file" }, required = true, description = "The full path to the FASTA file used for the search.")
+	@CommandLine.Option(names = { "-f", "--fasta-file" }, required = true, description = "The full path to the FASTA file used for the search. May be gzip or bzip2 compressed.")
 	private File fastaFile;
 
-	@CommandLine.Option(names = { "-o", "--out-file" }, required = true, description = "Full path to use for the ProXL XML output file (including file name).")
+	@CommandLine.Option(names = { "-o", "--out-file" }, required = false, description = "Full path to use for the ProXL XML output file (including file name). If the file name ends in .gz, the file is written gzip compressed, using the number of threads given by -t. Required unless -b is used.")
 	private File outFile;
 
+	@CommandLine.Option(names = { "-b", "--batch-file" }, required = false, description = "[Optional] Convert many pepXML files in one run, instead of using -x and -o. Each line of the batch file is the path to a pepXML file, a tab, and the path to its ProXL XML output file. All files are converted with the same FASTA file, Kojak conf files and other options.")
+	private File batchFile;
+
 	@CommandLine.Option(names = { "-d", "--decoy-string" }, required = false, description = "[Optional] Override the value for the decoy prefix found in the Kojak conf file. May be used multiple times to specify multiple decoy strings.")
 	private String[] decoyString;
 
+	@CommandLine.Option(names = { "-t", "--threads" }, required = false, description = "[Optional] The number of threads to use for parsing the pepXML results and for matching peptides to proteins in the FASTA file. Default: 1")
+	private int threadCount = 1;
+
+	@CommandLine.Option(names = { "-c", "--results-cache-dir" }, required = false, description = "[Optional] A directory in which to cache the parsed pepXML results. Later conversions of the same (unchanged) pepXML file read the results from the cache instead of parsing the pepXML again.")
+	private File resultsCacheDirectory;
+
+	@CommandLine.Option(names = { "-i", "--fasta-index-dir" }, required = false, description = "[Optional] A directory in which to keep an index of the FASTA file. The index is built the first time the FASTA file is used, and is used instead of reading the FASTA file in later conversions.")
+	private File fastaIndexDirectory;
+
 	@CommandLine.Option(names = { "-v", "--verbose" }, required = false, description = "[Optional] If present, complete error messages will be printed. Useful for debugging errors.")
 	private boolean verboseRequested = false;
 	public void run()  {
 		
 		printRuntimeInfo();
-        
-        if( !pepXMLFile.exists() ) {
-        	System.err.println( "The pepXML file: " + pepXMLFile.getAbsolutePath() + " does not exist." );
-        	System.exit( 1 );
-        }
-        
-        if( !pepXMLFile.canRead() ) {
-        	System.err.println( "Can not read pepXML file: " + pepXMLFile.getAbsolutePath() );
-        	System.exit( 1 );
-        }
-
-        if( outFile.exists() ) {
-        	System.err.println( "The output file: " + outFile.getAbsolutePath() + " already exists." );
-        	System.exit( 1 );
-        }
+		
+		List<File[]> conversions = new ArrayList<>();
+		
+		if( batchFile != null ) {
+			
+			if( pepXMLFile != null || outFile != null ) {
+				System.err.println( "The pepXML file (-x) and output file (-o) may not be given with a batch file (-b)." );
+				System.exit( 1 );
+			}
+			
+			try {
+				conversions = readBatchFile( batchFile );
+			} catch( Exception e ) {
+				System.err.println( "Could not read batch file: " + batchFile.getAbsolutePath() + ": " + e.getMessage() );
+				System.exit( 1 );
+			}
+			
+		} else {
+			
+			if( pepXMLFile == null || outFile == null ) {
+				System.err.println( "The pepXML file (-x) and output file (-o) are required, unless a batch file (-b) is given." );
+				System.exit( 1 );
+			}
+			
+			conversions.add( new File[] { pepXMLFile, outFile } );
+		}
+		
+		for( File[] conversion : conversions ) {
+			
+			File conversionPepXMLFile = conversion[ 0 ];
+			File conversionOutFile = conversion[ 1 ];
+			
+	        if( !conversionPepXMLFile.exists() ) {
+	        	System.err.println( "The pepXML file: " + conversionPepXMLFile.getAbsolutePath() + " does not exist." );
+	        	System.exit( 1 );
+	        }
+	        
+	        if( !conversionPepXMLFile.canRead() ) {
+	        	System.err.println( "Can not read pepXML file: " + conversionPepXMLFile.getAbsolutePath() );
+	        	System.exit( 1 );
+	        }
+	
+	        if( conversionOutFile.exists() ) {
+	        	System.err.println( "The output file: " + conversionOutFile.getAbsolutePath() + " already exists." );
+	        	System.exit( 1 );
+	        }
+		}
 
         for( File kojakConfFile : kojakConfFiles) {
 
@@ -76,6 +126,21 @@ public class MainProgram implements Runnable {
             
         }
 
+        if( threadCount < 1 ) {
+        	System.err.println( "The number of threads must be at least 1." );
+        	System.exit( 1 );
+        }
+
+        if( resultsCacheDirectory != null && !resultsCacheDirectory.isDirectory() ) {
+        	System.err.println( "The results cache directory: " + resultsCacheDirectory.getAbsolutePath() + " does not exist or is not a directory." );
+        	System.exit( 1 );
+        }
+
+        if( fastaIndexDirectory != null && !fastaIndexDirectory.isDirectory() ) {
+        	System.err.println( "The FASTA index directory: " + fastaIndexDirectory.getAbsolutePath() + " does not exist or is not a directory." );
+        	System.exit( 1 );
+        }
+
         if( decoyString == null || decoyString.length < 1 ) {
         	System.err.println( "\nWARNING: No decoy identifiers given. Assuming all results are targets." );
         }
@@ -93,8 +158,14 @@ public class MainProgram implements Runnable {
 
         
         System.err.println( "Converting pepXML to ProXL XML with the following parameters:" );
-        System.err.println( "\tpepXML path: " + pepXMLFile.getAbsolutePath() );
-        System.err.println( "\toutput file path: " + outFile.getAbsolutePath() );
+        
+        if( batchFile != null ) {
+        	System.err.println( "\tbatch file path: " + batchFile.getAbsolutePath() + " (" + conversions.size() + " pepXML files)" );
+        } else {
+        	System.err.println( "\tpepXML path: " + pepXMLFile.getAbsolutePath() );
+        	System.err.println( "\toutput file path: " + outFile.getAbsolutePath() );
+        }
+        
         System.err.println( "\tfasta file path: " + fastaFile.getAbsolutePath() );
         System.err.println( "\tkojak conf file paths: " );
         for( File kojakConfFile : kojakConfFiles) {
@@ -102,29 +173,106 @@ public class MainProgram implements Runnable {
         }
      
         System.err.println( "\tdecoy overrides: " + StringUtils.join( decoyString, "," ) );
+        System.err.println( "\tthreads: " + threadCount );
+        
+        if( resultsCacheDirectory != null )
+        	System.err.println( "\tresults cache directory: " + resultsCacheDirectory.getAbsolutePath() );
+        
+        if( fastaIndexDirectory != null )
+        	System.err.println( "\tFASTA index directory: " + fastaIndexDirectory.getAbsolutePath() );
         
         /*
          * Run the conversion
          */
 
-        try {
-	        ConverterRunner cr = new ConverterRunner();
-	        cr.runConversion( pepXMLFile.getAbsolutePath(),
-	        		          outFile.getAbsolutePath(),
-	        		          fastaFile.getAbsolutePath(),
-	        		          kojakConfFiles,
-	        		          decoyString
-	        		         );
-        } catch( Throwable t ) {
+        ConverterRunner cr = new ConverterRunner();
+        int convertedCount = 0;
+        
+        // in a batch, the JAXB contexts and unmarshallers are built for the first file and reused for the rest
+        for( File[] conversion : conversions ) {
+        	
+        	if( batchFile != null )
+        		System.err.println( "\nConverting " + conversion[ 0 ].getAbsolutePath() + " to " + conversion[ 1 ].getAbsolutePath() );
+        	
+	        try {
+		        cr.runConversion( conversion[ 0 ].getAbsolutePath(),
+		        		          conversion[ 1 ].getAbsolutePath(),
+		        		          fastaFile.getAbsolutePath(),
+		        		          kojakConfFiles,
+		        		          decoyString,
+		        		          threadCount,
+		        		          resultsCacheDirectory,
+		        		          fastaIndexDirectory
+		        		         );
+		        
+		        convertedCount++;
+		        
+	        } catch( Throwable t ) {
+	
+	        	System.err.println( "Got error during conversion: " + t.getMessage() );
+	
+				if(verboseRequested) {
+					t.printStackTrace();
+				}
+	
+	        }
+        }
+        
+        if( batchFile != null ) {
+        	System.err.println( "\nConverted " + convertedCount + " of " + conversions.size() + " pepXML files." );
+        	
+        	// let scripts running the batch tell that some files were not converted
+        	if( convertedCount < conversions.size() )
+        		System.exit( 1 );
+        }
 
-        	System.err.println( "Got error during conversion: " + t.getMessage() );
+	}
 
-			if(verboseRequested) {
-				t.printStackTrace();
+	/**
+	 * Read the conversions listed in the batch file. Each line is the path to a pepXML file, a tab, and the
+	 * path to the output file. Empty lines and lines starting with # are ignored.
+	 *
+	 * @param batchFile
+	 * @return The pepXML file and output file of each conversion, in the order they are listed
+	 * @throws Exception If the batch file can not be read, a line is not valid, or two lines have the same output file
+	 */
+	private static List<File[]> readBatchFile( File batchFile ) throws Exception {
+
+		List<File[]> conversions = new ArrayList<>();
+
+		// the line each output file is listed on, so that no two conversions write the same file
+		Map<Path, Integer> outFileLineNumbers = new HashMap<>();
+
+		try ( BufferedReader br = new BufferedReader( new FileReader( batchFile ) ) ) {
+
+			int lineNumber = 0;
+
+			for( String line = br.readLine(); line != null; line = br.readLine() ) {
+
+				lineNumber++;
+
+				if( line.trim().isEmpty() || line.startsWith( "#" ) )
+					continue;
+
+				String[] fields = line.split( "\t" );
+
+				if( fields.length != 2 || fields[ 0 ].trim().isEmpty() || fields[ 1 ].trim().isEmpty() )
+					throw new Exception( "Line " + lineNumber + " is not a pepXML file path, a tab, and an output file path." );
+
+				File outFile = new File( fields[ 1 ].trim() );
+				Integer otherLineNumber = outFileLineNumbers.putIfAbsent( outFile.getAbsoluteFile().toPath().normalize(), lineNumber );
+
+				if( otherLineNumber != null )
+					throw new Exception( "Line " + lineNumber + " has the same output file as line " + otherLineNumber + ": " + outFile.getAbsolutePath() );
+
+				conversions.add( new File[] { new File( fields[ 0 ].trim() ), outFile } );
 			}
+		}
 
-        }
+		if( conversions.isEmpty() )
+			throw new Exception( "No pepXML files are listed." );
 
+		return conversions;
 	}
 
 	public static void main( String[] args ) {
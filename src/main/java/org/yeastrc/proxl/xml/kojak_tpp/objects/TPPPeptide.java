@@ -1,7 +1,5 @@
 package org.yeastrc.proxl.xml.kojak_tpp.objects;
 
-import org.apache.commons.lang3.StringUtils;
-
 import java.math.BigDecimal;
 import java.util.*;
 
@@ -10,44 +8,53 @@ public class TPPPeptide {
 	/**
 	 * Get the string representation of this peptide that includes mods, in the form of:
 	 * PEP[12.29,15.99]TI[12.2932]DE
+	 *
+	 * The string is built once and cached until the sequence, mods or isotope label are changed.
 	 */
 	public String toString() {
-		
-		String str = "";
-		
+
+		if( this.canonicalString == null )
+			this.canonicalString = buildCanonicalString();
+
+		return this.canonicalString;
+	}
+
+	private String buildCanonicalString() {
+
+		StringBuilder str = new StringBuilder( this.getSequence().length() + 16 );
+
 		for( int i = 1; i <= this.getSequence().length(); i++ ) {
-			String r = String.valueOf( this.getSequence().charAt( i - 1 ) );
-			str += r;
-			
+			str.append( this.getSequence().charAt( i - 1 ) );
+
 			if( this.getModifications() != null ) {
-				List<String> modsAtPosition = new ArrayList<String>();
-				
-				if( this.getModifications().get( i ) != null ) {
-					for( BigDecimal mod : this.getModifications().get( i ) ) {
-						modsAtPosition.add( mod.setScale( 2, BigDecimal.ROUND_HALF_UP ).toString() );
+				Collection<BigDecimal> mods = this.getModifications().get( i );
+
+				if( mods != null && mods.size() > 0 ) {
+
+					// sort these on the values as they will be displayed
+					List<BigDecimal> modsAtPosition = new ArrayList<>( mods.size() );
+					for( BigDecimal mod : mods ) {
+						modsAtPosition.add( mod.setScale( 2, BigDecimal.ROUND_HALF_UP ) );
 					}
-					
-					if( modsAtPosition.size() > 0 ) {
-	
-						// sort these strings on double values
-						Collections.sort( modsAtPosition, new Comparator<String>() {
-						       public int compare(String s1, String s2) {
-						           return Double.valueOf( s1 ).compareTo( Double.valueOf( s2 ) );
-						        }
-						});
-						
-						String modsString = StringUtils.join( modsAtPosition, "," );
-						str += "[" + modsString + "]";
+
+					Collections.sort( modsAtPosition );
+
+					str.append( '[' );
+					for( int j = 0; j < modsAtPosition.size(); j++ ) {
+						if( j > 0 )
+							str.append( ',' );
+						str.append( modsAtPosition.get( j ).toString() );
 					}
+					str.append( ']' );
 				}
 			}
 		}
 
 		if(this.getIsotopeLabel() != null) {
-			str += "-" + this.getIsotopeLabel();
+			str.append( '-' ).append( this.getIsotopeLabel() );
 		}
-		
-		return str;
+
+		return str.toString();
 	}
 	
 	
@@ -56,18 +63,28 @@ public class TPPPeptide {
 	}
 	public void setSequence(String sequence) {
 		this.sequence = sequence;
+		clearCachedValues();
 	}
 	public Map<Integer, Collection<BigDecimal>> getModifications() {
 		return modifications;
 	}
+	/**
+	 * Set the mods of this peptide, keyed on position. The map is not copied, and must not be changed once set
+	 * (set a new map instead), as the string representation is cached.
+	 */
 	public void setModifications(Map<Integer, Collection<BigDecimal>> modifications) {
 		this.modifications = modifications;
+		clearCachedValues();
 	}
-	public Collection<String> getTargetProteins() {
-		return targetProteins;
+	/**
+	 * Get the IDs of the names of the target proteins in the analysis' symbol table (see TPPAnalysis.getSymbolTable()),
+	 * sorted and without duplicates
+	 */
+	public int[] getTargetProteinIds() {
+		return targetProteinIds;
 	}
-	public void setTargetProteins(Collection<String> targetProteins) {
-		this.targetProteins = targetProteins;
+	public void setTargetProteinIds(int[] targetProteinIds) {
+		this.targetProteinIds = targetProteinIds;
 	}
 
 	public String getIsotopeLabel() {
@@ -76,10 +93,26 @@ public class TPPPeptide {
 
 	public void setIsotopeLabel(String isotopeLabel) {
 		this.isotopeLabel = isotopeLabel;
+		clearCachedValues();
+	}
+
+	/**
+	 * Get the number of times the sequence, mods or isotope label have been changed, so that reported peptides
+	 * made of this peptide can tell when their cached string representation and hash code are out of date
+	 */
+	int getChangeCount() {
+		return changeCount;
+	}
+
+	private void clearCachedValues() {
+		this.canonicalString = null;
+		this.changeCount++;
 	}
 
 	private String sequence;
 	private Map<Integer, Collection<BigDecimal>> modifications;
-	private Collection<String> targetProteins;
+	private int[] targetProteinIds;
 	private String isotopeLabel;
+	private String canonicalString;
+	private int changeCount;
 }
@@ -4,19 +4,81 @@ import org.yeastrc.proxl.xml.kojak_tpp.constants.TPPConstants;
 
 public class TPPReportedPeptide {
 	
+	/**
+	 * The hash code of the string representation of this reported peptide, computed once and cached
+	 * until a field of this reported peptide or of one of its peptides is changed.
+	 */
 	public int hashCode() {
-		return this.toString().hashCode();
+
+		if( !this.hashCodeSet || havePeptidesChanged() ) {
+			this.hashCode = this.toString().hashCode();
+			this.hashCodeSet = true;
+		}
+
+		return this.hashCode;
 	}
 	
+	/**
+	 * Two reported peptides are equal if they have the same string representation. The type, positions
+	 * and cached hash codes are compared first, so that only reported peptides that are very likely to
+	 * be equal have their peptide strings compared.
+	 */
 	public boolean equals( Object o ) {
 
+		if( this == o )
+			return true;
+
 		if( !( o instanceof TPPReportedPeptide) )
 			return false;
-		
-		return this.toString().equals( ((TPPReportedPeptide)o).toString() );
+
+		TPPReportedPeptide other = (TPPReportedPeptide)o;
+
+		if( this.getType() != other.getType() )
+			return false;
+
+		// positions are not part of the string representation of unlinked peptides
+		if( this.getType() != TPPConstants.LINK_TYPE_UNLINKED &&
+				( this.getPosition1() != other.getPosition1() || this.getPosition2() != other.getPosition2() ) )
+			return false;
+
+		if( this.hashCode() != other.hashCode() )
+			return false;
+
+		return this.toString().equals( other.toString() );
 	}
 
+	/**
+	 * Get the string representation of this reported peptide. Built once and cached until a field of this
+	 * reported peptide or of one of its peptides is changed.
+	 */
 	public String toString() {
+
+		if( this.canonicalString == null || havePeptidesChanged() ) {
+			clearCachedValues();
+
+			this.peptide1ChangeCount = getChangeCount( this.getPeptide1() );
+			this.peptide2ChangeCount = getChangeCount( this.getPeptide2() );
+			this.canonicalString = buildCanonicalString();
+		}
+
+		return this.canonicalString;
+	}
+
+	/**
+	 * Return true if either peptide has been changed since the string representation was built
+	 *
+	 * @return
+	 */
+	private boolean havePeptidesChanged() {
+		return this.peptide1ChangeCount != getChangeCount( this.getPeptide1() ) ||
+			   this.peptide2ChangeCount != getChangeCount( this.getPeptide2() );
+	}
+
+	private static int getChangeCount( TPPPeptide peptide ) {
+		return peptide == null ? 0 : peptide.getChangeCount();
+	}
+
+	private String buildCanonicalString() {
 		
 		if( this.getType() == TPPConstants.LINK_TYPE_UNLINKED ) {
 			return this.getPeptide1().toString();
@@ -37,6 +99,7 @@ public class TPPReportedPeptide {
 
 	public void setType(int type) {
 		this.type = type;
+		clearCachedValues();
 	}
 
 	public TPPPeptide getPeptide1() {
@@ -45,6 +108,7 @@ public class TPPReportedPeptide {
 
 	public void setPeptide1(TPPPeptide peptide1) {
 		this.peptide1 = peptide1;
+		clearCachedValues();
 	}
 
 	public TPPPeptide getPeptide2() {
@@ -53,6 +117,7 @@ public class TPPReportedPeptide {
 
 	public void setPeptide2(TPPPeptide peptide2) {
 		this.peptide2 = peptide2;
+		clearCachedValues();
 	}
 
 	public int getPosition1() {
@@ -61,6 +126,7 @@ public class TPPReportedPeptide {
 
 	public void setPosition1(int position1) {
 		this.position1 = position1;
+		clearCachedValues();
 	}
 
 	public int getPosition2() {
@@ -69,6 +135,7 @@ public class TPPReportedPeptide {
 
 	public void setPosition2(int position2) {
 		this.position2 = position2;
+		clearCachedValues();
 	}
 	
 	private int type;
@@ -76,5 +143,16 @@ public class TPPReportedPeptide {
 	private TPPPeptide peptide2;
 	private int position1;
 	private int position2;
+
+	private void clearCachedValues() {
+		this.canonicalString = null;
+		this.hashCodeSet = false;
+	}
+
+	private String canonicalString;
+	private int peptide1ChangeCount;
+	private int peptide2ChangeCount;
+	private int hashCode;
+	private boolean hashCodeSet;
 	
 }
@@ -1,24 +1,44 @@
 package org.yeastrc.proxl.xml.kojak_tpp.objects;
 
+import org.yeastrc.proxl.xml.kojak_tpp.utils.PackedDecimal;
+
 import java.math.BigDecimal;
 
+/**
+ * A PSM. There may be tens of millions of these in a conversion, so the scores are not held as BigDecimal objects
+ * but packed into longs (see PackedDecimal). The getters return BigDecimals equal in value and scale to those set,
+ * so the scores are written out as the same text. A score that can not be packed is kept as a BigDecimal in
+ * unpackableScores, which is only created if needed. The scan file name is likewise stored as a symbol ID.
+ */
 public class TPPResult {
 
-	private String scanFile;
+	private static final int KOJAK_SCORE = 0;
+	private static final int DELTA_SCORE = 1;
+	private static final int PPM_ERROR = 2;
+	private static final int INTERPROPHET_SCORE = 3;
+	private static final int PEPTIDEPROPHET_SCORE = 4;
+	private static final int LINKER_MASS = 5;
+	private static final int SCORE_COUNT = 6;
+
+	private int scanFileId;
 	private int scanNumber;
 	private int charge;
-	private BigDecimal kojakScore;
-	private BigDecimal deltaScore;
-	private BigDecimal ppmError;
-	private BigDecimal interProphetScore;
-	private BigDecimal peptideProphetScore;
-	private BigDecimal linkerMass;
-	
-	public String getScanFile() {
-		return scanFile;
-	}
-	public void setScanFile(String scanFile) {
-		this.scanFile = scanFile;
+	private long kojakScore = PackedDecimal.ABSENT;
+	private long deltaScore = PackedDecimal.ABSENT;
+	private long ppmError = PackedDecimal.ABSENT;
+	private long interProphetScore = PackedDecimal.ABSENT;
+	private long peptideProphetScore = PackedDecimal.ABSENT;
+	private long linkerMass = PackedDecimal.ABSENT;
+	private BigDecimal[] unpackableScores;
+
+	/**
+	 * Get the ID of the name of the scan file in the analysis' symbol table, see TPPAnalysis.getSymbolTable()
+	 */
+	public int getScanFileId() {
+		return scanFileId;
+	}
+	public void setScanFileId(int scanFileId) {
+		this.scanFileId = scanFileId;
 	}
 	public int getScanNumber() {
 		return scanNumber;
@@ -27,34 +47,43 @@ public class TPPResult {
 		this.scanNumber = scanNumber;
 	}
 	public BigDecimal getKojakScore() {
-		return kojakScore;
+		return unpack( KOJAK_SCORE, kojakScore );
 	}
 	public void setKojakScore(BigDecimal kojakScore) {
-		this.kojakScore = kojakScore;
+		this.kojakScore = pack( KOJAK_SCORE, kojakScore );
+	}
+	public void setKojakScore(String kojakScore) {
+		this.kojakScore = pack( KOJAK_SCORE, kojakScore );
 	}
 	public BigDecimal getDeltaScore() {
-		return deltaScore;
+		return unpack( DELTA_SCORE, deltaScore );
 	}
 	public void setDeltaScore(BigDecimal deltaScore) {
-		this.deltaScore = deltaScore;
+		this.deltaScore = pack( DELTA_SCORE, deltaScore );
+	}
+	public void setDeltaScore(String deltaScore) {
+		this.deltaScore = pack( DELTA_SCORE, deltaScore );
 	}
 	public BigDecimal getPpmError() {
-		return ppmError;
+		return unpack( PPM_ERROR, ppmError );
 	}
 	public void setPpmError(BigDecimal ppmError) {
-		this.ppmError = ppmError;
+		this.ppmError = pack( PPM_ERROR, ppmError );
+	}
+	public void setPpmError(String ppmError) {
+		this.ppmError = pack( PPM_ERROR, ppmError );
 	}
 	public BigDecimal getInterProphetScore() {
-		return interProphetScore;
+		return unpack( INTERPROPHET_SCORE, interProphetScore );
 	}
 	public void setInterProphetScore(BigDecimal interProphetScore) {
-		this.interProphetScore = interProphetScore;
+		this.interProphetScore = pack( INTERPROPHET_SCORE, interProphetScore );
 	}
 	public BigDecimal getPeptideProphetScore() {
-		return peptideProphetScore;
+		return unpack( PEPTIDEPROPHET_SCORE, peptideProphetScore );
 	}
 	public void setPeptideProphetScore(BigDecimal peptideProphetScore) {
-		this.peptideProphetScore = peptideProphetScore;
+		this.peptideProphetScore = pack( PEPTIDEPROPHET_SCORE, peptideProphetScore );
 	}
 	public int getCharge() {
 		return charge;
@@ -63,12 +92,58 @@ public class TPPResult {
 		this.charge = charge;
 	}
 	public BigDecimal getLinkerMass() {
-		return linkerMass;
+		return unpack( LINKER_MASS, linkerMass );
 	}
 	public void setLinkerMass(BigDecimal linkerMass) {
-		this.linkerMass = linkerMass;
+		this.linkerMass = pack( LINKER_MASS, linkerMass );
+	}
+
+	/**
+	 * Pack the score, keeping it in unpackableScores if it can not be packed
+	 *
+	 * @param score The index of the score in unpackableScores
+	 * @param value
+	 * @return
+	 */
+	private long pack( int score, BigDecimal value ) {
+
+		long packed = PackedDecimal.pack( value );
+
+		if( packed == PackedDecimal.NOT_PACKABLE ) {
+
+			if( unpackableScores == null )
+				unpackableScores = new BigDecimal[ SCORE_COUNT ];
+
+			unpackableScores[ score ] = value;
+		}
+
+		return packed;
+	}
+
+	/**
+	 * Pack the score given as text, as new BigDecimal( value ) would be
+	 *
+	 * @param score The index of the score in unpackableScores
+	 * @param value
+	 * @return
+	 * @throws NumberFormatException If value is not a valid decimal
+	 */
+	private long pack( int score, String value ) {
+
+		long packed = PackedDecimal.pack( value );
+
+		if( packed == PackedDecimal.NOT_PACKABLE )
+			return pack( score, new BigDecimal( value ) );
+
+		return packed;
+	}
+
+	private BigDecimal unpack( int score, long packed ) {
+
+		if( packed == PackedDecimal.NOT_PACKABLE )
+			return unpackableScores[ score ];
+
+		return PackedDecimal.toBigDecimal( packed );
 	}
-	
-	
-	
+
 }
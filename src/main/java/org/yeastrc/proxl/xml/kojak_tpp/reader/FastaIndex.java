@@ -0,0 +1,401 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import org.yeastrc.proxl.xml.kojak_tpp.utils.AhoCorasickMatcher;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ChecksumUtils;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory mapped index of a FASTA file, so that the proteins of a FASTA file that is used for many conversions
+ * are looked up without reading and parsing the text FASTA file every time. The index file is built from the FASTA
+ * file once (see FastaIndexWriter), and is rebuilt if the FASTA file changes.
+ *
+ * The index file is made up of a header followed by one section per entry in Section. The header holds:
+ *   - MAGIC and VERSION
+ *   - the length, last modified time and CRC32 checksum of the FASTA file the index was made from
+ *   - the number of FASTA entries and the number of FASTA headers
+ *   - the number of sections, then the offset and length in bytes of each section, in the order of Section
+ *
+ * Sequences are stored with every leucine replaced by isoleucine, so they can be searched for leucine->isoleucine
+ * normalized peptides directly, along with the positions of the leucines so the original sequences can be restored.
+ * All values are big-endian.
+ *
+ * Instances are immutable and may be shared between threads.
+ *
+ * @author mriffle
+ *
+ */
+public class FastaIndex {
+
+	static final byte[] MAGIC = "KTPPFAIX".getBytes( StandardCharsets.US_ASCII );
+	static final int VERSION = 1;
+
+	/**
+	 * Appended to the name of the FASTA file and the hash of its path to get the name of its index file
+	 */
+	public static final String FILE_SUFFIX = ".fasta-index";
+
+	static final int NULL_DESCRIPTION = -1;
+
+	/**
+	 * The sections of an index file, in the order they are stored
+	 */
+	enum Section {
+
+		/**
+		 * The leucine->isoleucine normalized sequences of all entries, one byte per residue
+		 */
+		SEQUENCES,
+
+		/**
+		 * long per entry, plus one: the offset of each entry's sequence in SEQUENCES
+		 */
+		SEQUENCE_OFFSETS,
+
+		/**
+		 * int per leucine: the positions of the leucines in each entry's sequence
+		 */
+		LEUCINE_POSITIONS,
+
+		/**
+		 * long per entry, plus one: the index of each entry's first leucine in LEUCINE_POSITIONS
+		 */
+		LEUCINE_OFFSETS,
+
+		/**
+		 * int per entry, plus one: the index of each entry's first header
+		 */
+		ENTRY_HEADER_OFFSETS,
+
+		/**
+		 * The UTF-8 names and descriptions of all headers
+		 */
+		HEADER_TEXT,
+
+		/**
+		 * long per header: the offset of the header's name in HEADER_TEXT, its description follows the name
+		 */
+		HEADER_TEXT_OFFSETS,
+
+		/**
+		 * int per header: the length in bytes of the header's name
+		 */
+		HEADER_NAME_LENGTHS,
+
+		/**
+		 * int per header: the length in bytes of the header's description, or NULL_DESCRIPTION
+		 */
+		HEADER_DESCRIPTION_LENGTHS,
+
+		/**
+		 * int per header: the entry the header belongs to
+		 */
+		HEADER_ENTRIES,
+
+		/**
+		 * int per header: the headers, sorted by name
+		 */
+		SORTED_HEADERS
+	}
+
+	/**
+	 * Get the index of the FASTA file in the index directory, building it first if there is no index of the
+	 * current contents of the FASTA file.
+	 *
+	 * @param fastaFile The FASTA file
+	 * @param indexDirectory The directory that holds FASTA index files
+	 * @return The index
+	 * @throws Exception If the index could not be built or read
+	 */
+	public static FastaIndex getInstance( File fastaFile, File indexDirectory ) throws Exception {
+
+		File indexFile = getIndexFile( indexDirectory, fastaFile );
+
+		long checksum = ChecksumUtils.getCRC32( fastaFile );
+
+		if( !isValidFor( indexFile, fastaFile, checksum ) ) {
+			System.err.print( " Building FASTA index " + indexFile.getAbsolutePath() + "..." );
+			FastaIndexWriter.write( fastaFile, checksum, indexFile );
+		}
+
+		return new FastaIndex( indexFile );
+	}
+
+	/**
+	 * Get the index file for the FASTA file in the index directory. The name of the index file is the name of the
+	 * FASTA file followed by a hash of its absolute path, so that FASTA files with the same name in different
+	 * directories never use the same index file.
+	 *
+	 * @param indexDirectory
+	 * @param fastaFile
+	 * @return
+	 * @throws Exception
+	 */
+	public static File getIndexFile( File indexDirectory, File fastaFile ) throws Exception {
+		return new File( indexDirectory, ChecksumUtils.getPathHashedFileName( fastaFile, FILE_SUFFIX ) );
+	}
+
+	/**
+	 * The size of the header in bytes
+	 *
+	 * @return
+	 */
+	static int getHeaderSize() {
+		return MAGIC.length + 4 + 8 + 8 + 8 + 4 + 4 + 4 + Section.values().length * 16;
+	}
+
+	/**
+	 * Return true if the index file exists and was built from the current contents of the FASTA file
+	 *
+	 * @param indexFile
+	 * @param fastaFile
+	 * @param checksum The CRC32 checksum of the contents of the FASTA file
+	 * @return
+	 * @throws Exception
+	 */
+	private static boolean isValidFor( File indexFile, File fastaFile, long checksum ) throws Exception {
+
+		if( !indexFile.isFile() || indexFile.length() < getHeaderSize() )
+			return false;
+
+		try ( DataInputStream in = new DataInputStream( new FileInputStream( indexFile ) ) ) {
+
+			byte[] magic = new byte[ MAGIC.length ];
+			in.readFully( magic );
+
+			return Arrays.equals( magic, MAGIC ) &&
+					in.readInt() == VERSION &&
+					in.readLong() == fastaFile.length() &&
+					in.readLong() == fastaFile.lastModified() &&
+					in.readLong() == checksum;
+		}
+	}
+
+	/**
+	 * Map the sections of the index file
+	 *
+	 * @param indexFile
+	 * @throws Exception
+	 */
+	private FastaIndex( File indexFile ) throws Exception {
+
+		try ( RandomAccessFile file = new RandomAccessFile( indexFile, "r" ) ) {
+
+			file.seek( MAGIC.length + 4 + 8 + 8 + 8 );
+
+			this.entryCount = file.readInt();
+			this.headerCount = file.readInt();
+
+			if( file.readInt() != Section.values().length )
+				throw new Exception( "Got unexpected number of sections in FASTA index file: " + indexFile.getAbsolutePath() );
+
+			FileChannel channel = file.getChannel();
+
+			for( Section section : Section.values() ) {
+
+				long offset = file.readLong();
+				long length = file.readLong();
+
+				if( length > Integer.MAX_VALUE )
+					throw new Exception( "FASTA is too large to be indexed, section " + section + " is " + length + " bytes." );
+
+				this.sections.put( section, channel.map( FileChannel.MapMode.READ_ONLY, offset, length ) );
+			}
+		}
+
+		this.sequences = this.sections.get( Section.SEQUENCES );
+		this.headerText = this.sections.get( Section.HEADER_TEXT );
+	}
+
+	/**
+	 * Get the number of entries in the FASTA file
+	 *
+	 * @return
+	 */
+	public int getEntryCount() {
+		return this.entryCount;
+	}
+
+	/**
+	 * Get the number of headers in the FASTA file
+	 *
+	 * @return
+	 */
+	public int getHeaderCount() {
+		return this.headerCount;
+	}
+
+	/**
+	 * Get the sequence of the entry, as it is in the FASTA file
+	 *
+	 * @param entry
+	 * @return
+	 */
+	public String getSequence( int entry ) {
+
+		int start = getSequenceOffset( entry );
+		char[] sequence = new char[ getSequenceOffset( entry + 1 ) - start ];
+
+		for( int i = 0; i < sequence.length; i++ ) {
+			sequence[ i ] = (char)( this.sequences.get( start + i ) & 0xFF );
+		}
+
+		ByteBuffer leucineOffsets = this.sections.get( Section.LEUCINE_OFFSETS );
+		ByteBuffer leucinePositions = this.sections.get( Section.LEUCINE_POSITIONS );
+
+		int leucineEnd = (int)leucineOffsets.getLong( ( entry + 1 ) * 8 );
+
+		for( int leucine = (int)leucineOffsets.getLong( entry * 8 ); leucine < leucineEnd; leucine++ ) {
+			sequence[ leucinePositions.getInt( leucine * 4 ) ] = 'L';
+		}
+
+		return new String( sequence );
+	}
+
+	/**
+	 * Find all patterns of the matcher contained in the leucine->isoleucine normalized sequence of the entry.
+	 * See AhoCorasickMatcher.findPatterns().
+	 *
+	 * @param entry
+	 * @param matcher
+	 * @param found
+	 * @return true if any pattern was found in the sequence, false otherwise
+	 */
+	public boolean findPatternsInNormalizedSequence( int entry, AhoCorasickMatcher matcher, boolean[] found ) {
+		return matcher.findPatterns( this.sequences, getSequenceOffset( entry ), getSequenceOffset( entry + 1 ), found );
+	}
+
+	/**
+	 * Get the index of the first header of the entry. The headers of an entry are numbered consecutively, in the order
+	 * they are in the FASTA file.
+	 *
+	 * @param entry
+	 * @return
+	 */
+	public int getFirstHeader( int entry ) {
+		return this.sections.get( Section.ENTRY_HEADER_OFFSETS ).getInt( entry * 4 );
+	}
+
+	/**
+	 * Get the index after the last header of the entry
+	 *
+	 * @param entry
+	 * @return
+	 */
+	public int getEndHeader( int entry ) {
+		return getFirstHeader( entry + 1 );
+	}
+
+	/**
+	 * Get the entry the header belongs to
+	 *
+	 * @param header
+	 * @return
+	 */
+	public int getHeaderEntry( int header ) {
+		return this.sections.get( Section.HEADER_ENTRIES ).getInt( header * 4 );
+	}
+
+	/**
+	 * Get the name of the header
+	 *
+	 * @param header
+	 * @return
+	 */
+	public String getHeaderName( int header ) {
+
+		long offset = this.sections.get( Section.HEADER_TEXT_OFFSETS ).getLong( header * 8 );
+
+		return getHeaderText( (int)offset, this.sections.get( Section.HEADER_NAME_LENGTHS ).getInt( header * 4 ) );
+	}
+
+	/**
+	 * Get the description of the header, null if it has none
+	 *
+	 * @param header
+	 * @return
+	 */
+	public String getHeaderDescription( int header ) {
+
+		int length = this.sections.get( Section.HEADER_DESCRIPTION_LENGTHS ).getInt( header * 4 );
+
+		if( length == NULL_DESCRIPTION )
+			return null;
+
+		long offset = this.sections.get( Section.HEADER_TEXT_OFFSETS ).getLong( header * 8 ) + this.sections.get( Section.HEADER_NAME_LENGTHS ).getInt( header * 4 );
+
+		return getHeaderText( (int)offset, length );
+	}
+
+	/**
+	 * Find all headers whose name starts with the prefix
+	 *
+	 * @param prefix
+	 * @return The headers, sorted by name
+	 */
+	public List<Integer> findHeadersWithNamePrefix( String prefix ) {
+
+		ByteBuffer sortedHeaders = this.sections.get( Section.SORTED_HEADERS );
+
+		// find the first header name that is not less than the prefix, all names starting with the prefix sort together from there
+		int low = 0;
+		int high = this.headerCount;
+
+		while( low < high ) {
+
+			int middle = ( low + high ) >>> 1;
+
+			if( getHeaderName( sortedHeaders.getInt( middle * 4 ) ).compareTo( prefix ) < 0 )
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		List<Integer> headers = new ArrayList<>();
+
+		for( int i = low; i < this.headerCount; i++ ) {
+
+			int header = sortedHeaders.getInt( i * 4 );
+
+			if( !getHeaderName( header ).startsWith( prefix ) )
+				break;
+
+			headers.add( header );
+		}
+
+		return headers;
+	}
+
+	private int getSequenceOffset( int entry ) {
+		return (int)this.sections.get( Section.SEQUENCE_OFFSETS ).getLong( entry * 8 );
+	}
+
+	private String getHeaderText( int offset, int length ) {
+
+		byte[] text = new byte[ length ];
+
+		for( int i = 0; i < length; i++ ) {
+			text[ i ] = this.headerText.get( offset + i );
+		}
+
+		return new String( text, StandardCharsets.UTF_8 );
+	}
+
+
+	private final Map<Section, ByteBuffer> sections = new EnumMap<>( Section.class );
+	private final ByteBuffer sequences;
+	private final ByteBuffer headerText;
+	private int entryCount;
+	private int headerCount;
+}
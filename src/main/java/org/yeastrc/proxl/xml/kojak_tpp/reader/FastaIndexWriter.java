@@ -0,0 +1,223 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import org.yeastrc.proteomics.fasta.FASTAEntry;
+import org.yeastrc.proteomics.fasta.FASTAFileParser;
+import org.yeastrc.proteomics.fasta.FASTAFileParserFactory;
+import org.yeastrc.proteomics.fasta.FASTAHeader;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.FastaIndex.Section;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.CompressionUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a FASTA index file (see FastaIndex) from a FASTA file. Each section is written to its own temporary file
+ * as the FASTA file is read, and the sections are then joined into the index file.
+ *
+ * @author mriffle
+ *
+ */
+class FastaIndexWriter {
+
+	/**
+	 * Read the FASTA file and write its index file. The index file is only replaced once it is complete.
+	 *
+	 * @param fastaFile The FASTA file
+	 * @param checksum The CRC32 checksum of the contents of the FASTA file
+	 * @param indexFile The index file to write
+	 * @throws Exception If there is a problem reading the FASTA file or writing the index file
+	 */
+	static void write( File fastaFile, long checksum, File indexFile ) throws Exception {
+
+		File sectionDirectory = Files.createTempDirectory( indexFile.getAbsoluteFile().getParentFile().toPath(), indexFile.getName() + "." ).toFile();
+
+		try {
+			new FastaIndexWriter( sectionDirectory ).writeIndex( fastaFile, checksum, indexFile );
+		} finally {
+			for( File file : sectionDirectory.listFiles() ) {
+				file.delete();
+			}
+			sectionDirectory.delete();
+		}
+	}
+
+	private FastaIndexWriter( File sectionDirectory ) {
+		this.sectionDirectory = sectionDirectory;
+	}
+
+	private void writeIndex( File fastaFile, long checksum, File indexFile ) throws Exception {
+
+		for( Section section : Section.values() ) {
+			File sectionFile = new File( this.sectionDirectory, section.name() );
+			this.sectionFiles.put( section, sectionFile );
+			this.sections.put( section, new DataOutputStream( new BufferedOutputStream( new FileOutputStream( sectionFile ), 64 * 1024 ) ) );
+		}
+
+		try {
+
+			try ( FASTAFileParser parser = FASTAFileParserFactory.getInstance().getFASTAFileParser( CompressionUtils.getUncompressedFile( fastaFile ) ) ) {
+
+				section( Section.SEQUENCE_OFFSETS ).writeLong( 0 );
+				section( Section.LEUCINE_OFFSETS ).writeLong( 0 );
+				section( Section.ENTRY_HEADER_OFFSETS ).writeInt( 0 );
+
+				for( FASTAEntry entry = parser.getNextEntry(); entry != null; entry = parser.getNextEntry() ) {
+					writeEntry( entry );
+				}
+			}
+
+			writeSortedHeaders();
+
+		} finally {
+			for( DataOutputStream section : this.sections.values() ) {
+				section.close();
+			}
+		}
+
+		File tempIndexFile = new File( this.sectionDirectory, "index" );
+
+		try ( FileOutputStream fos = new FileOutputStream( tempIndexFile ) ) {
+
+			DataOutputStream header = new DataOutputStream( new BufferedOutputStream( fos ) );
+
+			header.write( FastaIndex.MAGIC );
+			header.writeInt( FastaIndex.VERSION );
+			header.writeLong( fastaFile.length() );
+			header.writeLong( fastaFile.lastModified() );
+			header.writeLong( checksum );
+			header.writeInt( this.entryCount );
+			header.writeInt( this.headerNames.size() );
+			header.writeInt( Section.values().length );
+
+			long offset = FastaIndex.getHeaderSize();
+
+			for( Section section : Section.values() ) {
+				long length = this.sectionFiles.get( section ).length();
+				header.writeLong( offset );
+				header.writeLong( length );
+				offset += length;
+			}
+
+			header.flush();
+
+			FileChannel out = fos.getChannel();
+
+			for( Section section : Section.values() ) {
+				try ( FileChannel in = new FileInputStream( this.sectionFiles.get( section ) ).getChannel() ) {
+					for( long position = 0; position < in.size(); ) {
+						position += in.transferTo( position, in.size() - position, out );
+					}
+				}
+			}
+		}
+
+		try {
+			Files.move( tempIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		} catch( Exception e ) {
+			Files.move( tempIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+	}
+
+	/**
+	 * Write the sequence and headers of the entry
+	 *
+	 * @param entry
+	 * @throws Exception
+	 */
+	private void writeEntry( FASTAEntry entry ) throws Exception {
+
+		String sequence = entry.getSequence();
+		DataOutputStream sequences = section( Section.SEQUENCES );
+
+		for( int i = 0; i < sequence.length(); i++ ) {
+
+			char residue = sequence.charAt( i );
+
+			if( residue > 0xFF )
+				throw new Exception( "Got unexpected character in sequence of FASTA entry: " + entry.getHeaders().iterator().next().getName() );
+
+			if( residue == 'L' ) {
+				section( Section.LEUCINE_POSITIONS ).writeInt( i );
+				this.leucineCount++;
+				residue = 'I';
+			}
+
+			sequences.write( residue );
+		}
+
+		this.sequenceLength += sequence.length();
+		section( Section.SEQUENCE_OFFSETS ).writeLong( this.sequenceLength );
+		section( Section.LEUCINE_OFFSETS ).writeLong( this.leucineCount );
+
+		for( FASTAHeader header : entry.getHeaders() ) {
+
+			byte[] name = header.getName().getBytes( StandardCharsets.UTF_8 );
+			byte[] description = header.getDescription() == null ? null : header.getDescription().getBytes( StandardCharsets.UTF_8 );
+
+			section( Section.HEADER_TEXT_OFFSETS ).writeLong( this.headerTextLength );
+			section( Section.HEADER_NAME_LENGTHS ).writeInt( name.length );
+			section( Section.HEADER_DESCRIPTION_LENGTHS ).writeInt( description == null ? FastaIndex.NULL_DESCRIPTION : description.length );
+			section( Section.HEADER_ENTRIES ).writeInt( this.entryCount );
+
+			section( Section.HEADER_TEXT ).write( name );
+			this.headerTextLength += name.length;
+
+			if( description != null ) {
+				section( Section.HEADER_TEXT ).write( description );
+				this.headerTextLength += description.length;
+			}
+
+			this.headerNames.add( header.getName() );
+		}
+
+		section( Section.ENTRY_HEADER_OFFSETS ).writeInt( this.headerNames.size() );
+
+		this.entryCount++;
+	}
+
+	/**
+	 * Write the headers, sorted by name
+	 *
+	 * @throws Exception
+	 */
+	private void writeSortedHeaders() throws Exception {
+
+		Integer[] sortedHeaders = new Integer[ this.headerNames.size() ];
+
+		for( int i = 0; i < sortedHeaders.length; i++ ) {
+			sortedHeaders[ i ] = i;
+		}
+
+		Arrays.sort( sortedHeaders, ( a, b ) -> this.headerNames.get( a ).compareTo( this.headerNames.get( b ) ) );
+
+		for( int header : sortedHeaders ) {
+			section( Section.SORTED_HEADERS ).writeInt( header );
+		}
+	}
+
+	private DataOutputStream section( Section section ) {
+		return this.sections.get( section );
+	}
+
+
+	private final File sectionDirectory;
+	private final Map<Section, File> sectionFiles = new EnumMap<>( Section.class );
+	private final Map<Section, DataOutputStream> sections = new EnumMap<>( Section.class );
+	private final List<String> headerNames = new ArrayList<>();
+	private int entryCount = 0;
+	private long sequenceLength = 0;
+	private long leucineCount = 0;
+	private long headerTextLength = 0;
+}
@@ -0,0 +1,175 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import org.yeastrc.proteomics.fasta.FASTAEntry;
+import org.yeastrc.proteomics.fasta.FASTAFileParser;
+import org.yeastrc.proteomics.fasta.FASTAFileParserFactory;
+import org.yeastrc.proxl.xml.kojak_tpp.builder.MatchedProteinsBuilder;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.AhoCorasickMatcher;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.CompressionUtils;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.OrderedChunkExecutor;
+import org.yeastrc.proxl_import.api.xml_dto.MatchedProteins;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Answers the questions a conversion asks of the FASTA file: which proteins with a given name prefix contain a
+ * peptide (to confirm the target proteins reported in the pepXML, see getProteinSequenceIndex()), and which target
+ * proteins contain any reported peptide (for the matched proteins, see getMatchedProteins()).
+ *
+ * If there is a FASTA index, both are looked up in the index. Otherwise the FASTA file is read once, when the target
+ * proteins are confirmed, keeping only the sequences of the proteins with the reported names and the entries that
+ * contain any reported peptide. The matched proteins are then found in those entries, rather than by reading the
+ * FASTA file again.
+ *
+ * @author mriffle
+ *
+ */
+public class FastaService {
+
+	/**
+	 * The number of FASTA entries matched at a time by a worker thread when matching in parallel
+	 */
+	private static final int FASTA_CHUNK_SIZE = 500;
+
+	/**
+	 * @param fastaFile The FASTA file
+	 * @param fastaIndex The index of the FASTA file, null to read the FASTA file
+	 */
+	public FastaService( File fastaFile, FastaIndex fastaIndex ) {
+		this.fastaFile = fastaFile;
+		this.fastaIndex = fastaIndex;
+	}
+
+	/**
+	 * Get the sequences of the FASTA entries with a header name that starts with one of the protein names. If the
+	 * FASTA file is read to do this, the entries that contain any of the peptide sequences (or their leucine->isoleucine
+	 * substitutions) are kept for getMatchedProteins().
+	 *
+	 * @param proteinNames The protein names that are to be looked up
+	 * @param peptideSequences All peptide sequences that may later be passed to getMatchedProteins()
+	 * @param threadCount The number of threads to use to match the peptides to the FASTA entries
+	 * @return
+	 * @throws Exception
+	 */
+	public ProteinSequenceIndex getProteinSequenceIndex( Collection<String> proteinNames, Collection<String> peptideSequences, int threadCount ) throws Exception {
+
+		if( this.fastaIndex != null )
+			return ProteinSequenceIndex.build( this.fastaIndex, proteinNames );
+
+		ProteinSequenceIndex proteinSequenceIndex = new ProteinSequenceIndex( proteinNames );
+
+		Set<String> searchSequences = new HashSet<>();
+		for( String peptideSequence : peptideSequences ) {
+			searchSequences.add( peptideSequence.replace( 'L', 'I' ) );
+		}
+
+		AhoCorasickMatcher peptideMatcher = new AhoCorasickMatcher( new ArrayList<>( searchSequences ) );
+		List<FASTAEntry> peptideEntries = new ArrayList<>();
+
+		try ( FASTAFileParser parser = FASTAFileParserFactory.getInstance().getFASTAFileParser( CompressionUtils.getUncompressedFile( this.fastaFile ) );
+			  OrderedChunkExecutor<FASTAEntry, List<FASTAEntry>> chunkExecutor = new OrderedChunkExecutor<>( threadCount, FASTA_CHUNK_SIZE,
+					  chunk -> getPeptideEntries( chunk, peptideMatcher ), peptideEntries::addAll ) ) {
+
+			for (FASTAEntry entry = parser.getNextEntry(); entry != null; entry = parser.getNextEntry() ) {
+
+				proteinSequenceIndex.addFastaEntry( entry );
+				chunkExecutor.add( entry );
+			}
+
+			chunkExecutor.finish();
+		}
+
+		this.peptideEntries = peptideEntries;
+		this.peptideEntrySequences = new HashSet<>( peptideSequences );
+
+		return proteinSequenceIndex;
+	}
+
+	/**
+	 * Get the matched proteins section of the ProXL XML document, see MatchedProteinsBuilder. If the FASTA file was
+	 * read by getProteinSequenceIndex() and all of the peptides were passed to it, only the entries it kept are
+	 * matched. Otherwise the FASTA index or FASTA file is used.
+	 *
+	 * @param matchedProteinsBuilder
+	 * @param peptideSequences
+	 * @param decoyPrefixes
+	 * @param isotopeLabel
+	 * @param threadCount
+	 * @return
+	 * @throws Exception
+	 */
+	public MatchedProteins getMatchedProteins( MatchedProteinsBuilder matchedProteinsBuilder,
+											   Collection<String> peptideSequences,
+											   Collection<String> decoyPrefixes,
+											   String isotopeLabel,
+											   int threadCount ) throws Exception {
+
+		if( this.fastaIndex != null )
+			return matchedProteinsBuilder.getMatchedProteins( this.fastaIndex, peptideSequences, decoyPrefixes, isotopeLabel, threadCount );
+
+		if( this.peptideEntries != null && this.peptideEntrySequences.containsAll( peptideSequences ) )
+			return matchedProteinsBuilder.getMatchedProteins( this.peptideEntries, peptideSequences, decoyPrefixes, isotopeLabel );
+
+		return matchedProteinsBuilder.getMatchedProteins( this.fastaFile, peptideSequences, decoyPrefixes, isotopeLabel, threadCount );
+	}
+
+	/**
+	 * Get the FASTA file
+	 *
+	 * @return
+	 */
+	public File getFastaFile() {
+		return this.fastaFile;
+	}
+
+	/**
+	 * Get the index of the FASTA file, null if the FASTA file is read instead
+	 *
+	 * @return
+	 */
+	public FastaIndex getFastaIndex() {
+		return this.fastaIndex;
+	}
+
+	/**
+	 * Get the entries of a chunk of FASTA entries that contain any of the peptides
+	 *
+	 * @param chunk
+	 * @param peptideMatcher
+	 * @return The entries of the chunk that contain any of the peptides, in order
+	 */
+	private static List<FASTAEntry> getPeptideEntries( List<FASTAEntry> chunk, AhoCorasickMatcher peptideMatcher ) {
+
+		List<FASTAEntry> chunkPeptideEntries = new ArrayList<>();
+
+		for( FASTAEntry entry : chunk ) {
+			if( containsAnyPeptide( entry, peptideMatcher ) )
+				chunkPeptideEntries.add( entry );
+		}
+
+		return chunkPeptideEntries;
+	}
+
+	/**
+	 * Return true if the leucine->isoleucine normalized sequence of the entry contains any of the peptides
+	 *
+	 * @param entry
+	 * @param peptideMatcher
+	 * @return
+	 */
+	private static boolean containsAnyPeptide( FASTAEntry entry, AhoCorasickMatcher peptideMatcher ) {
+
+		return peptideMatcher.containsAnyPattern( entry.getSequence().replace( 'L', 'I' ) );
+	}
+
+
+	private final File fastaFile;
+	private final FastaIndex fastaIndex;
+	private List<FASTAEntry> peptideEntries;
+	private Set<String> peptideEntrySequences;
+}
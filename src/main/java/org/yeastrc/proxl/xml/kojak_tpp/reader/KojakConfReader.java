@@ -11,23 +11,45 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * A class for reading the values from a Kojak conf file. Once a value is
- * queried, it will read the file once and store the values for future
- * reference.
+ * A class for reading the values from one or more Kojak conf files. Once a value is
+ * queried, it will read each file once, in a single pass, and store the values for future
+ * reference. When multiple files are given, their values are merged and checked for
+ * consistency.
+ *
+ * Instances may be shared between threads: the files are read by the first thread to query a value, and all
+ * threads see the values once they are all read.
  * 
  * @author mriffle
  *
  */
 public class KojakConfReader {
 
+	private static final Pattern WHITESPACE_PATTERN = Pattern.compile( "\\s+" );
+	private static final Pattern TRAILING_COMMENT_PATTERN = Pattern.compile( "\\s*#.*$" );
+	private static final Pattern KEY_VALUE_SEPARATOR_PATTERN = Pattern.compile( "\\s*=\\s*" );
+	private static final Pattern PREDEFINED_CROSSLINK_PATTERN = Pattern.compile( "^predefined_crosslink\\s+=\\s*(\\d+).*$" );
+
 	public static KojakConfReader getInstance( String filename ) {
-		return new KojakConfReader( filename );
+		return new KojakConfReader( Collections.singletonList( new File( filename ) ) );
+	}
+	
+	/**
+	 * Get a reader for all of the supplied Kojak conf files. The values read from all files will be
+	 * merged, see parseFiles()
+	 * 
+	 * @param files
+	 * @return
+	 */
+	public static KojakConfReader getInstance( Collection<File> files ) {
+		return new KojakConfReader( new ArrayList<>( files ) );
 	}
 	
-	private KojakConfReader( String filename ) {
-		this.file = new File( filename );
-	}	
-	private KojakConfReader() { }
+	private KojakConfReader( List<File> files ) {
+		if( files.isEmpty() )
+			throw new IllegalArgumentException( "Got no Kojak conf files." );
+		
+		this.files = files;
+	}
 
 	/**
 	 * Get the linkable end defined by the linkable end field of a Kojak conf file predefined linker
@@ -70,7 +92,7 @@ public class KojakConfReader {
 	 * @throws Exception If there is an error
 	 */
 	private KojakConfCrosslinker getCrosslinkerFromConfLine(String line) throws Exception {
-		String[] fields = line.split("\\s+");
+		String[] fields = WHITESPACE_PATTERN.split(line);
 		if(fields.length != 9) {
 			throw new Exception("Got invalid crosslinker definition line. Expected 9 fields. Got: " + line);
 		}
@@ -126,155 +148,200 @@ public class KojakConfReader {
 	}
 
 	/**
-	 * Get the Kojak cross-linker defined at the given index in the [XL_PARAMS] section of the conf file
-	 * Section looks like:
+	 * Given a Kojak conf line in the form of key = value value value value # optional comment
+	 * Get all of the values to the right of the equal sign
+	 * @param line A line from the Kojak conf file
+	 * @return A string array of values on that line
+	 */
+	String[] getFieldsFromKeyValuePairInConf(String line) {
+		// strip off training comment
+		String fixed_line = TRAILING_COMMENT_PATTERN.matcher(line).replaceAll("");
+		String[] kv = KEY_VALUE_SEPARATOR_PATTERN.split(fixed_line);
+		String[] fields = WHITESPACE_PATTERN.split(kv[1]);
+
+		return fields;
+	}
+
+	/**
+	 * Read the Kojak conf file once, collecting every value this class reports from it. Recognized lines:
+	 *
+	 * predefined_crosslink = 1
+	 * cross_link = nK nK 158.003765 DSSO     #Typical DSSO crosslinker settings
+	 * mono_link = nK 176.014330              #DSSO_H20_monolink
+	 * xl_cleavage_product_mass = 54.010565   #DSSO cleavage product mass #1
+	 * fixed_modification = C 57.02146
+	 * decoy_filter = DECOY 1
+	 * 15N_filter = 15N_
+	 *
+	 * and the lines of the [XL_PARAMS] section, which define the pre-defined cross-linkers:
 	 *
 	 * [XL_PARAMS]
 	 * 1   BS3/DSS  NH2       nK  nK  138.068074  155.094629             x      x
-	 * 2   BS3/DSS  NH2+H2O   nK  nK  138.068074  155.094629,156.078644  x  x
-	 * 3   BS3/DSS  Tris      nK  nK  138.068074  259.141973             x  x
-	 * 4   BS3/DSS  Tris+H2O  nK  nK  138.068074  259.141973,156.078644  x  x
 	 * 5   DSSO     NH2       nK  nK  158.003765  175.030314             x  54.010565,85.982635,103.993200
-	 * 6   DSSO     NH2+H2O   nK  nK  158.003765  175.030314,176.014330  x  54.010565,85.982635,103.993200
-	 * 7   DSSO     Tris      nK  nK  158.003765  279.077658             x  54.010565,85.982635,103.993200
-	 * 8   DSSO     Tris+H2O  nK  nK  158.003765  279.077658,176.014330  x  54.010565,85.982635,103.993200
-	 * 9   PhoX     NH2       nK  nK  209.972     226.998                x  x
-	 * 10  PhoX     NH2+H2O   nK  nK  209.972     226.998,227.982        x  x
 	 * [END_XL_PARAMS]
 	 *
-	 * @param is InputStream containing the Kojak conf file contents
-	 * @param index The index of the pre-defined cross-linker
-	 * @return The KojakConfCrosslinker defined at this index in the [XL_PARAMS] section
+	 * If a predefined cross-linker is used, it is always used. Otherwise the custom-defined cross-linker is used. The
+	 * cross_link, mono_link and xl_cleavage_product_mass lines are only parsed (and checked) if the custom-defined
+	 * cross-linker is used.
+	 *
+	 * @param confFile The Kojak conf file
+	 * @return The values parsed from the file
 	 * @throws Exception If there is a problem
 	 */
-	private KojakConfCrosslinker getCrosslinkerFromConfUsingIndex(InputStream is, int index) throws Exception {
+	private ParsedConfFile parseConfFile(File confFile) throws Exception {
+
+		ParsedConfFile parsed = new ParsedConfFile();
+
+		Integer predefinedCrosslinkIndex = null;
+		Map<Integer, String> predefinedCrosslinkLines = new HashMap<>();
 		boolean inXLParamsSection = false;
+		boolean foundXLParamsSection = false;
+
+		// the cross_link, mono_link and xl_cleavage_product_mass lines, in the order found
+		List<String> customCrosslinkerLines = new ArrayList<>();
 
-		try(BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(confFile)))) {
 			for (String line = br.readLine(); line != null; line = br.readLine()) {
 
 				if(inXLParamsSection) {
-					String[] fields = line.split("\\s");
+
+					if(line.equals("[END_XL_PARAMS]")) {
+						inXLParamsSection = false;
+						continue;
+					}
+
+					String[] fields = WHITESPACE_PATTERN.split(line.trim());
 					try {
-						if(Integer.parseInt(fields[0]) == index) {
-							return getCrosslinkerFromConfLine(line);
+						Integer index = Integer.parseInt(fields[0]);
+						if(!predefinedCrosslinkLines.containsKey(index)) {
+							predefinedCrosslinkLines.put(index, line.trim());
 						}
-					} catch(Exception e) { ; }
+					} catch(NumberFormatException e) { ; }
 
 				} else if(line.equals("[XL_PARAMS]")) {
-					if(inXLParamsSection) {
+
+					if(foundXLParamsSection) {
 						throw new Exception("Got two [XL_PARAMS] sections in params file.");
-					} else {
-						inXLParamsSection = true;
-						continue;
 					}
-				}
-			}
-		}
 
-		throw new Exception("Could not find predefined cross-linker for index: " + index);
-	}
+					inXLParamsSection = true;
+					foundXLParamsSection = true;
 
-	/**
-	 * Read through the conf file and get the index of the predefined cross-linker. If none is defined
-	 * returns null.
-	 *
-	 * @param is The InputStream containing the Kojak conf file contents
-	 * @return The index of the pre-defined cross-linker used, if one was used. null if not.
-	 * @throws Exception If there is a problem
-	 */
-	Integer getPredefinedCrosslinkIndexFromConf(InputStream is) throws Exception {
+				} else if(line.startsWith("predefined_crosslink")) {
 
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-			for (String line = br.readLine(); line != null; line = br.readLine()) {
-				if (line.startsWith("predefined_crosslink")) {
-					Pattern p = Pattern.compile("^predefined_crosslink\\s+=\\s*(\\d+).*$");
-					Matcher m = p.matcher(line);
-					if (m.matches()) {
-						return Integer.parseInt(m.group(1));
-					} else {
-						throw new Exception("Got invalid format for predefined_crosslink line. Got: " + line);
+					if(predefinedCrosslinkIndex == null) {
+						Matcher m = PREDEFINED_CROSSLINK_PATTERN.matcher(line);
+						if (m.matches()) {
+							predefinedCrosslinkIndex = Integer.parseInt(m.group(1));
+						} else {
+							throw new Exception("Got invalid format for predefined_crosslink line. Got: " + line);
+						}
+					}
+
+				} else if(line.startsWith("cross_link ") || line.startsWith("mono_link ") || line.startsWith("xl_cleavage_product_mass")) {
+
+					customCrosslinkerLines.add(line);
+
+				} else if(line.startsWith("fixed_modification ")) {
+
+					String[] fields = getFieldsFromKeyValuePairInConf(line);
+
+					if(fields.length != 2) {
+						throw new Exception("Got invalid syntax for fixed_modification. Got: " + line);
+					}
+					parsed.staticModifications.put( fields[ 0 ], new BigDecimal( fields[ 1 ] ) );
+
+				} else if(line.startsWith("decoy_filter ")) {
+
+					if(parsed.decoyPrefix == null) {
+						String[] fields = getFieldsFromKeyValuePairInConf(line);
+
+						if(fields.length != 2) {
+							throw new Exception("Got invalid syntax for decoy_filter. Got: " + line);
+						}
+						parsed.decoyPrefix = fields[0];
+					}
+
+				} else if(line.startsWith("15N_filter")) {
+
+					if(parsed.filter15N == null) {
+						String[] fields = getFieldsFromKeyValuePairInConf(line);
+
+						if(fields.length != 1) {
+							throw new Exception("Got invalid syntax for 15N_filter. Got: " + line);
+						}
+						parsed.filter15N = fields[0];
 					}
 				}
 			}
 		}
 
-		return null;
-	}
+		if(predefinedCrosslinkIndex != null) {
 
-	/**
-	 * Given a Kojak conf line in the form of key = value value value value # optional comment
-	 * Get all of the values to the right of the equal sign
-	 * @param line A line from the Kojak conf file
-	 * @return A string array of values on that line
-	 */
-	String[] getFieldsFromKeyValuePairInConf(String line) {
-		// strip off training comment
-		String fixed_line = line.replaceAll("\\s*#.*$", "");
-		String[] kv = fixed_line.split("\\s*=\\s*");
-		String[] fields = kv[1].split("\\s+");
+			if(!predefinedCrosslinkLines.containsKey(predefinedCrosslinkIndex)) {
+				throw new Exception("Could not find predefined cross-linker for index: " + predefinedCrosslinkIndex);
+			}
 
-		return fields;
+			parsed.linker = getCrosslinkerFromConfLine(predefinedCrosslinkLines.get(predefinedCrosslinkIndex));
+			return parsed;
+		}
+
+		parsed.linker = getCustomCrosslinker(customCrosslinkerLines);
+
+		return parsed;
 	}
 
 	/**
-	 * Find and parse the lines that define a custom linker in the Kojak conf file. Should look like:
-	 *
-	 * cross_link = nK nK 158.003765 DSSO     #Typical DSSO crosslinker settings
-	 * mono_link = nK 176.014330              #DSSO_H20_monolink
-	 * mono_link = nK 175.030314              #DSSO_NH2_monolink
-	 * xl_cleavage_product_mass = 54.010565   #DSSO cleavage product mass #1
-	 * xl_cleavage_product_mass = 85.982635   #DSSO cleavage product mass #2
-	 * xl_cleavage_product_mass = 103.993200  #DSSO cleavage product mass #3
+	 * Get the custom-defined cross-linker from the cross_link, mono_link and xl_cleavage_product_mass lines of a
+	 * Kojak conf file. If there is more than one cross_link line, the last one is used.
 	 *
-	 * @param is The InputStream containing the Kojak conf file contents
-	 * @return A populated KojakConfCrosslinker defined by the custom linker configuration in the Kojak conf file
-	 * @throws IOException If there is a problem
+	 * @param lines The lines, in the order they are in the file
+	 * @return The custom-defined cross-linker
+	 * @throws Exception If a line is not valid, or the cross-linker is not completely defined
 	 */
-	private KojakConfCrosslinker getCustomDefinedCrosslinkerFromConf(InputStream is) throws Exception {
+	private KojakConfCrosslinker getCustomCrosslinker(List<String> lines) throws Exception {
+
 		String name = null;
 		KojakConfCrosslinkerLinkableEnd linkableEnd1 = null, linkableEnd2 = null;
 		BigDecimal crosslinkMass = null;
 		Collection<BigDecimal> monolinkMasses = new HashSet<>();
 		Collection<BigDecimal> cleavageProductMasses = new HashSet<>();
 
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-			for (String line = br.readLine(); line != null; line = br.readLine()) {
+		for(String line : lines) {
 
-				if(line.startsWith("cross_link ")) {
+			if(line.startsWith("cross_link ")) {
 
-					String[] fields = getFieldsFromKeyValuePairInConf(line);
+				String[] fields = getFieldsFromKeyValuePairInConf(line);
 
-					if(fields.length != 4) {
-						throw new Exception("Invalid format defining cross_link. Got: " + line);
-					}
+				if(fields.length != 4) {
+					throw new Exception("Invalid format defining cross_link. Got: " + line);
+				}
 
-					name = fields[3];
-					crosslinkMass = new BigDecimal(fields[2]);
+				name = fields[3];
+				crosslinkMass = new BigDecimal(fields[2]);
 
-					linkableEnd1 = getCrosslinkerLinkableEndFromConfField(fields[0]);
-					linkableEnd2 = getCrosslinkerLinkableEndFromConfField(fields[1]);
+				linkableEnd1 = getCrosslinkerLinkableEndFromConfField(fields[0]);
+				linkableEnd2 = getCrosslinkerLinkableEndFromConfField(fields[1]);
 
-				} else if(line.startsWith("mono_link ")) {
+			} else if(line.startsWith("mono_link ")) {
 
-					String[] fields = getFieldsFromKeyValuePairInConf(line);
+				String[] fields = getFieldsFromKeyValuePairInConf(line);
 
-					if(fields.length != 2) {
-						throw new Exception("Invalid format defining mono_link. Got: " + line);
-					}
-
-					monolinkMasses.add(new BigDecimal(fields[1]));
+				if(fields.length != 2) {
+					throw new Exception("Invalid format defining mono_link. Got: " + line);
+				}
 
-				} else if(line.startsWith("xl_cleavage_product_mass")) {
+				monolinkMasses.add(new BigDecimal(fields[1]));
 
-					String[] fields = getFieldsFromKeyValuePairInConf(line);
+			} else {
 
-					if(fields.length != 1) {
-						throw new Exception("Invalid format defining xl_cleavage_product_mass. Got: " + line);
-					}
+				String[] fields = getFieldsFromKeyValuePairInConf(line);
 
-					cleavageProductMasses.add(new BigDecimal(fields[1]));
+				if(fields.length != 1) {
+					throw new Exception("Invalid format defining xl_cleavage_product_mass. Got: " + line);
 				}
+
+				cleavageProductMasses.add(new BigDecimal(fields[0]));
 			}
 		}
 
@@ -303,111 +370,113 @@ public class KojakConfReader {
 	}
 
 	/**
-	 * Get the Kojak cross-linker defined in the Kojak conf file. First checks if a predefined
-	 * cross-linker is being used. If so, always will use it. Otherwise looks for a custom-defined
-	 * cross-linker.
+	 * Parses all of the files and populates instance variables with the merged data. All files must
+	 * define the same cross-linker (name and cross-link mass) and the same 15N filter, and may not define
+	 * different masses for the same static modification. Monolink and cleavage product masses and decoy
+	 * prefixes are combined from all files.
 	 *
-	 * @param confFile The Kojak conf file
-	 * @return The populated KojakConfCrosslinker defined in the file
+	 * @throws Exception If there is a problem, or the files are not consistent with each other
 	 */
-	private KojakConfCrosslinker getCrosslinkerFromConf(File confFile) throws Exception {
+	private void parseFiles() throws Exception {
 
-		Integer predefinedCrosslinkIndex = getPredefinedCrosslinkIndexFromConf(new FileInputStream(confFile));
-		if(predefinedCrosslinkIndex != null) {
-			return getCrosslinkerFromConfUsingIndex(new FileInputStream(confFile), predefinedCrosslinkIndex);
-		}
+		KojakConfCrosslinker mergedLinker = null;
+		Map<String, BigDecimal> mergedStaticModifications = new HashMap<>();
+		Collection<String> mergedDecoyPrefixes = new LinkedHashSet<>();
+		String mergedFilter15N = null;
 
-		return getCustomDefinedCrosslinkerFromConf(new FileInputStream(confFile));
-	}
+		for( int i = 0; i < this.files.size(); i++ ) {
 
-	/**
-	 * Parse fixed (static) modifications from the Kojak conf file. Has form:
-	 *
-	 * fixed_modification = C 57.02146
-	 *
-	 * @param is The InputStream containing the Kojak conf file contents
-	 * @return The static modifications defined in the file in the form of Map(residue => mass)
-	 * @throws Exception If there is a problem
-	 */
-	private  Map<String, BigDecimal> getStaticModificationsFromConf(InputStream is) throws Exception {
+			File file = this.files.get( i );
+			ParsedConfFile parsed = parseConfFile( file );
 
-		Map<String, BigDecimal> mods = new HashMap<>();
+			if( i == 0 ) {
+				mergedLinker = parsed.linker;
+				mergedFilter15N = parsed.filter15N;
+			} else {
+				mergedLinker = mergeLinkers( mergedLinker, parsed.linker, file );
 
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-			for (String line = br.readLine(); line != null; line = br.readLine()) {
-				if(line.startsWith("fixed_modification ")) {
-					String[] fields = getFieldsFromKeyValuePairInConf(line);
+				if( !Objects.equals( mergedFilter15N, parsed.filter15N ) ) {
+					throw new Exception( "Kojak conf file " + file.getName() + " defines a different 15N_filter (" + parsed.filter15N +
+							") than " + this.files.get( 0 ).getName() + " (" + mergedFilter15N + ")." );
+				}
+			}
 
-					if(fields.length != 2) {
-						throw new Exception("Got invalid syntax for fixed_modification. Got: " + line);
-					}
-					mods.put( fields[ 0 ], new BigDecimal( fields[ 1 ] ) );
+			for( Map.Entry<String, BigDecimal> staticMod : parsed.staticModifications.entrySet() ) {
+
+				BigDecimal existingMass = mergedStaticModifications.get( staticMod.getKey() );
+
+				if( existingMass != null && existingMass.compareTo( staticMod.getValue() ) != 0 ) {
+					throw new Exception( "Kojak conf file " + file.getName() + " defines a different fixed_modification mass for " +
+							staticMod.getKey() + " (" + staticMod.getValue() + ") than a previous conf file (" + existingMass + ")." );
 				}
+
+				if( existingMass == null )
+					mergedStaticModifications.put( staticMod.getKey(), staticMod.getValue() );
 			}
+
+			if( parsed.decoyPrefix != null )
+				mergedDecoyPrefixes.add( parsed.decoyPrefix );
 		}
 
-		return mods;
+		this.staticModifications = mergedStaticModifications;
+		this.filter15N = mergedFilter15N;
+		this.decoyPrefixes = mergedDecoyPrefixes;
+		this.linker = mergedLinker;
 	}
 
 	/**
-	 * Get the decoy prefix from the Kojak conf file.
+	 * Parse the files, if they have not been parsed yet. The values are all set before filesParsed is, so a thread
+	 * that sees filesParsed as true also sees all of the values.
 	 *
-	 * @param is The InputStream containing the Kojak conf file contents
-	 * @return the decoy prefix from the Kojak conf file, null if not found
-	 * @throws Exception If there is a problem
+	 * @throws Exception If there is a problem, see parseFiles()
 	 */
-	private String getDecoyPrefixFromConf(InputStream is) throws Exception {
+	private void parseFilesIfNeeded() throws Exception {
 
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-			for (String line = br.readLine(); line != null; line = br.readLine()) {
-				if(line.startsWith("decoy_filter ")) {
-					String[] fields = getFieldsFromKeyValuePairInConf(line);
+		if( this.filesParsed )
+			return;
 
-					if(fields.length != 2) {
-						throw new Exception("Got invalid syntax for decoy_filter. Got: " + line);
-					}
-					return fields[0];
-				}
+		synchronized( this ) {
+
+			if( !this.filesParsed ) {
+				this.parseFiles();
+				this.filesParsed = true;
 			}
 		}
-
-		return null;
 	}
 
 	/**
+	 * Merge the cross-linker from another conf file into the cross-linker read so far. Both must have the
+	 * same name and cross-link mass.
 	 *
-	 * @param is The InputStream containing the Kojak conf file contents
-	 * @return The label used for the 15N filter, if any. null if none
-	 * @throws Exception If there is a problem
+	 * @param linker The cross-linker read so far
+	 * @param otherLinker The cross-linker read from file
+	 * @param file The file otherLinker was read from
+	 * @return The merged cross-linker
+	 * @throws Exception If the cross-linkers are not the same
 	 */
-	private String get15NFilterFromConf(InputStream is) throws Exception {
+	private KojakConfCrosslinker mergeLinkers(KojakConfCrosslinker linker, KojakConfCrosslinker otherLinker, File file) throws Exception {
 
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-			for (String line = br.readLine(); line != null; line = br.readLine()) {
-				if(line.startsWith("15N_filter")) {
-					String[] fields = getFieldsFromKeyValuePairInConf(line);
-
-					if(fields.length != 1) {
-						throw new Exception("Got invalid syntax for 15N_filter. Got: " + line);
-					}
-					return fields[0];
-				}
-			}
+		if( !linker.getName().equals( otherLinker.getName() ) || linker.getCrosslinkMass().compareTo( otherLinker.getCrosslinkMass() ) != 0 ) {
+			throw new Exception( "Kojak conf file " + file.getName() + " defines a different cross-linker (" + otherLinker.getName() + ", " +
+					otherLinker.getCrosslinkMass() + ") than " + this.files.get( 0 ).getName() + " (" + linker.getName() + ", " + linker.getCrosslinkMass() + ")." );
 		}
 
-		return null;
-	}
+		Collection<BigDecimal> monolinkMasses = new HashSet<>( linker.getMonolinkMasses() );
+		monolinkMasses.addAll( otherLinker.getMonolinkMasses() );
 
-	/**
-	 * Parses the file and populates instance variables with parsed data
-	 * @throws Exception If there is a problem
-	 */
-	private void parseFile() throws Exception {
+		Collection<BigDecimal> cleavageProductMasses = new HashSet<>( linker.getCleavageProductMasses() );
+		cleavageProductMasses.addAll( otherLinker.getCleavageProductMasses() );
+
+		KojakConfCrosslinkerBuilder linkerBuilder = new KojakConfCrosslinkerBuilder();
+		linkerBuilder.setIsCleavableLinker(linker.isCleavableLinker() || otherLinker.isCleavableLinker());
+		linkerBuilder.setCrosslinkMass(linker.getCrosslinkMass());
+		linkerBuilder.setName(linker.getName());
+		linkerBuilder.setCleavageProductMasses(cleavageProductMasses);
+		linkerBuilder.setLinkableEnd1(linker.getLinkableEnd1());
+		linkerBuilder.setLinkableEnd2(linker.getLinkableEnd2());
+		linkerBuilder.setMonolinkMasses(monolinkMasses);
 
-		this.linker = getCrosslinkerFromConf(this.file);
-		this.staticModifications = getStaticModificationsFromConf(new FileInputStream(this.file));
-		this.filter15N = get15NFilterFromConf(new FileInputStream(this.file));
-		this.decoyPrefix = getDecoyPrefixFromConf(new FileInputStream(this.file));
+		return linkerBuilder.createKojakConfCrosslinker();
 	}
 
 	/**
@@ -416,8 +485,7 @@ public class KojakConfReader {
 	 * @throws Exception If there is a problem
 	 */
 	public KojakConfCrosslinker getLinker() throws Exception {
-		if( this.linker == null )
-			this.parseFile();
+		this.parseFilesIfNeeded();
 
 		return linker;
 	}
@@ -429,8 +497,7 @@ public class KojakConfReader {
 	 * @throws Exception If there is a problem
 	 */
 	public Map<String, BigDecimal> getStaticModifications() throws Exception {
-		if( this.linker == null )
-			this.parseFile();
+		this.parseFilesIfNeeded();
 		
 		return staticModifications;
 	}
@@ -441,27 +508,64 @@ public class KojakConfReader {
 	 * @throws Exception If there is a problem
 	 */
 	public String getFilter15N() throws Exception {
-		if( this.linker == null )
-			this.parseFile();
+		this.parseFilesIfNeeded();
 
 		return filter15N;
 	}
 
+	/**
+	 * Get the first of the conf files read by this reader
+	 * @return the first of the conf files read by this reader
+	 */
 	public File getFile() {
-		return file;
+		return files.get( 0 );
+	}
+
+	/**
+	 * Get all of the conf files read by this reader
+	 * @return all of the conf files read by this reader
+	 */
+	public List<File> getFiles() {
+		return files;
 	}
 
+	/**
+	 * Get the decoy prefix defined in the first conf file that defines one
+	 * @return the decoy prefix, null if no conf file defines one
+	 * @throws Exception If there is a problem
+	 */
 	public String getDecoyPrefix() throws Exception {
-		if( this.linker == null )
-			this.parseFile();
+		this.parseFilesIfNeeded();
 
-		return decoyPrefix;
+		return decoyPrefixes.isEmpty() ? null : decoyPrefixes.iterator().next();
+	}
+
+	/**
+	 * Get the distinct decoy prefixes defined in all of the conf files, in the order the files were given
+	 * @return the distinct decoy prefixes defined in all of the conf files, empty if none are defined
+	 * @throws Exception If there is a problem
+	 */
+	public Collection<String> getDecoyPrefixes() throws Exception {
+		this.parseFilesIfNeeded();
+
+		return decoyPrefixes;
+	}
+
+	/**
+	 * The values parsed from a single conf file
+	 */
+	private static class ParsedConfFile {
+		private KojakConfCrosslinker linker;
+		private Map<String, BigDecimal> staticModifications = new HashMap<>();
+		private String filter15N;
+		private String decoyPrefix;
 	}
 
-	private File file;
+	private List<File> files;
 	private KojakConfCrosslinker linker;
 	private Map<String, BigDecimal> staticModifications;
 	private String filter15N;
-	private String decoyPrefix;
+	private Collection<String> decoyPrefixes;
+	private volatile boolean filesParsed = false;
 	
 }
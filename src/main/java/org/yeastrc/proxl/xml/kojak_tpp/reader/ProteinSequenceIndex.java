@@ -0,0 +1,183 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import org.yeastrc.proteomics.fasta.FASTAEntry;
+import org.yeastrc.proteomics.fasta.FASTAFileParser;
+import org.yeastrc.proteomics.fasta.FASTAFileParserFactory;
+import org.yeastrc.proteomics.fasta.FASTAHeader;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.CompressionUtils;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * The sequences of the FASTA proteins whose header names start with one of a set of protein names
+ * (as reported in the pepXML), indexed by header name so that all headers starting with a given protein
+ * name can be found without scanning every cached header.
+ *
+ * Sequences are lower cased once, when they are read from the FASTA file.
+ *
+ * @author mriffle
+ *
+ */
+public class ProteinSequenceIndex {
+
+	/**
+	 * Read the FASTA file once, keeping the sequences of all entries with a header name that starts with
+	 * one of the supplied protein names.
+	 *
+	 * @param fastaFile The FASTA file
+	 * @param proteinNames The protein names that are to be looked up
+	 * @return The index
+	 * @throws Exception If there is a problem reading the FASTA file
+	 */
+	public static ProteinSequenceIndex build( File fastaFile, Collection<String> proteinNames ) throws Exception {
+
+		ProteinSequenceIndex index = new ProteinSequenceIndex( proteinNames );
+
+		try ( FASTAFileParser parser = FASTAFileParserFactory.getInstance().getFASTAFileParser( CompressionUtils.getUncompressedFile( fastaFile ) ) ) {
+
+			for (FASTAEntry entry = parser.getNextEntry(); entry != null; entry = parser.getNextEntry() ) {
+				index.addFastaEntry( entry );
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Look up the sequences of all entries with a header name that starts with one of the supplied protein
+	 * names in the FASTA index, rather than reading the FASTA file.
+	 *
+	 * @param fastaIndex The index of the FASTA file
+	 * @param proteinNames The protein names that are to be looked up
+	 * @return The index
+	 */
+	public static ProteinSequenceIndex build( FastaIndex fastaIndex, Collection<String> proteinNames ) {
+
+		ProteinSequenceIndex index = new ProteinSequenceIndex( Collections.emptySet() );
+
+		Map<Integer, String> lowerCaseSequences = new HashMap<>();
+
+		for( String proteinName : new HashSet<>( proteinNames ) ) {
+
+			for( int header : fastaIndex.findHeadersWithNamePrefix( proteinName ) ) {
+
+				String lowerCaseSequence = lowerCaseSequences.computeIfAbsent( fastaIndex.getHeaderEntry( header ), entry -> fastaIndex.getSequence( entry ).toLowerCase() );
+
+				index.sequencesByHeaderName.put( fastaIndex.getHeaderName( header ), lowerCaseSequence );
+			}
+		}
+
+		index.fastaEntryCount = lowerCaseSequences.size();
+
+		return index;
+	}
+
+	/**
+	 * Start an empty index of the entries with a header name that starts with one of the supplied protein
+	 * names, to be filled by addFastaEntry()
+	 *
+	 * @param proteinNames The protein names that are to be looked up
+	 */
+	ProteinSequenceIndex( Collection<String> proteinNames ) {
+
+		this.names = new HashSet<>( proteinNames );
+
+		// the distinct lengths of the protein names, so that only prefixes of these lengths need to be tested
+		this.nameLengths = this.names.stream().mapToInt( String::length ).distinct().sorted().toArray();
+	}
+
+	/**
+	 * Keep the sequence of the FASTA entry if it has a header name that starts with one of the protein names.
+	 * Entries are to be added in the order they are in the FASTA file.
+	 *
+	 * @param entry
+	 */
+	void addFastaEntry( FASTAEntry entry ) {
+
+		this.fastaEntryCount++;
+
+		String lowerCaseSequence = null;
+
+		for( FASTAHeader header : entry.getHeaders() ) {
+
+			if( hasPrefixIn( header.getName(), this.names, this.nameLengths ) ) {
+
+				if( lowerCaseSequence == null )
+					lowerCaseSequence = entry.getSequence().toLowerCase();
+
+				this.sequencesByHeaderName.put( header.getName(), lowerCaseSequence );
+			}
+		}
+	}
+
+	/**
+	 * Return true if any protein whose FASTA header name starts with the supplied protein name contains
+	 * the peptide sequence, ignoring case.
+	 *
+	 * @param proteinName The protein name, as reported in the pepXML
+	 * @param peptideSequence The peptide sequence
+	 * @return
+	 */
+	public boolean proteinContainsPeptide( String proteinName, String peptideSequence ) {
+
+		String lowerCasePeptideSequence = peptideSequence.toLowerCase();
+
+		// all header names starting with the protein name sort together, starting at the protein name
+		for( Map.Entry<String, String> entry : this.sequencesByHeaderName.tailMap( proteinName, true ).entrySet() ) {
+
+			if( !entry.getKey().startsWith( proteinName ) )
+				break;
+
+			if( entry.getValue().contains( lowerCasePeptideSequence ) )
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get the number of FASTA header names in this index
+	 *
+	 * @return
+	 */
+	public int size() {
+		return this.sequencesByHeaderName.size();
+	}
+
+	/**
+	 * Get the number of entries that were read from the FASTA file (or FASTA index) to build this index
+	 *
+	 * @return
+	 */
+	public long getFastaEntryCount() {
+		return this.fastaEntryCount;
+	}
+
+	/**
+	 * Return true if one of the names is a prefix of the header name
+	 *
+	 * @param headerName
+	 * @param names
+	 * @param nameLengths The distinct lengths of names, in ascending order
+	 * @return
+	 */
+	private static boolean hasPrefixIn( String headerName, Set<String> names, int[] nameLengths ) {
+
+		for( int length : nameLengths ) {
+
+			if( length > headerName.length() )
+				return false;
+
+			if( names.contains( headerName.substring( 0, length ) ) )
+				return true;
+		}
+
+		return false;
+	}
+
+	private final Set<String> names;
+	private final int[] nameLengths;
+	private final NavigableMap<String, String> sequencesByHeaderName = new TreeMap<>();
+	private long fastaEntryCount = 0;
+}
@@ -0,0 +1,136 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ChecksumUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of a results cache file, which holds the parts of the spectrum queries in a pepXML file that are used
+ * by the converter, so that later conversions of the same pepXML file need not parse the XML again.
+ * See ResultsCacheWriter and ResultsCacheReader.
+ *
+ * The file is made up of a header followed by one column per entry in Column. The header holds:
+ *   - MAGIC and VERSION
+ *   - the length, last modified time and CRC32 checksum of the pepXML file the cache was made from
+ *   - the number of columns, then the offset and length in bytes of each column, in the order of Column
+ *
+ * The STRINGS column holds every distinct string (protein names, peptide sequences, ...) once, as an int count followed
+ * by the length and UTF-8 bytes of each string. All string values in other columns are int indexes into this table,
+ * or NULL_STRING. The other columns hold one fixed width big-endian value per row of their table (run summaries,
+ * search summaries, spectrum queries, search results, search hits, linked peptides, alternative proteins, mods and
+ * link positions). Child rows are stored in the same order as their parents, with a count per parent row, so that all
+ * columns are read front to back exactly once.
+ *
+ * Decimals are stored as an 8 byte unscaled value and a 1 byte scale, or (if they do not fit) as a string with the
+ * DECIMAL_STRING scale, or as DECIMAL_ABSENT if there is no value.
+ *
+ * @author mriffle
+ *
+ */
+class ResultsCacheFormat {
+
+	static final byte[] MAGIC = "KTPPRSLT".getBytes( StandardCharsets.US_ASCII );
+	static final int VERSION = 1;
+
+	/**
+	 * Appended to the name of the pepXML file to get the name of its cache file
+	 */
+	static final String FILE_SUFFIX = ".results-cache";
+
+	static final int NULL_STRING = -1;
+
+	static final byte DECIMAL_ABSENT = Byte.MIN_VALUE;
+	static final byte DECIMAL_STRING = Byte.MIN_VALUE + 1;
+
+	/**
+	 * Spectrum is stored as a string
+	 */
+	static final byte SPECTRUM_STRING = 0;
+
+	/**
+	 * Spectrum is the stored string followed by .start_scan.end_scan.assumed_charge
+	 */
+	static final byte SPECTRUM_FROM_SCANS = 1;
+
+	static final int HIT_HAS_XLINK = 1;
+	static final int HIT_HAS_PEPTIDEPROPHET_RESULT = 2;
+	static final int HIT_HAS_INTERPROPHET_RESULT = 4;
+
+	/**
+	 * The columns in a results cache file, in the order they are stored
+	 */
+	enum Column {
+
+		STRINGS,
+
+		RUN_BASE_NAME,
+		RUN_RAW_DATA_TYPE,
+		RUN_RAW_DATA,
+		RUN_SEARCH_SUMMARY_COUNT,
+
+		SEARCH_SUMMARY_ENGINE,
+		SEARCH_SUMMARY_ENGINE_VERSION,
+
+		QUERY_RUN,
+		QUERY_SPECTRUM_FORMAT,
+		QUERY_SPECTRUM,
+		QUERY_START_SCAN,
+		QUERY_END_SCAN,
+		QUERY_ASSUMED_CHARGE,
+		QUERY_SEARCH_RESULT_COUNT,
+
+		RESULT_HIT_COUNT,
+
+		HIT_FLAGS,
+		HIT_XLINK_TYPE,
+		HIT_PEPTIDE,
+		HIT_PROTEIN,
+		HIT_ALT_PROTEIN_COUNT,
+		HIT_MOD_COUNT,
+		HIT_KOJAK_SCORE,
+		HIT_DELTA_SCORE,
+		HIT_PPM_ERROR,
+		HIT_PEPTIDEPROPHET_PROBABILITY,
+		HIT_INTERPROPHET_PROBABILITY,
+		HIT_XLINK_MASS,
+		HIT_LINK_COUNT,
+		HIT_LINKED_PEPTIDE_COUNT,
+
+		LINKED_PEPTIDE_PEPTIDE,
+		LINKED_PEPTIDE_PROTEIN,
+		LINKED_PEPTIDE_ALT_PROTEIN_COUNT,
+		LINKED_PEPTIDE_MOD_COUNT,
+		LINKED_PEPTIDE_LINK_COUNT,
+
+		ALT_PROTEIN,
+
+		MOD_POSITION,
+		MOD_VARIABLE,
+
+		LINK_VALUE
+	}
+
+	/**
+	 * The size of the header in bytes
+	 *
+	 * @return
+	 */
+	static int getHeaderSize() {
+		return MAGIC.length + 4 + 8 + 8 + 8 + 4 + Column.values().length * 16;
+	}
+
+	/**
+	 * Get the cache file for the pepXML file in the cache directory. TPP names most pepXML files the same (e.g.,
+	 * interact.pep.xml), so the name of the cache file is the name of the pepXML file followed by a hash of its
+	 * absolute path, so that pepXML files in different directories never use the same cache file.
+	 *
+	 * @param cacheDirectory
+	 * @param pepXMLFile
+	 * @return
+	 * @throws Exception
+	 */
+	static File getCacheFile( File cacheDirectory, File pepXMLFile ) throws Exception {
+		return new File( cacheDirectory, ChecksumUtils.getPathHashedFileName( pepXMLFile, FILE_SUFFIX ) );
+	}
+}
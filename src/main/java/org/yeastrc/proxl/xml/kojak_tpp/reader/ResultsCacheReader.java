@@ -0,0 +1,389 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import net.systemsbiology.regis_web.pepxml.AltProteinDataType;
+import net.systemsbiology.regis_web.pepxml.EngineType;
+import net.systemsbiology.regis_web.pepxml.InterprophetResult;
+import net.systemsbiology.regis_web.pepxml.ModInfoDataType;
+import net.systemsbiology.regis_web.pepxml.ModInfoDataType.ModAminoacidMass;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SearchSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.AnalysisResult;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.Xlink;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.Xlink.LinkedPeptide;
+import net.systemsbiology.regis_web.pepxml.NameValueType;
+import net.systemsbiology.regis_web.pepxml.PeptideprophetResult;
+import org.yeastrc.proxl.xml.kojak_tpp.constants.KojakConstants;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.ResultsCacheFormat.Column;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ChecksumUtils;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the spectrum queries back out of a results cache file (see ResultsCacheFormat), as the same JAXB objects
+ * that would have been read from the pepXML file. Only the values used by the converter are populated. Each column
+ * of the file is memory mapped and read front to back.
+ *
+ * @author mriffle
+ *
+ */
+class ResultsCacheReader {
+
+	/**
+	 * Return true if the cache file exists, is of the current version and was made from the pepXML file as it is now:
+	 * the length, last modified time and checksum of the pepXML file all match the ones stored in the cache file.
+	 *
+	 * @param cacheFile
+	 * @param pepXMLFile
+	 * @return
+	 * @throws Exception
+	 */
+	static boolean isValidFor( File cacheFile, File pepXMLFile ) throws Exception {
+
+		if( !cacheFile.isFile() || cacheFile.length() < ResultsCacheFormat.getHeaderSize() )
+			return false;
+
+		long checksum;
+
+		try ( DataInputStream header = new DataInputStream( new FileInputStream( cacheFile ) ) ) {
+
+			byte[] magic = new byte[ ResultsCacheFormat.MAGIC.length ];
+			header.readFully( magic );
+
+			if( !Arrays.equals( magic, ResultsCacheFormat.MAGIC ) || header.readInt() != ResultsCacheFormat.VERSION )
+				return false;
+
+			if( header.readLong() != pepXMLFile.length() || header.readLong() != pepXMLFile.lastModified() )
+				return false;
+
+			checksum = header.readLong();
+		}
+
+		return checksum == ChecksumUtils.getCRC32( pepXMLFile );
+	}
+
+	/**
+	 * Read the run summaries and spectrum queries from the cache file. The run summaries (without their spectrum
+	 * queries) are added to the supplied list, and each spectrum query is handed to the handler in the order
+	 * they appeared in the pepXML file.
+	 *
+	 * @param cacheFile
+	 * @param runSummaries
+	 * @param handler
+	 * @return The number of spectrum queries read
+	 * @throws Exception
+	 */
+	static long readSpectrumQueries( File cacheFile, List<MsmsRunSummary> runSummaries, SpectrumQueryHandler handler ) throws Exception {
+
+		ResultsCacheReader reader = new ResultsCacheReader( cacheFile );
+
+		int runCount = reader.column( Column.RUN_BASE_NAME ).remaining() / 4;
+
+		for( int i = 0; i < runCount; i++ ) {
+			runSummaries.add( reader.readRunSummary() );
+		}
+
+		long spectrumQueryCount = reader.column( Column.QUERY_RUN ).remaining() / 4;
+
+		for( long i = 0; i < spectrumQueryCount; i++ ) {
+
+			MsmsRunSummary runSummary = runSummaries.get( reader.column( Column.QUERY_RUN ).getInt() );
+			handler.handleSpectrumQuery( runSummary, reader.readSpectrumQuery() );
+		}
+
+		return spectrumQueryCount;
+	}
+
+	/**
+	 * Map all of the columns in the cache file, and read the string table
+	 *
+	 * @param cacheFile
+	 * @throws Exception
+	 */
+	private ResultsCacheReader( File cacheFile ) throws Exception {
+
+		try ( RandomAccessFile file = new RandomAccessFile( cacheFile, "r" ) ) {
+
+			file.seek( ResultsCacheFormat.MAGIC.length + 4 + 8 + 8 + 8 );
+
+			if( file.readInt() != Column.values().length )
+				throw new Exception( "Unexpected number of columns in results cache file: " + cacheFile.getAbsolutePath() );
+
+			FileChannel channel = file.getChannel();
+
+			for( Column column : Column.values() ) {
+				long offset = file.readLong();
+				long length = file.readLong();
+
+				if( length > Integer.MAX_VALUE )
+					throw new Exception( "Column " + column + " is too large to map in results cache file: " + cacheFile.getAbsolutePath() );
+
+				this.columns.put( column, channel.map( FileChannel.MapMode.READ_ONLY, offset, length ) );
+			}
+		}
+
+		ByteBuffer stringColumn = column( Column.STRINGS );
+		this.strings = new String[ stringColumn.getInt() ];
+
+		for( int i = 0; i < this.strings.length; i++ ) {
+			byte[] bytes = new byte[ stringColumn.getInt() ];
+			stringColumn.get( bytes );
+
+			this.strings[ i ] = new String( bytes, StandardCharsets.UTF_8 );
+		}
+	}
+
+	private MsmsRunSummary readRunSummary() {
+
+		MsmsRunSummary runSummary = new MsmsRunSummary();
+		runSummary.setBaseName( readString( Column.RUN_BASE_NAME ) );
+		runSummary.setRawDataType( readString( Column.RUN_RAW_DATA_TYPE ) );
+		runSummary.setRawData( readString( Column.RUN_RAW_DATA ) );
+
+		int searchSummaryCount = column( Column.RUN_SEARCH_SUMMARY_COUNT ).getInt();
+
+		for( int i = 0; i < searchSummaryCount; i++ ) {
+
+			SearchSummary searchSummary = new SearchSummary();
+
+			String searchEngine = readString( Column.SEARCH_SUMMARY_ENGINE );
+			if( searchEngine != null )
+				searchSummary.setSearchEngine( EngineType.fromValue( searchEngine ) );
+
+			searchSummary.setSearchEngineVersion( readString( Column.SEARCH_SUMMARY_ENGINE_VERSION ) );
+
+			runSummary.getSearchSummary().add( searchSummary );
+		}
+
+		return runSummary;
+	}
+
+	private SpectrumQuery readSpectrumQuery() {
+
+		SpectrumQuery spectrumQuery = new SpectrumQuery();
+
+		byte spectrumFormat = column( Column.QUERY_SPECTRUM_FORMAT ).get();
+		String spectrum = readString( Column.QUERY_SPECTRUM );
+		long startScan = column( Column.QUERY_START_SCAN ).getLong();
+		long endScan = column( Column.QUERY_END_SCAN ).getLong();
+		int assumedCharge = column( Column.QUERY_ASSUMED_CHARGE ).getInt();
+
+		if( spectrumFormat == ResultsCacheFormat.SPECTRUM_FROM_SCANS )
+			spectrum = spectrum + "." + startScan + "." + endScan + "." + assumedCharge;
+
+		spectrumQuery.setSpectrum( spectrum );
+		spectrumQuery.setStartScan( startScan );
+		spectrumQuery.setEndScan( endScan );
+
+		if( assumedCharge >= 0 )
+			spectrumQuery.setAssumedCharge( BigInteger.valueOf( assumedCharge ) );
+
+		int searchResultCount = column( Column.QUERY_SEARCH_RESULT_COUNT ).getInt();
+
+		for( int i = 0; i < searchResultCount; i++ ) {
+
+			SearchResult searchResult = new SearchResult();
+			int hitCount = column( Column.RESULT_HIT_COUNT ).getInt();
+
+			for( int j = 0; j < hitCount; j++ ) {
+				searchResult.getSearchHit().add( readSearchHit() );
+			}
+
+			spectrumQuery.getSearchResult().add( searchResult );
+		}
+
+		return spectrumQuery;
+	}
+
+	private SearchHit readSearchHit() {
+
+		SearchHit searchHit = new SearchHit();
+
+		int flags = column( Column.HIT_FLAGS ).get();
+
+		searchHit.setXlinkType( readString( Column.HIT_XLINK_TYPE ) );
+		searchHit.setPeptide( readString( Column.HIT_PEPTIDE ) );
+		searchHit.setProtein( readString( Column.HIT_PROTEIN ) );
+
+		readAlternativeProteins( Column.HIT_ALT_PROTEIN_COUNT, searchHit.getAlternativeProtein() );
+		searchHit.setModificationInfo( readMods( Column.HIT_MOD_COUNT ) );
+
+		addScore( searchHit.getSearchScore(), KojakConstants.NAME_KOJAK_SCORE, readDecimalString( Column.HIT_KOJAK_SCORE ) );
+		addScore( searchHit.getSearchScore(), KojakConstants.NAME_DELTA_SCORE, readDecimalString( Column.HIT_DELTA_SCORE ) );
+		addScore( searchHit.getSearchScore(), KojakConstants.NAME_PPM_ERROR, readDecimalString( Column.HIT_PPM_ERROR ) );
+
+		BigDecimal peptideProphetProbability = readDecimal( Column.HIT_PEPTIDEPROPHET_PROBABILITY );
+		BigDecimal interProphetProbability = readDecimal( Column.HIT_INTERPROPHET_PROBABILITY );
+
+		if( ( flags & ResultsCacheFormat.HIT_HAS_INTERPROPHET_RESULT ) != 0 ) {
+			InterprophetResult interprophetResult = new InterprophetResult();
+			interprophetResult.setProbability( interProphetProbability );
+
+			AnalysisResult analysisResult = new AnalysisResult();
+			analysisResult.setAnalysis( "interprophet" );
+			analysisResult.getAny().add( interprophetResult );
+
+			searchHit.getAnalysisResult().add( analysisResult );
+		}
+
+		if( ( flags & ResultsCacheFormat.HIT_HAS_PEPTIDEPROPHET_RESULT ) != 0 ) {
+			PeptideprophetResult peptideprophetResult = new PeptideprophetResult();
+			peptideprophetResult.setProbability( peptideProphetProbability );
+
+			AnalysisResult analysisResult = new AnalysisResult();
+			analysisResult.setAnalysis( "peptideprophet" );
+			analysisResult.getAny().add( peptideprophetResult );
+
+			searchHit.getAnalysisResult().add( analysisResult );
+		}
+
+		BigDecimal xlinkMass = readDecimal( Column.HIT_XLINK_MASS );
+		int linkCount = column( Column.HIT_LINK_COUNT ).getInt();
+		int linkedPeptideCount = column( Column.HIT_LINKED_PEPTIDE_COUNT ).getInt();
+
+		if( ( flags & ResultsCacheFormat.HIT_HAS_XLINK ) != 0 ) {
+
+			Xlink xlink = new Xlink();
+			xlink.setMass( xlinkMass );
+			readLinks( linkCount, xlink.getXlinkScore() );
+
+			for( int i = 0; i < linkedPeptideCount; i++ ) {
+
+				LinkedPeptide linkedPeptide = new LinkedPeptide();
+				linkedPeptide.setPeptide( readString( Column.LINKED_PEPTIDE_PEPTIDE ) );
+				linkedPeptide.setProtein( readString( Column.LINKED_PEPTIDE_PROTEIN ) );
+				readAlternativeProteins( Column.LINKED_PEPTIDE_ALT_PROTEIN_COUNT, linkedPeptide.getAlternativeProtein() );
+				linkedPeptide.setModificationInfo( readMods( Column.LINKED_PEPTIDE_MOD_COUNT ) );
+				readLinks( column( Column.LINKED_PEPTIDE_LINK_COUNT ).getInt(), linkedPeptide.getXlinkScore() );
+
+				xlink.getLinkedPeptide().add( linkedPeptide );
+			}
+
+			searchHit.setXlink( xlink );
+		}
+
+		return searchHit;
+	}
+
+	private void readAlternativeProteins( Column countColumn, List<AltProteinDataType> alternativeProteins ) {
+
+		int count = column( countColumn ).getInt();
+
+		for( int i = 0; i < count; i++ ) {
+			AltProteinDataType alternativeProtein = new AltProteinDataType();
+			alternativeProtein.setProtein( readString( Column.ALT_PROTEIN ) );
+
+			alternativeProteins.add( alternativeProtein );
+		}
+	}
+
+	/**
+	 * Read the variable mods, null if there are none
+	 *
+	 * @param countColumn
+	 * @return
+	 */
+	private ModInfoDataType readMods( Column countColumn ) {
+
+		int count = column( countColumn ).getInt();
+
+		if( count == 0 )
+			return null;
+
+		ModInfoDataType modInfo = new ModInfoDataType();
+
+		for( int i = 0; i < count; i++ ) {
+			ModAminoacidMass mod = new ModAminoacidMass();
+			mod.setPosition( BigInteger.valueOf( column( Column.MOD_POSITION ).getInt() ) );
+			mod.setVariable( column( Column.MOD_VARIABLE ).getDouble() );
+
+			modInfo.getModAminoacidMass().add( mod );
+		}
+
+		return modInfo;
+	}
+
+	private void readLinks( int count, List<NameValueType> xlinkScores ) {
+
+		for( int i = 0; i < count; i++ ) {
+			NameValueType link = new NameValueType();
+			link.setName( "link" );
+			link.setValueAttribute( readString( Column.LINK_VALUE ) );
+
+			xlinkScores.add( link );
+		}
+	}
+
+	private static void addScore( List<NameValueType> scores, String name, String value ) {
+
+		if( value == null )
+			return;
+
+		NameValueType score = new NameValueType();
+		score.setName( name );
+		score.setValueAttribute( value );
+
+		scores.add( score );
+	}
+
+	private BigDecimal readDecimal( Column column ) {
+
+		long unscaledValue = column( column ).getLong();
+		byte scale = column( column ).get();
+
+		if( scale == ResultsCacheFormat.DECIMAL_ABSENT )
+			return null;
+
+		if( scale == ResultsCacheFormat.DECIMAL_STRING )
+			return new BigDecimal( this.strings[ (int)unscaledValue ] );
+
+		return BigDecimal.valueOf( unscaledValue, scale );
+	}
+
+	/**
+	 * Read a decimal as text, null if it is absent
+	 *
+	 * @param column
+	 * @return
+	 */
+	private String readDecimalString( Column column ) {
+
+		long unscaledValue = column( column ).getLong();
+		byte scale = column( column ).get();
+
+		if( scale == ResultsCacheFormat.DECIMAL_ABSENT )
+			return null;
+
+		if( scale == ResultsCacheFormat.DECIMAL_STRING )
+			return this.strings[ (int)unscaledValue ];
+
+		return BigDecimal.valueOf( unscaledValue, scale ).toString();
+	}
+
+	private String readString( Column column ) {
+
+		int index = column( column ).getInt();
+		return index == ResultsCacheFormat.NULL_STRING ? null : this.strings[ index ];
+	}
+
+	private ByteBuffer column( Column column ) {
+		return this.columns.get( column );
+	}
+
+	private final Map<Column, ByteBuffer> columns = new EnumMap<>( Column.class );
+	private final String[] strings;
+}
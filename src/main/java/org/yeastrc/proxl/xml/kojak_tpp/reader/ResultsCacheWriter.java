@@ -0,0 +1,446 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import net.systemsbiology.regis_web.pepxml.AltProteinDataType;
+import net.systemsbiology.regis_web.pepxml.InterprophetResult;
+import net.systemsbiology.regis_web.pepxml.ModInfoDataType;
+import net.systemsbiology.regis_web.pepxml.ModInfoDataType.ModAminoacidMass;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SearchSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.AnalysisResult;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.Xlink;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.Xlink.LinkedPeptide;
+import net.systemsbiology.regis_web.pepxml.NameValueType;
+import net.systemsbiology.regis_web.pepxml.PeptideprophetResult;
+import org.yeastrc.proxl.xml.kojak_tpp.constants.KojakConstants;
+import org.yeastrc.proxl.xml.kojak_tpp.reader.ResultsCacheFormat.Column;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Writes a results cache file (see ResultsCacheFormat) from the spectrum queries of a pepXML file as they are read.
+ * Each column is written to its own temporary file, and the columns are joined into the cache file by finish().
+ *
+ * Failing to write the cache does not fail the conversion: if there is a problem, a warning is printed, nothing more
+ * is written and no cache file is made.
+ *
+ * @author mriffle
+ *
+ */
+class ResultsCacheWriter implements Closeable {
+
+	/**
+	 * Start writing the cache file for a pepXML file
+	 *
+	 * @param cacheFile The cache file to write. It is only replaced once all spectrum queries have been written.
+	 */
+	ResultsCacheWriter( File cacheFile ) {
+
+		this.cacheFile = cacheFile;
+
+		try {
+
+			this.columnDirectory = Files.createTempDirectory( cacheFile.getAbsoluteFile().getParentFile().toPath(), cacheFile.getName() + "." ).toFile();
+
+			for( Column column : Column.values() ) {
+				File columnFile = new File( this.columnDirectory, column.name() );
+				this.columnFiles.put( column, columnFile );
+				this.columns.put( column, new DataOutputStream( new BufferedOutputStream( new FileOutputStream( columnFile ), 64 * 1024 ) ) );
+			}
+
+		} catch( Exception e ) {
+			fail( e );
+		}
+	}
+
+	/**
+	 * Add a spectrum query to the cache
+	 *
+	 * @param runIndex The index of the run summary the spectrum query is in, in the order run summaries are passed to finish()
+	 * @param spectrumQuery
+	 */
+	void addSpectrumQuery( int runIndex, SpectrumQuery spectrumQuery ) {
+
+		if( this.failed )
+			return;
+
+		try {
+			writeSpectrumQuery( runIndex, spectrumQuery );
+		} catch( Exception e ) {
+			fail( e );
+		}
+	}
+
+	/**
+	 * Write the run summaries and the string table, and join all of the columns into the cache file
+	 *
+	 * @param runSummaries All run summaries, their spectrum queries are not used
+	 * @param pepXMLFile The pepXML file the spectrum queries were read from
+	 * @param checksum The CRC32 checksum of the contents of the pepXML file
+	 * @return true if the cache file was written
+	 */
+	boolean finish( List<MsmsRunSummary> runSummaries, File pepXMLFile, long checksum ) {
+
+		if( this.failed )
+			return false;
+
+		try {
+
+			for( MsmsRunSummary runSummary : runSummaries ) {
+				writeRunSummary( runSummary );
+			}
+
+			writeStrings();
+
+			for( DataOutputStream column : this.columns.values() ) {
+				column.close();
+			}
+
+			File tempCacheFile = new File( this.columnDirectory, "cache" );
+
+			try ( FileOutputStream fos = new FileOutputStream( tempCacheFile ) ) {
+
+				DataOutputStream header = new DataOutputStream( new BufferedOutputStream( fos ) );
+				header.write( ResultsCacheFormat.MAGIC );
+				header.writeInt( ResultsCacheFormat.VERSION );
+				header.writeLong( pepXMLFile.length() );
+				header.writeLong( pepXMLFile.lastModified() );
+				header.writeLong( checksum );
+				header.writeInt( Column.values().length );
+
+				long offset = ResultsCacheFormat.getHeaderSize();
+
+				for( Column column : Column.values() ) {
+					long length = this.columnFiles.get( column ).length();
+
+					header.writeLong( offset );
+					header.writeLong( length );
+
+					offset += length;
+				}
+
+				header.flush();
+
+				FileChannel out = fos.getChannel();
+
+				for( Column column : Column.values() ) {
+					try ( FileChannel in = new FileInputStream( this.columnFiles.get( column ) ).getChannel() ) {
+						for( long position = 0; position < in.size(); ) {
+							position += in.transferTo( position, in.size() - position, out );
+						}
+					}
+				}
+			}
+
+			try {
+				Files.move( tempCacheFile.toPath(), this.cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			} catch( Exception e ) {
+				Files.move( tempCacheFile.toPath(), this.cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+
+			return true;
+
+		} catch( Exception e ) {
+			fail( e );
+			return false;
+		}
+	}
+
+	/**
+	 * Delete the temporary files
+	 */
+	@Override
+	public void close() {
+
+		for( DataOutputStream column : this.columns.values() ) {
+			try {
+				column.close();
+			} catch( IOException e ) {
+				// already failed or finished
+			}
+		}
+
+		if( this.columnDirectory != null ) {
+			for( File file : this.columnDirectory.listFiles() ) {
+				file.delete();
+			}
+
+			this.columnDirectory.delete();
+		}
+	}
+
+	private void writeRunSummary( MsmsRunSummary runSummary ) throws IOException {
+
+		writeString( Column.RUN_BASE_NAME, runSummary.getBaseName() );
+		writeString( Column.RUN_RAW_DATA_TYPE, runSummary.getRawDataType() );
+		writeString( Column.RUN_RAW_DATA, runSummary.getRawData() );
+		column( Column.RUN_SEARCH_SUMMARY_COUNT ).writeInt( runSummary.getSearchSummary().size() );
+
+		for( SearchSummary searchSummary : runSummary.getSearchSummary() ) {
+			writeString( Column.SEARCH_SUMMARY_ENGINE, searchSummary.getSearchEngine() == null ? null : searchSummary.getSearchEngine().value() );
+			writeString( Column.SEARCH_SUMMARY_ENGINE_VERSION, searchSummary.getSearchEngineVersion() );
+		}
+	}
+
+	private void writeSpectrumQuery( int runIndex, SpectrumQuery spectrumQuery ) throws IOException {
+
+		column( Column.QUERY_RUN ).writeInt( runIndex );
+
+		// most spectrum names are the name of the scan file followed by the start scan, end scan and charge,
+		// store only the scan file name for these
+		String spectrum = spectrumQuery.getSpectrum();
+		String scanSuffix = "." + spectrumQuery.getStartScan() + "." + spectrumQuery.getEndScan() + "." + spectrumQuery.getAssumedCharge();
+
+		if( spectrum != null && spectrumQuery.getAssumedCharge() != null && spectrum.endsWith( scanSuffix ) ) {
+			column( Column.QUERY_SPECTRUM_FORMAT ).writeByte( ResultsCacheFormat.SPECTRUM_FROM_SCANS );
+			writeString( Column.QUERY_SPECTRUM, spectrum.substring( 0, spectrum.length() - scanSuffix.length() ) );
+		} else {
+			column( Column.QUERY_SPECTRUM_FORMAT ).writeByte( ResultsCacheFormat.SPECTRUM_STRING );
+			writeString( Column.QUERY_SPECTRUM, spectrum );
+		}
+
+		column( Column.QUERY_START_SCAN ).writeLong( spectrumQuery.getStartScan() );
+		column( Column.QUERY_END_SCAN ).writeLong( spectrumQuery.getEndScan() );
+		column( Column.QUERY_ASSUMED_CHARGE ).writeInt( spectrumQuery.getAssumedCharge() == null ? -1 : spectrumQuery.getAssumedCharge().intValueExact() );
+		column( Column.QUERY_SEARCH_RESULT_COUNT ).writeInt( spectrumQuery.getSearchResult().size() );
+
+		for( SearchResult searchResult : spectrumQuery.getSearchResult() ) {
+
+			column( Column.RESULT_HIT_COUNT ).writeInt( searchResult.getSearchHit().size() );
+
+			for( SearchHit searchHit : searchResult.getSearchHit() ) {
+				writeSearchHit( searchHit );
+			}
+		}
+	}
+
+	private void writeSearchHit( SearchHit searchHit ) throws IOException {
+
+		BigDecimal peptideProphetProbability = null;
+		BigDecimal interProphetProbability = null;
+		int flags = 0;
+
+		for( AnalysisResult analysisResult : searchHit.getAnalysisResult() ) {
+
+			if( analysisResult.getAnalysis().equals( "interprophet" ) ) {
+				flags |= ResultsCacheFormat.HIT_HAS_INTERPROPHET_RESULT;
+				interProphetProbability = ( (InterprophetResult)analysisResult.getAny().get( 0 ) ).getProbability();
+			}
+
+			else if( analysisResult.getAnalysis().equals( "peptideprophet" ) ) {
+				flags |= ResultsCacheFormat.HIT_HAS_PEPTIDEPROPHET_RESULT;
+				peptideProphetProbability = ( (PeptideprophetResult)analysisResult.getAny().get( 0 ) ).getProbability();
+			}
+		}
+
+		String kojakScore = null;
+		String deltaScore = null;
+		String ppmError = null;
+
+		for( NameValueType score : searchHit.getSearchScore() ) {
+			if( score.getName().equals( KojakConstants.NAME_KOJAK_SCORE ) )
+				kojakScore = score.getValueAttribute();
+			else if( score.getName().equals( KojakConstants.NAME_DELTA_SCORE ) )
+				deltaScore = score.getValueAttribute();
+			else if( score.getName().equals( KojakConstants.NAME_PPM_ERROR ) )
+				ppmError = score.getValueAttribute();
+		}
+
+		Xlink xlink = searchHit.getXlink();
+		if( xlink != null )
+			flags |= ResultsCacheFormat.HIT_HAS_XLINK;
+
+		column( Column.HIT_FLAGS ).writeByte( flags );
+		writeString( Column.HIT_XLINK_TYPE, searchHit.getXlinkType() );
+		writeString( Column.HIT_PEPTIDE, searchHit.getPeptide() );
+		writeString( Column.HIT_PROTEIN, searchHit.getProtein() );
+
+		writeAlternativeProteins( Column.HIT_ALT_PROTEIN_COUNT, searchHit.getAlternativeProtein() );
+		writeMods( Column.HIT_MOD_COUNT, searchHit.getModificationInfo() );
+
+		writeDecimal( Column.HIT_KOJAK_SCORE, kojakScore );
+		writeDecimal( Column.HIT_DELTA_SCORE, deltaScore );
+		writeDecimal( Column.HIT_PPM_ERROR, ppmError );
+		writeDecimal( Column.HIT_PEPTIDEPROPHET_PROBABILITY, peptideProphetProbability );
+		writeDecimal( Column.HIT_INTERPROPHET_PROBABILITY, interProphetProbability );
+		writeDecimal( Column.HIT_XLINK_MASS, xlink == null ? null : xlink.getMass() );
+
+		if( xlink == null ) {
+			column( Column.HIT_LINK_COUNT ).writeInt( 0 );
+			column( Column.HIT_LINKED_PEPTIDE_COUNT ).writeInt( 0 );
+			return;
+		}
+
+		writeLinks( Column.HIT_LINK_COUNT, xlink.getXlinkScore() );
+		column( Column.HIT_LINKED_PEPTIDE_COUNT ).writeInt( xlink.getLinkedPeptide().size() );
+
+		for( LinkedPeptide linkedPeptide : xlink.getLinkedPeptide() ) {
+			writeString( Column.LINKED_PEPTIDE_PEPTIDE, linkedPeptide.getPeptide() );
+			writeString( Column.LINKED_PEPTIDE_PROTEIN, linkedPeptide.getProtein() );
+			writeAlternativeProteins( Column.LINKED_PEPTIDE_ALT_PROTEIN_COUNT, linkedPeptide.getAlternativeProtein() );
+			writeMods( Column.LINKED_PEPTIDE_MOD_COUNT, linkedPeptide.getModificationInfo() );
+			writeLinks( Column.LINKED_PEPTIDE_LINK_COUNT, linkedPeptide.getXlinkScore() );
+		}
+	}
+
+	private void writeAlternativeProteins( Column countColumn, List<AltProteinDataType> alternativeProteins ) throws IOException {
+
+		if( alternativeProteins == null ) {
+			column( countColumn ).writeInt( 0 );
+			return;
+		}
+
+		column( countColumn ).writeInt( alternativeProteins.size() );
+
+		for( AltProteinDataType alternativeProtein : alternativeProteins ) {
+			writeString( Column.ALT_PROTEIN, alternativeProtein.getProtein() );
+		}
+	}
+
+	/**
+	 * Write the variable mods, the only mods used by the converter
+	 *
+	 * @param countColumn
+	 * @param modInfo
+	 * @throws IOException
+	 */
+	private void writeMods( Column countColumn, ModInfoDataType modInfo ) throws IOException {
+
+		List<ModAminoacidMass> variableMods = new ArrayList<>();
+
+		if( modInfo != null && modInfo.getModAminoacidMass() != null ) {
+			for( ModAminoacidMass mod : modInfo.getModAminoacidMass() ) {
+				if( mod.getVariable() != null )
+					variableMods.add( mod );
+			}
+		}
+
+		column( countColumn ).writeInt( variableMods.size() );
+
+		for( ModAminoacidMass mod : variableMods ) {
+			column( Column.MOD_POSITION ).writeInt( mod.getPosition().intValueExact() );
+			column( Column.MOD_VARIABLE ).writeDouble( mod.getVariable() );
+		}
+	}
+
+	/**
+	 * Write the values of the scores named "link", the linked positions
+	 *
+	 * @param countColumn
+	 * @param xlinkScores
+	 * @throws IOException
+	 */
+	private void writeLinks( Column countColumn, List<NameValueType> xlinkScores ) throws IOException {
+
+		List<String> links = new ArrayList<>( 2 );
+
+		for( NameValueType xlinkScore : xlinkScores ) {
+			if( xlinkScore.getName().equals( "link" ) )
+				links.add( xlinkScore.getValueAttribute() );
+		}
+
+		column( countColumn ).writeInt( links.size() );
+
+		for( String link : links ) {
+			writeString( Column.LINK_VALUE, link );
+		}
+	}
+
+	private void writeDecimal( Column column, String value ) throws IOException {
+
+		if( value == null ) {
+			writeDecimal( column, (BigDecimal)null );
+			return;
+		}
+
+		BigDecimal decimal;
+
+		try {
+			decimal = new BigDecimal( value );
+		} catch( NumberFormatException e ) {
+
+			// keep the text, so it fails in the same way when it is read back
+			column( column ).writeLong( getStringIndex( value ) );
+			column( column ).writeByte( ResultsCacheFormat.DECIMAL_STRING );
+			return;
+		}
+
+		writeDecimal( column, decimal );
+	}
+
+	private void writeDecimal( Column column, BigDecimal value ) throws IOException {
+
+		if( value == null ) {
+			column( column ).writeLong( 0 );
+			column( column ).writeByte( ResultsCacheFormat.DECIMAL_ABSENT );
+			return;
+		}
+
+		if( value.unscaledValue().bitLength() < 64 && value.scale() > ResultsCacheFormat.DECIMAL_STRING && value.scale() <= Byte.MAX_VALUE ) {
+			column( column ).writeLong( value.unscaledValue().longValue() );
+			column( column ).writeByte( value.scale() );
+		} else {
+			column( column ).writeLong( getStringIndex( value.toString() ) );
+			column( column ).writeByte( ResultsCacheFormat.DECIMAL_STRING );
+		}
+	}
+
+	private void writeString( Column column, String value ) throws IOException {
+		column( column ).writeInt( value == null ? ResultsCacheFormat.NULL_STRING : getStringIndex( value ) );
+	}
+
+	private int getStringIndex( String value ) {
+
+		Integer index = this.stringIndexes.get( value );
+
+		if( index == null ) {
+			index = this.strings.size();
+			this.stringIndexes.put( value, index );
+			this.strings.add( value );
+		}
+
+		return index;
+	}
+
+	private void writeStrings() throws IOException {
+
+		DataOutputStream column = column( Column.STRINGS );
+		column.writeInt( this.strings.size() );
+
+		for( String string : this.strings ) {
+			byte[] bytes = string.getBytes( StandardCharsets.UTF_8 );
+
+			column.writeInt( bytes.length );
+			column.write( bytes );
+		}
+	}
+
+	private DataOutputStream column( Column column ) {
+		return this.columns.get( column );
+	}
+
+	private void fail( Exception e ) {
+
+		if( !this.failed )
+			System.err.println( "\nWARNING: Could not write results cache file " + this.cacheFile.getAbsolutePath() + ": " + e.getMessage() );
+
+		this.failed = true;
+	}
+
+	private final File cacheFile;
+	private final Map<Column, File> columnFiles = new EnumMap<>( Column.class );
+	private final Map<Column, DataOutputStream> columns = new EnumMap<>( Column.class );
+	private final Map<String, Integer> stringIndexes = new HashMap<>();
+	private final List<String> strings = new ArrayList<>();
+
+	private File columnDirectory;
+	private boolean failed = false;
+}
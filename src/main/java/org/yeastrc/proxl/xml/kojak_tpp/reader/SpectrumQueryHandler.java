@@ -0,0 +1,25 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery;
+
+/**
+ * Receives spectrum queries one at a time as they are streamed out of a pepXML file
+ * by {@link TPPAnalysis#processSpectrumQueries(SpectrumQueryHandler)}.
+ *
+ * @author mriffle
+ *
+ */
+public interface SpectrumQueryHandler {
+
+	/**
+	 * Handle a single spectrum query.
+	 *
+	 * @param runSummary The run summary containing this spectrum query. Only the attributes and the
+	 *                   search summaries of the run summary are populated, its spectrum queries are not.
+	 * @param spectrumQuery The fully-populated spectrum query
+	 * @throws Exception If there is a problem
+	 */
+	void handleSpectrumQuery( MsmsRunSummary runSummary, SpectrumQuery spectrumQuery ) throws Exception;
+
+}
@@ -1,19 +1,61 @@
 package org.yeastrc.proxl.xml.kojak_tpp.reader;
 
 import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.AnalysisSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SearchSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery;
 import org.yeastrc.proxl.xml.kojak_tpp.constants.TPPConstants;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.CompressionUtils;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ConversionMetrics;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.DecoyMatcher;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.JAXBContextHolder;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ScanParsingUtils;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ScanParsingUtils.ReportedScan;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.SymbolTable;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
+/**
+ * A pepXML file to convert, and the settings of its conversion.
+ * 
+ * Threads: the settings are set on one thread before the conversion starts. The analysis summaries returned by
+ * getAnalysis() are read by loadAnalysis() and not changed afterwards, so any thread may read them. The run summaries
+ * are collected by processSpectrumQueries() into a list of its own, and only published through getRunSummaries()
+ * once all of the spectrum queries have been processed, so other threads never see a list that is still being
+ * filled. Threads that need the run summaries must wait for processSpectrumQueries() to finish (e.g., for the
+ * parsed results), and processSpectrumQueries() must not be called by more than one thread at a time.
+ */
 public class TPPAnalysis {
 
+	private static final String ELEMENT_ANALYSIS_SUMMARY = "analysis_summary";
+	private static final String ELEMENT_MSMS_RUN_SUMMARY = "msms_run_summary";
+	private static final String ELEMENT_SEARCH_SUMMARY = "search_summary";
+	private static final String ELEMENT_SPECTRUM_QUERY = "spectrum_query";
+
 	/**
 	 * Load the data contained in the supplied pepXML file.
 	 * 
+	 * Only the header of the file (the analysis summaries) is read here. The spectrum queries are
+	 * streamed out of the file one at a time by processSpectrumQueries(), so that the size of the
+	 * pepXML file does not determine the amount of memory required.
+	 * 
 	 * @param filename
 	 * @return
 	 * @throws Exception
@@ -21,27 +63,242 @@ public class TPPAnalysis {
 	public static TPPAnalysis loadAnalysis(String filename ) throws Exception {
 		
 		File pepXMLFile = new File( filename );
-		JAXBContext jaxbContext = JAXBContext.newInstance(MsmsPipelineAnalysis.class);
-		Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-		MsmsPipelineAnalysis msAnalysis = (MsmsPipelineAnalysis)jaxbUnmarshaller.unmarshal(pepXMLFile);
 		
 		TPPAnalysis ipa = new TPPAnalysis();
-		ipa.setAnalysis( msAnalysis );
+		ipa.pepXMLFile = pepXMLFile;
+		ipa.setAnalysis( ipa.readAnalysisHeader() );
 		return ipa;
 		
 	}
 	
+	/**
+	 * Read the analysis summaries found at the top of the pepXML file, stopping at the first
+	 * msms_run_summary element.
+	 * 
+	 * @return A MsmsPipelineAnalysis populated only with its analysis summaries
+	 * @throws Exception
+	 */
+	private MsmsPipelineAnalysis readAnalysisHeader() throws Exception {
+		
+		MsmsPipelineAnalysis msAnalysis = new MsmsPipelineAnalysis();
+		Unmarshaller jaxbUnmarshaller = JAXBContextHolder.getInstance().getPepXMLUnmarshaller();
+		
+		try ( InputStream is = CompressionUtils.getInputStream( this.pepXMLFile ) ) {
+			
+			XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader( is );
+			
+			try {
+				while( xmlReader.hasNext() ) {
+					
+					if( xmlReader.getEventType() == XMLStreamConstants.START_ELEMENT ) {
+						
+						if( xmlReader.getLocalName().equals( ELEMENT_ANALYSIS_SUMMARY ) ) {
+							msAnalysis.getAnalysisSummary().add( jaxbUnmarshaller.unmarshal( xmlReader, AnalysisSummary.class ).getValue() );
+							continue;	// the unmarshaller has already advanced the reader past this element
+						}
+						
+						if( xmlReader.getLocalName().equals( ELEMENT_MSMS_RUN_SUMMARY ) ) {
+							break;
+						}
+					}
+					
+					xmlReader.next();
+				}
+			} finally {
+				xmlReader.close();
+			}
+		} finally {
+			JAXBContextHolder.getInstance().releasePepXMLUnmarshaller( jaxbUnmarshaller );
+		}
+		
+		return msAnalysis;
+	}
+	
+	/**
+	 * Stream through the spectrum queries in the pepXML file, handing each one to the supplied handler as
+	 * it is read. Only the spectrum query currently being handled is kept in memory.
+	 * 
+	 * The run summaries encountered (without their spectrum queries) are returned by getRunSummaries() once all of
+	 * the spectrum queries have been handled, replacing any from a previous call.
+	 * 
+	 * The time spent unmarshalling the spectrum queries (not including the time spent in the handler) is
+	 * recorded in the metrics as the "unmarshal pepXML" stage.
+	 * 
+	 * If a results cache directory has been set, and it holds a valid results cache file for the pepXML file, the
+	 * spectrum queries are read from the cache file instead of the pepXML file. Otherwise, the cache file is
+	 * written as the pepXML file is read.
+	 * 
+	 * @param handler
+	 * @throws Exception
+	 */
+	public void processSpectrumQueries( SpectrumQueryHandler handler ) throws Exception {
+		
+		this.runSummaries = Collections.emptyList();
+		this.scanFilesByRunSummary.clear();
+		
+		// only this thread sees the run summaries until they are all read
+		List<MsmsRunSummary> runSummaries = new ArrayList<>();
+		
+		if( this.resultsCacheFile != null && this.resultsCacheValid == null )
+			this.resultsCacheValid = ResultsCacheReader.isValidFor( this.resultsCacheFile, this.pepXMLFile );
+		
+		if( this.resultsCacheFile != null && this.resultsCacheValid ) {
+			readSpectrumQueriesFromResultsCache( handler, runSummaries );
+		} else {
+			
+			Unmarshaller jaxbUnmarshaller = JAXBContextHolder.getInstance().getPepXMLUnmarshaller();
+			
+			try {
+				processPepXMLSpectrumQueries( handler, jaxbUnmarshaller, runSummaries );
+			} finally {
+				JAXBContextHolder.getInstance().releasePepXMLUnmarshaller( jaxbUnmarshaller );
+			}
+		}
+		
+		this.runSummaries = Collections.unmodifiableList( runSummaries );
+	}
 	
+	/**
+	 * Stream through the spectrum queries in the pepXML file, see processSpectrumQueries()
+	 * 
+	 * @param handler
+	 * @param jaxbUnmarshaller
+	 * @param runSummaries The run summaries are added to this as they are read
+	 * @throws Exception
+	 */
+	private void processPepXMLSpectrumQueries( SpectrumQueryHandler handler, Unmarshaller jaxbUnmarshaller, List<MsmsRunSummary> runSummaries ) throws Exception {
+		
+		// the checksum of the pepXML file (as stored, which may be compressed) is stored in the results cache file,
+		// it is calculated as the file is read
+		CRC32 checksum = new CRC32();
+		InputStream pepXMLInputStream = new FileInputStream( this.pepXMLFile );
+		
+		if( this.resultsCacheFile != null )
+			pepXMLInputStream = new CheckedInputStream( pepXMLInputStream, checksum );
+		
+		try ( InputStream is = CompressionUtils.getInputStream( pepXMLInputStream, this.pepXMLFile.getName() );
+			  ResultsCacheWriter resultsCacheWriter = ( this.resultsCacheFile == null ) ? null : new ResultsCacheWriter( this.resultsCacheFile ) ) {
+			
+			// the XML reader may close the stream it reads, which would keep the rest of the file from being read into the checksum
+			InputStream xmlInputStream = new FilterInputStream( is ) {
+				@Override
+				public void close() { }
+			};
+			
+			XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader( xmlInputStream );
+			MsmsRunSummary runSummary = null;
+			
+			long unmarshalNanos = 0;
+			long spectrumQueryCount = 0;
+			
+			try {
+				while( xmlReader.hasNext() ) {
+					
+					if( xmlReader.getEventType() == XMLStreamConstants.START_ELEMENT ) {
+						
+						String elementName = xmlReader.getLocalName();
+						
+						if( elementName.equals( ELEMENT_MSMS_RUN_SUMMARY ) ) {
+							
+							runSummary = new MsmsRunSummary();
+							runSummary.setBaseName( xmlReader.getAttributeValue( null, "base_name" ) );
+							runSummary.setRawDataType( xmlReader.getAttributeValue( null, "raw_data_type" ) );
+							runSummary.setRawData( xmlReader.getAttributeValue( null, "raw_data" ) );
+							
+							runSummaries.add( runSummary );
+							
+						} else if( elementName.equals( ELEMENT_SEARCH_SUMMARY ) && runSummary != null ) {
+							
+							runSummary.getSearchSummary().add( jaxbUnmarshaller.unmarshal( xmlReader, SearchSummary.class ).getValue() );
+							continue;	// the unmarshaller has already advanced the reader past this element
+							
+						} else if( elementName.equals( ELEMENT_SPECTRUM_QUERY ) ) {
+							
+							if( runSummary == null )
+								throw new Exception( "Got spectrum_query outside of a msms_run_summary element." );
+							
+							long unmarshalStart = System.nanoTime();
+							SpectrumQuery spectrumQuery = jaxbUnmarshaller.unmarshal( xmlReader, SpectrumQuery.class ).getValue();
+							unmarshalNanos += System.nanoTime() - unmarshalStart;
+							spectrumQueryCount++;
+							
+							if( resultsCacheWriter != null )
+								resultsCacheWriter.addSpectrumQuery( runSummaries.size() - 1, spectrumQuery );
+							
+							handler.handleSpectrumQuery( runSummary, spectrumQuery );
+							continue;	// the unmarshaller has already advanced the reader past this element
+						}
+					}
+					
+					xmlReader.next();
+				}
+			} finally {
+				xmlReader.close();
+			}
+			
+			if( resultsCacheWriter != null ) {
+				
+				// read to the end of the file, so the checksum covers all of it
+				byte[] buffer = new byte[ 64 * 1024 ];
+				while( is.read( buffer ) >= 0 ) { }
+				
+				long writeStart = System.nanoTime();
+				this.resultsCacheValid = resultsCacheWriter.finish( runSummaries, this.pepXMLFile, checksum.getValue() );
+				this.metrics.recordWallTime( "write results cache", System.nanoTime() - writeStart );
+			}
+			
+			this.metrics.recordWallTime( "unmarshal pepXML", unmarshalNanos )
+					.setCount( "spectrum queries", spectrumQueryCount )
+					.setCount( "run summaries", runSummaries.size() );
+		}
+	}
+	
+	/**
+	 * Read the run summaries and spectrum queries from the results cache file. The time spent reading (not
+	 * including the time spent in the handler) is recorded in the metrics as the "read results cache" stage.
+	 * 
+	 * @param handler
+	 * @param runSummaries The run summaries are added to this
+	 * @throws Exception
+	 */
+	private void readSpectrumQueriesFromResultsCache( SpectrumQueryHandler handler, List<MsmsRunSummary> runSummaries ) throws Exception {
+		
+		long[] handlerNanos = new long[ 1 ];
+		long start = System.nanoTime();
+		
+		long spectrumQueryCount = ResultsCacheReader.readSpectrumQueries( this.resultsCacheFile, runSummaries, ( runSummary, spectrumQuery ) -> {
+			long handlerStart = System.nanoTime();
+			handler.handleSpectrumQuery( runSummary, spectrumQuery );
+			handlerNanos[ 0 ] += System.nanoTime() - handlerStart;
+		} );
+		
+		this.metrics.recordWallTime( "read results cache", System.nanoTime() - start - handlerNanos[ 0 ] )
+				.setCount( "spectrum queries", spectrumQueryCount )
+				.setCount( "run summaries", runSummaries.size() );
+	}
+	
+	
+	private File pepXMLFile;
 	private MsmsPipelineAnalysis analysis;
+	private volatile List<MsmsRunSummary> runSummaries = Collections.emptyList();
 	private Collection<String> decoyIdentifiers;
+	private DecoyMatcher decoyMatcher;
 	private KojakConfReader kojakConfReader;
 	private File fastaFile;
+	private FastaService fastaService;
 	private Collection<File> kojakConfFiles;
 	private BigDecimal importFilter = new BigDecimal( TPPConstants.DEFAULT_IMPORT_CUTOFF );
 	private Boolean hasIProphetData = false;
+	private int threadCount = 1;
+	private ConversionMetrics metrics = new ConversionMetrics();
+	private final SymbolTable symbolTable = new SymbolTable();
+	private final Map<MsmsRunSummary, ScanFile> scanFilesByRunSummary = new ConcurrentHashMap<>();
+	private File resultsCacheFile;
+	private Boolean resultsCacheValid;
 	
 	/**
-	 * Get the root element of the pepXML file as a JAXB object
+	 * Get the root element of the pepXML file as a JAXB object. Only the analysis summaries are populated, the
+	 * run summaries are returned by getRunSummaries().
 	 * 
 	 * @return
 	 */
@@ -49,16 +306,40 @@ public class TPPAnalysis {
 		return analysis;
 	}
 
+	/**
+	 * Get the run summaries (without their spectrum queries) of the pepXML file, in the order they appear in it.
+	 * This is empty until processSpectrumQueries() has finished.
+	 * 
+	 * @return An unmodifiable list
+	 */
+	public List<MsmsRunSummary> getRunSummaries() {
+		return runSummaries;
+	}
+
 	private void setAnalysis(MsmsPipelineAnalysis analysis) {
 		this.analysis = analysis;
 	}
 
+	public File getPepXMLFile() {
+		return pepXMLFile;
+	}
+
 	public Collection<String> getDecoyIdentifiers() {
 		return decoyIdentifiers;
 	}
 
 	public void setDecoyIdentifiers(Collection<String> decoyIdentifiers) {
 		this.decoyIdentifiers = decoyIdentifiers;
+		this.decoyMatcher = new DecoyMatcher( decoyIdentifiers );
+	}
+
+	/**
+	 * Get the matcher for the decoy identifiers, built once when they are set
+	 *
+	 * @return
+	 */
+	public DecoyMatcher getDecoyMatcher() {
+		return decoyMatcher;
 	}
 
 	public File getFastaFile() {
@@ -69,6 +350,24 @@ public class TPPAnalysis {
 		this.fastaFile = fastaFile;
 	}
 
+	/**
+	 * Get the service that looks up proteins in the FASTA file, shared by all steps of the conversion so
+	 * that the FASTA file is read at most once. If none has been set, one that reads the FASTA file is made.
+	 *
+	 * @return
+	 */
+	public FastaService getFastaService() {
+		
+		if( fastaService == null )
+			fastaService = new FastaService( fastaFile, null );
+		
+		return fastaService;
+	}
+
+	public void setFastaService(FastaService fastaService) {
+		this.fastaService = fastaService;
+	}
+
 	public KojakConfReader getKojakConfReader() {
 		return kojakConfReader;
 	}
@@ -95,7 +394,7 @@ public class TPPAnalysis {
 	 * @throws Exception
 	 */
 	public String getFASTADatabase() throws Exception {		
-		return this.getFastaFile().getName();
+		return CompressionUtils.getUncompressedName( this.getFastaFile().getName() );
 	}
 
 	public BigDecimal getImportFilter() {
@@ -113,4 +412,102 @@ public class TPPAnalysis {
 	public void setHasIProphetData(Boolean hasIProphetData) {
 		this.hasIProphetData = hasIProphetData;
 	}
+
+	/**
+	 * Get the number of threads to use for the parts of the conversion that may run in parallel
+	 *
+	 * @return
+	 */
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Get the metrics that the stages of the conversion of this analysis are recorded in
+	 *
+	 * @return
+	 */
+	public ConversionMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(ConversionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the symbol table that the scan file names and protein names of the results of this analysis are stored
+	 * as IDs of, see TPPResult.getScanFileId() and TPPPeptide.getTargetProteinIds()
+	 *
+	 * @return
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * Get the symbol table ID of the name of the scan file of a spectrum: the file name from the reported scan
+	 * (see ScanParsingUtils) followed by the raw data extension of the run summary. The scan file of the last
+	 * spectrum of each run summary is remembered, as all spectra of a run normally share it, so the name is only
+	 * built and looked up in the symbol table when it changes.
+	 *
+	 * @param runSummary
+	 * @param spectrum The reported scan, e.g. QEP2_2016_0121_RJ_68_205_comet.00965.00965.3
+	 * @return
+	 */
+	public int getScanFileId( MsmsRunSummary runSummary, String spectrum ) {
+
+		ScanFile scanFile = this.scanFilesByRunSummary.get( runSummary );
+		ReportedScan reportedScan = ScanParsingUtils.parseReportedScan( spectrum, scanFile == null ? null : scanFile.filename );
+
+		String filename = reportedScan == null ? null : reportedScan.getFilename();
+
+		if( scanFile != null && filename == scanFile.filename && filename != null )
+			return scanFile.id;
+
+		scanFile = new ScanFile( filename, this.symbolTable.getId( filename + runSummary.getRawData() ) );
+		this.scanFilesByRunSummary.put( runSummary, scanFile );
+
+		return scanFile.id;
+	}
+
+	/**
+	 * The file name from a reported scan, and the symbol table ID of the scan file name it makes
+	 */
+	private static class ScanFile {
+
+		ScanFile( String filename, int id ) {
+			this.filename = filename;
+			this.id = id;
+		}
+
+		private final String filename;
+		private final int id;
+	}
+
+	/**
+	 * Get the results cache file for the pepXML file, null if no results cache directory has been set
+	 *
+	 * @return
+	 */
+	public File getResultsCacheFile() {
+		return resultsCacheFile;
+	}
+
+	/**
+	 * Set the directory that holds results cache files. The spectrum queries of the pepXML file are written to a
+	 * cache file in this directory the first time they are read, and read from that file in later runs (until the
+	 * pepXML file changes) instead of being parsed from the XML again.
+	 *
+	 * @param resultsCacheDirectory The directory, may be null to not use a results cache
+	 * @throws Exception
+	 */
+	public void setResultsCacheDirectory(File resultsCacheDirectory) throws Exception {
+		this.resultsCacheFile = ( resultsCacheDirectory == null ) ? null : ResultsCacheFormat.getCacheFile( resultsCacheDirectory, this.pepXMLFile );
+		this.resultsCacheValid = null;
+	}
 }
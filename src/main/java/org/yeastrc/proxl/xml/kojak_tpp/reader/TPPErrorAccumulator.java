@@ -0,0 +1,112 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the PeptideProphet and iProphet probabilities of PSMs one at a time (e.g., as they are parsed), as a
+ * histogram of the number of PSMs with each distinct probability, so that the FDR analysis does not need the
+ * complete results or another pass over them. PSMs may also be removed again (e.g., when their reported peptide is
+ * removed from the results), since only counts are kept. Once all PSMs have been added, getErrorAnalysis() builds the
+ * error lookup table for either score.
+ *
+ * A PSM is counted once for each time it is added, the same as it is counted once for each reported peptide it
+ * is reported for by TPPErrorAnalyzer.performPeptideProphetAnalysis().
+ *
+ * PSMs must be added and removed by one thread at a time. Once all PSMs have been added, getErrorAnalysis() only reads
+ * the counts, so it may be called from several threads at once (e.g., for both scores).
+ *
+ * @author mriffle
+ *
+ */
+public class TPPErrorAccumulator {
+
+	/**
+	 * Add the probabilities of the PSM
+	 *
+	 * @param result
+	 */
+	public void add( TPPResult result ) {
+		count( this.peptideProphetCounts, result.getPeptideProphetScore(), 1 );
+		count( this.interProphetCounts, result.getInterProphetScore(), 1 );
+	}
+
+	/**
+	 * Remove the probabilities of a PSM that was added
+	 *
+	 * @param result
+	 */
+	public void remove( TPPResult result ) {
+		count( this.peptideProphetCounts, result.getPeptideProphetScore(), -1 );
+		count( this.interProphetCounts, result.getInterProphetScore(), -1 );
+	}
+
+	/**
+	 * Build the error analysis of the PSMs added so far for the given score. PSMs without that score are not counted.
+	 * The probability sums of each score are its count times the probability, which may differ from adding the
+	 * probability once per PSM in the last bits, well below the precision the error is reported to.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public TPPErrorAnalysis getErrorAnalysis( TPPErrorAnalyzer.Type type ) {
+
+		Map<BigDecimal, ScoreCount> counts = ( type == TPPErrorAnalyzer.Type.INTERPROPHET ) ? this.interProphetCounts : this.peptideProphetCounts;
+		Map<BigDecimal, ProbabilitySumCounter> probabilitySums = new HashMap<BigDecimal, ProbabilitySumCounter>();
+
+		for( Map.Entry<BigDecimal, ScoreCount> entry : counts.entrySet() ) {
+
+			long count = entry.getValue().count;
+
+			if( count < 1 )
+				continue;
+
+			double score = entry.getKey().doubleValue();
+			ProbabilitySumCounter psc = new ProbabilitySumCounter();
+
+			psc.setpCount( count * score );
+			psc.setOneMinusPCount( count * ( 1.0 - score ) );
+			psc.setTotalCount( (int)count );
+
+			probabilitySums.put( entry.getKey(), psc );
+		}
+
+		return TPPErrorAnalyzer.performPeptideProphetAnalysis( probabilitySums );
+	}
+
+	/**
+	 * Change the count of PSMs with the score
+	 *
+	 * @param counts
+	 * @param score Not counted if null
+	 * @param change
+	 */
+	private static void count( Map<BigDecimal, ScoreCount> counts, BigDecimal score, long change ) {
+
+		if( score == null )
+			return;
+
+		ScoreCount scoreCount = counts.get( score );
+
+		if( scoreCount == null ) {
+			scoreCount = new ScoreCount();
+			counts.put( score, scoreCount );
+		}
+
+		scoreCount.count += change;
+	}
+
+	/**
+	 * The number of PSMs with a score
+	 */
+	private static class ScoreCount {
+		private long count;
+	}
+
+
+	private final Map<BigDecimal, ScoreCount> peptideProphetCounts = new HashMap<>();
+	private final Map<BigDecimal, ScoreCount> interProphetCounts = new HashMap<>();
+}
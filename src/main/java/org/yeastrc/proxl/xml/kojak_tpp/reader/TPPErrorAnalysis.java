@@ -9,6 +9,9 @@ public class TPPErrorAnalysis {
 	 * Get the error ( sum of 1-p for this probability or better / total count
 	 * of hits with this probability or better )
 	 * 
+	 * The sums are looked up in the cumulative table built by TPPErrorAnalyzer, so this
+	 * is a single hash lookup rather than a pass over all scores.
+	 * 
 	 * @param score
 	 * @throws Exception
 	 */
@@ -16,27 +19,12 @@ public class TPPErrorAnalysis {
 		
 		//System.out.println( score );
 
+		Integer index = this.scoreIndices.get( score );
 		
-		if( !this.probabilitySums.containsKey( score ) )
+		if( index == null )
 			throw new Exception( "The score: " + score + " was not found in this search." );
 		
-		double totalCount = 0;
-		double oneMinusPSum = 0;
-		
-		for( BigDecimal testScore : this.getProbabilitySums().keySet() ) {
-			
-			
-			if( testScore.compareTo( score ) >= 0 ) {
-				
-				totalCount += this.probabilitySums.get( testScore ).getTotalCount();
-				oneMinusPSum += this.probabilitySums.get( testScore ).getOneMinusPCount();
-				
-				//System.out.println( totalCount + " " + oneMinusPSum );
-				
-			}
-		}
-		
-		double error = oneMinusPSum / totalCount;
+		double error = this.cumulativeOneMinusPSums[ index ] / this.cumulativeCounts[ index ];
 		
 		BigDecimal retValue = BigDecimal.valueOf( error );
 		retValue = retValue.setScale(4, BigDecimal.ROUND_HALF_EVEN);
@@ -58,6 +46,22 @@ public class TPPErrorAnalysis {
 		this.probabilitySums = probabilitySums;
 	}
 
+	/**
+	 * Set the table used to look up the error for a score.
+	 * 
+	 * @param scoreIndices The index into the cumulative sum arrays for each score
+	 * @param cumulativeOneMinusPSums The sum of 1-p for all hits with the score at that index or better
+	 * @param cumulativeCounts The count of all hits with the score at that index or better
+	 */
+	protected void setErrorLookupTable(Map<BigDecimal, Integer> scoreIndices, double[] cumulativeOneMinusPSums, long[] cumulativeCounts) {
+		this.scoreIndices = scoreIndices;
+		this.cumulativeOneMinusPSums = cumulativeOneMinusPSums;
+		this.cumulativeCounts = cumulativeCounts;
+	}
+
 	private Map<BigDecimal, ProbabilitySumCounter> probabilitySums;
+	private Map<BigDecimal, Integer> scoreIndices;
+	private double[] cumulativeOneMinusPSums;
+	private long[] cumulativeCounts;
 
 }
@@ -4,6 +4,7 @@ import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPReportedPeptide;
 import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -25,50 +26,87 @@ public class TPPErrorAnalyzer {
 
 	
 	/**
-	 * Analyze the target/decoy counts in the analysis
+	 * Analyze the target/decoy counts in the analysis. To analyze the PSMs as they are found instead, without
+	 * needing all of the results, see TPPErrorAccumulator.
 	 * 
 	 * @throws Exception
 	 */
 	public static TPPErrorAnalysis performPeptideProphetAnalysis( Map<TPPReportedPeptide, Collection<TPPResult>> tppResults, Type type ) {
 		
-		Map<BigDecimal, ProbabilitySumCounter> probabilitySums = new HashMap<BigDecimal, ProbabilitySumCounter>();
-		
 		/*
 		 * First, compile a count for targets and decoys for each score reported for all PSMs
 		 */
 		
-		for( TPPReportedPeptide tppRp : tppResults.keySet() ) {
-			
-			for( TPPResult TPPResult : tppResults.get( tppRp ) ) {
-				
-				
-				BigDecimal score = null;
-
-				if(type == Type.INTERPROPHET)
-					score = TPPResult.getInterProphetScore();
-				else if(type == Type.PEPTIDEPROPHET)
-					score = TPPResult.getPeptideProphetScore();
-
-				ProbabilitySumCounter psc = null;
-				
-				if( probabilitySums.containsKey( score ) ) {
-					psc = probabilitySums.get( score );
-				} else {
-					psc = new ProbabilitySumCounter();
-					probabilitySums.put( score,  psc );
-				}
-				
-				psc.setpCount( psc.getpCount() + score.doubleValue() );
-				psc.setOneMinusPCount( psc.getOneMinusPCount() + ( 1.0 - score.doubleValue() ) );
-				psc.setTotalCount( psc.getTotalCount() + 1 );
-				
+		TPPErrorAccumulator accumulator = new TPPErrorAccumulator();
+		
+		for( Collection<TPPResult> psms : tppResults.values() ) {
+			for( TPPResult TPPResult : psms ) {
+				accumulator.add( TPPResult );
 			}
-			
 		}
 		
+		return accumulator.getErrorAnalysis( type );
+	}
+	
+	/**
+	 * Build the error analysis from the sums of the probabilities for each distinct score
+	 * 
+	 * @param probabilitySums
+	 * @return
+	 */
+	static TPPErrorAnalysis performPeptideProphetAnalysis( Map<BigDecimal, ProbabilitySumCounter> probabilitySums ) {
+		
 		TPPErrorAnalysis ppa = new TPPErrorAnalysis();
 		ppa.setProbabilitySums( probabilitySums );
+		buildErrorLookupTable( ppa, probabilitySums );
 		
 		return ppa;
 	}
+	
+	/**
+	 * Sort the distinct scores and compute, for each one, the cumulative sum of 1-p and the cumulative
+	 * count of all hits with that score or better. This allows the error for any score to be looked up
+	 * directly instead of summing over all scores for every PSM.
+	 * 
+	 * @param ppa
+	 * @param probabilitySums
+	 */
+	private static void buildErrorLookupTable( TPPErrorAnalysis ppa, Map<BigDecimal, ProbabilitySumCounter> probabilitySums ) {
+		
+		BigDecimal[] scores = probabilitySums.keySet().toArray( new BigDecimal[ 0 ] );
+		Arrays.sort( scores );
+		
+		double[] cumulativeOneMinusPSums = new double[ scores.length ];
+		long[] cumulativeCounts = new long[ scores.length ];
+		
+		// sum from the best (highest) score down
+		double oneMinusPSum = 0;
+		long totalCount = 0;
+		
+		for( int i = scores.length - 1; i >= 0; i-- ) {
+			ProbabilitySumCounter psc = probabilitySums.get( scores[ i ] );
+			
+			oneMinusPSum += psc.getOneMinusPCount();
+			totalCount += psc.getTotalCount();
+			
+			cumulativeOneMinusPSums[ i ] = oneMinusPSum;
+			cumulativeCounts[ i ] = totalCount;
+		}
+		
+		// scores that are equal in value but differ in scale (e.g., 0.5 and 0.50) are distinct keys, but each
+		// must include the hits of the others, so give all of them the sums of the first one in sorted order
+		for( int i = 1; i < scores.length; i++ ) {
+			if( scores[ i ].compareTo( scores[ i - 1 ] ) == 0 ) {
+				cumulativeOneMinusPSums[ i ] = cumulativeOneMinusPSums[ i - 1 ];
+				cumulativeCounts[ i ] = cumulativeCounts[ i - 1 ];
+			}
+		}
+		
+		Map<BigDecimal, Integer> scoreIndices = new HashMap<>();
+		for( int i = 0; i < scores.length; i++ ) {
+			scoreIndices.put( scores[ i ], i );
+		}
+		
+		ppa.setErrorLookupTable( scoreIndices, cumulativeOneMinusPSums, cumulativeCounts );
+	}
 }
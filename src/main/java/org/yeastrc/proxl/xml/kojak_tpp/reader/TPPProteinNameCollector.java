@@ -2,7 +2,6 @@ package org.yeastrc.proxl.xml.kojak_tpp.reader;
 
 import net.systemsbiology.regis_web.pepxml.AltProteinDataType;
 import net.systemsbiology.regis_web.pepxml.InterprophetResult;
-import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary;
 import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery;
 import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult;
 import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit;
@@ -31,107 +30,116 @@ public class TPPProteinNameCollector {
 		
 		Collection<String> proteinNames = new HashSet<String>();
 		
-		for( MsmsRunSummary runSummary : analysis.getAnalysis().getMsmsRunSummary() ) {
-			for( SpectrumQuery spectrumQuery : runSummary.getSpectrumQuery() ) {
-				for( SearchResult searchResult : spectrumQuery.getSearchResult() ) {
-					for( SearchHit searchHit : searchResult.getSearchHit() ) {
-						for( AnalysisResult analysisResult : searchHit.getAnalysisResult() ) {
-							if( analysisResult.getAnalysis().equals( "interprophet" ) ) {
-								
-								// only one interprophet result will appear for a search hit, and we are only
-								// interested in search hits with an interprophet result.
+		analysis.processSpectrumQueries( ( runSummary, spectrumQuery ) -> addProteinNames( proteinNames, spectrumQuery, analysis ) );
+		
+		return proteinNames;
+		
+	}
+	
+	/**
+	 * Add the names of the target proteins found in the given spectrum query to the supplied collection
+	 * 
+	 * @param proteinNames
+	 * @param spectrumQuery
+	 * @param analysis
+	 * @throws Exception
+	 */
+	private void addProteinNames( Collection<String> proteinNames, SpectrumQuery spectrumQuery, TPPAnalysis analysis ) throws Exception {
+		
+		for( SearchResult searchResult : spectrumQuery.getSearchResult() ) {
+			for( SearchHit searchHit : searchResult.getSearchHit() ) {
+				for( AnalysisResult analysisResult : searchHit.getAnalysisResult() ) {
+					if( analysisResult.getAnalysis().equals( "interprophet" ) ) {
+						
+						// only one interprophet result will appear for a search hit, and we are only
+						// interested in search hits with an interprophet result.
+						
+						// skip this if it's a decoy
+						if( PepXMLUtils.isDecoy( analysis.getDecoyMatcher(), searchHit) )
+							continue;
+						
+						// skip if the score is 0, we don't import these
+						InterprophetResult ipresult = (InterprophetResult) analysisResult.getAny().get( 0 );
+						if( ipresult.getProbability().compareTo( new BigDecimal( "0" ) ) == 0 )
+							continue;
+						
+						if( PepXMLUtils.getHitType( searchHit ) == TPPConstants.LINK_TYPE_CROSSLINK ) {
+							
+							for( LinkedPeptide linkedPeptide : searchHit.getXlink().getLinkedPeptide() ) {
 								
-								// skip this if it's a decoy
-								if( PepXMLUtils.isDecoy( analysis.getDecoyIdentifiers(), searchHit) )
-									continue;
+								Collection<String> proteinsToAdd = new HashSet<>();
 								
-								// skip if the score is 0, we don't import these
-								InterprophetResult ipresult = (InterprophetResult) analysisResult.getAny().get( 0 );
-								if( ipresult.getProbability().compareTo( new BigDecimal( "0" ) ) == 0 )
-									continue;
+								if( !PepXMLUtils.isDecoyName( analysis.getDecoyMatcher(),  linkedPeptide.getProtein() ) )
+									proteinsToAdd.add( linkedPeptide.getProtein() );
 								
-								if( PepXMLUtils.getHitType( searchHit ) == TPPConstants.LINK_TYPE_CROSSLINK ) {
-									
-									for( LinkedPeptide linkedPeptide : searchHit.getXlink().getLinkedPeptide() ) {
-										
-										Collection<String> proteinsToAdd = new HashSet<>();
-										
-										if( !PepXMLUtils.isDecoyName( analysis.getDecoyIdentifiers(),  linkedPeptide.getProtein() ) )
-											proteinsToAdd.add( linkedPeptide.getProtein() );
-										
-										if( linkedPeptide.getAlternativeProtein() != null ) {
-											for( AltProteinDataType altProtein : linkedPeptide.getAlternativeProtein() ) {
-												if( !PepXMLUtils.isDecoyName( analysis.getDecoyIdentifiers(),  altProtein.getProtein() ) )
-													proteinsToAdd.add( altProtein.getProtein() );
-											}
-										}
-										
-										if( proteinsToAdd.size() < 1 ) {
-											
-											String hitSummary = "";
-											
-											hitSummary += "protein: " + linkedPeptide.getProtein() + "\n";
-											
-											if( searchHit.getAlternativeProtein() != null ) {
-												for( AltProteinDataType altProtein : linkedPeptide.getAlternativeProtein() ) {
-													hitSummary += "alt protein: " + altProtein.getProtein() + "\n";
-												}
-											}
-											
-											throw new Exception( "Got no proteins to add for this target hit: " + hitSummary );
-										}
-										
-										proteinNames.addAll( proteinsToAdd );
+								if( linkedPeptide.getAlternativeProtein() != null ) {
+									for( AltProteinDataType altProtein : linkedPeptide.getAlternativeProtein() ) {
+										if( !PepXMLUtils.isDecoyName( analysis.getDecoyMatcher(),  altProtein.getProtein() ) )
+											proteinsToAdd.add( altProtein.getProtein() );
 									}
+								}
+								
+								if( proteinsToAdd.size() < 1 ) {
 									
-								} else {
-									
-									// for looplinks and unlinkeds
-									
-									Collection<String> proteinsToAdd = new HashSet<>();
+									String hitSummary = "";
 									
-									if( !PepXMLUtils.isDecoyName( analysis.getDecoyIdentifiers(),  searchHit.getProtein() ) )
-										proteinsToAdd.add( searchHit.getProtein() );
+									hitSummary += "protein: " + linkedPeptide.getProtein() + "\n";
 									
 									if( searchHit.getAlternativeProtein() != null ) {
-										for( AltProteinDataType altProtein : searchHit.getAlternativeProtein() ) {
-											
-											if( !PepXMLUtils.isDecoyName( analysis.getDecoyIdentifiers(),  altProtein.getProtein() ) )
-												proteinsToAdd.add( altProtein.getProtein() );
-										}
-									}
-									
-									if( proteinsToAdd.size() < 1 ) {
-										
-										String hitSummary = "";
-										
-										hitSummary += "protein: " + searchHit.getProtein() + "\n";
-										
-										if( searchHit.getAlternativeProtein() != null ) {
-											for( AltProteinDataType altProtein : searchHit.getAlternativeProtein() ) {
-												hitSummary += "alt protein: " + altProtein.getProtein() + "\n";
-											}
+										for( AltProteinDataType altProtein : linkedPeptide.getAlternativeProtein() ) {
+											hitSummary += "alt protein: " + altProtein.getProtein() + "\n";
 										}
-										
-										throw new Exception( "Got no proteins to add for this target hit: " + hitSummary );
 									}
 									
-									proteinNames.addAll( proteinsToAdd );
+									throw new Exception( "Got no proteins to add for this target hit: " + hitSummary );
+								}
+								
+								proteinNames.addAll( proteinsToAdd );
+							}
+							
+						} else {
+							
+							// for looplinks and unlinkeds
+							
+							Collection<String> proteinsToAdd = new HashSet<>();
+							
+							if( !PepXMLUtils.isDecoyName( analysis.getDecoyMatcher(),  searchHit.getProtein() ) )
+								proteinsToAdd.add( searchHit.getProtein() );
+							
+							if( searchHit.getAlternativeProtein() != null ) {
+								for( AltProteinDataType altProtein : searchHit.getAlternativeProtein() ) {
 									
+									if( !PepXMLUtils.isDecoyName( analysis.getDecoyMatcher(),  altProtein.getProtein() ) )
+										proteinsToAdd.add( altProtein.getProtein() );
 								}
+							}
+							
+							if( proteinsToAdd.size() < 1 ) {
 								
-
+								String hitSummary = "";
 								
-
+								hitSummary += "protein: " + searchHit.getProtein() + "\n";
+								
+								if( searchHit.getAlternativeProtein() != null ) {
+									for( AltProteinDataType altProtein : searchHit.getAlternativeProtein() ) {
+										hitSummary += "alt protein: " + altProtein.getProtein() + "\n";
+									}
+								}
+								
+								throw new Exception( "Got no proteins to add for this target hit: " + hitSummary );
 							}
+							
+							proteinNames.addAll( proteinsToAdd );
+							
 						}
+						
+
+						
+
 					}
 				}
 			}
 		}
-		
-		return proteinNames;
-		
 	}
 	
 }
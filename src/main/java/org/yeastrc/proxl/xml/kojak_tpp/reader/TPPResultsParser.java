@@ -9,17 +9,15 @@ import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.S
 import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.AnalysisResult;
 import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.Xlink;
 import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.Xlink.LinkedPeptide;
-import org.yeastrc.proteomics.fasta.FASTAEntry;
-import org.yeastrc.proteomics.fasta.FASTAFileParser;
-import org.yeastrc.proteomics.fasta.FASTAFileParserFactory;
-import org.yeastrc.proteomics.fasta.FASTAHeader;
 import org.yeastrc.proxl.xml.kojak_tpp.constants.TPPConstants;
 import org.yeastrc.proxl.xml.kojak_tpp.constants.KojakConstants;
 import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPPeptide;
 import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPReportedPeptide;
 import org.yeastrc.proxl.xml.kojak_tpp.objects.TPPResult;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ConversionMetrics;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.OrderedChunkExecutor;
 import org.yeastrc.proxl.xml.kojak_tpp.utils.PepXMLUtils;
-import org.yeastrc.proxl.xml.kojak_tpp.utils.ScanParsingUtils;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.SymbolTable;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -30,68 +28,48 @@ public class TPPResultsParser {
 	public static TPPResultsParser getInstance() { return _INSTANCE; }
 	private TPPResultsParser() { }
 	
+	/**
+	 * The number of spectrum queries processed at a time by a worker thread when parsing in parallel
+	 */
+	private static final int SPECTRUM_QUERY_CHUNK_SIZE = 1000;
+	
 	/**
 	 * Get the results of the analysis back in the form used by proxl:
 	 * reported peptides are the keys, and all of the PSMs (and their scores)
 	 * that reported that peptide are the values.
 	 * 
+	 * If the analysis has more than one thread, the spectrum queries are processed in parallel,
+	 * see processSpectrumQueriesInParallel(). The results are identical either way.
+	 * 
 	 * @param analysis
 	 * @return
 	 * @throws Exception
 	 */
 	public Map<TPPReportedPeptide, Collection<TPPResult>> getResultsFromAnalysis(TPPAnalysis analysis ) throws Exception {
+		return getResultsFromAnalysis( analysis, null );
+	}
+	
+	/**
+	 * Get the results of the analysis, see getResultsFromAnalysis( TPPAnalysis ). Each PSM is also added to the
+	 * error accumulator as it is found (once for each reported peptide it is added for), and removed again if its
+	 * reported peptide is removed from the results, so that the error accumulator ends up with exactly the PSMs
+	 * of the results.
+	 * 
+	 * @param analysis
+	 * @param errorAccumulator May be null
+	 * @return
+	 * @throws Exception
+	 */
+	public Map<TPPReportedPeptide, Collection<TPPResult>> getResultsFromAnalysis(TPPAnalysis analysis, TPPErrorAccumulator errorAccumulator ) throws Exception {
 		
 		Map<TPPReportedPeptide, Collection<TPPResult>> results = new HashMap<TPPReportedPeptide, Collection<TPPResult>>();
 		
-		for( MsmsRunSummary runSummary : analysis.getAnalysis().getMsmsRunSummary() ) {
-			for( SpectrumQuery spectrumQuery : runSummary.getSpectrumQuery() ) {
-				for( SearchResult searchResult : spectrumQuery.getSearchResult() ) {
-					for( SearchHit searchHit : searchResult.getSearchHit() ) {
-						for( AnalysisResult analysisResult : searchHit.getAnalysisResult() ) {
-							if( analysisResult.getAnalysis().equals( "peptideprophet" ) ) {
-								
-								// only one peptideprophet result will appear for a search hit, and we are only
-								// interested in search hits with a peptideprophet result.
-								
-								// skip this if it's a decoy
-								if( PepXMLUtils.isDecoy( analysis.getDecoyIdentifiers(), searchHit) )
-									continue;
-								
-								// get our result
-								TPPResult result = getResult(runSummary, spectrumQuery, searchHit, analysis);
-								
-								// get our reported peptide
-								TPPReportedPeptide reportedPeptide = getReportedPeptide(searchHit, analysis);
-								
-								if( !results.containsKey( reportedPeptide ) )
-									results.put( reportedPeptide, new ArrayList<TPPResult>() );
-								
-								results.get( reportedPeptide ).add( result );
-
-								/*
-								 * Kojak reports leucine/isoleucine variations as individual peptide matches in its results
-								 * file as tied as rank 1 hits to a spectrum. This is preferred by proxl, however, peptideprophet
-								 * and iprophet only score a single rank 1 hit for a spectrum. If we only keep the peptide that
-								 * iprophet scored, we may lose valuable information if the leucine->isoleucine variant of that
-								 * peptide matched proteins of interest in the FASTA file.
-								 * 
-								 * To address this, iterate over the other search hits for this search result, and keep all other
-								 * rank 1 hits that are merely leucine/isoleucine substitutions of the scored rank 1 hit.
-								 */
-								Collection<TPPReportedPeptide> otherReportedPeptides = getAllLeucineIsoleucineSubstitutions( reportedPeptide, searchResult, analysis );
-								
-								for( TPPReportedPeptide otherReportedPeptide : otherReportedPeptides ) {
-									if( !results.containsKey( otherReportedPeptide ) )
-										results.put( otherReportedPeptide, new ArrayList<TPPResult>() );
-									
-									results.get( otherReportedPeptide ).add( result );
-								}
-								
-							}
-						}
-					}
-				}
-			}
+		if( analysis.getThreadCount() > 1 ) {
+			processSpectrumQueriesInParallel( results, errorAccumulator, analysis );
+		} else {
+			
+			// stream the spectrum queries out of the pepXML file, only the current one is held in memory
+			analysis.processSpectrumQueries( ( runSummary, spectrumQuery ) -> processSpectrumQuery( results, errorAccumulator, runSummary, spectrumQuery, analysis ) );
 		}
 		
 		/*
@@ -106,73 +84,40 @@ public class TPPResultsParser {
 		
 		if( reportedPeptidesToConfirm.size() > 0 ) {
 			
-			// collection of all protein names we need to confirm
+			ConversionMetrics.Stage confirmStage = analysis.getMetrics().startStage( "confirm target proteins" );
+			
+			// collection of all protein names we need to confirm, and of all peptide sequences that will later be
+			// matched to proteins
 			Collection<String> proteinNames = new HashSet<>();
+			Collection<String> peptideSequences = new HashSet<>();
 			
-			// cache the relevant protein sequences
-			Map<String, String> proteinSequences = new HashMap<>();	
+			BitSet proteinIds = new BitSet( analysis.getSymbolTable().size() );
 			
 			for( TPPReportedPeptide reportedPeptide : reportedPeptidesToConfirm ) {
-				proteinNames.addAll( reportedPeptide.getPeptide1().getTargetProteins() );
-				if( reportedPeptide.getPeptide2() != null )
-					proteinNames.addAll( reportedPeptide.getPeptide2().getTargetProteins() );
+				addTargetProteinIds( proteinIds, reportedPeptide.getPeptide1() );
+				peptideSequences.add( reportedPeptide.getPeptide1().getSequence() );
+				if( reportedPeptide.getPeptide2() != null ) {
+					addTargetProteinIds( proteinIds, reportedPeptide.getPeptide2() );
+					peptideSequences.add( reportedPeptide.getPeptide2().getSequence() );
+				}
 			}
 			
-			// build the cache of protein sequences
-			try ( FASTAFileParser parser = FASTAFileParserFactory.getInstance().getFASTAFileParser( analysis.getFastaFile() ) ) {
-
-				for (FASTAEntry entry = parser.getNextEntry(); entry != null; entry = parser.getNextEntry() ) {
-
-					for( FASTAHeader header : entry.getHeaders() ) {
-		        		
-		        		for( String testString : proteinNames ) {
-							if (header.getName().startsWith(testString)) {
-								proteinSequences.put(header.getName(), entry.getSequence());
-							}
-						}
-		        	}
-		        }
+			for( int proteinId = proteinIds.nextSetBit( 0 ); proteinId >= 0; proteinId = proteinIds.nextSetBit( proteinId + 1 ) ) {
+				proteinNames.add( analysis.getSymbolTable().getSymbol( proteinId ) );
 			}
 			
-			// now have cache of relevant protein names and sequences. iterate over the reportedPeptidesToConfirm and
+			// index the relevant protein sequences by FASTA header name. if the FASTA file is read to do this, the
+			// FASTA entries needed later to find the matched proteins are kept, so it need not be read again
+			ProteinSequenceIndex proteinSequenceIndex = analysis.getFastaService().getProteinSequenceIndex( proteinNames, peptideSequences, analysis.getThreadCount() );
+			
+			// now have index of relevant protein names and sequences. iterate over the reportedPeptidesToConfirm and
 			// remove associated proteins from peptides where that peptide is not actually found in that protein
 			for( TPPReportedPeptide reportedPeptide : reportedPeptidesToConfirm ) {
 				
-				for (Iterator<String> i = reportedPeptide.getPeptide1().getTargetProteins().iterator(); i.hasNext();) {
-					String protein = i.next();
-					boolean foundProtein = false;
-					
-					for( String cachedProteinName : proteinSequences.keySet() ) {
-						if( cachedProteinName.startsWith( protein ) ) {
-							if( proteinSequences.get( cachedProteinName ).toLowerCase().contains( reportedPeptide.getPeptide1().getSequence().toLowerCase() ) )
-								foundProtein = true;
-						}
-					}
-					
-					if( !foundProtein )
-						i.remove();
-					
-				}
-				
+				removeUnconfirmedTargetProteins( reportedPeptide.getPeptide1(), proteinSequenceIndex, analysis.getSymbolTable() );
 				
 				if( reportedPeptide.getType() == TPPConstants.LINK_TYPE_CROSSLINK ) {
-					
-					for (Iterator<String> i = reportedPeptide.getPeptide2().getTargetProteins().iterator(); i.hasNext();) {
-						String protein = i.next();
-						boolean foundProtein = false;
-						
-						for( String cachedProteinName : proteinSequences.keySet() ) {
-							if( cachedProteinName.startsWith( protein ) ) {
-								if( proteinSequences.get( cachedProteinName ).toLowerCase().contains( reportedPeptide.getPeptide2().getSequence().toLowerCase() ) )
-									foundProtein = true;
-							}
-						}
-						
-						if( !foundProtein )
-							i.remove();
-						
-					}
-					
+					removeUnconfirmedTargetProteins( reportedPeptide.getPeptide2(), proteinSequenceIndex, analysis.getSymbolTable() );
 				}
 				
 			}
@@ -181,106 +126,335 @@ public class TPPResultsParser {
 			// targetProteins left for a peptide
 			for( TPPReportedPeptide reportedPeptide : reportedPeptidesToConfirm ) {
 				
-				if( reportedPeptide.getPeptide1().getTargetProteins().size() < 1 ) {
+				if( reportedPeptide.getPeptide1().getTargetProteinIds().length < 1 ) {
 					System.out.println( "INFO: Removing " + reportedPeptide + " from results, does not match a target protein." );
-					results.remove( reportedPeptide );
+					removeResults( results, reportedPeptide, errorAccumulator );
 				}
 				
-				else if( reportedPeptide.getType() == TPPConstants.LINK_TYPE_CROSSLINK && reportedPeptide.getPeptide2().getTargetProteins().size() < 1) {
+				else if( reportedPeptide.getType() == TPPConstants.LINK_TYPE_CROSSLINK && reportedPeptide.getPeptide2().getTargetProteinIds().length < 1) {
 					System.out.println( "INFO: Removing " + reportedPeptide + " from results, does not match a target protein." );
-					results.remove( reportedPeptide );
+					removeResults( results, reportedPeptide, errorAccumulator );
 				}
 				
 			}
 			
-			
+			analysis.getMetrics().endStage( confirmStage );
+			confirmStage.setCount( "reported peptides", reportedPeptidesToConfirm.size() )
+					.setCount( "fasta entries", proteinSequenceIndex.getFastaEntryCount() )
+					.setCount( "proteins indexed", proteinSequenceIndex.size() );
 			
 		}
 		
 		return results;
 	}
-
+	
 	/**
-	 * For a given reported peptide, find all other reported peptides that are leucine<->isoleucine
-	 * substituitions of that reported peptide, where those substutions match a  protein
-	 * in the FASTA file. Since Kojak reports all such peptides as separate PSMs, this is done by
-	 * iterating over the other rank 1 hits for a search result and getting those hits that are
-	 * merely leucine<->isoleucine substitutions of the reported peptide. These are guaranteed to
-	 * hit a protein in the FASTA file, otherwise Kojak would not have reported them.
+	 * Remove the reported peptide (and its PSMs) from the results
 	 * 
+	 * @param results
 	 * @param reportedPeptide
-	 * @param searchResult
+	 * @param errorAccumulator The PSMs are removed from this too, may be null
+	 */
+	private void removeResults( Map<TPPReportedPeptide, Collection<TPPResult>> results, TPPReportedPeptide reportedPeptide, TPPErrorAccumulator errorAccumulator ) {
+		
+		Collection<TPPResult> psms = results.remove( reportedPeptide );
+		
+		if( psms != null && errorAccumulator != null ) {
+			for( TPPResult psm : psms ) {
+				errorAccumulator.remove( psm );
+			}
+		}
+	}
+
+	/**
+	 * Stream the spectrum queries out of the pepXML file in chunks, and process each chunk into its own results
+	 * map on a pool of worker threads. The chunk maps are merged into results in the order the chunks were read,
+	 * so the merged map (including the order of the PSMs for each reported peptide, and which of several equal
+	 * reported peptide objects is used as the key) is identical to processing every spectrum query serially.
+	 * 
+	 * Only a limited number of chunks are held in memory at once.
+	 * 
+	 * @param results
+	 * @param errorAccumulator The PSMs are added to this as the chunks are merged, may be null
+	 * @param analysis
+	 * @throws Exception
+	 */
+	private void processSpectrumQueriesInParallel( Map<TPPReportedPeptide, Collection<TPPResult>> results, TPPErrorAccumulator errorAccumulator, TPPAnalysis analysis ) throws Exception {
+		
+		try ( OrderedChunkExecutor<SpectrumQueryInRun, Map<TPPReportedPeptide, Collection<TPPResult>>> chunkExecutor = new OrderedChunkExecutor<>( analysis.getThreadCount(), SPECTRUM_QUERY_CHUNK_SIZE,
+				chunk -> processSpectrumQueryChunk( chunk, analysis ),
+				chunkResults -> mergeChunkResults( chunkResults, results, errorAccumulator ) ) ) {
+			
+			analysis.processSpectrumQueries( ( runSummary, spectrumQuery ) -> chunkExecutor.add( new SpectrumQueryInRun( runSummary, spectrumQuery ) ) );
+			
+			chunkExecutor.finish();
+		}
+	}
+	
+	/**
+	 * Process a chunk of spectrum queries into a results map of their own. The map keeps the reported peptides in
+	 * the order they were first found.
+	 * 
+	 * @param chunk
 	 * @param analysis
 	 * @return
 	 * @throws Exception
 	 */
-	private Collection<TPPReportedPeptide>  getAllLeucineIsoleucineSubstitutions(TPPReportedPeptide reportedPeptide, SearchResult searchResult, TPPAnalysis analysis ) throws Exception {
+	private Map<TPPReportedPeptide, Collection<TPPResult>> processSpectrumQueryChunk( List<SpectrumQueryInRun> chunk, TPPAnalysis analysis ) throws Exception {
 		
-		//System.out.println( "Calling getAllLeucineIsoleucineSubstitutions()" );
+		Map<TPPReportedPeptide, Collection<TPPResult>> chunkResults = new LinkedHashMap<>();
 		
-		Collection<TPPReportedPeptide> reportedPeptides = new HashSet<TPPReportedPeptide>();
-				
-		for( SearchHit otherSearchHit : searchResult.getSearchHit() ) {
-			TPPReportedPeptide otherReportedPeptide = getReportedPeptide( otherSearchHit, analysis );
-
-			// if they're not the same type, there's no match
-			if( reportedPeptide.getType() != otherReportedPeptide.getType() )
-				continue;
+		for( SpectrumQueryInRun spectrumQueryInRun : chunk ) {
+			processSpectrumQuery( chunkResults, null, spectrumQueryInRun.runSummary, spectrumQueryInRun.spectrumQuery, analysis );
+		}
+		
+		return chunkResults;
+	}
+	
+	/**
+	 * Merge the results of a chunk of spectrum queries into the results. Reported peptides already in the results
+	 * keep their existing key object, the same as when adding results one at a time in processSpectrumQuery().
+	 * 
+	 * @param chunkResults
+	 * @param results
+	 * @param errorAccumulator The PSMs of the chunk are added to this, may be null
+	 */
+	private void mergeChunkResults( Map<TPPReportedPeptide, Collection<TPPResult>> chunkResults, Map<TPPReportedPeptide, Collection<TPPResult>> results, TPPErrorAccumulator errorAccumulator ) {
+		
+		for( Map.Entry<TPPReportedPeptide, Collection<TPPResult>> entry : chunkResults.entrySet() ) {
 			
-			// don't return the same reported peptide that was passed in
-			if( reportedPeptide.equals( otherReportedPeptide ) ) continue;
-
-			// perform test by substitution all Is and Ls with =s and comparing for string equality
-			String testSequence = reportedPeptide.toString();
-			testSequence = testSequence.replaceAll( "I", "=" );
-			testSequence = testSequence.replaceAll( "L", "=" );			
+			if( errorAccumulator != null ) {
+				for( TPPResult psm : entry.getValue() ) {
+					errorAccumulator.add( psm );
+				}
+			}
+			
+			Collection<TPPResult> psms = results.get( entry.getKey() );
 			
-			String otherSequence = otherReportedPeptide.toString();
-			otherSequence = otherSequence.replaceAll( "I", "=" );
-			otherSequence = otherSequence.replaceAll( "L", "=" );
+			if( psms == null )
+				results.put( entry.getKey(), entry.getValue() );
+			else
+				psms.addAll( entry.getValue() );
+		}
+	}
+	
+	/**
+	 * A spectrum query and the run summary it was found in
+	 */
+	private static class SpectrumQueryInRun {
+		
+		SpectrumQueryInRun( MsmsRunSummary runSummary, SpectrumQuery spectrumQuery ) {
+			this.runSummary = runSummary;
+			this.spectrumQuery = spectrumQuery;
+		}
+		
+		private final MsmsRunSummary runSummary;
+		private final SpectrumQuery spectrumQuery;
+	}
+	
+	/**
+	 * Add the IDs of the target proteins of the peptide to proteinIds
+	 * 
+	 * @param proteinIds
+	 * @param peptide
+	 */
+	private void addTargetProteinIds( BitSet proteinIds, TPPPeptide peptide ) {
+		
+		for( int proteinId : peptide.getTargetProteinIds() ) {
+			proteinIds.set( proteinId );
+		}
+	}
+	
+	/**
+	 * Remove the target proteins of the peptide that do not actually contain the peptide sequence
+	 * 
+	 * @param peptide
+	 * @param proteinSequenceIndex
+	 * @param symbolTable The symbol table the target protein IDs are from
+	 */
+	private void removeUnconfirmedTargetProteins( TPPPeptide peptide, ProteinSequenceIndex proteinSequenceIndex, SymbolTable symbolTable ) {
+		
+		int[] proteinIds = peptide.getTargetProteinIds();
+		int confirmedCount = 0;
+		
+		for( int proteinId : proteinIds ) {
+			if( proteinSequenceIndex.proteinContainsPeptide( symbolTable.getSymbol( proteinId ), peptide.getSequence() ) )
+				proteinIds[ confirmedCount++ ] = proteinId;
+		}
+		
+		if( confirmedCount < proteinIds.length )
+			peptide.setTargetProteinIds( Arrays.copyOf( proteinIds, confirmedCount ) );
+	}
+
+	/**
+	 * Add the results found in a single spectrum query to the supplied results map.
+	 * 
+	 * @param results
+	 * @param errorAccumulator Each PSM added to the results is also added to this, may be null
+	 * @param runSummary
+	 * @param spectrumQuery
+	 * @param analysis
+	 * @throws Exception
+	 */
+	private void processSpectrumQuery( Map<TPPReportedPeptide, Collection<TPPResult>> results, TPPErrorAccumulator errorAccumulator, MsmsRunSummary runSummary, SpectrumQuery spectrumQuery, TPPAnalysis analysis ) throws Exception {
+		
+		for( SearchResult searchResult : spectrumQuery.getSearchResult() ) {
 			
+			// the reported peptides of all search hits in this search result, grouped by their leucine/isoleucine
+			// normalized form. only built if a search hit in this search result is to be kept.
+			List<TPPReportedPeptide> hitReportedPeptides = null;
+			Map<String, Collection<TPPReportedPeptide>> reportedPeptidesByLeucineIsoleucineKey = null;
 			
-			if( testSequence.equals( otherSequence ) ) {
+			for( int hitIndex = 0; hitIndex < searchResult.getSearchHit().size(); hitIndex++ ) {
+				SearchHit searchHit = searchResult.getSearchHit().get( hitIndex );
 				
-				//System.out.println( "Adding " + otherReportedPeptide );
-				
-				reportedPeptides.add( otherReportedPeptide );
-			} else {
-				
-				if( otherReportedPeptide.getType() == TPPConstants.LINK_TYPE_CROSSLINK ) {
-					
-					// if we're testing a crosslink, be sure to test the other possible arrangement of peptides 1 and 2
-					
-					// switch peptides 1 and 2
-					TPPPeptide tmpPeptide = otherReportedPeptide.getPeptide1();
-					otherReportedPeptide.setPeptide1( otherReportedPeptide.getPeptide2() );
-					otherReportedPeptide.setPeptide2( tmpPeptide );
-					
-					otherSequence = otherReportedPeptide.toString();
-					otherSequence = otherSequence.replaceAll( "I", "=" );
-					otherSequence = otherSequence.replaceAll( "L", "=" );
-					
-					if( testSequence.equals( otherSequence ) ) {
+				for( AnalysisResult analysisResult : searchHit.getAnalysisResult() ) {
+					if( analysisResult.getAnalysis().equals( "peptideprophet" ) ) {
+						
+						// only one peptideprophet result will appear for a search hit, and we are only
+						// interested in search hits with a peptideprophet result.
 						
-						// switch back
-						otherReportedPeptide.setPeptide2( otherReportedPeptide.getPeptide1() );
-						otherReportedPeptide.setPeptide1( tmpPeptide );
+						// skip this if it's a decoy
+						if( PepXMLUtils.isDecoy( analysis.getDecoyMatcher(), searchHit) )
+							continue;
+						
+						// get our result
+						TPPResult result = getResult(runSummary, spectrumQuery, searchHit, analysis);
+						
+						if( hitReportedPeptides == null ) {
+							hitReportedPeptides = getReportedPeptides( searchResult, analysis );
+							reportedPeptidesByLeucineIsoleucineKey = groupByLeucineIsoleucineKey( hitReportedPeptides );
+						}
+						
+						// get our reported peptide
+						TPPReportedPeptide reportedPeptide = hitReportedPeptides.get( hitIndex );
+						
+						if( !results.containsKey( reportedPeptide ) )
+							results.put( reportedPeptide, new ArrayList<TPPResult>() );
+						
+						results.get( reportedPeptide ).add( result );
+						
+						if( errorAccumulator != null )
+							errorAccumulator.add( result );
+
+						/*
+						 * Kojak reports leucine/isoleucine variations as individual peptide matches in its results
+						 * file as tied as rank 1 hits to a spectrum. This is preferred by proxl, however, peptideprophet
+						 * and iprophet only score a single rank 1 hit for a spectrum. If we only keep the peptide that
+						 * iprophet scored, we may lose valuable information if the leucine->isoleucine variant of that
+						 * peptide matched proteins of interest in the FASTA file.
+						 * 
+						 * To address this, keep all other rank 1 hits for this search result that are merely
+						 * leucine/isoleucine substitutions of the scored rank 1 hit.
+						 */
+						Collection<TPPReportedPeptide> otherReportedPeptides = getAllLeucineIsoleucineSubstitutions( reportedPeptide, reportedPeptidesByLeucineIsoleucineKey );
+						
+						for( TPPReportedPeptide otherReportedPeptide : otherReportedPeptides ) {
+							if( !results.containsKey( otherReportedPeptide ) )
+								results.put( otherReportedPeptide, new ArrayList<TPPResult>() );
+							
+							results.get( otherReportedPeptide ).add( result );
+							
+							if( errorAccumulator != null )
+								errorAccumulator.add( result );
+						}
 						
-						reportedPeptides.add( otherReportedPeptide );
 					}
-					
 				}
-				
 			}
+		}
+	}
+
+	/**
+	 * Get the reported peptide for each search hit in the search result, in the same order as the search hits
+	 * 
+	 * @param searchResult
+	 * @param analysis
+	 * @return
+	 * @throws Exception
+	 */
+	private List<TPPReportedPeptide> getReportedPeptides( SearchResult searchResult, TPPAnalysis analysis ) throws Exception {
+		
+		List<TPPReportedPeptide> reportedPeptides = new ArrayList<>( searchResult.getSearchHit().size() );
+		
+		for( SearchHit searchHit : searchResult.getSearchHit() ) {
+			reportedPeptides.add( getReportedPeptide( searchHit, analysis ) );
+		}
+		
+		return reportedPeptides;
+	}
+	
+	/**
+	 * Group the reported peptides by their leucine/isoleucine normalized key, see getLeucineIsoleucineKey().
+	 * Within a group, the reported peptides are in the order supplied.
+	 * 
+	 * @param reportedPeptides
+	 * @return
+	 */
+	private Map<String, Collection<TPPReportedPeptide>> groupByLeucineIsoleucineKey( List<TPPReportedPeptide> reportedPeptides ) {
+		
+		Map<String, Collection<TPPReportedPeptide>> reportedPeptidesByKey = new HashMap<>();
+		
+		for( TPPReportedPeptide reportedPeptide : reportedPeptides ) {
+			reportedPeptidesByKey.computeIfAbsent( getLeucineIsoleucineKey( reportedPeptide ), k -> new ArrayList<>( 1 ) ).add( reportedPeptide );
+		}
+		
+		return reportedPeptidesByKey;
+	}
+	
+	/**
+	 * Get a key for the reported peptide that is the same for all reported peptides of the same type that are merely
+	 * leucine<->isoleucine substitutions of each other: the string representation of the reported peptide with
+	 * all Ls replaced by Is. For crosslinks, the two linked peptides (with their positions) are put into a consistent
+	 * order after the replacement, since the substitution may change which one sorts first.
+	 * 
+	 * @param reportedPeptide
+	 * @return
+	 */
+	private static String getLeucineIsoleucineKey( TPPReportedPeptide reportedPeptide ) {
+		
+		if( reportedPeptide.getType() == TPPConstants.LINK_TYPE_CROSSLINK ) {
+			
+			String linkedPeptide1 = reportedPeptide.getPeptide1().toString().replace( 'L', 'I' ) + "(" + reportedPeptide.getPosition1() + ")";
+			String linkedPeptide2 = reportedPeptide.getPeptide2().toString().replace( 'L', 'I' ) + "(" + reportedPeptide.getPosition2() + ")";
 			
+			if( linkedPeptide1.compareTo( linkedPeptide2 ) > 0 )
+				return reportedPeptide.getType() + ":" + linkedPeptide2 + "-" + linkedPeptide1;
+			
+			return reportedPeptide.getType() + ":" + linkedPeptide1 + "-" + linkedPeptide2;
 		}
 		
+		return reportedPeptide.getType() + ":" + reportedPeptide.toString().replace( 'L', 'I' );
+	}
+	
+	/**
+	 * For a given reported peptide, find all other reported peptides that are leucine<->isoleucine
+	 * substituitions of that reported peptide, where those substutions match a  protein
+	 * in the FASTA file. Since Kojak reports all such peptides as separate PSMs, these are the other
+	 * rank 1 hits for the search result that have the same leucine/isoleucine normalized key as the
+	 * reported peptide. These are guaranteed to hit a protein in the FASTA file, otherwise Kojak would
+	 * not have reported them.
+	 * 
+	 * @param reportedPeptide
+	 * @param reportedPeptidesByLeucineIsoleucineKey The reported peptides of all hits for the search result, see groupByLeucineIsoleucineKey()
+	 * @return
+	 */
+	private Collection<TPPReportedPeptide> getAllLeucineIsoleucineSubstitutions( TPPReportedPeptide reportedPeptide, Map<String, Collection<TPPReportedPeptide>> reportedPeptidesByLeucineIsoleucineKey ) {
+		
+		Collection<TPPReportedPeptide> reportedPeptides = new LinkedHashSet<>();
+		
+		for( TPPReportedPeptide otherReportedPeptide : reportedPeptidesByLeucineIsoleucineKey.get( getLeucineIsoleucineKey( reportedPeptide ) ) ) {
+			
+			// don't return the same reported peptide that was passed in
+			if( !reportedPeptide.equals( otherReportedPeptide ) )
+				reportedPeptides.add( otherReportedPeptide );
+		}
 		
 		return reportedPeptides;
 	}
 	
 	/**
-	 * For a given search hit, return a collection of strings that are target protein names
+	 * For a given search hit, return the symbol table IDs of the target protein names
 	 * reported by iProphet. Decoy names are filtered out.
 	 * 
 	 * @param searchHit
@@ -288,25 +462,12 @@ public class TPPResultsParser {
 	 * @return
 	 * @throws Exception
 	 */
-	private Collection<String> getTargetProteinsForSearchHit( SearchHit searchHit, TPPAnalysis analysis ) throws Exception {
-		Collection<String> targetProteins = new HashSet<>();
-		
-		String protein = searchHit.getProtein();
-		if( !PepXMLUtils.isDecoyName( analysis.getDecoyIdentifiers(), protein ) )
-			targetProteins.add( protein );
-		
-		if( searchHit.getAlternativeProtein() != null ) {
-			for( AltProteinDataType altProtein  : searchHit.getAlternativeProtein() ) {
-				if( !PepXMLUtils.isDecoyName( analysis.getDecoyIdentifiers(), altProtein.getProtein() ) )
-					targetProteins.add( altProtein.getProtein() );
-			}
-		}
-		
-		return targetProteins;
+	private int[] getTargetProteinsForSearchHit( SearchHit searchHit, TPPAnalysis analysis ) throws Exception {
+		return getTargetProteinIds( searchHit.getProtein(), searchHit.getAlternativeProtein(), analysis );
 	}
 	
 	/**
-	 * For a given search hit, return a collection of strings that are target protein names
+	 * For a given linked peptide, return the symbol table IDs of the target protein names
 	 * reported by iProphet. Decoy names are filtered out.
 	 * 
 	 * @param linkedPeptide
@@ -314,21 +475,43 @@ public class TPPResultsParser {
 	 * @return
 	 * @throws Exception
 	 */
-	private Collection<String> getTargetProteinsForLinkedPeptide( LinkedPeptide linkedPeptide, TPPAnalysis analysis ) throws Exception {
-		Collection<String> targetProteins = new HashSet<>();
+	private int[] getTargetProteinsForLinkedPeptide( LinkedPeptide linkedPeptide, TPPAnalysis analysis ) throws Exception {
+		return getTargetProteinIds( linkedPeptide.getProtein(), linkedPeptide.getAlternativeProtein(), analysis );
+	}
+	
+	/**
+	 * Get the symbol table IDs of the protein and alternative proteins that are not decoys
+	 * 
+	 * @param protein
+	 * @param alternativeProteins May be null
+	 * @param analysis
+	 * @return The IDs, sorted and without duplicates
+	 * @throws Exception
+	 */
+	private int[] getTargetProteinIds( String protein, List<AltProteinDataType> alternativeProteins, TPPAnalysis analysis ) throws Exception {
+		
+		int[] targetProteinIds = new int[ 1 + ( alternativeProteins == null ? 0 : alternativeProteins.size() ) ];
+		int count = 0;
 		
-		String protein = linkedPeptide.getProtein();
-		if( !PepXMLUtils.isDecoyName( analysis.getDecoyIdentifiers(), protein ) )
-			targetProteins.add( protein );
+		if( !PepXMLUtils.isDecoyName( analysis.getDecoyMatcher(), protein ) )
+			targetProteinIds[ count++ ] = analysis.getSymbolTable().getId( protein );
 		
-		if( linkedPeptide.getAlternativeProtein() != null ) {
-			for( AltProteinDataType altProtein  : linkedPeptide.getAlternativeProtein() ) {
-				if( !PepXMLUtils.isDecoyName( analysis.getDecoyIdentifiers(), altProtein.getProtein() ) )
-					targetProteins.add( altProtein.getProtein() );
+		if( alternativeProteins != null ) {
+			for( AltProteinDataType altProtein : alternativeProteins ) {
+				if( !PepXMLUtils.isDecoyName( analysis.getDecoyMatcher(), altProtein.getProtein() ) )
+					targetProteinIds[ count++ ] = analysis.getSymbolTable().getId( altProtein.getProtein() );
 			}
 		}
 		
-		return targetProteins;
+		Arrays.sort( targetProteinIds, 0, count );
+		
+		int distinctCount = 0;
+		for( int i = 0; i < count; i++ ) {
+			if( distinctCount == 0 || targetProteinIds[ i ] != targetProteinIds[ distinctCount - 1 ] )
+				targetProteinIds[ distinctCount++ ] = targetProteinIds[ i ];
+		}
+		
+		return Arrays.copyOf( targetProteinIds, distinctCount );
 	}
 	
 	
@@ -520,7 +703,7 @@ public class TPPResultsParser {
 		
 		peptide.setSequence( searchHit.getPeptide() );
 		
-		peptide.setTargetProteins( getTargetProteinsForSearchHit( searchHit, analysis ) );
+		peptide.setTargetProteinIds( getTargetProteinsForSearchHit( searchHit, analysis ) );
 		
 		ModInfoDataType modInfo = searchHit.getModificationInfo();
 		
@@ -567,7 +750,7 @@ public class TPPResultsParser {
 		
 		peptide.setSequence( linkedPeptide.getPeptide() );
 		
-		peptide.setTargetProteins( getTargetProteinsForLinkedPeptide( linkedPeptide, analysis ) );
+		peptide.setTargetProteinIds( getTargetProteinsForLinkedPeptide( linkedPeptide, analysis ) );
 		
 		
 		ModInfoDataType modInfo = linkedPeptide.getModificationInfo();
@@ -613,7 +796,7 @@ public class TPPResultsParser {
 		
 		TPPResult result = new TPPResult();
 		
-		result.setScanFile( ScanParsingUtils.getFilenameFromReportedScan( spectrumQuery.getSpectrum() ) + runSummary.getRawData() );
+		result.setScanFileId( analysis.getScanFileId( runSummary, spectrumQuery.getSpectrum() ) );
 		
 		
 		
@@ -630,15 +813,15 @@ public class TPPResultsParser {
 		// get the kojak scores
 		for( NameValueType score : searchHit.getSearchScore() ) {
 			if( score.getName().equals( KojakConstants.NAME_KOJAK_SCORE ) ) {
-				result.setKojakScore( new BigDecimal( score.getValueAttribute() ) );
+				result.setKojakScore( score.getValueAttribute() );
 			}
 			
 			else if( score.getName().equals( KojakConstants.NAME_DELTA_SCORE ) ) {
-				result.setDeltaScore( new BigDecimal( score.getValueAttribute() ) );
+				result.setDeltaScore( score.getValueAttribute() );
 			}
 			
 			else if( score.getName().equals( KojakConstants.NAME_PPM_ERROR ) ) {
-				result.setPpmError( new BigDecimal( score.getValueAttribute() ) );
+				result.setPpmError( score.getValueAttribute() );
 			}			
 		}
 
@@ -0,0 +1,99 @@
+package org.yeastrc.proxl.xml.kojak_tpp.synthetic;
+
+import picocli.CommandLine;
+
+import java.io.File;
+
+/**
+ * Write a synthetic Kojak + TPP data set (pepXML, FASTA and Kojak conf files) for load testing the converter.
+ *
+ * Run with: java -cp kojakTPPToProxl.jar org.yeastrc.proxl.xml.kojak_tpp.synthetic.GenerateSyntheticDataset
+ *
+ * @author mriffle
+ *
+ */
+@CommandLine.Command(name = "java -cp kojakTPPToProxl.jar org.yeastrc.proxl.xml.kojak_tpp.synthetic.GenerateSyntheticDataset",
+		mixinStandardHelpOptions = true,
+		sortOptions = false,
+		synopsisHeading = "%n",
+		descriptionHeading = "%n@|bold,underline Description:|@%n%n",
+		optionListHeading = "%n@|bold,underline Options:|@%n",
+		description = "Write a synthetic Kojak + TPP data set (pepXML, FASTA and Kojak conf files) of the requested size. " +
+				"The same options always produce the same files."
+)
+public class GenerateSyntheticDataset implements Runnable {
+
+	@CommandLine.Option(names = { "-o", "--out-directory" }, required = true, description = "The directory to write the files to.")
+	private File outDirectory;
+
+	@CommandLine.Option(names = { "-n", "--name" }, required = false, description = "[Optional] The name of the data set, used to name the files. Default: synthetic")
+	private String name = "synthetic";
+
+	@CommandLine.Option(names = { "-p", "--psms" }, required = false, description = "[Optional] The number of PSMs to write. Default: 10000")
+	private int psmCount = 10000;
+
+	@CommandLine.Option(names = { "-r", "--proteins" }, required = false, description = "[Optional] The number of target proteins in the FASTA file. Default: 1000")
+	private int proteinCount = 1000;
+
+	@CommandLine.Option(names = { "-x", "--crosslink-fraction" }, required = false, description = "[Optional] The fraction of PSMs that are crosslinks. Default: 0.25")
+	private double crosslinkFraction = 0.25;
+
+	@CommandLine.Option(names = { "-l", "--looplink-fraction" }, required = false, description = "[Optional] The fraction of PSMs that are looplinks. Default: 0.05")
+	private double looplinkFraction = 0.05;
+
+	@CommandLine.Option(names = { "-d", "--decoy-fraction" }, required = false, description = "[Optional] The fraction of PSMs that are decoys. Default: 0.1")
+	private double decoyFraction = 0.1;
+
+	@CommandLine.Option(names = { "-i", "--tie-fraction" }, required = false, description = "[Optional] The fraction of unlinked and looplinked target PSMs with a tied leucine/isoleucine variant. Default: 0.05")
+	private double tieFraction = 0.05;
+
+	@CommandLine.Option(names = { "-u", "--runs" }, required = false, description = "[Optional] The number of msms_run_summary elements to split the PSMs across. Default: 1")
+	private int runCount = 1;
+
+	@CommandLine.Option(names = { "--no-iprophet" }, required = false, description = "[Optional] If present, no interprophet results are written.")
+	private boolean noInterProphet = false;
+
+	@CommandLine.Option(names = { "-s", "--seed" }, required = false, description = "[Optional] The seed for the random number generator. Default: 1")
+	private long seed = 1;
+
+	public void run() {
+
+		if( !outDirectory.isDirectory() ) {
+			System.err.println( "The output directory: " + outDirectory.getAbsolutePath() + " does not exist." );
+			System.exit( 1 );
+		}
+
+		SyntheticDatasetGenerator generator = new SyntheticDatasetGenerator();
+		generator.setPsmCount( psmCount );
+		generator.setProteinCount( proteinCount );
+		generator.setCrosslinkFraction( crosslinkFraction );
+		generator.setLooplinkFraction( looplinkFraction );
+		generator.setDecoyFraction( decoyFraction );
+		generator.setLeucineIsoleucineTieFraction( tieFraction );
+		generator.setRunCount( runCount );
+		generator.setIncludeInterProphet( !noInterProphet );
+		generator.setSeed( seed );
+
+		try {
+
+			System.err.print( "Writing synthetic data set..." );
+			SyntheticDataset dataset = generator.generate( outDirectory, name );
+			System.err.println( "Done." );
+
+			System.err.println( "\tpepXML path: " + dataset.getPepXMLFile().getAbsolutePath() );
+			System.err.println( "\tfasta file path: " + dataset.getFastaFile().getAbsolutePath() );
+			System.err.println( "\tkojak conf file path: " + dataset.getKojakConfFile().getAbsolutePath() );
+
+		} catch( Throwable t ) {
+
+			System.err.println( "Got error writing synthetic data set: " + t.getMessage() );
+			System.exit( 1 );
+		}
+	}
+
+	public static void main( String[] args ) {
+
+		CommandLine.run(new GenerateSyntheticDataset(), args);
+
+	}
+}
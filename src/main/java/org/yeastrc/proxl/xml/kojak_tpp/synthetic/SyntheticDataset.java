@@ -0,0 +1,43 @@
+package org.yeastrc.proxl.xml.kojak_tpp.synthetic;
+
+import java.io.File;
+
+/**
+ * The files making up a synthetic Kojak + TPP data set, as written by SyntheticDatasetGenerator
+ *
+ * @author mriffle
+ *
+ */
+public class SyntheticDataset {
+
+	public SyntheticDataset( File pepXMLFile, File fastaFile, File kojakConfFile ) {
+		this.pepXMLFile = pepXMLFile;
+		this.fastaFile = fastaFile;
+		this.kojakConfFile = kojakConfFile;
+	}
+
+	/**
+	 * Delete all files in this data set
+	 */
+	public void delete() {
+		this.pepXMLFile.delete();
+		this.fastaFile.delete();
+		this.kojakConfFile.delete();
+	}
+
+	public File getPepXMLFile() {
+		return pepXMLFile;
+	}
+
+	public File getFastaFile() {
+		return fastaFile;
+	}
+
+	public File getKojakConfFile() {
+		return kojakConfFile;
+	}
+
+	private final File pepXMLFile;
+	private final File fastaFile;
+	private final File kojakConfFile;
+}
@@ -0,0 +1,740 @@
+package org.yeastrc.proxl.xml.kojak_tpp.synthetic;
+
+import org.yeastrc.proxl.xml.kojak_tpp.constants.KojakConstants;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a synthetic Kojak + TPP data set of a chosen size: a pepXML file with Kojak search hits
+ * (unlinked, looplinked and crosslinked, including xlink and linked_peptide elements), peptideprophet and
+ * (optionally) interprophet results, a FASTA file containing all proteins the hits map to, and a Kojak conf
+ * file describing the search. The same parameters and seed always produce the same files.
+ *
+ * The FASTA file contains the target proteins followed by a reversed decoy of each, named with DECOY_PREFIX.
+ * Every tenth target protein is a copy of the one before it with all leucines and isoleucines swapped, so that
+ * hits can be written with tied rank 1 leucine/isoleucine variants that really are found in the FASTA file,
+ * as Kojak reports them. Only the first of the tied hits has peptideprophet and interprophet results.
+ *
+ * The pepXML file is written as it is generated, so data sets much larger than available memory may be written.
+ *
+ * @author mriffle
+ *
+ */
+public class SyntheticDatasetGenerator {
+
+	public static final String DECOY_PREFIX = "DECOY_";
+
+	private static final String PEPXML_NAMESPACE = "http://regis-web.systemsbiology.net/pepXML";
+	private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+	private static final String LINKER_NAME = "DSSO";
+	private static final double LINKER_MASS = 158.003765;
+
+	private static final double WATER_MASS = 18.0105647;
+	private static final double OXIDATION_MASS = 15.9949146;
+	private static final double CARBAMIDOMETHYL_MASS = 57.02146;
+	private static final double OXIDATION_PROBABILITY = 0.25;
+
+	private static final int MIN_PROTEIN_LENGTH = 200;
+	private static final int MAX_PROTEIN_LENGTH = 800;
+	private static final int MIN_PEPTIDE_LENGTH = 7;
+	private static final int MAX_PEPTIDE_LENGTH = 25;
+
+	/**
+	 * Every PARALOG_INTERVAL'th target protein is the leucine/isoleucine swapped copy of the protein before it
+	 */
+	private static final int PARALOG_INTERVAL = 10;
+
+	/**
+	 * Write the data set to the given directory. The files are named after the given name, with the
+	 * extensions .pep.xml, .fasta and .conf
+	 *
+	 * @param directory The directory to write the files to, must exist
+	 * @param name The name to use for the files
+	 * @return The files written
+	 * @throws Exception If the parameters are not valid, or there is a problem writing the files
+	 */
+	public SyntheticDataset generate( File directory, String name ) throws Exception {
+
+		validateParameters();
+
+		SyntheticDataset dataset = new SyntheticDataset(
+				new File( directory, name + ".pep.xml" ),
+				new File( directory, name + ".fasta" ),
+				new File( directory, name + ".conf" ) );
+
+		Random random = new Random( this.seed );
+
+		generateProteins( random );
+
+		writeFASTA( dataset.getFastaFile() );
+		writeKojakConf( dataset.getKojakConfFile() );
+		writePepXML( dataset.getPepXMLFile(), dataset.getFastaFile(), name, random );
+
+		// don't hold on to the protein sequences
+		this.targetSequences = null;
+		this.decoySequences = null;
+
+		return dataset;
+	}
+
+	private void validateParameters() throws Exception {
+
+		if( this.psmCount < 1 )
+			throw new Exception( "PSM count must be at least 1." );
+
+		if( this.proteinCount < 1 )
+			throw new Exception( "Protein count must be at least 1." );
+
+		if( this.runCount < 1 )
+			throw new Exception( "Run count must be at least 1." );
+
+		for( double fraction : new double[] { this.crosslinkFraction, this.looplinkFraction, this.decoyFraction, this.leucineIsoleucineTieFraction } ) {
+			if( fraction < 0 || fraction > 1 )
+				throw new Exception( "Fractions must be between 0 and 1, got: " + fraction );
+		}
+
+		if( this.crosslinkFraction + this.looplinkFraction > 1 )
+			throw new Exception( "The crosslink and looplink fractions may not add up to more than 1." );
+	}
+
+	/**
+	 * Generate the target protein sequences, and their reversed decoys
+	 *
+	 * @param random
+	 */
+	private void generateProteins( Random random ) {
+
+		this.targetSequences = new ArrayList<>( this.proteinCount );
+		this.decoySequences = new ArrayList<>( this.proteinCount );
+
+		for( int i = 0; i < this.proteinCount; i++ ) {
+
+			String sequence;
+
+			if( i > 0 && getParalog( i ) == i - 1 ) {
+				sequence = swapLeucineIsoleucine( this.targetSequences.get( i - 1 ) );
+			} else {
+				int length = MIN_PROTEIN_LENGTH + random.nextInt( MAX_PROTEIN_LENGTH - MIN_PROTEIN_LENGTH + 1 );
+				StringBuilder sb = new StringBuilder( length );
+
+				sb.append( 'M' );
+				while( sb.length() < length )
+					sb.append( AMINO_ACIDS.charAt( random.nextInt( AMINO_ACIDS.length() ) ) );
+
+				sequence = sb.toString();
+			}
+
+			this.targetSequences.add( sequence );
+			this.decoySequences.add( new StringBuilder( sequence ).reverse().toString() );
+		}
+	}
+
+	private void writeFASTA( File fastaFile ) throws Exception {
+
+		try ( PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( fastaFile ), StandardCharsets.US_ASCII ) ) ) ) {
+
+			for( boolean decoy : new boolean[] { false, true } ) {
+				for( int i = 0; i < this.proteinCount; i++ ) {
+
+					String sequence = getSequence( i, decoy );
+
+					out.print( '>' );
+					out.print( getProteinName( i, decoy ) );
+					out.print( decoy ? " Decoy of synthetic protein " : " Synthetic protein " );
+					out.println( i + 1 );
+
+					for( int j = 0; j < sequence.length(); j += 60 )
+						out.println( sequence.substring( j, Math.min( j + 60, sequence.length() ) ) );
+				}
+			}
+		}
+	}
+
+	private void writeKojakConf( File confFile ) throws Exception {
+
+		try ( PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( confFile ), StandardCharsets.US_ASCII ) ) ) ) {
+			out.println( "# Kojak conf file for a synthetic data set" );
+			out.println( "predefined_crosslink = 5                      #" + LINKER_NAME );
+			out.println( "fixed_modification = C " + CARBAMIDOMETHYL_MASS );
+			out.println( "modification = M " + OXIDATION_MASS );
+			out.println( "decoy_filter = " + DECOY_PREFIX + " 1" );
+			out.println();
+			out.println( "[XL_PARAMS]" );
+			out.println( "1   BS3/DSS  NH2       nK  nK  138.068074  155.094629             x      x" );
+			out.println( "5   " + LINKER_NAME + "     NH2       nK  nK  158.003765  175.030314             x  54.010565,85.982635,103.993200" );
+			out.println( "[END_XL_PARAMS]" );
+		}
+	}
+
+	private void writePepXML( File pepXMLFile, File fastaFile, String name, Random random ) throws Exception {
+
+		try ( OutputStream os = new BufferedOutputStream( new FileOutputStream( pepXMLFile ), 1 << 16 ) ) {
+
+			XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter( os, "UTF-8" );
+
+			xml.writeStartDocument( "UTF-8", "1.0" );
+			xml.writeCharacters( "\n" );
+			xml.writeStartElement( "msms_pipeline_analysis" );
+			xml.writeDefaultNamespace( PEPXML_NAMESPACE );
+			xml.writeAttribute( "date", "2020-01-01T00:00:00" );
+			xml.writeAttribute( "summary_xml", pepXMLFile.getName() );
+			xml.writeCharacters( "\n" );
+
+			xml.writeStartElement( "analysis_summary" );
+			xml.writeAttribute( "analysis", "peptideprophet" );
+			xml.writeAttribute( "time", "2020-01-01T00:00:00" );
+			xml.writeEmptyElement( "peptideprophet_summary" );
+			xml.writeAttribute( "version", "PeptideProphet (TPP v5.2.0 synthetic)" );
+			xml.writeAttribute( "author", "synthetic" );
+			xml.writeAttribute( "min_prob", "0.00" );
+			xml.writeAttribute( "est_tot_num_correct", "0" );
+			xml.writeEndElement();
+			xml.writeCharacters( "\n" );
+
+			if( this.includeInterProphet ) {
+				xml.writeStartElement( "analysis_summary" );
+				xml.writeAttribute( "analysis", "interprophet" );
+				xml.writeAttribute( "time", "2020-01-01T00:00:00" );
+				xml.writeEmptyElement( "interprophet_summary" );
+				xml.writeAttribute( "version", "InterProphet (TPP v5.2.0 synthetic)" );
+				xml.writeAttribute( "est_tot_num_correct_psm", "0" );
+				xml.writeAttribute( "est_tot_num_correct_pep", "0" );
+				xml.writeEndElement();
+				xml.writeCharacters( "\n" );
+			}
+
+			for( int run = 1; run <= this.runCount; run++ ) {
+
+				String runName = this.runCount == 1 ? name : name + "_" + run;
+				int runPSMCount = this.psmCount / this.runCount + ( run <= this.psmCount % this.runCount ? 1 : 0 );
+
+				xml.writeStartElement( "msms_run_summary" );
+				xml.writeAttribute( "base_name", runName );
+				xml.writeAttribute( "raw_data_type", "" );
+				xml.writeAttribute( "raw_data", ".mzML" );
+				xml.writeCharacters( "\n" );
+
+				xml.writeStartElement( "search_summary" );
+				xml.writeAttribute( "base_name", runName );
+				xml.writeAttribute( "search_engine", "Kojak" );
+				xml.writeAttribute( "search_engine_version", "2.0.0 synthetic" );
+				xml.writeAttribute( "precursor_mass_type", "monoisotopic" );
+				xml.writeAttribute( "fragment_mass_type", "monoisotopic" );
+				xml.writeAttribute( "search_id", String.valueOf( run ) );
+				xml.writeEmptyElement( "search_database" );
+				xml.writeAttribute( "local_path", fastaFile.getName() );
+				xml.writeAttribute( "type", "AA" );
+				xml.writeEndElement();
+				xml.writeCharacters( "\n" );
+
+				for( int scan = 1; scan <= runPSMCount; scan++ ) {
+					writeSpectrumQuery( xml, runName, scan, random );
+				}
+
+				xml.writeEndElement();	// msms_run_summary
+				xml.writeCharacters( "\n" );
+			}
+
+			xml.writeEndElement();	// msms_pipeline_analysis
+			xml.writeEndDocument();
+			xml.close();
+		}
+	}
+
+	/**
+	 * Generate and write a single spectrum query, with its rank 1 search hit(s)
+	 */
+	private void writeSpectrumQuery( XMLStreamWriter xml, String runName, int scan, Random random ) throws Exception {
+
+		double typeDraw = random.nextDouble();
+		String xlinkType = typeDraw < this.crosslinkFraction ? "xl" : typeDraw < this.crosslinkFraction + this.looplinkFraction ? "loop" : "na";
+
+		boolean decoy = random.nextDouble() < this.decoyFraction;
+		boolean tie = !xlinkType.equals( "xl" ) && !decoy && this.proteinCount >= PARALOG_INTERVAL && random.nextDouble() < this.leucineIsoleucineTieFraction;
+
+		int lysinesRequired = xlinkType.equals( "na" ) ? 0 : xlinkType.equals( "loop" ) ? 2 : 1;
+
+		PeptideHit hit1 = getPeptideHit( random, decoy, lysinesRequired, tie );
+		PeptideHit hit2 = null;
+
+		if( xlinkType.equals( "xl" ) ) {
+			// for decoy crosslinks, only one of the two peptides needs to be a decoy
+			hit2 = getPeptideHit( random, decoy && random.nextBoolean(), lysinesRequired, false );
+		}
+
+		int[] linkPositions = getLinkPositions( hit1, hit2, random );
+
+		double neutralMass = hit1.getMass() + ( hit2 == null ? 0 : hit2.getMass() ) + ( xlinkType.equals( "na" ) ? 0 : LINKER_MASS );
+		int charge = ( xlinkType.equals( "xl" ) ? 3 : 2 ) + random.nextInt( 3 );
+
+		xml.writeStartElement( "spectrum_query" );
+		xml.writeAttribute( "spectrum", runName + "." + scan + "." + scan + "." + charge );
+		xml.writeAttribute( "start_scan", String.valueOf( scan ) );
+		xml.writeAttribute( "end_scan", String.valueOf( scan ) );
+		xml.writeAttribute( "precursor_neutral_mass", formatDecimal( neutralMass, 4 ) );
+		xml.writeAttribute( "assumed_charge", String.valueOf( charge ) );
+		xml.writeAttribute( "index", String.valueOf( scan ) );
+		xml.writeStartElement( "search_result" );
+
+		double probability = decoy ? Math.pow( random.nextDouble(), 3 ) : Math.pow( random.nextDouble(), 0.2 );
+		double kojakScore = 0.5 + probability * 4 + random.nextDouble();
+		double deltaScore = random.nextDouble() * kojakScore;
+		double ppmError = random.nextDouble() * 20 - 10;
+
+		writeSearchHit( xml, xlinkType, hit1, hit2, linkPositions, neutralMass, kojakScore, deltaScore, ppmError, probability, random );
+
+		if( tie ) {
+			PeptideHit tiedHit = getLeucineIsoleucineVariant( hit1 );
+			writeSearchHit( xml, xlinkType, tiedHit, null, linkPositions, neutralMass, kojakScore, deltaScore, ppmError, -1, random );
+		}
+
+		xml.writeEndElement();	// search_result
+		xml.writeEndElement();	// spectrum_query
+		xml.writeCharacters( "\n" );
+	}
+
+	/**
+	 * Write a rank 1 search hit. If probability is negative, no peptideprophet or interprophet results are written.
+	 */
+	private void writeSearchHit( XMLStreamWriter xml, String xlinkType, PeptideHit hit1, PeptideHit hit2, int[] linkPositions,
+			double neutralMass, double kojakScore, double deltaScore, double ppmError, double probability, Random random ) throws Exception {
+
+		xml.writeStartElement( "search_hit" );
+		xml.writeAttribute( "hit_rank", "1" );
+		writePeptideAttributes( xml, hit1 );
+		xml.writeAttribute( "num_tot_proteins", String.valueOf( 1 + hit1.alternativeProteins.size() ) );
+		xml.writeAttribute( "calc_neutral_pep_mass", formatDecimal( neutralMass, 4 ) );
+		xml.writeAttribute( "massdiff", formatDecimal( ppmError * neutralMass / 1e6, 6 ) );
+		xml.writeAttribute( "xlink_type", xlinkType );
+
+		writeAlternativeProteins( xml, hit1 );
+
+		if( !xlinkType.equals( "xl" ) )
+			writeModificationInfo( xml, hit1 );
+
+		if( xlinkType.equals( "loop" ) ) {
+
+			xml.writeStartElement( "xlink" );
+			xml.writeAttribute( "identifier", LINKER_NAME );
+			xml.writeAttribute( "mass", String.valueOf( LINKER_MASS ) );
+			writeNameValue( xml, "xlink_score", "link", String.valueOf( linkPositions[ 0 ] ) );
+			writeNameValue( xml, "xlink_score", "link", String.valueOf( linkPositions[ 1 ] ) );
+			xml.writeEndElement();
+
+		} else if( xlinkType.equals( "xl" ) ) {
+
+			xml.writeStartElement( "xlink" );
+			xml.writeAttribute( "identifier", LINKER_NAME );
+			xml.writeAttribute( "mass", String.valueOf( LINKER_MASS ) );
+			writeLinkedPeptide( xml, hit1, "alpha", linkPositions[ 0 ], hit2.getMass() + LINKER_MASS );
+			writeLinkedPeptide( xml, hit2, "beta", linkPositions[ 1 ], hit1.getMass() + LINKER_MASS );
+			xml.writeEndElement();
+		}
+
+		writeNameValue( xml, "search_score", "kojak_score", formatDecimal( kojakScore, 4 ) );
+		writeNameValue( xml, "search_score", "delta_score", formatDecimal( deltaScore, 4 ) );
+		writeNameValue( xml, "search_score", "ppm_error", formatDecimal( ppmError, 4 ) );
+
+		if( probability >= 0 ) {
+			writeAnalysisResult( xml, "peptideprophet", probability );
+
+			if( this.includeInterProphet ) {
+				double iProphetProbability = Math.max( 0, Math.min( 1, probability + random.nextGaussian() * 0.05 ) );
+				writeAnalysisResult( xml, "interprophet", iProphetProbability );
+			}
+		}
+
+		xml.writeEndElement();	// search_hit
+	}
+
+	private void writeLinkedPeptide( XMLStreamWriter xml, PeptideHit hit, String designation, int linkPosition, double complementMass ) throws Exception {
+
+		xml.writeStartElement( "linked_peptide" );
+		writePeptideAttributes( xml, hit );
+		xml.writeAttribute( "num_tot_proteins", String.valueOf( 1 + hit.alternativeProteins.size() ) );
+		xml.writeAttribute( "calc_neutral_pep_mass", formatDecimal( hit.getMass(), 4 ) );
+		xml.writeAttribute( "complement_mass", formatDecimal( complementMass, 4 ) );
+		xml.writeAttribute( "designation", designation );
+
+		writeAlternativeProteins( xml, hit );
+		writeModificationInfo( xml, hit );
+		writeNameValue( xml, "xlink_score", "link", String.valueOf( linkPosition ) );
+		xml.writeEndElement();
+	}
+
+	private void writePeptideAttributes( XMLStreamWriter xml, PeptideHit hit ) throws Exception {
+
+		String sequence = getSequence( hit.protein, hit.decoy );
+		int end = hit.start + hit.peptide.length();
+
+		xml.writeAttribute( "peptide", hit.peptide );
+		xml.writeAttribute( "peptide_prev_aa", hit.start == 0 ? "-" : String.valueOf( sequence.charAt( hit.start - 1 ) ) );
+		xml.writeAttribute( "peptide_next_aa", end == sequence.length() ? "-" : String.valueOf( sequence.charAt( end ) ) );
+		xml.writeAttribute( "protein", getProteinName( hit.protein, hit.decoy ) );
+	}
+
+	private void writeAlternativeProteins( XMLStreamWriter xml, PeptideHit hit ) throws Exception {
+		for( int protein : hit.alternativeProteins ) {
+			xml.writeEmptyElement( "alternative_protein" );
+			xml.writeAttribute( "protein", getProteinName( protein, hit.decoy ) );
+		}
+	}
+
+	private void writeModificationInfo( XMLStreamWriter xml, PeptideHit hit ) throws Exception {
+
+		if( hit.modPositions.isEmpty() )
+			return;
+
+		xml.writeStartElement( "modification_info" );
+
+		for( int i = 0; i < hit.modPositions.size(); i++ ) {
+
+			int position = hit.modPositions.get( i );
+			char residue = hit.peptide.charAt( position - 1 );
+
+			xml.writeEmptyElement( "mod_aminoacid_mass" );
+			xml.writeAttribute( "position", String.valueOf( position ) );
+
+			if( residue == 'C' ) {
+				xml.writeAttribute( "mass", formatDecimal( KojakConstants.AA_MASS.get( "C" ) + CARBAMIDOMETHYL_MASS, 6 ) );
+				xml.writeAttribute( "static", String.valueOf( CARBAMIDOMETHYL_MASS ) );
+			} else {
+				xml.writeAttribute( "mass", formatDecimal( KojakConstants.AA_MASS.get( "M" ) + OXIDATION_MASS, 6 ) );
+				xml.writeAttribute( "variable", String.valueOf( OXIDATION_MASS ) );
+			}
+		}
+
+		xml.writeEndElement();
+	}
+
+	private void writeNameValue( XMLStreamWriter xml, String element, String name, String value ) throws Exception {
+		xml.writeEmptyElement( element );
+		xml.writeAttribute( "name", name );
+		xml.writeAttribute( "value", value );
+	}
+
+	private void writeAnalysisResult( XMLStreamWriter xml, String analysis, double probability ) throws Exception {
+		xml.writeStartElement( "analysis_result" );
+		xml.writeAttribute( "analysis", analysis );
+		xml.writeEmptyElement( analysis + "_result" );
+		xml.writeAttribute( "probability", formatDecimal( probability, 4 ) );
+		xml.writeAttribute( "all_ntt_prob", "(0.0000,0.0000," + formatDecimal( probability, 4 ) + ")" );
+		xml.writeEndElement();
+	}
+
+	/**
+	 * Pick a random peptide from a random target or decoy protein.
+	 *
+	 * @param random
+	 * @param decoy Whether to pick from a decoy protein
+	 * @param lysinesRequired The minimum number of lysines the peptide must contain
+	 * @param leucineIsoleucineVariant If true, the peptide will contain a leucine or isoleucine and come from a
+	 *                                 protein with a leucine/isoleucine swapped paralog
+	 * @return
+	 */
+	private PeptideHit getPeptideHit( Random random, boolean decoy, int lysinesRequired, boolean leucineIsoleucineVariant ) {
+
+		while( true ) {
+
+			int protein = random.nextInt( this.proteinCount );
+
+			if( leucineIsoleucineVariant && getParalog( protein ) < 0 )
+				continue;
+
+			String sequence = getSequence( protein, decoy );
+
+			// a few attempts at finding a suitable peptide in this protein before trying another protein
+			for( int attempt = 0; attempt < 10; attempt++ ) {
+
+				int length = MIN_PEPTIDE_LENGTH + random.nextInt( MAX_PEPTIDE_LENGTH - MIN_PEPTIDE_LENGTH + 1 );
+				int start = random.nextInt( sequence.length() - length + 1 );
+				String peptide = sequence.substring( start, start + length );
+
+				if( countResidue( peptide, 'K' ) < lysinesRequired )
+					continue;
+
+				boolean hasLeucineOrIsoleucine = peptide.indexOf( 'L' ) >= 0 || peptide.indexOf( 'I' ) >= 0;
+
+				if( leucineIsoleucineVariant && !hasLeucineOrIsoleucine )
+					continue;
+
+				PeptideHit hit = new PeptideHit( protein, decoy, start, peptide );
+
+				// peptides without leucine or isoleucine are also found in the paralog, if there is one
+				if( !hasLeucineOrIsoleucine && getParalog( protein ) >= 0 )
+					hit.alternativeProteins.add( getParalog( protein ) );
+
+				for( int i = 0; i < peptide.length(); i++ ) {
+					if( peptide.charAt( i ) == 'C' || ( peptide.charAt( i ) == 'M' && random.nextDouble() < OXIDATION_PROBABILITY ) )
+						hit.modPositions.add( i + 1 );
+				}
+
+				return hit;
+			}
+		}
+	}
+
+	/**
+	 * Get the leucine/isoleucine swapped variant of the hit, found in the paralog of the hit's protein
+	 */
+	private PeptideHit getLeucineIsoleucineVariant( PeptideHit hit ) {
+
+		PeptideHit variant = new PeptideHit( getParalog( hit.protein ), hit.decoy, hit.start, swapLeucineIsoleucine( hit.peptide ) );
+		variant.modPositions.addAll( hit.modPositions );
+
+		return variant;
+	}
+
+	/**
+	 * Choose the linked lysine positions (1-based). For looplinks, these are two positions in hit1.
+	 * For crosslinks these are the position in hit1 and the position in hit2.
+	 *
+	 * @return The positions, or null if the hit is not linked
+	 */
+	private int[] getLinkPositions( PeptideHit hit1, PeptideHit hit2, Random random ) {
+
+		List<Integer> lysines1 = getLysinePositions( hit1.peptide );
+
+		if( hit2 != null ) {
+			List<Integer> lysines2 = getLysinePositions( hit2.peptide );
+			return new int[] { lysines1.get( random.nextInt( lysines1.size() ) ), lysines2.get( random.nextInt( lysines2.size() ) ) };
+		}
+
+		if( lysines1.size() < 2 )
+			return null;
+
+		int first = random.nextInt( lysines1.size() - 1 );
+		int second = first + 1 + random.nextInt( lysines1.size() - first - 1 );
+
+		return new int[] { lysines1.get( first ), lysines1.get( second ) };
+	}
+
+	private static List<Integer> getLysinePositions( String peptide ) {
+
+		List<Integer> positions = new ArrayList<>();
+		for( int i = 0; i < peptide.length(); i++ ) {
+			if( peptide.charAt( i ) == 'K' )
+				positions.add( i + 1 );
+		}
+
+		return positions;
+	}
+
+	private static int countResidue( String peptide, char residue ) {
+
+		int count = 0;
+		for( int i = 0; i < peptide.length(); i++ ) {
+			if( peptide.charAt( i ) == residue )
+				count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Get the index of the leucine/isoleucine swapped paralog of the protein, or -1 if it has none
+	 */
+	private int getParalog( int protein ) {
+
+		if( protein % PARALOG_INTERVAL == PARALOG_INTERVAL - 1 )
+			return protein - 1;
+
+		if( protein % PARALOG_INTERVAL == PARALOG_INTERVAL - 2 && protein + 1 < this.proteinCount )
+			return protein + 1;
+
+		return -1;
+	}
+
+	private String getSequence( int protein, boolean decoy ) {
+		return decoy ? this.decoySequences.get( protein ) : this.targetSequences.get( protein );
+	}
+
+	private static String getProteinName( int protein, boolean decoy ) {
+		return ( decoy ? DECOY_PREFIX : "" ) + "sp|S" + ( 100000 + protein ) + "|SYNTH" + ( protein + 1 ) + "_SYNTH";
+	}
+
+	private static String swapLeucineIsoleucine( String sequence ) {
+
+		char[] residues = sequence.toCharArray();
+
+		for( int i = 0; i < residues.length; i++ ) {
+			if( residues[ i ] == 'L' )
+				residues[ i ] = 'I';
+			else if( residues[ i ] == 'I' )
+				residues[ i ] = 'L';
+		}
+
+		return new String( residues );
+	}
+
+	/**
+	 * Format the number with the given number of decimal places. Much faster than String.format(),
+	 * which matters when writing tens of millions of PSMs.
+	 */
+	static String formatDecimal( double value, int decimals ) {
+
+		long scale = 1;
+		for( int i = 0; i < decimals; i++ )
+			scale *= 10;
+
+		long scaled = Math.round( Math.abs( value ) * scale );
+
+		StringBuilder sb = new StringBuilder( 16 );
+		if( value < 0 && scaled != 0 )
+			sb.append( '-' );
+
+		sb.append( scaled / scale );
+
+		if( decimals > 0 ) {
+			String fraction = Long.toString( scaled % scale );
+
+			sb.append( '.' );
+			for( int i = fraction.length(); i < decimals; i++ )
+				sb.append( '0' );
+			sb.append( fraction );
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * A peptide picked from a target or decoy protein
+	 */
+	private static class PeptideHit {
+
+		PeptideHit( int protein, boolean decoy, int start, String peptide ) {
+			this.protein = protein;
+			this.decoy = decoy;
+			this.start = start;
+			this.peptide = peptide;
+		}
+
+		/**
+		 * The neutral mass of the peptide, including mods
+		 */
+		double getMass() {
+
+			double mass = WATER_MASS;
+			for( int i = 0; i < this.peptide.length(); i++ )
+				mass += KojakConstants.AA_MASS.get( String.valueOf( this.peptide.charAt( i ) ) );
+
+			for( int position : this.modPositions )
+				mass += this.peptide.charAt( position - 1 ) == 'C' ? CARBAMIDOMETHYL_MASS : OXIDATION_MASS;
+
+			return mass;
+		}
+
+		private final int protein;
+		private final boolean decoy;
+		private final int start;
+		private final String peptide;
+		private final List<Integer> alternativeProteins = new ArrayList<>( 1 );
+		private final List<Integer> modPositions = new ArrayList<>( 2 );
+	}
+
+
+	public int getPsmCount() {
+		return psmCount;
+	}
+
+	/**
+	 * @param psmCount The number of spectrum queries (each with one scored rank 1 hit) to write
+	 */
+	public void setPsmCount(int psmCount) {
+		this.psmCount = psmCount;
+	}
+
+	public int getProteinCount() {
+		return proteinCount;
+	}
+
+	/**
+	 * @param proteinCount The number of target proteins to write to the FASTA file
+	 */
+	public void setProteinCount(int proteinCount) {
+		this.proteinCount = proteinCount;
+	}
+
+	public double getCrosslinkFraction() {
+		return crosslinkFraction;
+	}
+
+	public void setCrosslinkFraction(double crosslinkFraction) {
+		this.crosslinkFraction = crosslinkFraction;
+	}
+
+	public double getLooplinkFraction() {
+		return looplinkFraction;
+	}
+
+	public void setLooplinkFraction(double looplinkFraction) {
+		this.looplinkFraction = looplinkFraction;
+	}
+
+	public double getDecoyFraction() {
+		return decoyFraction;
+	}
+
+	public void setDecoyFraction(double decoyFraction) {
+		this.decoyFraction = decoyFraction;
+	}
+
+	public double getLeucineIsoleucineTieFraction() {
+		return leucineIsoleucineTieFraction;
+	}
+
+	/**
+	 * @param leucineIsoleucineTieFraction The fraction of unlinked and looplinked target hits that also get a tied
+	 *                                     rank 1 leucine/isoleucine variant
+	 */
+	public void setLeucineIsoleucineTieFraction(double leucineIsoleucineTieFraction) {
+		this.leucineIsoleucineTieFraction = leucineIsoleucineTieFraction;
+	}
+
+	public int getRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * @param runCount The number of msms_run_summary elements to split the PSMs across
+	 */
+	public void setRunCount(int runCount) {
+		this.runCount = runCount;
+	}
+
+	public boolean isIncludeInterProphet() {
+		return includeInterProphet;
+	}
+
+	public void setIncludeInterProphet(boolean includeInterProphet) {
+		this.includeInterProphet = includeInterProphet;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	private int psmCount = 10000;
+	private int proteinCount = 1000;
+	private double crosslinkFraction = 0.25;
+	private double looplinkFraction = 0.05;
+	private double decoyFraction = 0.1;
+	private double leucineIsoleucineTieFraction = 0.05;
+	private int runCount = 1;
+	private boolean includeInterProphet = true;
+	private long seed = 1;
+
+	private List<String> targetSequences;
+	private List<String> decoySequences;
+}
@@ -0,0 +1,297 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton for finding which of a set of patterns (e.g., peptide sequences) are
+ * contained in a text (e.g., a protein sequence). The automaton is built once from all the patterns,
+ * after which any text may be searched for all patterns in a single linear pass over the text.
+ *
+ * Instances are immutable once built and may be shared between threads.
+ *
+ * @author mriffle
+ *
+ */
+public class AhoCorasickMatcher {
+
+	private static final int NO_STATE = -1;
+	private static final int NO_PATTERN = -1;
+
+	/**
+	 * Build the automaton for the given patterns. The index of each pattern in the supplied list is the
+	 * index used to report it as found by findPatterns().
+	 *
+	 * @param patterns The distinct, non-empty patterns to search for
+	 * @throws IllegalArgumentException If a pattern is empty or is present more than once
+	 */
+	public AhoCorasickMatcher( List<String> patterns ) {
+
+		this.patternCount = patterns.size();
+
+		buildAlphabet( patterns );
+		buildTrie( patterns );
+		buildFailureLinks();
+	}
+
+	/**
+	 * Get the number of patterns in this automaton
+	 *
+	 * @return
+	 */
+	public int getPatternCount() {
+		return patternCount;
+	}
+
+	/**
+	 * Find all patterns contained in the given text. found[i] is set to true for every pattern i
+	 * that is found. found[] may be shared between calls to accumulate the patterns found across
+	 * many texts, but should only ever be set to true by this method.
+	 *
+	 * @param text The text to search
+	 * @param found Array of length getPatternCount() marking the patterns that have been found
+	 * @return true if any pattern was found in the text, false otherwise
+	 */
+	public boolean findPatterns( CharSequence text, boolean[] found ) {
+
+		boolean foundAnyPattern = false;
+		int state = 0;
+
+		for( int i = 0; i < text.length(); i++ ) {
+
+			int c = this.charIndex[ text.charAt( i ) ];
+
+			// no pattern contains this character, start over
+			if( c == NO_STATE ) {
+				state = 0;
+				continue;
+			}
+
+			state = this.transitions[ state * this.alphabetSize + c ];
+
+			if( markFoundPatterns( state, found ) )
+				foundAnyPattern = true;
+		}
+
+		return foundAnyPattern;
+	}
+
+	/**
+	 * Return true if the given text contains any of the patterns. Stops at the first pattern found.
+	 *
+	 * @param text The text to search
+	 * @return
+	 */
+	public boolean containsAnyPattern( CharSequence text ) {
+
+		int state = 0;
+
+		for( int i = 0; i < text.length(); i++ ) {
+
+			int c = this.charIndex[ text.charAt( i ) ];
+
+			// no pattern contains this character, start over
+			if( c == NO_STATE ) {
+				state = 0;
+				continue;
+			}
+
+			state = this.transitions[ state * this.alphabetSize + c ];
+
+			if( this.output[ state ] != NO_PATTERN || this.dictionaryLink[ state ] != NO_STATE )
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Find all patterns contained in the bytes of the buffer from start (inclusive) to end (exclusive), each byte
+	 * being read as a single ISO-8859-1 character. See findPatterns( CharSequence, boolean[] ). The position of
+	 * the buffer is not used or changed, so a buffer may be searched by many threads at once.
+	 *
+	 * @param text The buffer holding the text to search
+	 * @param start The index of the first byte of the text
+	 * @param end The index after the last byte of the text
+	 * @param found Array of length getPatternCount() marking the patterns that have been found
+	 * @return true if any pattern was found in the text, false otherwise
+	 */
+	public boolean findPatterns( ByteBuffer text, int start, int end, boolean[] found ) {
+
+		boolean foundAnyPattern = false;
+		int state = 0;
+
+		for( int i = start; i < end; i++ ) {
+
+			int c = this.charIndex[ text.get( i ) & 0xFF ];
+
+			// no pattern contains this character, start over
+			if( c == NO_STATE ) {
+				state = 0;
+				continue;
+			}
+
+			state = this.transitions[ state * this.alphabetSize + c ];
+
+			if( markFoundPatterns( state, found ) )
+				foundAnyPattern = true;
+		}
+
+		return foundAnyPattern;
+	}
+
+	/**
+	 * Mark the patterns that end at the state as found
+	 *
+	 * @param state
+	 * @param found
+	 * @return true if any pattern ends at the state
+	 */
+	private boolean markFoundPatterns( int state, boolean[] found ) {
+
+		int outputState = this.output[ state ] != NO_PATTERN ? state : this.dictionaryLink[ state ];
+
+		if( outputState == NO_STATE )
+			return false;
+
+		while( outputState != NO_STATE ) {
+
+			// if this pattern was already found, so were all patterns that are suffixes of it
+			int pattern = this.output[ outputState ];
+			if( found[ pattern ] )
+				break;
+
+			found[ pattern ] = true;
+			outputState = this.dictionaryLink[ outputState ];
+		}
+
+		return true;
+	}
+
+	/**
+	 * Map every character used in the patterns to a dense index, so that the transition table only
+	 * needs one column per distinct character.
+	 *
+	 * @param patterns
+	 */
+	private void buildAlphabet( Collection<String> patterns ) {
+
+		this.charIndex = new int[ Character.MAX_VALUE + 1 ];
+		Arrays.fill( this.charIndex, NO_STATE );
+
+		int size = 0;
+		int maxStates = 1;
+
+		for( String pattern : patterns ) {
+
+			if( pattern.length() < 1 )
+				throw new IllegalArgumentException( "Got empty pattern." );
+
+			maxStates += pattern.length();
+
+			for( int i = 0; i < pattern.length(); i++ ) {
+				char r = pattern.charAt( i );
+				if( this.charIndex[ r ] == NO_STATE )
+					this.charIndex[ r ] = size++;
+			}
+		}
+
+		this.alphabetSize = Math.max( size, 1 );
+
+		this.transitions = new int[ maxStates * this.alphabetSize ];
+		Arrays.fill( this.transitions, NO_STATE );
+
+		this.failureLink = new int[ maxStates ];
+		this.dictionaryLink = new int[ maxStates ];
+		Arrays.fill( this.dictionaryLink, NO_STATE );
+
+		this.output = new int[ maxStates ];
+		Arrays.fill( this.output, NO_PATTERN );
+	}
+
+	/**
+	 * Add all patterns to the trie of states
+	 *
+	 * @param patterns
+	 */
+	private void buildTrie( List<String> patterns ) {
+
+		this.stateCount = 1;
+
+		for( int p = 0; p < patterns.size(); p++ ) {
+
+			String pattern = patterns.get( p );
+			int state = 0;
+
+			for( int i = 0; i < pattern.length(); i++ ) {
+
+				int transition = state * this.alphabetSize + this.charIndex[ pattern.charAt( i ) ];
+
+				if( this.transitions[ transition ] == NO_STATE )
+					this.transitions[ transition ] = this.stateCount++;
+
+				state = this.transitions[ transition ];
+			}
+
+			if( this.output[ state ] != NO_PATTERN )
+				throw new IllegalArgumentException( "Got duplicate pattern: " + pattern );
+
+			this.output[ state ] = p;
+		}
+	}
+
+	/**
+	 * Breadth-first traversal of the trie to compute the failure and dictionary links, and to fill in
+	 * the missing transitions so that matching never has to follow a failure link.
+	 */
+	private void buildFailureLinks() {
+
+		int[] queue = new int[ this.stateCount ];
+		int head = 0;
+		int tail = 0;
+
+		for( int c = 0; c < this.alphabetSize; c++ ) {
+			int child = this.transitions[ c ];
+
+			if( child == NO_STATE ) {
+				this.transitions[ c ] = 0;
+			} else {
+				this.failureLink[ child ] = 0;
+				queue[ tail++ ] = child;
+			}
+		}
+
+		while( head < tail ) {
+
+			int state = queue[ head++ ];
+			int failState = this.failureLink[ state ];
+
+			for( int c = 0; c < this.alphabetSize; c++ ) {
+
+				int transition = state * this.alphabetSize + c;
+				int child = this.transitions[ transition ];
+				int failTransition = this.transitions[ failState * this.alphabetSize + c ];
+
+				if( child == NO_STATE ) {
+					this.transitions[ transition ] = failTransition;
+				} else {
+					this.failureLink[ child ] = failTransition;
+					this.dictionaryLink[ child ] = this.output[ failTransition ] != NO_PATTERN ? failTransition : this.dictionaryLink[ failTransition ];
+					queue[ tail++ ] = child;
+				}
+			}
+		}
+	}
+
+
+	private int patternCount;
+	private int stateCount;
+	private int alphabetSize;
+	private int[] charIndex;
+	private int[] transitions;
+	private int[] failureLink;
+	private int[] dictionaryLink;
+	private int[] output;
+}
@@ -0,0 +1,68 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * Utility methods for getting the checksums of files, used to tell whether a file has changed since an index or
+ * cache was made from it, and to name the index or cache file after the path of the file it was made from
+ *
+ * @author mriffle
+ *
+ */
+public class ChecksumUtils {
+
+	/**
+	 * The number of bytes of the hash of a file path in the name of an index or cache file
+	 */
+	private static final int PATH_HASH_BYTES = 8;
+
+	/**
+	 * Get the CRC32 checksum of the contents of the file
+	 *
+	 * @param file
+	 * @return
+	 * @throws Exception
+	 */
+	public static long getCRC32( File file ) throws Exception {
+
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[ 1024 * 1024 ];
+
+		try ( InputStream is = new FileInputStream( file ) ) {
+			for( int read = is.read( buffer ); read >= 0; read = is.read( buffer ) ) {
+				crc.update( buffer, 0, read );
+			}
+		}
+
+		return crc.getValue();
+	}
+
+	/**
+	 * Get the name of an index or cache file made from the file: the name of the file, followed by a hash of its
+	 * absolute path and the suffix. Files with the same name in different directories (e.g., TPP names most pepXML
+	 * files interact.pep.xml) get different names, so their index or cache files may share a directory.
+	 *
+	 * @param file
+	 * @param suffix
+	 * @return
+	 * @throws Exception
+	 */
+	public static String getPathHashedFileName( File file, String suffix ) throws Exception {
+
+		String path = file.getAbsoluteFile().toPath().normalize().toString();
+		byte[] hash = MessageDigest.getInstance( "SHA-256" ).digest( path.getBytes( StandardCharsets.UTF_8 ) );
+
+		StringBuilder name = new StringBuilder( file.getName() ).append( '.' );
+
+		for( int i = 0; i < PATH_HASH_BYTES; i++ ) {
+			name.append( String.format( "%02x", hash[ i ] ) );
+		}
+
+		return name.append( suffix ).toString();
+	}
+}
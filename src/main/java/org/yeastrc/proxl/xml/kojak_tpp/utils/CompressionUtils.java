@@ -0,0 +1,208 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Transparent reading of gzip and bzip2 compressed input files. Compression is detected from the first bytes of
+ * the file, not its name, and compressed files are decompressed as they are read on a separate thread (see
+ * ReadAheadInputStream), so that decompressing overlaps with parsing. Output files are written gzip compressed
+ * if their name ends in .gz (see ParallelGZIPOutputStream).
+ *
+ * @author mriffle
+ *
+ */
+public class CompressionUtils {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The compression formats that are read
+	 */
+	public enum Compression {
+		NONE,
+		GZIP,
+		BZIP2
+	}
+
+	/**
+	 * The file name extensions of compressed files, removed by getUncompressedName()
+	 */
+	private static final String[] COMPRESSED_EXTENSIONS = { ".gz", ".gzip", ".bz2", ".bzip2" };
+
+	/**
+	 * Get the compression of the file
+	 *
+	 * @param file
+	 * @return
+	 * @throws Exception
+	 */
+	public static Compression getCompression( File file ) throws Exception {
+
+		try ( InputStream is = new FileInputStream( file ) ) {
+			return getCompression( readMagic( is ) );
+		}
+	}
+
+	/**
+	 * Get a stream of the uncompressed contents of the file
+	 *
+	 * @param file
+	 * @return
+	 * @throws Exception
+	 */
+	public static InputStream getInputStream( File file ) throws Exception {
+		return getInputStream( new FileInputStream( file ), file.getName() );
+	}
+
+	/**
+	 * Get a stream of the uncompressed contents of the stream. If the stream is compressed, it is decompressed on
+	 * a separate thread. Closing the returned stream closes the supplied stream.
+	 *
+	 * @param in The stream of the (possibly compressed) file
+	 * @param name The name of the file, used to name the decompressing thread
+	 * @return
+	 * @throws Exception
+	 */
+	public static InputStream getInputStream( InputStream in, String name ) throws Exception {
+
+		BufferedInputStream bis = new BufferedInputStream( in, BUFFER_SIZE );
+
+		bis.mark( 3 );
+		Compression compression = getCompression( readMagic( bis ) );
+		bis.reset();
+
+		switch( compression ) {
+
+			case GZIP:
+				return new ReadAheadInputStream( new GZIPInputStream( bis, BUFFER_SIZE ), "gunzip " + name );
+
+			case BZIP2:
+				return new ReadAheadInputStream( new BZip2CompressorInputStream( bis, true ), "bunzip2 " + name );
+
+			default:
+				return bis;
+		}
+	}
+
+	/**
+	 * Get a stream to write the file. If the name of the file ends in .gz, the data is gzip compressed on threadCount
+	 * threads as it is written.
+	 *
+	 * @param file
+	 * @param threadCount
+	 * @return
+	 * @throws Exception
+	 */
+	public static OutputStream getOutputStream( File file, int threadCount ) throws Exception {
+
+		OutputStream os = new BufferedOutputStream( new FileOutputStream( file ), BUFFER_SIZE );
+
+		if( isGzipName( file.getName() ) )
+			return new ParallelGZIPOutputStream( os, threadCount );
+
+		return os;
+	}
+
+	/**
+	 * Return true if the file name has the gzip extension, .gz
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static boolean isGzipName( String name ) {
+		return name.toLowerCase().endsWith( ".gz" );
+	}
+
+	/**
+	 * Get an uncompressed copy of the file, for reading with libraries that only read files. If the file is not
+	 * compressed, it is returned. Otherwise it is decompressed into a temporary file, which is deleted when the
+	 * program exits. Each file is only decompressed once.
+	 *
+	 * @param file
+	 * @return
+	 * @throws Exception
+	 */
+	public static File getUncompressedFile( File file ) throws Exception {
+
+		if( getCompression( file ) == Compression.NONE )
+			return file;
+
+		synchronized( UNCOMPRESSED_FILES ) {
+
+			File uncompressedFile = UNCOMPRESSED_FILES.get( file.getAbsoluteFile() );
+
+			if( uncompressedFile != null && uncompressedFile.lastModified() >= file.lastModified() )
+				return uncompressedFile;
+
+			uncompressedFile = File.createTempFile( getUncompressedName( file.getName() ) + ".", ".tmp" );
+			uncompressedFile.deleteOnExit();
+
+			try ( InputStream is = getInputStream( file ); OutputStream os = new FileOutputStream( uncompressedFile ) ) {
+
+				byte[] buffer = new byte[ BUFFER_SIZE ];
+
+				for( int read = is.read( buffer ); read >= 0; read = is.read( buffer ) ) {
+					os.write( buffer, 0, read );
+				}
+			}
+
+			UNCOMPRESSED_FILES.put( file.getAbsoluteFile(), uncompressedFile );
+
+			return uncompressedFile;
+		}
+	}
+
+	/**
+	 * Get the name of the file without its compression extension, if any. E.g., yeast.fasta.gz -> yeast.fasta
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static String getUncompressedName( String name ) {
+
+		for( String extension : COMPRESSED_EXTENSIONS ) {
+			if( name.toLowerCase().endsWith( extension ) )
+				return name.substring( 0, name.length() - extension.length() );
+		}
+
+		return name;
+	}
+
+	private static byte[] readMagic( InputStream is ) throws Exception {
+
+		byte[] magic = new byte[ 3 ];
+		int length = 0;
+
+		for( int read = 0; read >= 0 && length < magic.length; ) {
+			read = is.read( magic, length, magic.length - length );
+			if( read > 0 )
+				length += read;
+		}
+
+		return magic;
+	}
+
+	private static Compression getCompression( byte[] magic ) {
+
+		if( magic[ 0 ] == (byte)0x1f && magic[ 1 ] == (byte)0x8b )
+			return Compression.GZIP;
+
+		if( magic[ 0 ] == 'B' && magic[ 1 ] == 'Z' && magic[ 2 ] == 'h' )
+			return Compression.BZIP2;
+
+		return Compression.NONE;
+	}
+
+	private static final Map<File, File> UNCOMPRESSED_FILES = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,479 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Records the wall time, CPU time, allocated bytes, peak heap and item counts of each stage of a conversion,
+ * and writes them out as a JSON report.
+ *
+ * Stages are started and ended on the same thread. A stage started while another stage is running on the same
+ * thread is recorded as a sub-stage of that stage, so that (for example) confirming target proteins is reported both
+ * on its own and as part of parsing the pepXML. Stages run on their own threads (such as the FDR analyses and
+ * writing the XML, which run concurrently) have no parent.
+ *
+ * CPU time is the CPU time of the whole process (all threads, including garbage collection). Allocated bytes
+ * are the growth of the heap plus the bytes freed by garbage collections during the stage, and peak heap is the
+ * most heap in use at the start or end of the stage or just before any garbage collection during the stage.
+ * Both are measured with garbage collection notifications, which arrive shortly after each collection, so they
+ * are close estimates rather than exact figures. Values that can not be measured on this JVM are reported as null.
+ *
+ * Garbage collection notifications are listened for while any stage is open. Call close() when the conversion is
+ * over, so that stages left open by a failure do not leave the listener registered.
+ *
+ * Instances may be shared between threads.
+ *
+ * @author mriffle
+ *
+ */
+public class ConversionMetrics {
+
+	/**
+	 * The longest to wait at the end of a stage for the notifications of garbage collections that have
+	 * already happened
+	 */
+	private static final long GC_NOTIFICATION_WAIT_MILLIS = 100;
+
+	public ConversionMetrics() {
+
+		for( MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			if( memoryPool.getType() == MemoryType.HEAP )
+				this.heapPoolNames.add( memoryPool.getName() );
+		}
+	}
+
+	/**
+	 * Start timing a stage of the conversion. If another stage is running on this thread, the new stage
+	 * is a sub-stage of that one.
+	 *
+	 * @param name The name of the stage
+	 * @return The stage, to be passed to endStage() when the stage is complete
+	 */
+	public Stage startStage( String name ) {
+
+		Deque<Stage> threadStages = this.runningStages.get();
+		Stage stage = new Stage( name, threadStages.isEmpty() ? null : threadStages.peek().getName() );
+
+		synchronized( this ) {
+
+			if( this.openStages.isEmpty() )
+				startListeningForGarbageCollections();
+
+			stage.startOffsetNanos = System.nanoTime() - this.startNanos;
+			stage.startCpuTimeNanos = getProcessCpuTime();
+			stage.startHeapUsed = getHeapUsed();
+			stage.startCollectedBytes = this.collectedBytes;
+			stage.peakHeapBytes = stage.startHeapUsed;
+
+			this.openStages.add( stage );
+			this.stages.add( stage );
+		}
+
+		threadStages.push( stage );
+
+		return stage;
+	}
+
+	/**
+	 * Stop timing the supplied stage, recording its wall time, CPU time, allocated bytes and peak heap
+	 *
+	 * @param stage A stage returned by startStage() on this thread
+	 * @throws IllegalStateException If the stage is not running on this thread
+	 */
+	public void endStage( Stage stage ) {
+
+		if( !this.runningStages.get().remove( stage ) )
+			throw new IllegalStateException( "Stage " + stage.getName() + " is not running on this thread." );
+
+		long endNanos = System.nanoTime() - this.startNanos;
+		long endCpuTimeNanos = getProcessCpuTime();
+
+		synchronized( this ) {
+
+			waitForGarbageCollectionNotifications();
+
+			long endHeapUsed = getHeapUsed();
+
+			stage.wallTimeNanos = endNanos - stage.startOffsetNanos;
+
+			if( stage.startCpuTimeNanos >= 0 && endCpuTimeNanos >= 0 )
+				stage.cpuTimeNanos = endCpuTimeNanos - stage.startCpuTimeNanos;
+
+			if( this.listeningForGarbageCollections ) {
+				stage.allocatedBytes = Math.max( 0, endHeapUsed - stage.startHeapUsed + this.collectedBytes - stage.startCollectedBytes );
+				stage.peakHeapBytes = Math.max( stage.peakHeapBytes, endHeapUsed );
+			} else {
+				stage.peakHeapBytes = null;
+			}
+
+			this.openStages.remove( stage );
+
+			if( this.openStages.isEmpty() )
+				stopListeningForGarbageCollections();
+		}
+	}
+
+	/**
+	 * Record a stage for which only the wall time is known, such as time accumulated across many short calls.
+	 * If a stage is running on this thread, the recorded stage is a sub-stage of that one.
+	 *
+	 * @param name The name of the stage
+	 * @param wallTimeNanos The total wall time spent in the stage
+	 * @return The recorded stage, so that counts may be added to it
+	 */
+	public Stage recordWallTime( String name, long wallTimeNanos ) {
+
+		Deque<Stage> threadStages = this.runningStages.get();
+		Stage stage = new Stage( name, threadStages.isEmpty() ? null : threadStages.peek().getName() );
+		stage.wallTimeNanos = wallTimeNanos;
+
+		synchronized( this ) {
+			this.stages.add( stage );
+		}
+
+		return stage;
+	}
+
+	/**
+	 * Set a value describing the conversion as a whole (e.g. input file names), written at the top of the report
+	 *
+	 * @param name
+	 * @param value A String or a Number
+	 */
+	public synchronized void setProperty( String name, Object value ) {
+		this.properties.put( name, value );
+	}
+
+	/**
+	 * Write all stages recorded so far to the supplied file as JSON
+	 *
+	 * @param file
+	 * @throws Exception
+	 */
+	public synchronized void writeJSON( File file ) throws Exception {
+
+		try ( Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ) ) ) {
+
+			writer.write( "{\n" );
+			writer.write( "  \"startTime\": " + toJSON( this.startTime.toString() ) + ",\n" );
+			writer.write( "  \"properties\": " + toJSON( this.properties ) + ",\n" );
+			writer.write( "  \"stages\": [" );
+
+			for( int i = 0; i < this.stages.size(); i++ ) {
+				Stage stage = this.stages.get( i );
+
+				Map<String, Object> values = new LinkedHashMap<>();
+				values.put( "name", stage.getName() );
+				values.put( "parent", stage.getParentName() );
+				values.put( "startOffsetMs", nanosToMillis( stage.startOffsetNanos ) );
+				values.put( "wallTimeMs", nanosToMillis( stage.wallTimeNanos ) );
+				values.put( "cpuTimeMs", nanosToMillis( stage.cpuTimeNanos ) );
+				values.put( "allocatedBytes", stage.allocatedBytes );
+				values.put( "peakHeapBytes", stage.peakHeapBytes );
+				values.put( "counts", stage.counts );
+
+				writer.write( i == 0 ? "\n" : ",\n" );
+				writer.write( "    " + toJSON( values ) );
+			}
+
+			writer.write( "\n  ]\n}\n" );
+		}
+	}
+
+	/**
+	 * Stop listening for garbage collections, even if some stages were never ended (e.g. because the conversion
+	 * failed). Stages that are not ended are left without a wall time.
+	 */
+	public synchronized void close() {
+
+		this.openStages.clear();
+		stopListeningForGarbageCollections();
+	}
+
+	/**
+	 * Get all stages recorded so far, in the order they were started
+	 *
+	 * @return
+	 */
+	public synchronized List<Stage> getStages() {
+		return new ArrayList<>( this.stages );
+	}
+
+	/**
+	 * A single stage of the conversion
+	 */
+	public static class Stage {
+
+		private Stage( String name, String parentName ) {
+			this.name = name;
+			this.parentName = parentName;
+		}
+
+		/**
+		 * Set the number of items of the given kind (e.g. "psms") processed in this stage
+		 *
+		 * @param name
+		 * @param count
+		 * @return This stage
+		 */
+		public synchronized Stage setCount( String name, long count ) {
+			this.counts.put( name, count );
+			return this;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Get the name of the stage this is a sub-stage of, null if it is a top level stage
+		 *
+		 * @return
+		 */
+		public String getParentName() {
+			return parentName;
+		}
+
+		/**
+		 * Get the wall time of the stage in nanoseconds, null if the stage has not ended
+		 *
+		 * @return
+		 */
+		public Long getWallTimeNanos() {
+			return wallTimeNanos;
+		}
+
+		public Long getCpuTimeNanos() {
+			return cpuTimeNanos;
+		}
+
+		public Long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		public Long getPeakHeapBytes() {
+			return peakHeapBytes;
+		}
+
+		public synchronized Map<String, Long> getCounts() {
+			return new LinkedHashMap<>( counts );
+		}
+
+		private final String name;
+		private final String parentName;
+		private final Map<String, Long> counts = new LinkedHashMap<>();
+
+		private Long startOffsetNanos;
+		private long startCpuTimeNanos;
+		private long startHeapUsed;
+		private long startCollectedBytes;
+
+		private Long wallTimeNanos;
+		private Long cpuTimeNanos;
+		private Long allocatedBytes;
+		private Long peakHeapBytes;
+	}
+
+	/**
+	 * Count the bytes freed by a garbage collection, and raise the peak heap of the open stages to the
+	 * heap in use before the collection
+	 *
+	 * @param notification
+	 * @param handback
+	 */
+	private synchronized void handleGarbageCollectionNotification( Notification notification, Object handback ) {
+
+		if( !notification.getType().equals( GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION ) )
+			return;
+
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from( (CompositeData)notification.getUserData() );
+		Map<String, MemoryUsage> usageAfter = info.getGcInfo().getMemoryUsageAfterGc();
+
+		long usedBefore = 0;
+		long freed = 0;
+
+		for( Map.Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageBeforeGc().entrySet() ) {
+
+			if( !this.heapPoolNames.contains( entry.getKey() ) )
+				continue;
+
+			usedBefore += entry.getValue().getUsed();
+
+			if( usageAfter.containsKey( entry.getKey() ) )
+				freed += entry.getValue().getUsed() - usageAfter.get( entry.getKey() ).getUsed();
+		}
+
+		this.collectedBytes += Math.max( 0, freed );
+		this.garbageCollectionNotifications++;
+
+		for( Stage stage : this.openStages )
+			stage.peakHeapBytes = Math.max( stage.peakHeapBytes, usedBefore );
+
+		notifyAll();
+	}
+
+	private void startListeningForGarbageCollections() {
+
+		this.garbageCollectionBaseline = getGarbageCollectionCount();
+		this.garbageCollectionNotifications = 0;
+
+		for( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			if( collector instanceof NotificationEmitter ) {
+				( (NotificationEmitter)collector ).addNotificationListener( this.garbageCollectionListener, null, null );
+				this.listeningForGarbageCollections = true;
+			}
+		}
+	}
+
+	private void stopListeningForGarbageCollections() {
+
+		for( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			if( collector instanceof NotificationEmitter ) {
+				try {
+					( (NotificationEmitter)collector ).removeNotificationListener( this.garbageCollectionListener );
+				} catch( Exception e ) {
+					// the listener was not added to this collector
+				}
+			}
+		}
+
+		this.listeningForGarbageCollections = false;
+	}
+
+	/**
+	 * Wait (briefly) until the notifications for all garbage collections done so far have been handled.
+	 * Must be called while holding the lock on this object.
+	 */
+	private void waitForGarbageCollectionNotifications() {
+
+		if( !this.listeningForGarbageCollections )
+			return;
+
+		long expectedNotifications = getGarbageCollectionCount() - this.garbageCollectionBaseline;
+		long deadline = System.currentTimeMillis() + GC_NOTIFICATION_WAIT_MILLIS;
+
+		while( this.garbageCollectionNotifications < expectedNotifications ) {
+
+			long remaining = deadline - System.currentTimeMillis();
+			if( remaining <= 0 )
+				return;
+
+			try {
+				wait( remaining );
+			} catch( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static long getGarbageCollectionCount() {
+
+		long count = 0;
+
+		for( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			count += Math.max( 0, collector.getCollectionCount() );
+		}
+
+		return count;
+	}
+
+	private static long getHeapUsed() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Get the CPU time used by the whole process in nanoseconds, or -1 if it is not available
+	 *
+	 * @return
+	 */
+	private static long getProcessCpuTime() {
+
+		OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+
+		if( operatingSystem instanceof com.sun.management.OperatingSystemMXBean )
+			return ( (com.sun.management.OperatingSystemMXBean)operatingSystem ).getProcessCpuTime();
+
+		return -1;
+	}
+
+	private static Double nanosToMillis( Long nanos ) {
+
+		if( nanos == null )
+			return null;
+
+		return Math.round( nanos / 1000.0 ) / 1000.0;
+	}
+
+	/**
+	 * Convert a null, String, Number or Map of these to JSON
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static String toJSON( Object value ) {
+
+		if( value == null )
+			return "null";
+
+		if( value instanceof Number )
+			return value.toString();
+
+		if( value instanceof Map ) {
+
+			StringBuilder sb = new StringBuilder( "{" );
+
+			for( Map.Entry<?, ?> entry : ( (Map<?, ?>)value ).entrySet() ) {
+				if( sb.length() > 1 )
+					sb.append( ", " );
+
+				sb.append( toJSON( entry.getKey().toString() ) ).append( ": " ).append( toJSON( entry.getValue() ) );
+			}
+
+			return sb.append( "}" ).toString();
+		}
+
+		String string = value.toString();
+		StringBuilder sb = new StringBuilder( string.length() + 2 ).append( '"' );
+
+		for( int i = 0; i < string.length(); i++ ) {
+			char c = string.charAt( i );
+
+			if( c == '"' || c == '\\' )
+				sb.append( '\\' ).append( c );
+			else if( c < 0x20 )
+				sb.append( String.format( "\\u%04x", (int)c ) );
+			else
+				sb.append( c );
+		}
+
+		return sb.append( '"' ).toString();
+	}
+
+	private final Instant startTime = Instant.now();
+	private final long startNanos = System.nanoTime();
+	private final Set<String> heapPoolNames = new HashSet<>();
+	private final List<Stage> stages = new ArrayList<>();
+	private final Set<Stage> openStages = new HashSet<>();
+	private final Map<String, Object> properties = new LinkedHashMap<>();
+	private final ThreadLocal<Deque<Stage>> runningStages = ThreadLocal.withInitial( ArrayDeque::new );
+	private final NotificationListener garbageCollectionListener = this::handleGarbageCollectionNotification;
+
+	private boolean listeningForGarbageCollections = false;
+	private long garbageCollectionBaseline;
+	private long garbageCollectionNotifications;
+	private long collectedBytes;
+}
@@ -0,0 +1,109 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether protein names are decoy names, i.e. contain (case-insensitively) any of the decoy
+ * identifier strings. All decoy identifiers are compiled into a single Aho-Corasick automaton once,
+ * and the answer for each protein name is remembered, since the same protein names are tested over and
+ * over again while reading a pepXML file.
+ *
+ * Case-insensitive matching only folds ASCII letters, the same as a regular expression compiled with
+ * Pattern.CASE_INSENSITIVE.
+ *
+ * Instances may be shared between threads.
+ *
+ * @author mriffle
+ *
+ */
+public class DecoyMatcher {
+
+	/**
+	 * Build a matcher for the given decoy identifiers
+	 *
+	 * @param decoyIdentifiers The decoy identifier strings, may be null or empty, in which case nothing is a decoy
+	 */
+	public DecoyMatcher( Collection<String> decoyIdentifiers ) {
+
+		Collection<String> patterns = new LinkedHashSet<>();
+		boolean matchAll = false;
+
+		if( decoyIdentifiers != null ) {
+			for( String decoyIdentifier : decoyIdentifiers ) {
+
+				// an empty decoy string is contained in every name
+				if( decoyIdentifier.length() < 1 )
+					matchAll = true;
+				else
+					patterns.add( toUpperCaseASCII( decoyIdentifier ) );
+			}
+		}
+
+		this.matchAll = matchAll;
+
+		if( matchAll || patterns.isEmpty() ) {
+			this.matcher = null;
+		} else {
+			List<String> patternList = new ArrayList<>( patterns );
+			this.matcher = new AhoCorasickMatcher( patternList );
+		}
+	}
+
+	/**
+	 * Return true if the name contains one of the decoy strings, ignoring case
+	 *
+	 * @param name The protein name to test
+	 * @return
+	 */
+	public boolean isDecoyName( String name ) {
+
+		if( this.matchAll )
+			return true;
+
+		if( this.matcher == null )
+			return false;
+
+		Boolean isDecoy = this.isDecoyByName.get( name );
+
+		if( isDecoy == null ) {
+			isDecoy = this.matcher.findPatterns( toUpperCaseASCII( name ), new boolean[ this.matcher.getPatternCount() ] );
+			this.isDecoyByName.put( name, isDecoy );
+		}
+
+		return isDecoy;
+	}
+
+	/**
+	 * Upper case only the ASCII letters in the string, leaving all other characters alone
+	 *
+	 * @param s
+	 * @return
+	 */
+	private static String toUpperCaseASCII( String s ) {
+
+		char[] chars = null;
+
+		for( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt( i );
+
+			if( c >= 'a' && c <= 'z' ) {
+				if( chars == null )
+					chars = s.toCharArray();
+
+				chars[ i ] = (char)( c - ( 'a' - 'A' ) );
+			}
+		}
+
+		return chars == null ? s : new String( chars );
+	}
+
+
+	private final boolean matchAll;
+	private final AhoCorasickMatcher matcher;
+	private final Map<String, Boolean> isDecoyByName = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,33 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Utility methods for waiting on the stages of a conversion that run on other threads
+ *
+ * @author mriffle
+ *
+ */
+public class FutureUtils {
+
+	/**
+	 * Wait for the value of the future
+	 *
+	 * @param future
+	 * @return
+	 * @throws Exception The exception the value could not be gotten because of
+	 */
+	public static <T> T getValue( Future<T> future ) throws Exception {
+
+		try {
+			return future.get();
+		} catch( ExecutionException e ) {
+
+			if( e.getCause() instanceof Exception )
+				throw (Exception)e.getCause();
+
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis;
+import org.yeastrc.proxl_import.api.xml_dto.Protein;
+import org.yeastrc.proxl_import.api.xml_dto.ProxlInput;
+import org.yeastrc.proxl_import.api.xml_dto.ReportedPeptide;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Holds the JAXB contexts for reading pepXML and writing ProXL XML, so that each is only built once per JVM, the
+ * first time it is needed, no matter how many files are converted. Building a context reflects over all of the
+ * classes of the schema, which takes seconds for pepXML.
+ *
+ * pepXML unmarshallers are pooled: an unmarshaller may only be used by one thread at a time, so it is taken
+ * from the pool with getPepXMLUnmarshaller() and given back with releasePepXMLUnmarshaller() when done.
+ *
+ * @author mriffle
+ *
+ */
+public class JAXBContextHolder {
+
+	private static final JAXBContextHolder _INSTANCE = new JAXBContextHolder();
+	public static JAXBContextHolder getInstance() { return _INSTANCE; }
+
+	private JAXBContextHolder() { }
+
+	/**
+	 * Get the JAXB context for pepXML, building it if this is the first call
+	 *
+	 * @return
+	 * @throws Exception
+	 */
+	public synchronized JAXBContext getPepXMLContext() throws Exception {
+
+		if( this.pepXMLContext == null )
+			this.pepXMLContext = JAXBContext.newInstance( MsmsPipelineAnalysis.class );
+
+		return this.pepXMLContext;
+	}
+
+	/**
+	 * Get the JAXB context for ProXL XML, building it if this is the first call. The reported peptide and protein
+	 * types are included, so they can be marshalled on their own as fragments (see StreamingProxlXMLWriter).
+	 *
+	 * @return
+	 * @throws Exception
+	 */
+	public synchronized JAXBContext getProxlXMLContext() throws Exception {
+
+		if( this.proxlXMLContext == null )
+			this.proxlXMLContext = JAXBContext.newInstance( ProxlInput.class, ReportedPeptide.class, Protein.class );
+
+		return this.proxlXMLContext;
+	}
+
+	/**
+	 * Take a pepXML unmarshaller from the pool, creating one if the pool is empty. It must be given back with
+	 * releasePepXMLUnmarshaller() when it is no longer used.
+	 *
+	 * @return
+	 * @throws Exception
+	 */
+	public Unmarshaller getPepXMLUnmarshaller() throws Exception {
+
+		Unmarshaller unmarshaller = this.pepXMLUnmarshallers.poll();
+
+		if( unmarshaller == null )
+			unmarshaller = getPepXMLContext().createUnmarshaller();
+
+		return unmarshaller;
+	}
+
+	/**
+	 * Give an unmarshaller from getPepXMLUnmarshaller() back to the pool
+	 *
+	 * @param unmarshaller
+	 */
+	public void releasePepXMLUnmarshaller( Unmarshaller unmarshaller ) {
+		this.pepXMLUnmarshallers.offer( unmarshaller );
+	}
+
+
+	private JAXBContext pepXMLContext;
+	private JAXBContext proxlXMLContext;
+	private final Queue<Unmarshaller> pepXMLUnmarshallers = new ConcurrentLinkedQueue<>();
+}
@@ -0,0 +1,134 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Processes items added one at a time in chunks on a pool of worker threads, and merges the result of each chunk
+ * on the calling thread in the order the chunks were added. Since the chunk results are merged in order, the merged
+ * result is identical to processing every item serially (as long as processing a chunk only depends on its items).
+ *
+ * Only a limited number of chunks (twice the number of threads) are held in memory at once, adding an item waits
+ * for the oldest chunk to be merged once that many are pending. With a single thread, each chunk is processed and
+ * merged on the calling thread as soon as it is full.
+ *
+ * Items must be added, and finish() called, from a single thread. Use with try-with-resources, so that the worker
+ * threads are stopped if processing fails.
+ *
+ * @author mriffle
+ *
+ * @param <T> The type of the items
+ * @param <R> The type of the result of processing a chunk of items
+ */
+public class OrderedChunkExecutor<T, R> implements AutoCloseable {
+
+	/**
+	 * Processes a chunk of items into a result, called on a worker thread
+	 *
+	 * @param <T>
+	 * @param <R>
+	 */
+	public interface ChunkProcessor<T, R> {
+		R process( List<T> chunk ) throws Exception;
+	}
+
+	/**
+	 * Merges the result of a chunk into the overall result, called on the thread adding the items
+	 *
+	 * @param <R>
+	 */
+	public interface ChunkMerger<R> {
+		void merge( R chunkResult ) throws Exception;
+	}
+
+	/**
+	 * @param threadCount The number of worker threads, the chunks are processed on the calling thread if less than 2
+	 * @param chunkSize The number of items in each chunk
+	 * @param processor
+	 * @param merger
+	 */
+	public OrderedChunkExecutor( int threadCount, int chunkSize, ChunkProcessor<T, R> processor, ChunkMerger<R> merger ) {
+
+		this.threadCount = threadCount;
+		this.chunkSize = chunkSize;
+		this.processor = processor;
+		this.merger = merger;
+
+		this.executor = ( threadCount > 1 ) ? Executors.newFixedThreadPool( threadCount ) : null;
+		this.pendingChunks = new ArrayDeque<>();
+		this.chunk = new ArrayList<>( chunkSize );
+	}
+
+	/**
+	 * Add an item. If this fills a chunk, the chunk is submitted for processing.
+	 *
+	 * @param item
+	 * @throws Exception If processing or merging a chunk failed
+	 */
+	public void add( T item ) throws Exception {
+
+		this.chunk.add( item );
+
+		if( this.chunk.size() == this.chunkSize )
+			submitChunk();
+	}
+
+	/**
+	 * Submit the last (partial) chunk, and wait for all chunks to be processed and merged
+	 *
+	 * @throws Exception If processing or merging a chunk failed
+	 */
+	public void finish() throws Exception {
+
+		if( this.chunk.size() > 0 )
+			submitChunk();
+
+		while( !this.pendingChunks.isEmpty() )
+			this.merger.merge( this.pendingChunks.removeFirst().get() );
+	}
+
+	/**
+	 * Stop the worker threads, chunks that are still pending are not merged
+	 */
+	@Override
+	public void close() {
+
+		if( this.executor != null )
+			this.executor.shutdownNow();
+	}
+
+	/**
+	 * Process the current chunk, on a worker thread if there are any, and start a new one
+	 *
+	 * @throws Exception
+	 */
+	private void submitChunk() throws Exception {
+
+		List<T> submittedChunk = this.chunk;
+		this.chunk = new ArrayList<>( this.chunkSize );
+
+		if( this.executor == null ) {
+			this.merger.merge( this.processor.process( submittedChunk ) );
+			return;
+		}
+
+		this.pendingChunks.addLast( this.executor.submit( () -> this.processor.process( submittedChunk ) ) );
+
+		if( this.pendingChunks.size() > this.threadCount * 2 )
+			this.merger.merge( this.pendingChunks.removeFirst().get() );
+	}
+
+
+	private final int threadCount;
+	private final int chunkSize;
+	private final ChunkProcessor<T, R> processor;
+	private final ChunkMerger<R> merger;
+	private final ExecutorService executor;
+	private final Deque<Future<R>> pendingChunks;
+	private List<T> chunk;
+}
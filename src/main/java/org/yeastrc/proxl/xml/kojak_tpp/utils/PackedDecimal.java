@@ -0,0 +1,134 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.math.BigDecimal;
+
+/**
+ * Packs a decimal number into a single long, so that decimals can be stored without a BigDecimal object each. The
+ * unscaled value is stored in the upper 59 bits and the scale (0 to 31) in the lower 5 bits, so the packed decimal
+ * converts back to a BigDecimal equal in both value and scale to the one that was packed (e.g., 0.50 stays 0.50),
+ * and is written out as the same text.
+ *
+ * Decimals with more than MAX_DIGITS digits, or a scale outside of 0 to 31, can not be packed; pack() returns
+ * NOT_PACKABLE for these and they have to be stored some other way.
+ *
+ * @author mriffle
+ *
+ */
+public class PackedDecimal {
+
+	/**
+	 * The packed value of a missing (null) decimal
+	 */
+	public static final long ABSENT = Long.MIN_VALUE;
+
+	/**
+	 * Returned by pack() for decimals that can not be packed
+	 */
+	public static final long NOT_PACKABLE = Long.MAX_VALUE;
+
+	/**
+	 * The most digits in the unscaled value of a packed decimal. Limiting the digits keeps ABSENT and NOT_PACKABLE
+	 * (the smallest and largest possible unscaled values) from ever being the packed value of a decimal.
+	 */
+	private static final int MAX_DIGITS = 17;
+
+	private static final int SCALE_BITS = 5;
+	private static final int MAX_SCALE = ( 1 << SCALE_BITS ) - 1;
+
+	/**
+	 * Pack the decimal
+	 *
+	 * @param value
+	 * @return The packed decimal, ABSENT if value is null, or NOT_PACKABLE
+	 */
+	public static long pack( BigDecimal value ) {
+
+		if( value == null )
+			return ABSENT;
+
+		if( value.scale() < 0 || value.scale() > MAX_SCALE || value.precision() > MAX_DIGITS )
+			return NOT_PACKABLE;
+
+		return ( value.unscaledValue().longValue() << SCALE_BITS ) | value.scale();
+	}
+
+	/**
+	 * Pack the decimal text directly, without making a BigDecimal. The result is the same as packing
+	 * new BigDecimal( text ). Text in a form other than plain digits with an optional sign and decimal point
+	 * (e.g., with an exponent) is not packed.
+	 *
+	 * @param text
+	 * @return The packed decimal, ABSENT if text is null, or NOT_PACKABLE (also if the text is not a valid decimal)
+	 */
+	public static long pack( String text ) {
+
+		if( text == null )
+			return ABSENT;
+
+		int length = text.length();
+		int i = 0;
+		boolean negative = false;
+
+		if( i < length && ( text.charAt( i ) == '-' || text.charAt( i ) == '+' ) ) {
+			negative = text.charAt( i ) == '-';
+			i++;
+		}
+
+		long unscaledValue = 0;
+		boolean hasDigits = false;
+		int digits = 0;
+		int scale = -1;
+
+		for( ; i < length; i++ ) {
+
+			char c = text.charAt( i );
+
+			if( c >= '0' && c <= '9' ) {
+
+				hasDigits = true;
+
+				// leading zeros are not counted, as for BigDecimal.precision()
+				if( unscaledValue != 0 || c != '0' )
+					digits++;
+
+				unscaledValue = unscaledValue * 10 + ( c - '0' );
+
+				if( scale >= 0 )
+					scale++;
+
+			} else if( c == '.' && scale < 0 ) {
+				scale = 0;
+			} else {
+				return NOT_PACKABLE;
+			}
+
+			if( digits > MAX_DIGITS )
+				return NOT_PACKABLE;
+		}
+
+		if( !hasDigits )
+			return NOT_PACKABLE;
+
+		if( scale < 0 )
+			scale = 0;
+
+		if( scale > MAX_SCALE )
+			return NOT_PACKABLE;
+
+		return ( ( negative ? -unscaledValue : unscaledValue ) << SCALE_BITS ) | scale;
+	}
+
+	/**
+	 * Get the decimal back from a packed decimal
+	 *
+	 * @param packed A packed decimal other than NOT_PACKABLE
+	 * @return The decimal, null if packed is ABSENT
+	 */
+	public static BigDecimal toBigDecimal( long packed ) {
+
+		if( packed == ABSENT )
+			return null;
+
+		return BigDecimal.valueOf( packed >> SCALE_BITS, (int)( packed & MAX_SCALE ) );
+	}
+}
@@ -0,0 +1,228 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a gzip file, compressing blocks of the data on multiple threads at once, in the same way as pigz. Each
+ * block is compressed as its own run of deflate blocks, ending on a byte boundary (a sync flush), with the last
+ * 32KB of the previous block as the dictionary, so the compressed blocks are simply written one after the other
+ * and the result is a single ordinary gzip member that any gzip reader can read. The compression ratio is within
+ * a fraction of a percent of compressing the whole stream at once.
+ *
+ * Instances are to be written by one thread at a time.
+ *
+ * @author mriffle
+ *
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+	static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final byte[] GZIP_HEADER = {
+			(byte)0x1f, (byte)0x8b,		// magic
+			Deflater.DEFLATED,			// compression method
+			0,							// flags
+			0, 0, 0, 0,					// modification time, not set
+			0,							// extra flags
+			(byte)0xff					// operating system, unknown
+	};
+
+	/**
+	 * @param out The stream to write the gzip file to, it is closed when this stream is closed
+	 * @param threadCount The number of threads to compress on, if 1 blocks are compressed on the writing thread
+	 * @throws IOException
+	 */
+	public ParallelGZIPOutputStream( OutputStream out, int threadCount ) throws IOException {
+
+		this.out = out;
+		this.threadCount = threadCount;
+		this.executor = ( threadCount > 1 ) ? Executors.newFixedThreadPool( threadCount, runnable -> {
+			Thread thread = new Thread( runnable, "gzip" );
+			thread.setDaemon( true );
+			return thread;
+		} ) : null;
+
+		this.out.write( GZIP_HEADER );
+	}
+
+	@Override
+	public void write( int b ) throws IOException {
+
+		if( this.length == this.block.length )
+			submitBlock( false );
+
+		this.block[ this.length++ ] = (byte)b;
+	}
+
+	@Override
+	public void write( byte[] b, int off, int len ) throws IOException {
+
+		while( len > 0 ) {
+
+			if( this.length == this.block.length )
+				submitBlock( false );
+
+			int count = Math.min( len, this.block.length - this.length );
+			System.arraycopy( b, off, this.block, this.length, count );
+
+			this.length += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Compress the remaining data, write the gzip trailer and close the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if( this.closed )
+			return;
+
+		this.closed = true;
+
+		try {
+
+			submitBlock( true );
+
+			while( !this.pendingBlocks.isEmpty() )
+				writeNextBlock();
+
+			int crc = (int)this.crc.getValue();
+			int size = (int)this.size;
+
+			// the trailer is little-endian
+			this.out.write( new byte[] {
+					(byte)crc, (byte)( crc >>> 8 ), (byte)( crc >>> 16 ), (byte)( crc >>> 24 ),
+					(byte)size, (byte)( size >>> 8 ), (byte)( size >>> 16 ), (byte)( size >>> 24 )
+			} );
+
+		} finally {
+
+			if( this.executor != null )
+				this.executor.shutdownNow();
+
+			this.out.close();
+		}
+	}
+
+	/**
+	 * Compress the current block, on a worker thread if there is one, and start a new block. The CRC is updated
+	 * here, as it has to be calculated over the blocks in order.
+	 *
+	 * @param last true if this is the last block of the stream
+	 * @throws IOException
+	 */
+	private void submitBlock( boolean last ) throws IOException {
+
+		byte[] data = this.block;
+		int length = this.length;
+		byte[] dictionary = this.previousBlock;
+
+		this.crc.update( data, 0, length );
+		this.size += length;
+
+		if( this.executor == null ) {
+			this.pendingBlocks.addLast( CompletableFuture.completedFuture( compressBlock( data, length, dictionary, last ) ) );
+		} else {
+			this.pendingBlocks.addLast( this.executor.submit( () -> compressBlock( data, length, dictionary, last ) ) );
+		}
+
+		// the end of this block is the dictionary of the next block
+		this.previousBlock = Arrays.copyOfRange( data, Math.max( 0, length - DICTIONARY_SIZE ), length );
+		this.block = new byte[ BLOCK_SIZE ];
+		this.length = 0;
+
+		// limit the number of blocks held in memory at once
+		while( this.pendingBlocks.size() > this.threadCount * 2 )
+			writeNextBlock();
+	}
+
+	/**
+	 * Wait for the oldest pending block to be compressed and write it
+	 *
+	 * @throws IOException
+	 */
+	private void writeNextBlock() throws IOException {
+
+		try {
+			this.out.write( this.pendingBlocks.removeFirst().get() );
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while compressing output." );
+		} catch( ExecutionException e ) {
+			throw new IOException( "Got error compressing output: " + e.getCause().getMessage(), e.getCause() );
+		}
+	}
+
+	/**
+	 * Compress a block as raw deflate data. Blocks other than the last end with a sync flush, so that the next block
+	 * starts on a byte boundary, the last block ends the deflate stream.
+	 *
+	 * @param data
+	 * @param length
+	 * @param dictionary The end of the previous block, null for the first block
+	 * @param last
+	 * @return
+	 */
+	private static byte[] compressBlock( byte[] data, int length, byte[] dictionary, boolean last ) {
+
+		Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+
+		try {
+
+			if( dictionary != null && dictionary.length > 0 )
+				deflater.setDictionary( dictionary );
+
+			deflater.setInput( data, 0, length );
+
+			if( last )
+				deflater.finish();
+
+			byte[] compressed = new byte[ length + ( length >> 3 ) + 64 ];
+			int compressedLength = 0;
+
+			while( true ) {
+
+				if( compressedLength == compressed.length )
+					compressed = Arrays.copyOf( compressed, compressed.length * 2 );
+
+				compressedLength += deflater.deflate( compressed, compressedLength, compressed.length - compressedLength, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH );
+
+				// all output has been written when the deflater stops short of filling the buffer
+				if( last ? deflater.finished() : compressedLength < compressed.length )
+					break;
+			}
+
+			return Arrays.copyOf( compressed, compressedLength );
+
+		} finally {
+			deflater.end();
+		}
+	}
+
+
+	private final OutputStream out;
+	private final int threadCount;
+	private final ExecutorService executor;
+	private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+	private final CRC32 crc = new CRC32();
+	private long size = 0;
+	private byte[] block = new byte[ BLOCK_SIZE ];
+	private int length = 0;
+	private byte[] previousBlock;
+	private boolean closed = false;
+}
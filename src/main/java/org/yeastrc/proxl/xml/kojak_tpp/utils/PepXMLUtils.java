@@ -11,7 +11,6 @@ import org.yeastrc.proxl.xml.kojak_tpp.constants.TPPConstants;
 import org.yeastrc.proxl.xml.kojak_tpp.reader.TPPAnalysis;
 
 import java.util.Collection;
-import java.util.regex.Pattern;
 
 public class PepXMLUtils {
 
@@ -86,12 +85,12 @@ public class PepXMLUtils {
 	/**
 	 * Attempt to get the comet version from the pepXML file. Returns "Unknown" if not found.
 	 *
-	 * @param msAnalysis
+	 * @param analysis Its spectrum queries must have been processed, see TPPAnalysis.getRunSummaries()
 	 * @return
 	 */
-	public static String getKojakVersionFromXML(MsmsPipelineAnalysis msAnalysis ) {
+	public static String getKojakVersionFromXML(TPPAnalysis analysis ) {
 
-		for( MsmsPipelineAnalysis.MsmsRunSummary runSummary : msAnalysis.getMsmsRunSummary() ) {
+		for( MsmsPipelineAnalysis.MsmsRunSummary runSummary : analysis.getRunSummaries() ) {
 			for( MsmsPipelineAnalysis.MsmsRunSummary.SearchSummary searchSummary : runSummary.getSearchSummary() ) {
 
 				if( 	searchSummary.getSearchEngine() != null &&
@@ -138,19 +137,13 @@ public class PepXMLUtils {
 	}
 
 	/**
-	 * Return true if any of the supplied names contain one of the decoy strings
-	 * @param decoyStrings
+	 * Return true if the supplied name contains one of the decoy strings
+	 * @param decoyMatcher
 	 * @param name
 	 * @return
 	 */
-	public static boolean isDecoyName( Collection<String> decoyStrings, String name ) {
-		
-		for( String decoyName : decoyStrings ) {
-			if( PepXMLUtils.caseInsensitiveStringContains( decoyName,  name ) )
-				return true;
-		}
-		
-		return false;
+	public static boolean isDecoyName( DecoyMatcher decoyMatcher, String name ) {
+		return decoyMatcher.isDecoyName( name );
 	}
 	
 	
@@ -159,19 +152,19 @@ public class PepXMLUtils {
 	 * match to decoy proteins. For unlinked and looplinks, this is a decoy only if all associated protein names
 	 * are decoy names. 
 	 * 
-	 * @param decoyString
+	 * @param decoyMatcher
 	 * @param searchHit
 	 * @return
 	 * @throws Exception
 	 */
-	public static boolean isDecoy( Collection<String> decoyStrings, SearchHit searchHit ) throws Exception {
+	public static boolean isDecoy( DecoyMatcher decoyMatcher, SearchHit searchHit ) throws Exception {
 				
 		// testing crosslinks (is more involved)
 		if( searchHit.getXlinkType().equals( PepXMLUtils.XLINK_TYPE_CROSSLINK ) ) {
 			
 			// if either of the linked peptides are decoy hits, the xlink is a decoy
-			if( isDecoy( decoyStrings, searchHit.getXlink().getLinkedPeptide().get( 0 ) ) ||
-				isDecoy( decoyStrings, searchHit.getXlink().getLinkedPeptide().get( 1 ) ) ) {
+			if( isDecoy( decoyMatcher, searchHit.getXlink().getLinkedPeptide().get( 0 ) ) ||
+				isDecoy( decoyMatcher, searchHit.getXlink().getLinkedPeptide().get( 1 ) ) ) {
 				
 					return true;
 			}
@@ -184,7 +177,7 @@ public class PepXMLUtils {
 		}
 		
 		// if we got here, the type is either unlinked or looplinks, the test is the same
-		if( !isDecoyName( decoyStrings, searchHit.getProtein() ) ) {
+		if( !isDecoyName( decoyMatcher, searchHit.getProtein() ) ) {
 			return false;
 		}
 		
@@ -192,7 +185,7 @@ public class PepXMLUtils {
 		// if any of the alternative proteins listed are not decoy proteins, this is not a decoy
 		if( searchHit.getAlternativeProtein() != null && searchHit.getAlternativeProtein().size() > 0 ) {
 			for( AltProteinDataType ap : searchHit.getAlternativeProtein() ) {
-				if( !isDecoyName( decoyStrings, ap.getProtein() ) ) {
+				if( !isDecoyName( decoyMatcher, ap.getProtein() ) ) {
 					return false;
 				}
 			}
@@ -204,20 +197,20 @@ public class PepXMLUtils {
 	/**
 	 * Check whether the supplied linked peptide is a decoy.
 	 * 
-	 * @param decoyString
+	 * @param decoyMatcher
 	 * @param linkedPeptide
 	 * @return
 	 * @throws Exception
 	 */
-	private static boolean isDecoy( Collection<String> decoyStrings, LinkedPeptide linkedPeptide ) throws Exception {
+	private static boolean isDecoy( DecoyMatcher decoyMatcher, LinkedPeptide linkedPeptide ) throws Exception {
 		
-		if( !isDecoyName( decoyStrings, linkedPeptide.getProtein() ) ) {
+		if( !isDecoyName( decoyMatcher, linkedPeptide.getProtein() ) ) {
 			return false;
 		}
 		
 		if( linkedPeptide.getAlternativeProtein() != null && linkedPeptide.getAlternativeProtein().size() > 0 ) {
 			for( AltProteinDataType ap : linkedPeptide.getAlternativeProtein() ) {
-				if( !isDecoyName( decoyStrings, ap.getProtein() ) ) {
+				if( !isDecoyName( decoyMatcher, ap.getProtein() ) ) {
 					return false;
 				}
 			}
@@ -226,9 +219,4 @@ public class PepXMLUtils {
 		return true;
 	}
 	
-	
-	private static boolean caseInsensitiveStringContains( String testString, String containingString ) {
-		return Pattern.compile(Pattern.quote(testString), Pattern.CASE_INSENSITIVE).matcher(containingString).find();
-	}
-	
 }
@@ -0,0 +1,177 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An input stream that reads another input stream on its own thread, a block at a time, so that reading (e.g.,
+ * decompressing) the other stream overlaps with whatever is done with the bytes read from this one. At most
+ * BLOCK_COUNT blocks are read ahead.
+ *
+ * Instances are to be read by one thread at a time.
+ *
+ * @author mriffle
+ *
+ */
+public class ReadAheadInputStream extends InputStream {
+
+	private static final int BLOCK_SIZE = 256 * 1024;
+	private static final int BLOCK_COUNT = 8;
+
+	/**
+	 * Start reading the input stream on a new daemon thread
+	 *
+	 * @param in The stream to read, it is closed when it has been read to the end or this stream is closed
+	 * @param threadName The name of the reading thread
+	 */
+	public ReadAheadInputStream( InputStream in, String threadName ) {
+
+		this.thread = new Thread( () -> readBlocks( in ), threadName );
+		this.thread.setDaemon( true );
+		this.thread.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		if( !nextBlock() )
+			return -1;
+
+		return this.block.data[ this.position++ ] & 0xFF;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException {
+
+		if( len == 0 )
+			return 0;
+
+		if( !nextBlock() )
+			return -1;
+
+		int count = Math.min( len, this.block.length - this.position );
+		System.arraycopy( this.block.data, this.position, b, off, count );
+		this.position += count;
+
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return ( this.block == null ) ? 0 : this.block.length - this.position;
+	}
+
+	/**
+	 * Stop the reading thread
+	 */
+	@Override
+	public void close() {
+
+		this.closed = true;
+		this.thread.interrupt();
+	}
+
+	/**
+	 * Make sure there are bytes left in the current block, waiting for the next block if needed
+	 *
+	 * @return false if the end of the stream has been reached
+	 * @throws IOException If the reading thread got an error, or the stream is closed
+	 */
+	private boolean nextBlock() throws IOException {
+
+		if( this.closed )
+			throw new IOException( "Stream closed" );
+
+		while( this.block == null || this.position == this.block.length ) {
+
+			if( this.block != null && this.block.isEnd() ) {
+
+				if( this.block.error != null )
+					throw new IOException( "Got error reading input: " + this.block.error.getMessage(), this.block.error );
+
+				return false;
+			}
+
+			try {
+				this.block = this.blocks.take();
+				this.position = 0;
+			} catch( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new IOException( "Interrupted while waiting for input." );
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Run on the reading thread: read the stream into blocks until the end of the stream or until this stream is closed
+	 *
+	 * @param in
+	 */
+	private void readBlocks( InputStream in ) {
+
+		try ( InputStream input = in ) {
+
+			while( !this.closed ) {
+
+				byte[] data = new byte[ BLOCK_SIZE ];
+				int length = 0;
+
+				// fill the block, so the consumer is woken once per block
+				for( int read = 0; read >= 0 && length < data.length; ) {
+					read = input.read( data, length, data.length - length );
+					if( read > 0 )
+						length += read;
+				}
+
+				if( length > 0 )
+					this.blocks.put( new Block( data, length, null ) );
+
+				if( length < data.length ) {
+					this.blocks.put( new Block( null, 0, null ) );
+					return;
+				}
+			}
+
+		} catch( InterruptedException e ) {
+			// closed
+		} catch( Exception e ) {
+
+			try {
+				this.blocks.put( new Block( null, 0, e ) );
+			} catch( InterruptedException e2 ) {
+				// closed
+			}
+		}
+	}
+
+	/**
+	 * A block of bytes read from the stream. A block with no data marks the end of the stream, or an error.
+	 */
+	private static class Block {
+
+		Block( byte[] data, int length, Exception error ) {
+			this.data = data;
+			this.length = length;
+			this.error = error;
+		}
+
+		boolean isEnd() {
+			return this.data == null;
+		}
+
+		private final byte[] data;
+		private final int length;
+		private final Exception error;
+	}
+
+
+	private final Thread thread;
+	private final BlockingQueue<Block> blocks = new ArrayBlockingQueue<>( BLOCK_COUNT );
+	private volatile boolean closed = false;
+	private Block block;
+	private int position;
+}
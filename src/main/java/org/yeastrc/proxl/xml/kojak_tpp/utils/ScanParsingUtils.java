@@ -1,36 +1,145 @@
 package org.yeastrc.proxl.xml.kojak_tpp.utils;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Some utility methods for parsing scan variables from the reported scan information in plink results files.
- * 
+ *
  * @author Michael Riffle
  * @date Mar 23, 2016
  *
  */
 public class ScanParsingUtils {
-	
+
+	/**
+	 * The parts of a reported scan, e.g. QEP2_2016_0121_RJ_68_205_comet.00965.00966.3 is the scan file name
+	 * QEP2_2016_0121_RJ_68_205_comet, start scan 965, end scan 966 and charge 3
+	 */
+	public static class ReportedScan {
+
+		ReportedScan( String filename, int startScan, int endScan, int charge ) {
+			this.filename = filename;
+			this.startScan = startScan;
+			this.endScan = endScan;
+			this.charge = charge;
+		}
+
+		public String getFilename() {
+			return filename;
+		}
+		public int getStartScan() {
+			return startScan;
+		}
+		public int getEndScan() {
+			return endScan;
+		}
+		public int getCharge() {
+			return charge;
+		}
+
+		private final String filename;
+		private final int startScan;
+		private final int endScan;
+		private final int charge;
+	}
+
 	/**
 	 * Get the name of the scan file from the reported scan. E.g. QEP2_2016_0121_RJ_68_205_comet.00965.00965.3
 	 * would return QEP2_2016_0121_RJ_68_205_comet
-	 * 
+	 *
 	 * @param reportedScan
 	 * @return
 	 * @throws Exception
 	 */
 	public static String getFilenameFromReportedScan( String reportedScan ) throws Exception {
-		
-		Pattern r = Pattern.compile( "^(.+)\\.\\d+\\.\\d+\\.\\d+$" );
-		Matcher m = r.matcher( reportedScan );
-		
-		if( m.matches() ) {
-			return m.group( 1 );
-		} else {
+
+		ReportedScan scan = parseReportedScan( reportedScan );
+
+		if( scan == null )
+			return null;
+
+		return scan.getFilename();
+	}
+
+	/**
+	 * Parse the reported scan: a scan file name followed by the start scan, end scan and charge, all separated by
+	 * periods. The name may itself contain periods, the last three period separated parts are the numbers.
+	 *
+	 * @param reportedScan
+	 * @return The parts of the reported scan, null if it is not in the expected form
+	 */
+	public static ReportedScan parseReportedScan( String reportedScan ) {
+		return parseReportedScan( reportedScan, null );
+	}
+
+	/**
+	 * Parse the reported scan, see parseReportedScan( String ). If the reported scan starts with the expected scan
+	 * file name (e.g., that of the previous scan from the same run), the same String is used as the file name of the
+	 * result, so that a new String is not made for every scan.
+	 *
+	 * @param reportedScan
+	 * @param expectedFilename May be null
+	 * @return The parts of the reported scan, null if it is not in the expected form
+	 */
+	public static ReportedScan parseReportedScan( String reportedScan, String expectedFilename ) {
+
+		// find the periods before the end scan, charge and start scan, searching back from the end
+		int chargeStart = reportedScan.lastIndexOf( '.' ) + 1;
+		int endScanStart = chargeStart > 0 ? reportedScan.lastIndexOf( '.', chargeStart - 2 ) + 1 : 0;
+		int startScanStart = endScanStart > 0 ? reportedScan.lastIndexOf( '.', endScanStart - 2 ) + 1 : 0;
+
+		// the file name must not be empty
+		if( startScanStart < 2 )
+			return null;
+
+		int startScan = parseScanNumber( reportedScan, startScanStart, endScanStart - 1 );
+		int endScan = parseScanNumber( reportedScan, endScanStart, chargeStart - 1 );
+		int charge = parseScanNumber( reportedScan, chargeStart, reportedScan.length() );
+
+		if( startScan < 0 || endScan < 0 || charge < 0 )
 			return null;
+
+		int filenameEnd = startScanStart - 1;
+
+		if( expectedFilename != null && expectedFilename.length() == filenameEnd && reportedScan.startsWith( expectedFilename ) )
+			return new ReportedScan( expectedFilename, startScan, endScan, charge );
+
+		// any character but a line terminator may be in the file name
+		for( int i = 0; i < filenameEnd; i++ ) {
+
+			char c = reportedScan.charAt( i );
+
+			if( c == '\n' || c == '\r' || c == 0x85 || c == 0x2028 || c == 0x2029 )
+				return null;
 		}
-		
+
+		return new ReportedScan( reportedScan.substring( 0, filenameEnd ), startScan, endScan, charge );
 	}
-	
+
+	/**
+	 * Parse the digits from start to end as a number
+	 *
+	 * @param reportedScan
+	 * @param start
+	 * @param end
+	 * @return The number (Integer.MAX_VALUE if it is larger), or -1 if there are no digits or a character other than a digit
+	 */
+	private static int parseScanNumber( String reportedScan, int start, int end ) {
+
+		if( start >= end )
+			return -1;
+
+		long number = 0;
+
+		for( int i = start; i < end; i++ ) {
+
+			char c = reportedScan.charAt( i );
+
+			if( c < '0' || c > '9' )
+				return -1;
+
+			number = Math.min( number * 10 + ( c - '0' ), Integer.MAX_VALUE );
+		}
+
+		return (int)number;
+	}
+
 }
@@ -0,0 +1,86 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns an int ID to each distinct string (symbol) it is given, so that identifiers repeated across millions of
+ * PSMs and peptides (scan file names, protein names) are held once as strings and otherwise stored as ints. IDs are
+ * assigned consecutively from 0, in the order the symbols are first seen.
+ *
+ * Instances may be shared between threads. Symbols are added under a lock, but getSymbol() does not lock: the symbols
+ * array and size are published through volatile fields, the size only after the symbol has been stored.
+ *
+ * @author mriffle
+ *
+ */
+public class SymbolTable {
+
+	/**
+	 * Get the ID of the symbol, assigning it a new ID if it has not been seen before
+	 *
+	 * @param symbol
+	 * @return
+	 */
+	public int getId( String symbol ) {
+
+		Integer id = this.ids.get( symbol );
+
+		if( id != null )
+			return id;
+
+		synchronized( this ) {
+
+			id = this.ids.get( symbol );
+
+			if( id == null ) {
+
+				String[] symbols = this.symbols;
+				id = this.size;
+
+				if( id == symbols.length ) {
+					symbols = Arrays.copyOf( symbols, symbols.length * 2 );
+					this.symbols = symbols;
+				}
+
+				symbols[ id ] = symbol;
+
+				// publish the symbol before its ID can be seen
+				this.size = id + 1;
+				this.ids.put( symbol, id );
+			}
+
+			return id;
+		}
+	}
+
+	/**
+	 * Get the symbol with the ID
+	 *
+	 * @param id An ID returned by getId()
+	 * @return
+	 */
+	public String getSymbol( int id ) {
+
+		// the size is read before the symbols array, so the array has at least size symbols
+		if( id < 0 || id >= this.size )
+			throw new IllegalArgumentException( "Got unknown symbol ID: " + id );
+
+		return this.symbols[ id ];
+	}
+
+	/**
+	 * Get the number of symbols
+	 *
+	 * @return
+	 */
+	public int size() {
+		return this.size;
+	}
+
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private volatile String[] symbols = new String[ 64 ];
+	private volatile int size = 0;
+}
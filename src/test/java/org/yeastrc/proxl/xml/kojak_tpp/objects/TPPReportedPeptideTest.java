@@ -0,0 +1,97 @@
+package org.yeastrc.proxl.xml.kojak_tpp.objects;
+
+import org.junit.Test;
+import org.yeastrc.proxl.xml.kojak_tpp.constants.TPPConstants;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TPPReportedPeptideTest {
+
+	@Test
+	public void testCrosslinkString() {
+
+		TPPReportedPeptide reportedPeptide = crosslink( "PEPTIDE", "KPEPTIDE" );
+		reportedPeptide.getPeptide1().setModifications( mods( 2, "15.994915" ) );
+
+		assertEquals( "PE[15.99]PTIDE(3)-KPEPTIDE(1)", reportedPeptide.toString() );
+	}
+
+	@Test
+	public void testChangingAPeptideChangesTheHashCode() {
+
+		TPPReportedPeptide reportedPeptide = crosslink( "PEPTIDE", "KPEPTIDE" );
+		TPPReportedPeptide same = crosslink( "PEPTIDE", "KPEPTIDE" );
+
+		Map<TPPReportedPeptide, String> map = new HashMap<>();
+		map.put( reportedPeptide, "unmodified" );
+
+		assertEquals( "unmodified", map.get( same ) );
+
+		// changing the peptides (and not the reported peptide itself) must not leave the old string or hash cached
+		same.getPeptide2().setModifications( mods( 1, "57.021464" ) );
+		assertEquals( "PEPTIDE(3)-K[57.02]PEPTIDE(1)", same.toString() );
+		assertNull( map.get( same ) );
+
+		reportedPeptide.getPeptide2().setModifications( mods( 1, "57.021464" ) );
+		assertEquals( same, reportedPeptide );
+		assertEquals( same.hashCode(), reportedPeptide.hashCode() );
+
+		reportedPeptide.getPeptide1().setSequence( "PEPTIDES" );
+		assertNotEquals( same, reportedPeptide );
+		assertEquals( "PEPTIDES(3)-K[57.02]PEPTIDE(1)", reportedPeptide.toString() );
+
+		reportedPeptide.getPeptide1().setSequence( "PEPTIDE" );
+		reportedPeptide.getPeptide1().setIsotopeLabel( "15N" );
+		assertNotEquals( same, reportedPeptide );
+		assertEquals( "PEPTIDE-15N(3)-K[57.02]PEPTIDE(1)", reportedPeptide.toString() );
+	}
+
+	@Test
+	public void testUnlinkedPeptide() {
+
+		TPPReportedPeptide reportedPeptide = new TPPReportedPeptide();
+		reportedPeptide.setType( TPPConstants.LINK_TYPE_UNLINKED );
+		reportedPeptide.setPeptide1( peptide( "PEPTIDE" ) );
+
+		int hashCode = reportedPeptide.hashCode();
+		reportedPeptide.getPeptide1().setSequence( "PEPTIDEK" );
+
+		assertEquals( "PEPTIDEK", reportedPeptide.toString() );
+		assertEquals( "PEPTIDEK".hashCode(), reportedPeptide.hashCode() );
+		assertNotEquals( hashCode, reportedPeptide.hashCode() );
+	}
+
+	private static TPPReportedPeptide crosslink( String sequence1, String sequence2 ) {
+
+		TPPReportedPeptide reportedPeptide = new TPPReportedPeptide();
+		reportedPeptide.setType( TPPConstants.LINK_TYPE_CROSSLINK );
+		reportedPeptide.setPeptide1( peptide( sequence1 ) );
+		reportedPeptide.setPosition1( 3 );
+		reportedPeptide.setPeptide2( peptide( sequence2 ) );
+		reportedPeptide.setPosition2( 1 );
+
+		return reportedPeptide;
+	}
+
+	private static TPPPeptide peptide( String sequence ) {
+
+		TPPPeptide peptide = new TPPPeptide();
+		peptide.setSequence( sequence );
+
+		return peptide;
+	}
+
+	private static Map<Integer, Collection<BigDecimal>> mods( int position, String mass ) {
+
+		Map<Integer, Collection<BigDecimal>> mods = new HashMap<>();
+		mods.put( position, Collections.singletonList( new BigDecimal( mass ) ) );
+
+		return mods;
+	}
+}
@@ -0,0 +1,99 @@
+package org.yeastrc.proxl.xml.kojak_tpp.objects;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+public class TPPResultTest {
+
+	/**
+	 * Scores that are packed, scores that are too large or too precise to be packed, and scores that are not in
+	 * plain form
+	 */
+	private static final String[] SCORES = {
+			"0", "-0.00", "0.50", ".5", "1.", "+3.25", "-12.345", "12345678901234567", "123456789012345678",
+			"1.00000000000000000", "0.0000000000000000000000000000001", "0.00000000000000000000000000000001",
+			"1e3", "1.50E+1", "-2.5E-10", "99999999999999999999999.123"
+	};
+
+	@Test
+	public void testScoresFromText() {
+
+		for( String text : SCORES ) {
+
+			BigDecimal value = new BigDecimal( text );
+
+			TPPResult result = new TPPResult();
+			result.setKojakScore( text );
+			result.setDeltaScore( text );
+
+			// BigDecimal.equals() compares the scale too
+			assertEquals( text, value, result.getKojakScore() );
+			assertEquals( text, value, result.getDeltaScore() );
+		}
+	}
+
+	@Test
+	public void testScoresFromBigDecimal() {
+
+		for( String text : SCORES ) {
+
+			BigDecimal value = new BigDecimal( text );
+
+			TPPResult result = new TPPResult();
+			result.setKojakScore( value );
+			result.setDeltaScore( value );
+			result.setPpmError( value );
+			result.setInterProphetScore( value );
+			result.setPeptideProphetScore( value );
+			result.setLinkerMass( value );
+
+			assertEquals( text, value, result.getKojakScore() );
+			assertEquals( text, value, result.getDeltaScore() );
+			assertEquals( text, value, result.getPpmError() );
+			assertEquals( text, value, result.getInterProphetScore() );
+			assertEquals( text, value, result.getPeptideProphetScore() );
+			assertEquals( text, value, result.getLinkerMass() );
+		}
+	}
+
+	@Test
+	public void testScoresAreIndependent() {
+
+		// unpackable scores are kept apart from each other
+		TPPResult result = new TPPResult();
+		result.setKojakScore( "123456789012345678" );
+		result.setDeltaScore( "0.5" );
+		result.setPpmError( new BigDecimal( "1E+3" ) );
+
+		assertEquals( new BigDecimal( "123456789012345678" ), result.getKojakScore() );
+		assertEquals( new BigDecimal( "0.5" ), result.getDeltaScore() );
+		assertEquals( new BigDecimal( "1E+3" ), result.getPpmError() );
+		assertNull( result.getInterProphetScore() );
+		assertNull( result.getPeptideProphetScore() );
+		assertNull( result.getLinkerMass() );
+
+		// replacing an unpackable score with a packable one
+		result.setKojakScore( "7.25" );
+		assertEquals( new BigDecimal( "7.25" ), result.getKojakScore() );
+	}
+
+	@Test
+	public void testMissingScores() {
+
+		TPPResult result = new TPPResult();
+		result.setKojakScore( (String)null );
+		result.setDeltaScore( (BigDecimal)null );
+
+		assertNull( result.getKojakScore() );
+		assertNull( result.getDeltaScore() );
+	}
+
+	@Test( expected = NumberFormatException.class )
+	public void testInvalidScore() {
+
+		new TPPResult().setKojakScore( "1.2.3" );
+	}
+}
@@ -0,0 +1,346 @@
+package org.yeastrc.proxl.xml.kojak_tpp.reader;
+
+import net.systemsbiology.regis_web.pepxml.AltProteinDataType;
+import net.systemsbiology.regis_web.pepxml.InterprophetResult;
+import net.systemsbiology.regis_web.pepxml.ModInfoDataType;
+import net.systemsbiology.regis_web.pepxml.ModInfoDataType.ModAminoacidMass;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SearchSummary;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.AnalysisResult;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.Xlink;
+import net.systemsbiology.regis_web.pepxml.MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.SearchResult.SearchHit.Xlink.LinkedPeptide;
+import net.systemsbiology.regis_web.pepxml.NameValueType;
+import net.systemsbiology.regis_web.pepxml.PeptideprophetResult;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.yeastrc.proxl.xml.kojak_tpp.constants.KojakConstants;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ConversionMetrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the spectrum queries read back from a results cache file are the same as those read from the pepXML
+ * file, in every value the cache keeps
+ */
+public class ResultsCacheTest {
+
+	private static final String PEPXML_RESOURCE = "results-cache-test.pep.xml";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File pepXMLFile;
+	private File cacheDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.pepXMLFile = new File( this.temporaryFolder.newFolder( "pepxml" ), PEPXML_RESOURCE );
+		this.cacheDirectory = this.temporaryFolder.newFolder( "cache" );
+
+		try ( InputStream is = getClass().getResourceAsStream( PEPXML_RESOURCE ) ) {
+			Files.copy( is, this.pepXMLFile.toPath() );
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		List<SpectrumQueryInRun> fromPepXML = new ArrayList<>();
+		TPPAnalysis analysis = readSpectrumQueries( fromPepXML );
+		List<MsmsRunSummary> runSummariesFromPepXML = analysis.getRunSummaries();
+
+		assertTrue( analysis.getResultsCacheFile().isFile() );
+		assertFalse( hasStage( analysis.getMetrics(), "read results cache" ) );
+
+		List<SpectrumQueryInRun> fromCache = new ArrayList<>();
+		analysis = readSpectrumQueries( fromCache );
+		List<MsmsRunSummary> runSummariesFromCache = analysis.getRunSummaries();
+
+		assertTrue( hasStage( analysis.getMetrics(), "read results cache" ) );
+
+		assertEquals( 2, runSummariesFromPepXML.size() );
+		assertEquals( runSummariesFromPepXML.size(), runSummariesFromCache.size() );
+
+		for( int i = 0; i < runSummariesFromPepXML.size(); i++ ) {
+			assertRunSummaryEquals( runSummariesFromPepXML.get( i ), runSummariesFromCache.get( i ) );
+		}
+
+		assertEquals( 3, fromPepXML.size() );
+		assertEquals( fromPepXML.size(), fromCache.size() );
+
+		for( int i = 0; i < fromPepXML.size(); i++ ) {
+
+			assertEquals( fromPepXML.get( i ).runSummary.getBaseName(), fromCache.get( i ).runSummary.getBaseName() );
+			assertSpectrumQueryEquals( fromPepXML.get( i ).spectrumQuery, fromCache.get( i ).spectrumQuery );
+		}
+	}
+
+	@Test
+	public void testChangedPepXMLFileIsNotRead() throws Exception {
+
+		TPPAnalysis analysis = readSpectrumQueries( new ArrayList<>() );
+		File cacheFile = analysis.getResultsCacheFile();
+
+		assertTrue( ResultsCacheReader.isValidFor( cacheFile, this.pepXMLFile ) );
+
+		try ( FileOutputStream fos = new FileOutputStream( this.pepXMLFile, true ) ) {
+			fos.write( '\n' );
+		}
+
+		assertFalse( ResultsCacheReader.isValidFor( cacheFile, this.pepXMLFile ) );
+	}
+
+	@Test
+	public void testCacheFilesOfSameNamedPepXMLFiles() throws Exception {
+
+		File cacheFile1 = ResultsCacheFormat.getCacheFile( this.cacheDirectory, new File( "experiment1/interact.pep.xml" ) );
+		File cacheFile2 = ResultsCacheFormat.getCacheFile( this.cacheDirectory, new File( "experiment2/interact.pep.xml" ) );
+
+		assertNotEquals( cacheFile1, cacheFile2 );
+		assertEquals( cacheFile1, ResultsCacheFormat.getCacheFile( this.cacheDirectory, new File( "experiment1/../experiment1/interact.pep.xml" ) ) );
+
+		assertTrue( cacheFile1.getName().startsWith( "interact.pep.xml." ) );
+		assertTrue( cacheFile1.getName().endsWith( ResultsCacheFormat.FILE_SUFFIX ) );
+	}
+
+	/**
+	 * Read all of the spectrum queries of the pepXML file with a new analysis that uses the cache directory
+	 *
+	 * @param spectrumQueries The spectrum queries read are added to this
+	 * @return The analysis
+	 * @throws Exception
+	 */
+	private TPPAnalysis readSpectrumQueries( List<SpectrumQueryInRun> spectrumQueries ) throws Exception {
+
+		TPPAnalysis analysis = TPPAnalysis.loadAnalysis( this.pepXMLFile.getAbsolutePath() );
+		analysis.setMetrics( new ConversionMetrics() );
+		analysis.setResultsCacheDirectory( this.cacheDirectory );
+
+		analysis.processSpectrumQueries( ( runSummary, spectrumQuery ) -> spectrumQueries.add( new SpectrumQueryInRun( runSummary, spectrumQuery ) ) );
+
+		return analysis;
+	}
+
+	private static boolean hasStage( ConversionMetrics metrics, String name ) {
+
+		for( ConversionMetrics.Stage stage : metrics.getStages() ) {
+			if( stage.getName().equals( name ) )
+				return true;
+		}
+
+		return false;
+	}
+
+	private static void assertRunSummaryEquals( MsmsRunSummary expected, MsmsRunSummary actual ) {
+
+		assertEquals( expected.getBaseName(), actual.getBaseName() );
+		assertEquals( expected.getRawDataType(), actual.getRawDataType() );
+		assertEquals( expected.getRawData(), actual.getRawData() );
+		assertEquals( expected.getSearchSummary().size(), actual.getSearchSummary().size() );
+
+		for( int i = 0; i < expected.getSearchSummary().size(); i++ ) {
+
+			SearchSummary expectedSearchSummary = expected.getSearchSummary().get( i );
+			SearchSummary actualSearchSummary = actual.getSearchSummary().get( i );
+
+			assertEquals( expectedSearchSummary.getSearchEngine(), actualSearchSummary.getSearchEngine() );
+			assertEquals( expectedSearchSummary.getSearchEngineVersion(), actualSearchSummary.getSearchEngineVersion() );
+		}
+	}
+
+	private static void assertSpectrumQueryEquals( SpectrumQuery expected, SpectrumQuery actual ) {
+
+		String message = expected.getSpectrum();
+
+		assertEquals( message, expected.getSpectrum(), actual.getSpectrum() );
+		assertEquals( message, expected.getStartScan(), actual.getStartScan() );
+		assertEquals( message, expected.getEndScan(), actual.getEndScan() );
+		assertEquals( message, expected.getAssumedCharge(), actual.getAssumedCharge() );
+		assertEquals( message, expected.getSearchResult().size(), actual.getSearchResult().size() );
+
+		for( int i = 0; i < expected.getSearchResult().size(); i++ ) {
+
+			SearchResult expectedSearchResult = expected.getSearchResult().get( i );
+			SearchResult actualSearchResult = actual.getSearchResult().get( i );
+
+			assertEquals( message, expectedSearchResult.getSearchHit().size(), actualSearchResult.getSearchHit().size() );
+
+			for( int j = 0; j < expectedSearchResult.getSearchHit().size(); j++ ) {
+				assertSearchHitEquals( expectedSearchResult.getSearchHit().get( j ), actualSearchResult.getSearchHit().get( j ) );
+			}
+		}
+	}
+
+	private static void assertSearchHitEquals( SearchHit expected, SearchHit actual ) {
+
+		String message = expected.getPeptide();
+
+		assertEquals( message, expected.getXlinkType(), actual.getXlinkType() );
+		assertEquals( message, expected.getPeptide(), actual.getPeptide() );
+		assertEquals( message, expected.getProtein(), actual.getProtein() );
+		assertEquals( message, getProteins( expected.getAlternativeProtein() ), getProteins( actual.getAlternativeProtein() ) );
+		assertEquals( message, getVariableMods( expected.getModificationInfo() ), getVariableMods( actual.getModificationInfo() ) );
+
+		for( String scoreName : new String[] { KojakConstants.NAME_KOJAK_SCORE, KojakConstants.NAME_DELTA_SCORE, KojakConstants.NAME_PPM_ERROR } ) {
+			assertDecimalTextEquals( message + " " + scoreName, getScore( expected.getSearchScore(), scoreName ), getScore( actual.getSearchScore(), scoreName ) );
+		}
+
+		assertDecimalEquals( message, getPeptideProphetProbability( expected ), getPeptideProphetProbability( actual ) );
+		assertDecimalEquals( message, getInterProphetProbability( expected ), getInterProphetProbability( actual ) );
+
+		Xlink expectedXlink = expected.getXlink();
+		Xlink actualXlink = actual.getXlink();
+
+		if( expectedXlink == null ) {
+			assertNull( message, actualXlink );
+			return;
+		}
+
+		assertNotNull( message, actualXlink );
+		assertDecimalEquals( message, expectedXlink.getMass(), actualXlink.getMass() );
+		assertEquals( message, getLinks( expectedXlink.getXlinkScore() ), getLinks( actualXlink.getXlinkScore() ) );
+		assertEquals( message, expectedXlink.getLinkedPeptide().size(), actualXlink.getLinkedPeptide().size() );
+
+		for( int i = 0; i < expectedXlink.getLinkedPeptide().size(); i++ ) {
+
+			LinkedPeptide expectedLinkedPeptide = expectedXlink.getLinkedPeptide().get( i );
+			LinkedPeptide actualLinkedPeptide = actualXlink.getLinkedPeptide().get( i );
+
+			assertEquals( message, expectedLinkedPeptide.getPeptide(), actualLinkedPeptide.getPeptide() );
+			assertEquals( message, expectedLinkedPeptide.getProtein(), actualLinkedPeptide.getProtein() );
+			assertEquals( message, getProteins( expectedLinkedPeptide.getAlternativeProtein() ), getProteins( actualLinkedPeptide.getAlternativeProtein() ) );
+			assertEquals( message, getVariableMods( expectedLinkedPeptide.getModificationInfo() ), getVariableMods( actualLinkedPeptide.getModificationInfo() ) );
+			assertEquals( message, getLinks( expectedLinkedPeptide.getXlinkScore() ), getLinks( actualLinkedPeptide.getXlinkScore() ) );
+		}
+	}
+
+	/**
+	 * The converter reads scores as new BigDecimal( text ), so text that parses to the same decimal is the same
+	 * score. Text that is not a decimal must be kept as it is.
+	 */
+	private static void assertDecimalTextEquals( String message, String expected, String actual ) {
+
+		if( expected == null ) {
+			assertNull( message, actual );
+			return;
+		}
+
+		BigDecimal expectedDecimal;
+
+		try {
+			expectedDecimal = new BigDecimal( expected );
+		} catch( NumberFormatException e ) {
+			assertEquals( message, expected, actual );
+			return;
+		}
+
+		assertNotNull( message, actual );
+		assertEquals( message, expectedDecimal, new BigDecimal( actual ) );
+	}
+
+	/**
+	 * Decimals must be equal in both value and scale, since the scale decides how they are written out
+	 */
+	private static void assertDecimalEquals( String message, BigDecimal expected, BigDecimal actual ) {
+		assertEquals( message, expected, actual );
+	}
+
+	private static List<String> getProteins( List<AltProteinDataType> alternativeProteins ) {
+
+		List<String> proteins = new ArrayList<>();
+
+		for( AltProteinDataType alternativeProtein : alternativeProteins ) {
+			proteins.add( alternativeProtein.getProtein() );
+		}
+
+		return proteins;
+	}
+
+	/**
+	 * Get the position and mass of each variable mod, the only mods the cache keeps
+	 */
+	private static List<String> getVariableMods( ModInfoDataType modInfo ) {
+
+		List<String> mods = new ArrayList<>();
+
+		if( modInfo == null )
+			return mods;
+
+		for( ModAminoacidMass mod : modInfo.getModAminoacidMass() ) {
+			if( mod.getVariable() != null )
+				mods.add( mod.getPosition() + ":" + mod.getVariable() );
+		}
+
+		return mods;
+	}
+
+	private static List<String> getLinks( List<NameValueType> xlinkScores ) {
+
+		List<String> links = new ArrayList<>();
+
+		for( NameValueType xlinkScore : xlinkScores ) {
+			if( xlinkScore.getName().equals( "link" ) )
+				links.add( xlinkScore.getValueAttribute() );
+		}
+
+		return links;
+	}
+
+	private static String getScore( List<NameValueType> scores, String name ) {
+
+		for( NameValueType score : scores ) {
+			if( score.getName().equals( name ) )
+				return score.getValueAttribute();
+		}
+
+		return null;
+	}
+
+	private static BigDecimal getPeptideProphetProbability( SearchHit searchHit ) {
+
+		for( AnalysisResult analysisResult : searchHit.getAnalysisResult() ) {
+			if( analysisResult.getAnalysis().equals( "peptideprophet" ) )
+				return ( (PeptideprophetResult)analysisResult.getAny().get( 0 ) ).getProbability();
+		}
+
+		return null;
+	}
+
+	private static BigDecimal getInterProphetProbability( SearchHit searchHit ) {
+
+		for( AnalysisResult analysisResult : searchHit.getAnalysisResult() ) {
+			if( analysisResult.getAnalysis().equals( "interprophet" ) )
+				return ( (InterprophetResult)analysisResult.getAny().get( 0 ) ).getProbability();
+		}
+
+		return null;
+	}
+
+	/**
+	 * A spectrum query and the run summary it was found in
+	 */
+	private static class SpectrumQueryInRun {
+
+		SpectrumQueryInRun( MsmsRunSummary runSummary, SpectrumQuery spectrumQuery ) {
+			this.runSummary = runSummary;
+			this.spectrumQuery = spectrumQuery;
+		}
+
+		private final MsmsRunSummary runSummary;
+		private final SpectrumQuery spectrumQuery;
+	}
+}
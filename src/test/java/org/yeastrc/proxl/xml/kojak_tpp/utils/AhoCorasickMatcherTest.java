@@ -0,0 +1,152 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class AhoCorasickMatcherTest {
+
+	@Test
+	public void testPatternsThatArePrefixesAndSuffixesOfEachOther() {
+
+		List<String> patterns = Arrays.asList( "PEPTIDE", "PEP", "TIDE", "IDE", "E", "PEPTIDEK", "EPT", "DEP" );
+
+		assertMatchesContains( patterns, "PEPTIDE" );
+		assertMatchesContains( patterns, "XXPEPTIDEKXX" );
+		assertMatchesContains( patterns, "TIDEPEP" );
+		assertMatchesContains( patterns, "PEPEPEP" );
+		assertMatchesContains( patterns, "IDX" );
+		assertMatchesContains( patterns, "" );
+		assertMatchesContains( patterns, "QQQQ" );
+	}
+
+	@Test
+	public void testOverlappingRepeats() {
+
+		List<String> patterns = Arrays.asList( "A", "AA", "AAA", "AAAA", "AAB", "BAA", "ABA" );
+
+		assertMatchesContains( patterns, "AAA" );
+		assertMatchesContains( patterns, "AABAA" );
+		assertMatchesContains( patterns, "BAB" );
+		assertMatchesContains( patterns, "AAAAAAAA" );
+	}
+
+	@Test
+	public void testRandomPatterns() {
+
+		Random random = new Random( 20 );
+
+		for( int round = 0; round < 200; round++ ) {
+
+			// a small alphabet, so that patterns often overlap and are often prefixes or suffixes of each other
+			String alphabet = round % 2 == 0 ? "ABC" : "ACDEFGHIKLMNPQRSTVWY";
+			String text = randomString( random, alphabet, random.nextInt( 200 ) );
+
+			Set<String> patterns = new LinkedHashSet<>();
+			int patternCount = 1 + random.nextInt( 30 );
+
+			while( patterns.size() < patternCount ) {
+
+				// take some patterns from the text, so that some are found
+				if( random.nextBoolean() && text.length() > 0 ) {
+					int start = random.nextInt( text.length() );
+					int end = Math.min( text.length(), start + 1 + random.nextInt( 8 ) );
+					patterns.add( text.substring( start, end ) );
+				} else {
+					patterns.add( randomString( random, alphabet, 1 + random.nextInt( 8 ) ) );
+				}
+			}
+
+			List<String> patternList = new ArrayList<>( patterns );
+			Collections.shuffle( patternList, random );
+
+			assertMatchesContains( patternList, text );
+
+			// text with characters that are not in any pattern
+			assertMatchesContains( patternList, text.replace( 'B', 'Z' ) );
+		}
+	}
+
+	@Test
+	public void testFoundIsAccumulatedAcrossTexts() {
+
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher( Arrays.asList( "PEP", "TIDE", "EPTI" ) );
+		boolean[] found = new boolean[ matcher.getPatternCount() ];
+
+		assertTrue( matcher.findPatterns( "XPEPX", found ) );
+		assertArrayEquals( new boolean[] { true, false, false }, found );
+
+		// a pattern already found is still reported as found in the text
+		assertTrue( matcher.findPatterns( "PEPTIDE", found ) );
+		assertArrayEquals( new boolean[] { true, true, true }, found );
+
+		assertFalse( matcher.findPatterns( "XXXX", found ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testEmptyPattern() {
+		new AhoCorasickMatcher( Arrays.asList( "PEP", "" ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testDuplicatePattern() {
+		new AhoCorasickMatcher( Arrays.asList( "PEP", "TIDE", "PEP" ) );
+	}
+
+	/**
+	 * Check that each way of searching the text finds the same patterns as String.contains()
+	 *
+	 * @param patterns
+	 * @param text
+	 */
+	private static void assertMatchesContains( List<String> patterns, String text ) {
+
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher( patterns );
+
+		boolean[] expected = new boolean[ patterns.size() ];
+		boolean expectedAny = false;
+
+		for( int i = 0; i < patterns.size(); i++ ) {
+			expected[ i ] = text.contains( patterns.get( i ) );
+			expectedAny |= expected[ i ];
+		}
+
+		String message = "patterns " + patterns + " in text " + text;
+
+		boolean[] found = new boolean[ patterns.size() ];
+		assertEquals( message, expectedAny, matcher.findPatterns( text, found ) );
+		assertArrayEquals( message, expected, found );
+
+		assertEquals( message, expectedAny, matcher.containsAnyPattern( text ) );
+
+		// search the text in the middle of a larger buffer
+		byte[] bytes = ( "PEPTIDE" + text + "PEPTIDE" ).getBytes( StandardCharsets.ISO_8859_1 );
+		ByteBuffer buffer = ByteBuffer.wrap( bytes );
+
+		found = new boolean[ patterns.size() ];
+		assertEquals( message, expectedAny, matcher.findPatterns( buffer, 7, 7 + text.length(), found ) );
+		assertArrayEquals( message, expected, found );
+		assertEquals( message, 0, buffer.position() );
+	}
+
+	private static String randomString( Random random, String alphabet, int length ) {
+
+		StringBuilder string = new StringBuilder( length );
+
+		for( int i = 0; i < length; i++ ) {
+			string.append( alphabet.charAt( random.nextInt( alphabet.length() ) ) );
+		}
+
+		return string.toString();
+	}
+}
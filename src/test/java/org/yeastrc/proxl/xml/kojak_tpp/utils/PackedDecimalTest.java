@@ -0,0 +1,180 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PackedDecimalTest {
+
+	/**
+	 * Decimals in plain form, which pack( String ) packs the same as new BigDecimal( text ) if they fit
+	 */
+	private static final String[] PLAIN_DECIMALS = {
+			"0", "1", "-1", "+1", "-0", "+0", "-0.00", "0.0",
+			"0.5", "0.50", "0.500", ".5", "-.5", "1.", "-1.", "00012.3400", "000", "0000.0000",
+			"12345678901234567", "-12345678901234567", "99999999999999999", "-99999999999999999",
+			"123456789012345678", "-123456789012345678", "9223372036854775807", "99999999999999999999999",
+			"0000012345678901234567", "1234567890.1234567", "1234567890.12345678",
+			"1.0000000000000000", "1.00000000000000000",
+			"0.0000000000000000000000000000001", "0.00000000000000000000000000000001",
+			"0.0000000000000000000000000000000", "0.00000000000000000000000000000000",
+			"0.9999", "-0.0001", "35.7", "4.1234", "-3.14159265358979"
+	};
+
+	/**
+	 * Valid decimals that pack( String ) does not pack, as they are not in plain form (including digits other than
+	 * 0 to 9, which BigDecimal accepts)
+	 */
+	private static final String[] OTHER_DECIMALS = {
+			"1e3", "1E3", "1.5e2", "1.50E+1", "1e-3", "-2.5E-10", "0E0", "1E+0", "\u0661\u0662"
+	};
+
+	private static final String[] INVALID_TEXT = {
+			"", ".", "-", "+", "-.", "+.", "..", "1.2.3", "--1", "+-1", "1-", " 1", "1 ", "1,5", "abc",
+			"NaN", "Infinity", "-Infinity", "0x10", "1e", "e3", "1.5d", "1\n"
+	};
+
+	@Test
+	public void testPlainDecimals() {
+
+		for( String text : PLAIN_DECIMALS ) {
+			assertPacksLikeBigDecimal( text );
+		}
+	}
+
+	@Test
+	public void testLimits() {
+
+		assertPackable( "12345678901234567" );
+		assertPackable( "-99999999999999999" );
+		assertNotPackable( "123456789012345678" );
+		assertNotPackable( "-123456789012345678" );
+
+		// leading zeros are not digits of the decimal, trailing zeros are
+		assertPackable( "0000012345678901234567" );
+		assertPackable( "1.0000000000000000" );
+		assertNotPackable( "1.00000000000000000" );
+
+		assertPackable( "0.0000000000000000000000000000001" );
+		assertNotPackable( "0.00000000000000000000000000000001" );
+	}
+
+	@Test
+	public void testOtherDecimalsAreNotPacked() {
+
+		for( String text : OTHER_DECIMALS ) {
+
+			new BigDecimal( text );
+			assertEquals( text, PackedDecimal.NOT_PACKABLE, PackedDecimal.pack( text ) );
+		}
+	}
+
+	@Test
+	public void testInvalidText() {
+
+		for( String text : INVALID_TEXT ) {
+
+			try {
+				new BigDecimal( text );
+				fail( "BigDecimal accepted " + text );
+			} catch( NumberFormatException e ) { }
+
+			assertEquals( text, PackedDecimal.NOT_PACKABLE, PackedDecimal.pack( text ) );
+		}
+	}
+
+	@Test
+	public void testNegativeScaleIsNotPacked() {
+
+		assertEquals( PackedDecimal.NOT_PACKABLE, PackedDecimal.pack( new BigDecimal( "1E+3" ) ) );
+		assertEquals( PackedDecimal.NOT_PACKABLE, PackedDecimal.pack( BigDecimal.valueOf( 5, -1 ) ) );
+	}
+
+	@Test
+	public void testNull() {
+
+		assertEquals( PackedDecimal.ABSENT, PackedDecimal.pack( (String)null ) );
+		assertEquals( PackedDecimal.ABSENT, PackedDecimal.pack( (BigDecimal)null ) );
+		assertNull( PackedDecimal.toBigDecimal( PackedDecimal.ABSENT ) );
+	}
+
+	@Test
+	public void testRandomDecimals() {
+
+		Random random = new Random( 21 );
+
+		for( int i = 0; i < 100000; i++ ) {
+
+			StringBuilder text = new StringBuilder();
+
+			int sign = random.nextInt( 4 );
+			if( sign == 1 )
+				text.append( '-' );
+			else if( sign == 2 )
+				text.append( '+' );
+
+			int integerDigits = random.nextInt( 20 );
+			for( int j = 0; j < integerDigits; j++ ) {
+				text.append( random.nextInt( 3 ) == 0 ? '0' : (char)( '0' + random.nextInt( 10 ) ) );
+			}
+
+			if( random.nextBoolean() ) {
+
+				text.append( '.' );
+
+				int fractionDigits = random.nextInt( 34 );
+				for( int j = 0; j < fractionDigits; j++ ) {
+					text.append( random.nextInt( 3 ) == 0 ? '0' : (char)( '0' + random.nextInt( 10 ) ) );
+				}
+			}
+
+			BigDecimal value;
+
+			try {
+				value = new BigDecimal( text.toString() );
+			} catch( NumberFormatException e ) {
+				assertEquals( text.toString(), PackedDecimal.NOT_PACKABLE, PackedDecimal.pack( text.toString() ) );
+				continue;
+			}
+
+			assertEquals( text.toString(), PackedDecimal.pack( value ), PackedDecimal.pack( text.toString() ) );
+		}
+	}
+
+	/**
+	 * Check that the text packs the same as the BigDecimal made from it, and, if it could be packed, that it
+	 * unpacks to an equal BigDecimal with the same scale
+	 *
+	 * @param text
+	 */
+	private static void assertPacksLikeBigDecimal( String text ) {
+
+		BigDecimal value = new BigDecimal( text );
+		long packed = PackedDecimal.pack( text );
+
+		assertEquals( text, PackedDecimal.pack( value ), packed );
+		assertNotEquals( text, PackedDecimal.ABSENT, packed );
+
+		if( packed != PackedDecimal.NOT_PACKABLE ) {
+
+			// BigDecimal.equals() compares the scale too
+			assertEquals( text, value, PackedDecimal.toBigDecimal( packed ) );
+			assertEquals( text, value.toString(), PackedDecimal.toBigDecimal( packed ).toString() );
+		}
+	}
+
+	private static void assertPackable( String text ) {
+
+		assertNotEquals( text, PackedDecimal.NOT_PACKABLE, PackedDecimal.pack( text ) );
+		assertPacksLikeBigDecimal( text );
+	}
+
+	private static void assertNotPackable( String text ) {
+
+		assertEquals( text, PackedDecimal.NOT_PACKABLE, PackedDecimal.pack( text ) );
+		assertPacksLikeBigDecimal( text );
+	}
+}
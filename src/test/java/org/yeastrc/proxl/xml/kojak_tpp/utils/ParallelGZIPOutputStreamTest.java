@@ -0,0 +1,226 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class ParallelGZIPOutputStreamTest {
+
+	private static final int BLOCK_SIZE = ParallelGZIPOutputStream.BLOCK_SIZE;
+
+	private static final int[] SIZES = {
+			0, 1,
+			BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1,
+			2 * BLOCK_SIZE, 2 * BLOCK_SIZE + 1,
+			5 * 1024 * 1024 + 12345
+	};
+
+	private static final int[] THREAD_COUNTS = { 1, 4 };
+
+	@Test
+	public void testCompressibleData() throws Exception {
+
+		for( int size : SIZES ) {
+			assertRoundTrip( compressibleData( size, size ) );
+		}
+	}
+
+	@Test
+	public void testRandomData() throws Exception {
+
+		// data that does not compress, so each compressed block is larger than its data
+		for( int size : SIZES ) {
+			byte[] data = new byte[ size ];
+			new Random( size ).nextBytes( data );
+
+			assertRoundTrip( data );
+		}
+	}
+
+	@Test
+	public void testRepeatsAcrossBlocks() throws Exception {
+
+		// the same random block over and over, which only compresses if each block uses the end of the
+		// previous block as its dictionary
+		byte[] repeat = new byte[ 16 * 1024 ];
+		new Random( 19 ).nextBytes( repeat );
+
+		byte[] data = new byte[ 3 * BLOCK_SIZE + 777 ];
+		for( int i = 0; i < data.length; i++ ) {
+			data[ i ] = repeat[ i % repeat.length ];
+		}
+
+		for( int threadCount : THREAD_COUNTS ) {
+
+			byte[] compressed = compress( data, threadCount, 8192 );
+			assertArrayEquals( data, decompress( compressed ) );
+
+			assertTrue( "compressed size " + compressed.length, compressed.length < 2 * repeat.length );
+		}
+	}
+
+	@Test
+	public void testSingleByteWrites() throws Exception {
+
+		byte[] data = compressibleData( BLOCK_SIZE + 100, 7 );
+
+		for( int threadCount : THREAD_COUNTS ) {
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+			try ( ParallelGZIPOutputStream out = new ParallelGZIPOutputStream( bytes, threadCount ) ) {
+				for( byte b : data ) {
+					out.write( b );
+				}
+			}
+
+			assertGzipFile( bytes.toByteArray(), data );
+		}
+	}
+
+	@Test
+	public void testCloseTwice() throws Exception {
+
+		byte[] data = compressibleData( 1000, 3 );
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		ParallelGZIPOutputStream out = new ParallelGZIPOutputStream( bytes, 2 );
+		out.write( data );
+		out.close();
+		out.close();
+
+		assertGzipFile( bytes.toByteArray(), data );
+	}
+
+	/**
+	 * Check that the data is read back the same for each thread count and several sizes of writes, including
+	 * writes that end exactly on a block boundary
+	 *
+	 * @param data
+	 * @throws Exception
+	 */
+	private static void assertRoundTrip( byte[] data ) throws Exception {
+
+		for( int threadCount : THREAD_COUNTS ) {
+			for( int writeSize : new int[] { 1000, BLOCK_SIZE, Integer.MAX_VALUE } ) {
+
+				if( writeSize == 1000 && data.length > 2 * BLOCK_SIZE + 1 )
+					continue;
+
+				assertGzipFile( compress( data, threadCount, writeSize ), data );
+			}
+		}
+	}
+
+	/**
+	 * Check that the file decompresses to the data, and that it is a single gzip member with one deflate stream
+	 * followed by the CRC and length of the data
+	 *
+	 * @param gzip
+	 * @param data
+	 * @throws Exception
+	 */
+	private static void assertGzipFile( byte[] gzip, byte[] data ) throws Exception {
+
+		String message = data.length + " bytes";
+
+		// GZIPInputStream checks the CRC and length in the trailer
+		assertArrayEquals( message, data, decompress( gzip ) );
+
+		assertEquals( message, (byte)0x1f, gzip[ 0 ] );
+		assertEquals( message, (byte)0x8b, gzip[ 1 ] );
+
+		Inflater inflater = new Inflater( true );
+
+		try {
+
+			inflater.setInput( gzip, 10, gzip.length - 10 );
+
+			byte[] inflated = new byte[ data.length + 1 ];
+			int inflatedLength = 0;
+
+			while( !inflater.finished() ) {
+				int count = inflater.inflate( inflated, inflatedLength, inflated.length - inflatedLength );
+				assertFalse( message, count == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) );
+				inflatedLength += count;
+			}
+
+			assertEquals( message, data.length, inflatedLength );
+			assertEquals( message, 8, inflater.getRemaining() );
+
+		} finally {
+			inflater.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update( data );
+
+		assertEquals( message, (int)crc.getValue(), readLittleEndianInt( gzip, gzip.length - 8 ) );
+		assertEquals( message, data.length, readLittleEndianInt( gzip, gzip.length - 4 ) );
+	}
+
+	private static byte[] compress( byte[] data, int threadCount, int writeSize ) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try ( ParallelGZIPOutputStream out = new ParallelGZIPOutputStream( bytes, threadCount ) ) {
+			for( int offset = 0; offset < data.length; offset += writeSize ) {
+				out.write( data, offset, Math.min( writeSize, data.length - offset ) );
+			}
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static byte[] decompress( byte[] gzip ) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 64 * 1024 ];
+
+		try ( InputStream in = new GZIPInputStream( new ByteArrayInputStream( gzip ) ) ) {
+			for( int read = in.read( buffer ); read >= 0; read = in.read( buffer ) ) {
+				bytes.write( buffer, 0, read );
+			}
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Text that looks a little like a ProXL XML file, so that it compresses
+	 *
+	 * @param size
+	 * @param seed
+	 * @return
+	 */
+	private static byte[] compressibleData( int size, long seed ) {
+
+		Random random = new Random( seed );
+		StringBuilder text = new StringBuilder( size + 100 );
+
+		while( text.length() < size ) {
+			text.append( "<psm scan_number=\"" ).append( random.nextInt( 100000 ) ).append( "\" charge=\"" ).append( 1 + random.nextInt( 5 ) ).append( "\">\n" );
+		}
+
+		byte[] data = text.toString().getBytes( StandardCharsets.US_ASCII );
+		byte[] sized = new byte[ size ];
+		System.arraycopy( data, 0, sized, 0, size );
+
+		return sized;
+	}
+
+	private static int readLittleEndianInt( byte[] bytes, int offset ) {
+
+		return ( bytes[ offset ] & 0xff ) | ( ( bytes[ offset + 1 ] & 0xff ) << 8 ) | ( ( bytes[ offset + 2 ] & 0xff ) << 16 ) | ( ( bytes[ offset + 3 ] & 0xff ) << 24 );
+	}
+}
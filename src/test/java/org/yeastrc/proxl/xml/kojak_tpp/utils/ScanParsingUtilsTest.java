@@ -0,0 +1,149 @@
+package org.yeastrc.proxl.xml.kojak_tpp.utils;
+
+import org.junit.Test;
+import org.yeastrc.proxl.xml.kojak_tpp.utils.ScanParsingUtils.ReportedScan;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ScanParsingUtilsTest {
+
+	/**
+	 * The regex that was used to get the scan file name from a reported scan
+	 */
+	private static final Pattern REPORTED_SCAN_PATTERN = Pattern.compile( "^(.+)\\.\\d+\\.\\d+\\.\\d+$" );
+
+	private static final String[] REPORTED_SCANS = {
+			"QEP2_2016_0121_RJ_68_205_comet.00965.00966.3",
+			"a.1.2.3", "a.0.0.0", "a.00001.00002.03",
+
+			// file names with periods
+			"sample.mzML.1.2.3", "sample.1.2.3.4", "..1.2.3", "a..1.2.3", "1.2.3.4", "1.2.3.4.5", "a.b.c.1.2.3",
+
+			// empty parts
+			".1.2.3", "a..2.3", "a.1..3", "a.1.2.", "a...", "...", "....", "a.1.2", "a.1", "a", "", ".",
+
+			// a trailing period
+			"a.1.2.3.", "sample.mzML.1.2.3.",
+
+			// parts that are not numbers
+			"a.x.2.3", "a.1.x.3", "a.1.2.x", "a.1.2.3x", "a.-1.2.3", "a.+1.2.3", "a.1.2. 3", "a.1.2.3 ", " .1.2.3",
+			"a.1.2.\u0663", "a.\u0661.2.3",
+
+			// numbers larger than an int
+			"a.2147483647.2147483647.2147483647", "a.2147483648.1.1", "a.1.99999999999999999999.1",
+			"a.1.1.123456789012345678901234567890",
+
+			// line terminators
+			"a\n.1.2.3", "\n.1.2.3", "a.1.2.3\n", "a.1.2.3\r\n", "a\r.1.2.3", "a\u0085.1.2.3", "a\u2028.1.2.3",
+			"a\u2029.1.2.3", "a.1\n.2.3", "a\tb.1.2.3", "a\u0000.1.2.3"
+	};
+
+	@Test
+	public void testReportedScans() {
+
+		for( String reportedScan : REPORTED_SCANS ) {
+			assertParsesLikeRegex( reportedScan );
+		}
+	}
+
+	@Test
+	public void testRandomReportedScans() {
+
+		Random random = new Random( 23 );
+		String alphabet = "ab..0123456789\n\r\u0085\u2028\u2029\u0661";
+
+		for( int i = 0; i < 200000; i++ ) {
+
+			StringBuilder reportedScan = new StringBuilder();
+			int length = random.nextInt( 14 );
+
+			for( int j = 0; j < length; j++ ) {
+
+				// mostly digits and periods, so that many of the strings are reported scans
+				if( random.nextInt( 4 ) == 0 )
+					reportedScan.append( alphabet.charAt( random.nextInt( alphabet.length() ) ) );
+				else
+					reportedScan.append( random.nextBoolean() ? '.' : (char)( '0' + random.nextInt( 10 ) ) );
+			}
+
+			assertParsesLikeRegex( reportedScan.toString() );
+		}
+	}
+
+	@Test
+	public void testParts() {
+
+		ReportedScan scan = ScanParsingUtils.parseReportedScan( "sample.mzML.00965.00966.3" );
+
+		assertEquals( "sample.mzML", scan.getFilename() );
+		assertEquals( 965, scan.getStartScan() );
+		assertEquals( 966, scan.getEndScan() );
+		assertEquals( 3, scan.getCharge() );
+
+		scan = ScanParsingUtils.parseReportedScan( "a.2147483648.99999999999999999999.2147483647" );
+
+		assertEquals( Integer.MAX_VALUE, scan.getStartScan() );
+		assertEquals( Integer.MAX_VALUE, scan.getEndScan() );
+		assertEquals( Integer.MAX_VALUE, scan.getCharge() );
+	}
+
+	@Test
+	public void testExpectedFilename() {
+
+		String expectedFilename = new String( "sample" );
+
+		assertSame( expectedFilename, ScanParsingUtils.parseReportedScan( "sample.1.2.3", expectedFilename ).getFilename() );
+
+		// a different file name, or one that only starts with the expected file name
+		assertEquals( "other", ScanParsingUtils.parseReportedScan( "other.1.2.3", expectedFilename ).getFilename() );
+		assertEquals( "sample.mzML", ScanParsingUtils.parseReportedScan( "sample.mzML.1.2.3", expectedFilename ).getFilename() );
+		assertEquals( "sampl", ScanParsingUtils.parseReportedScan( "sampl.1.2.3", expectedFilename ).getFilename() );
+
+		assertNull( ScanParsingUtils.parseReportedScan( "sample.1.2.x", expectedFilename ) );
+	}
+
+	/**
+	 * Check that the reported scan is parsed if and only if the regex matches it, and that the file name and numbers
+	 * are those the regex finds. Numbers larger than an int are parsed as Integer.MAX_VALUE.
+	 *
+	 * @param reportedScan
+	 */
+	private static void assertParsesLikeRegex( String reportedScan ) {
+
+		String message = "reported scan \"" + reportedScan + "\"";
+
+		Matcher matcher = REPORTED_SCAN_PATTERN.matcher( reportedScan );
+		ReportedScan scan = ScanParsingUtils.parseReportedScan( reportedScan );
+
+		if( !matcher.matches() ) {
+			assertNull( message, scan );
+			assertNull( message, ScanParsingUtils.parseReportedScan( reportedScan, "a" ) );
+			return;
+		}
+
+		assertNotNull( message, scan );
+		assertEquals( message, matcher.group( 1 ), scan.getFilename() );
+
+		String[] numbers = reportedScan.substring( matcher.end( 1 ) + 1 ).split( "\\." );
+
+		assertEquals( message, 3, numbers.length );
+		assertEquals( message, parseNumber( numbers[ 0 ] ), scan.getStartScan() );
+		assertEquals( message, parseNumber( numbers[ 1 ] ), scan.getEndScan() );
+		assertEquals( message, parseNumber( numbers[ 2 ] ), scan.getCharge() );
+
+		assertEquals( message, matcher.group( 1 ), ScanParsingUtils.parseReportedScan( reportedScan, matcher.group( 1 ) ).getFilename() );
+	}
+
+	private static int parseNumber( String number ) {
+
+		try {
+			return Integer.parseInt( number );
+		} catch( NumberFormatException e ) {
+			return Integer.MAX_VALUE;
+		}
+	}
+}